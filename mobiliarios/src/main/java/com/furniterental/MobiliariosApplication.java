@@ -4,9 +4,11 @@ import com.furniterental.config.MailProperties;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
 @EnableConfigurationProperties(MailProperties.class)
+@EnableScheduling
 public class MobiliariosApplication {
 
     public static void main(String[] args) {
@@ -0,0 +1,36 @@
+package com.furniterental.config;
+
+import com.furniterental.modelo.Producto;
+import com.furniterental.servicio.BusquedaServicio;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.AfterDeleteEvent;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
+import org.springframework.stereotype.Component;
+
+/**
+ * Mantiene actualizado el índice de búsqueda cuando se guarda o elimina un producto
+ */
+@Component
+public class BusquedaIndiceListener extends AbstractMongoEventListener<Producto> {
+    
+    @Autowired
+    private BusquedaServicio busquedaServicio;
+    
+    @Override
+    public void onAfterSave(AfterSaveEvent<Producto> event) {
+        busquedaServicio.indexar(event.getSource());
+    }
+    
+    @Override
+    public void onAfterDelete(AfterDeleteEvent<Producto> event) {
+        Document filtro = event.getSource();
+        Object id = filtro != null ? filtro.get("_id") : null;
+        if (id != null) {
+            busquedaServicio.eliminar(id.toString());
+        } else {
+            busquedaServicio.reconstruirIndice();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.furniterental.config;
+
+import com.furniterental.modelo.Producto;
+import com.furniterental.servicio.CategoriaServicio;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.AfterDeleteEvent;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
+import org.springframework.data.mongodb.core.mapping.event.BeforeConvertEvent;
+import org.springframework.data.mongodb.core.mapping.event.BeforeDeleteEvent;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import java.util.Objects;
+
+/**
+ * Mantiene Categoria.cantidadProductos al crear, recategorizar o eliminar productos.
+ * Antes de cada escritura se lee la categoría que tenía el producto en la base de datos
+ * y, cuando la escritura termina, se aplica la diferencia con un $inc.
+ */
+@Component
+public class CantidadProductosListener extends AbstractMongoEventListener<Producto> {
+    
+    // Estado del producto antes de la escritura en curso (los eventos before/after
+    // de una misma operación se publican en el mismo hilo)
+    private final ThreadLocal<EstadoAnterior> estadoAnterior = new ThreadLocal<>();
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    @Autowired
+    private CategoriaServicio categoriaServicio;
+    
+    @Override
+    public void onBeforeConvert(BeforeConvertEvent<Producto> event) {
+        Producto producto = event.getSource();
+        Document anterior = null;
+        if (producto.getId() != null) {
+            Query query = Query.query(Criteria.where("_id").is(producto.getId()));
+            query.fields().include("categoriaProducto");
+            anterior = mongoTemplate.findOne(query, Document.class, mongoTemplate.getCollectionName(Producto.class));
+        }
+        estadoAnterior.set(EstadoAnterior.desde(anterior));
+    }
+    
+    @Override
+    public void onAfterSave(AfterSaveEvent<Producto> event) {
+        EstadoAnterior anterior = estadoAnterior.get();
+        estadoAnterior.remove();
+        if (anterior == null) {
+            return;
+        }
+        
+        String categoriaNueva = event.getSource().getCategoriaProducto();
+        if (!anterior.existia) {
+            categoriaServicio.ajustarCantidadProductos(categoriaNueva, 1);
+        } else if (!Objects.equals(anterior.categoria, categoriaNueva)) {
+            categoriaServicio.ajustarCantidadProductos(anterior.categoria, -1);
+            categoriaServicio.ajustarCantidadProductos(categoriaNueva, 1);
+        }
+    }
+    
+    @Override
+    public void onBeforeDelete(BeforeDeleteEvent<Producto> event) {
+        Document filtro = event.getSource();
+        Document anterior = null;
+        if (filtro != null && filtro.containsKey("_id")) {
+            anterior = mongoTemplate.getCollection(mongoTemplate.getCollectionName(Producto.class))
+                .find(filtro)
+                .projection(new Document("categoriaProducto", 1))
+                .first();
+        }
+        estadoAnterior.set(filtro != null && filtro.containsKey("_id") ? EstadoAnterior.desde(anterior) : null);
+    }
+    
+    @Override
+    public void onAfterDelete(AfterDeleteEvent<Producto> event) {
+        EstadoAnterior anterior = estadoAnterior.get();
+        estadoAnterior.remove();
+        
+        if (anterior == null) {
+            // Borrado masivo: se recalculan todos los contadores
+            categoriaServicio.recalcularCantidadProductos();
+        } else if (anterior.existia) {
+            categoriaServicio.ajustarCantidadProductos(anterior.categoria, -1);
+        }
+    }
+    
+    private static final class EstadoAnterior {
+        private final boolean existia;
+        private final String categoria;
+        
+        private EstadoAnterior(boolean existia, String categoria) {
+            this.existia = existia;
+            this.categoria = categoria;
+        }
+        
+        private static EstadoAnterior desde(Document documento) {
+            return documento == null
+                ? new EstadoAnterior(false, null)
+                : new EstadoAnterior(true, documento.getString("categoriaProducto"));
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.furniterental.config;
+
+import com.furniterental.modelo.Categoria;
+import com.furniterental.modelo.Producto;
+import com.furniterental.servicio.CatalogoCache;
+import com.furniterental.servicio.ImagenItemsServicio;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.AfterDeleteEvent;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
+import org.springframework.stereotype.Component;
+
+/**
+ * Invalida la caché del catálogo cuando se guarda o elimina un producto o una categoría.
+ * Escucha los eventos de Spring Data, por lo que cubre todas las escrituras hechas con
+ * los repositorios (panel de administración, API REST, reservas y devoluciones de stock).
+ * Las actualizaciones directas con MongoTemplate deben invalidar la caché explícitamente.
+ * También olvida la imagen del producto en la caché de imágenes de las líneas de alquiler.
+ */
+@Component
+public class CatalogoInvalidacionListener extends AbstractMongoEventListener<Object> {
+    
+    @Autowired
+    private CatalogoCache catalogoCache;
+    
+    @Autowired
+    private ImagenItemsServicio imagenItemsServicio;
+    
+    @Override
+    public void onAfterSave(AfterSaveEvent<Object> event) {
+        Object fuente = event.getSource();
+        if (fuente instanceof Producto producto) {
+            catalogoCache.invalidarProducto(producto.getId(), producto.getCategoriaProducto());
+            imagenItemsServicio.invalidar(producto.getId());
+        } else if (fuente instanceof Categoria) {
+            catalogoCache.invalidarCategorias();
+        }
+    }
+    
+    @Override
+    public void onAfterDelete(AfterDeleteEvent<Object> event) {
+        Class<?> tipo = event.getType();
+        if (tipo == null) {
+            return;
+        }
+        
+        if (Producto.class.isAssignableFrom(tipo)) {
+            // El filtro de borrado solo trae el id; sin id (deleteAll) se invalida todo
+            Document filtro = event.getSource();
+            Object id = filtro != null ? filtro.get("_id") : null;
+            if (id != null) {
+                catalogoCache.invalidarProducto(id.toString(), null);
+                imagenItemsServicio.invalidar(id.toString());
+            } else {
+                catalogoCache.invalidarTodo();
+                imagenItemsServicio.invalidarTodo();
+            }
+        } else if (Categoria.class.isAssignableFrom(tipo)) {
+            catalogoCache.invalidarCategorias();
+        }
+    }
+}
@@ -2,6 +2,7 @@ package com.furniterental.config;
 
 import com.furniterental.modelo.Categoria;
 import com.furniterental.repositorio.CategoriaRepositorio;
+import com.furniterental.servicio.CategoriaServicio;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.stereotype.Component;
@@ -16,9 +17,18 @@ public class DataInitializer implements CommandLineRunner {
     @Autowired
     private CategoriaRepositorio categoriaRepositorio;
 
+    @Autowired
+    private CategoriaServicio categoriaServicio;
+
     @Override
     public void run(String... args) throws Exception {
         inicializarCategorias();
+        
+        // Conciliar los contadores de productos por categoría
+        int corregidas = categoriaServicio.recalcularCantidadProductos();
+        if (corregidas > 0) {
+            System.out.println("Contador de productos corregido en " + corregidas + " categorías.");
+        }
     }
 
     private void inicializarCategorias() {
@@ -0,0 +1,54 @@
+package com.furniterental.config;
+
+import com.furniterental.modelo.Alquiler;
+import com.furniterental.modelo.Producto;
+import com.furniterental.servicio.ReservaStockServicio;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.AfterDeleteEvent;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
+import org.springframework.stereotype.Component;
+
+/**
+ * Mantiene el índice de disponibilidad por fechas: el stock de cada producto y las
+ * unidades que ocupa cada alquiler activo. Cancelar, completar o eliminar un alquiler
+ * libera sus unidades.
+ */
+@Component
+public class DisponibilidadListener extends AbstractMongoEventListener<Object> {
+    
+    @Autowired
+    private ReservaStockServicio reservaStockServicio;
+    
+    @Override
+    public void onAfterSave(AfterSaveEvent<Object> event) {
+        Object fuente = event.getSource();
+        if (fuente instanceof Alquiler alquiler) {
+            reservaStockServicio.sincronizar(alquiler);
+        } else if (fuente instanceof Producto producto) {
+            reservaStockServicio.actualizarProducto(producto);
+        }
+    }
+    
+    @Override
+    public void onAfterDelete(AfterDeleteEvent<Object> event) {
+        Class<?> tipo = event.getType();
+        Document filtro = event.getSource();
+        Object id = filtro != null ? filtro.get("_id") : null;
+        if (tipo == null) {
+            return;
+        }
+        
+        if (id == null) {
+            // Borrado masivo: se reconstruye el índice
+            if (Alquiler.class.isAssignableFrom(tipo) || Producto.class.isAssignableFrom(tipo)) {
+                reservaStockServicio.reconstruirIndice();
+            }
+        } else if (Alquiler.class.isAssignableFrom(tipo)) {
+            reservaStockServicio.liberar(id.toString());
+        } else if (Producto.class.isAssignableFrom(tipo)) {
+            reservaStockServicio.eliminarProducto(id.toString());
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.furniterental.config;
+
+import com.furniterental.servicio.ImagenItemsServicio;
+import com.furniterental.servicio.ImagenServicio;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Migra al iniciar las imágenes de productos guardadas como Base64 dentro de
+ * los documentos hacia el almacén de imágenes y quita las copias en Base64 de las
+ * líneas de los alquileres y de los favoritos. Si no queda ninguna, no hace nada.
+ */
+@Component
+public class ImagenesInitializer implements CommandLineRunner {
+
+    @Autowired
+    private ImagenServicio imagenServicio;
+
+    @Autowired
+    private ImagenItemsServicio imagenItemsServicio;
+
+    @Override
+    public void run(String... args) throws Exception {
+        Map<String, Object> resultado = imagenServicio.migrarImagenesBase64();
+        
+        int migrados = (int) resultado.get("migrados");
+        int fallidos = (int) resultado.get("fallidos");
+        
+        if (migrados > 0 || fallidos > 0) {
+            System.out.println("Migración de imágenes completada. Migradas: " + migrados + ", Fallidas: " + fallidos);
+        }
+        
+        long compactados = imagenItemsServicio.compactarAlquileres();
+        if (compactados > 0) {
+            System.out.println("Imágenes Base64 quitadas de " + compactados + " alquiler(es)");
+        }
+
+        long favoritosCompactados = imagenItemsServicio.compactarFavoritos();
+        if (favoritosCompactados > 0) {
+            System.out.println("Imágenes Base64 quitadas de " + favoritosCompactados + " favorito(s)");
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.furniterental.config;
+
+import com.furniterental.modelo.Alquiler;
+import com.furniterental.servicio.ResumenNotificacionesServicio;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.AfterDeleteEvent;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
+import org.springframework.data.mongodb.core.mapping.event.BeforeConvertEvent;
+import org.springframework.data.mongodb.core.mapping.event.BeforeDeleteEvent;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+/**
+ * Mantiene ResumenNotificaciones.pagosPendientes al guardar o eliminar alquileres.
+ * Antes de cada escritura se lee el estado y los estados de pago que tenía el alquiler en la
+ * base de datos y, cuando la escritura termina, se aplica la diferencia con un $inc.
+ */
+@Component
+public class PagosPendientesListener extends AbstractMongoEventListener<Alquiler> {
+
+    private static final String[] CAMPOS = {"usuarioId", "estado", "estadoPagoParcial", "estadoPagoFinal", "pagoContraEntrega"};
+
+    // Estado del alquiler antes de la escritura en curso (los eventos before/after
+    // de una misma operación se publican en el mismo hilo)
+    private final ThreadLocal<EstadoAnterior> estadoAnterior = new ThreadLocal<>();
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private ResumenNotificacionesServicio resumenNotificacionesServicio;
+
+    @Override
+    public void onBeforeConvert(BeforeConvertEvent<Alquiler> event) {
+        Alquiler alquiler = event.getSource();
+        Alquiler anterior = null;
+        if (alquiler.getId() != null) {
+            Query query = Query.query(Criteria.where("_id").is(alquiler.getId()));
+            query.fields().include(CAMPOS);
+            anterior = mongoTemplate.findOne(query, Alquiler.class);
+        }
+        estadoAnterior.set(new EstadoAnterior(anterior));
+    }
+
+    @Override
+    public void onAfterSave(AfterSaveEvent<Alquiler> event) {
+        EstadoAnterior anterior = estadoAnterior.get();
+        estadoAnterior.remove();
+        if (anterior == null) {
+            return;
+        }
+
+        Alquiler alquiler = event.getSource();
+        boolean pendiente = alquiler.tienePagoPendiente();
+        if (anterior.usuarioId != null && !anterior.usuarioId.equals(alquiler.getUsuarioId())) {
+            resumenNotificacionesServicio.ajustarPagosPendientes(anterior.usuarioId, anterior.pendiente ? -1 : 0);
+            resumenNotificacionesServicio.ajustarPagosPendientes(alquiler.getUsuarioId(), pendiente ? 1 : 0);
+        } else if (pendiente != anterior.pendiente) {
+            resumenNotificacionesServicio.ajustarPagosPendientes(alquiler.getUsuarioId(), pendiente ? 1 : -1);
+        }
+    }
+
+    @Override
+    public void onBeforeDelete(BeforeDeleteEvent<Alquiler> event) {
+        Document filtro = event.getSource();
+        if (filtro == null || !filtro.containsKey("_id")) {
+            estadoAnterior.set(null);
+            return;
+        }
+        Query query = new Query();
+        filtro.forEach((campo, valor) -> query.addCriteria(Criteria.where(campo).is(valor)));
+        query.fields().include(CAMPOS);
+        estadoAnterior.set(new EstadoAnterior(mongoTemplate.findOne(query, Alquiler.class)));
+    }
+
+    @Override
+    public void onAfterDelete(AfterDeleteEvent<Alquiler> event) {
+        EstadoAnterior anterior = estadoAnterior.get();
+        estadoAnterior.remove();
+
+        if (anterior == null) {
+            // Borrado masivo: los contadores se recalculan al leerlos
+            resumenNotificacionesServicio.invalidarTodo();
+        } else if (anterior.pendiente) {
+            resumenNotificacionesServicio.ajustarPagosPendientes(anterior.usuarioId, -1);
+        }
+    }
+
+    private static final class EstadoAnterior {
+        private final String usuarioId;
+        private final boolean pendiente;
+
+        private EstadoAnterior(Alquiler alquiler) {
+            this.usuarioId = alquiler != null ? alquiler.getUsuarioId() : null;
+            this.pendiente = alquiler != null && alquiler.tienePagoPendiente();
+        }
+    }
+}
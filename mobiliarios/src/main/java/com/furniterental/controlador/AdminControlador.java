@@ -1,23 +1,43 @@
 package com.furniterental.controlador;
 
+import com.furniterental.dto.EventoNotificacion;
 import com.furniterental.modelo.Usuario;
 import com.furniterental.modelo.Producto;
 import com.furniterental.modelo.Alquiler;
 import com.furniterental.modelo.ItemCarrito;
 import com.furniterental.modelo.Categoria;
-import com.furniterental.modelo.Resena;
+import com.furniterental.modelo.ResumenCalificacion;
 import com.furniterental.modelo.ActivityLog;
 import com.furniterental.repositorio.UsuarioRepositorio;
 import com.furniterental.repositorio.ProductoRepositorio;
 import com.furniterental.repositorio.AlquilerRepositorio;
-import com.furniterental.repositorio.ResenaRepositorio;
 import com.furniterental.repositorio.ActivityLogRepositorio;
+import com.furniterental.repositorio.TareaFallidaRepositorio;
 import com.furniterental.servicio.CategoriaServicio;
 import com.furniterental.servicio.ActivityLogServicio;
 import com.furniterental.servicio.EmailServicio;
 import com.furniterental.servicio.AlquilerEstadoValidacionServicio;
+import com.furniterental.servicio.EstadoAlquilerServicio;
+import com.furniterental.servicio.EstadoAlquilerServicio.ResultadoCambio;
 import com.furniterental.servicio.CsrfTokenServicio;
+import com.furniterental.servicio.ImagenServicio;
+import com.furniterental.servicio.ProductoService;
+import com.furniterental.servicio.CatalogoCache;
+import com.furniterental.servicio.ReservaStockServicio;
+import com.furniterental.servicio.ReservaStockServicio.ResultadoDevolucion;
+import com.furniterental.servicio.TareasPosterioresServicio;
+import com.furniterental.servicio.TransicionesProgramadasServicio;
+import com.furniterental.servicio.PedidosAdminServicio;
+import com.furniterental.servicio.PedidosAdminServicio.FiltroPedidos;
+import com.furniterental.servicio.RelayCorreosServicio;
+import com.furniterental.servicio.CentroNotificacionesServicio;
+import com.furniterental.servicio.ResumenCalificacionServicio;
+import com.furniterental.servicio.ResumenNotificacionesServicio;
+import com.furniterental.servicio.LibroPagosServicio;
+import com.furniterental.servicio.ProcesadorPagosServicio;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.lang.NonNull;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
@@ -45,6 +65,9 @@ public class AdminControlador {
     @Autowired
     private ProductoRepositorio productoRepositorio;
     
+    @Autowired
+    private ProductoService productoService;
+    
     @Autowired
     private AlquilerRepositorio alquilerRepositorio;
     
@@ -64,10 +87,52 @@ public class AdminControlador {
     private CsrfTokenServicio csrfTokenServicio;
     
     @Autowired
-    private ResenaRepositorio resenaRepositorio;
+    private ActivityLogRepositorio activityLogRepositorio;
+    
+    @Autowired
+    private ImagenServicio imagenServicio;
     
     @Autowired
-    private ActivityLogRepositorio activityLogRepositorio;
+    private CatalogoCache catalogoCache;
+    
+    @Autowired
+    private ReservaStockServicio reservaStockServicio;
+    
+    @Autowired
+    private EstadoAlquilerServicio estadoAlquilerServicio;
+    
+    @Autowired
+    private TareasPosterioresServicio tareasPosterioresServicio;
+    
+    @Autowired
+    private TransicionesProgramadasServicio transicionesProgramadasServicio;
+    
+    @Autowired
+    private PedidosAdminServicio pedidosAdminServicio;
+    
+    @Autowired
+    private TareaFallidaRepositorio tareaFallidaRepositorio;
+    
+    @Autowired
+    private RelayCorreosServicio relayCorreosServicio;
+    
+    @Autowired
+    private CentroNotificacionesServicio centroNotificacionesServicio;
+    
+    @Autowired
+    private ResumenNotificacionesServicio resumenNotificacionesServicio;
+    
+    @Autowired
+    private ProcesadorPagosServicio procesadorPagosServicio;
+    
+    @Autowired
+    private LibroPagosServicio libroPagosServicio;
+    
+    @Autowired
+    private ResumenCalificacionServicio resumenCalificacionServicio;
+    
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
 
     // Verificar si el usuario es administrador
     private boolean esAdmin(HttpSession session) {
@@ -372,7 +437,7 @@ public class AdminControlador {
                 Producto producto = productoOpt.get();
                 String estadoAnterior = producto.getEstado() != null ? producto.getEstado() : "SIN ESTADO";
                 producto.setEstado(nuevoEstado);
-                productoRepositorio.save(producto);
+                productoService.saveProducto(producto);
                 
                 // Registrar log de cambio de estado
                 activityLogServicio.logUpdate(
@@ -512,13 +577,14 @@ public class AdminControlador {
             producto.setCategoriaProducto(categoriaProducto);
             
             // Solo actualizar la imagen si se proporciona una nueva
+            // (el Base64 del formulario se guarda en el almacén y el producto conserva solo la referencia)
             if (imagenProducto != null && !imagenProducto.trim().isEmpty()) {
-                producto.setImagenProducto(imagenProducto);
+                producto.setImagenProducto(imagenServicio.normalizarReferencia(imagenProducto));
             }
             
             producto.setStock(stock);
 
-            productoRepositorio.save(producto);
+            productoService.saveProducto(producto);
             
             // Registrar log
             if ("CREATE".equals(accionLog)) {
@@ -546,26 +612,26 @@ public class AdminControlador {
         return "redirect:/admin/productos";
     }
     
-    // Ver pedidos por usuario (Admin)
+    // Ver pedidos por usuario (Admin), agrupados y paginados en la base de datos
     @GetMapping("/pedidos")
-    public String verPedidosAdmin(HttpSession session, Model model, RedirectAttributes redirectAttributes) {
+    public String verPedidosAdmin(
+            @RequestParam(defaultValue = "1") int pagina,
+            @RequestParam(required = false) String estado,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate desde,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate hasta,
+            @RequestParam(required = false) String transporte,
+            @RequestParam(required = false) String q,
+            @RequestParam(required = false) String usuarioId,
+            @RequestParam(required = false) String orden,
+            HttpSession session, Model model, RedirectAttributes redirectAttributes) {
         if (!esAdmin(session)) {
             redirectAttributes.addFlashAttribute("error", "No tienes permisos de administrador");
             return "redirect:/login";
         }
 
-        // Obtener todos los alquileres agrupados por usuario
-        List<Alquiler> todosAlquileres = alquilerRepositorio.findAllByOrderByFechaAlquilerDesc();
-        
-        // Crear un mapa de usuarios con sus alquileres
-        java.util.Map<String, java.util.List<Alquiler>> alquileresPorUsuario = new java.util.LinkedHashMap<>();
-        
-        for (Alquiler alquiler : todosAlquileres) {
-            String usuarioKey = alquiler.getUsuarioId() + "|" + alquiler.getUsuarioNombre() + "|" + alquiler.getUsuarioCorreo();
-            alquileresPorUsuario.computeIfAbsent(usuarioKey, k -> new java.util.ArrayList<>()).add(alquiler);
-        }
-        
-        model.addAttribute("alquileresPorUsuario", alquileresPorUsuario);
+        FiltroPedidos filtro = new FiltroPedidos(estado, desde, hasta, transporte, q, usuarioId, orden);
+        model.addAttribute("paginaPedidos", pedidosAdminServicio.buscar(filtro, pagina));
+        model.addAttribute("filtro", filtro);
         
         // Agregar token CSRF para protección
         String csrfToken = csrfTokenServicio.obtenerToken(session);
@@ -574,6 +640,55 @@ public class AdminControlador {
         return "admin/pedidos";
     }
     
+    // Misma consulta de pedidos en JSON
+    @GetMapping("/api/pedidos")
+    @ResponseBody
+    public Map<String, Object> obtenerPedidosAdmin(
+            @RequestParam(defaultValue = "1") int pagina,
+            @RequestParam(required = false) String estado,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate desde,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate hasta,
+            @RequestParam(required = false) String transporte,
+            @RequestParam(required = false) String q,
+            @RequestParam(required = false) String usuarioId,
+            @RequestParam(required = false) String orden,
+            HttpSession session) {
+        Map<String, Object> response = new HashMap<>();
+        
+        if (!esAdmin(session)) {
+            response.put("success", false);
+            response.put("message", "No tienes permisos de administrador");
+            return response;
+        }
+        
+        try {
+            FiltroPedidos filtro = new FiltroPedidos(estado, desde, hasta, transporte, q, usuarioId, orden);
+            response.put("success", true);
+            response.put("pagina", pedidosAdminServicio.buscar(filtro, pagina));
+        } catch (Exception e) {
+            response.put("success", false);
+            response.put("message", "Error al consultar los pedidos: " + e.getMessage());
+        }
+        return response;
+    }
+    
+    // Items de un pedido (se cargan al desplegarlo)
+    @GetMapping("/api/pedidos/items")
+    @ResponseBody
+    public Map<String, Object> obtenerItemsPedido(@RequestParam String alquilerId, HttpSession session) {
+        Map<String, Object> response = new HashMap<>();
+        
+        if (!esAdmin(session)) {
+            response.put("success", false);
+            response.put("message", "No tienes permisos de administrador");
+            return response;
+        }
+        
+        response.put("success", true);
+        response.put("items", pedidosAdminServicio.obtenerItems(alquilerId));
+        return response;
+    }
+    
     // Cambiar estado de alquiler
     @PostMapping("/alquiler/cambiar-estado")
     @ResponseBody
@@ -621,40 +736,39 @@ public class AdminControlador {
                     return response;
                 }
                 
-                // Si se cambia a CANCELADO, devolver stock
-                if ("CANCELADO".equals(nuevoEstado) && !"CANCELADO".equals(estadoAnterior)) {
-                    for (ItemCarrito item : alquiler.getItems()) {
-                        String productoId = item.getProductoId();
-                        if (productoId != null) {
-                            Optional<Producto> productoOpt = productoRepositorio.findById(productoId);
-                            if (productoOpt.isPresent()) {
-                                Producto producto = productoOpt.get();
-                                producto.setStock(producto.getStock() + item.getCantidad());
-                                productoRepositorio.save(producto);
-                                System.out.println(">>> Stock devuelto para " + producto.getNombreProducto() + 
-                                                 ": +" + item.getCantidad() + " (nuevo stock: " + producto.getStock() + ")");
-                            }
-                        }
-                    }
-                }
+                String adminId = (String) session.getAttribute("usuarioId");
+                String adminNombre = (String) session.getAttribute("usuarioNombre");
+                String adminCorreo = (String) session.getAttribute("usuarioCorreo");
                 
-                alquiler.setEstado(nuevoEstado);
+                if (nuevoEstado.equals(estadoAnterior)) {
+                    response.put("success", true);
+                    response.put("message", "El alquiler ya está en ese estado");
+                    response.put("nuevoEstado", nuevoEstado);
+                    return response;
+                }
                 
-                // Si el estado cambia a CONFIRMADO, calcular montos de pago (50% y 50%)
+                // Cambiar el estado solo si sigue siendo el leído, dejando constancia en el historial.
+                // Al confirmar se calculan los montos de pago (50% y 50%); al cancelar o completar
+                // se devuelven sus unidades al inventario (una sola vez por alquiler)
+                ResultadoCambio cambio = estadoAlquilerServicio.cambiarEstado(
+                    alquilerId, estadoAnterior, nuevoEstado, adminId, adminNombre, "ADMIN", null);
+                if (!cambio.isAplicado()) {
+                    response.put("success", false);
+                    response.put("message", "El estado del alquiler cambió mientras tanto. Recarga la página e inténtalo de nuevo.");
+                    return response;
+                }
+                alquiler = cambio.getAlquiler();
                 if ("CONFIRMADO".equals(nuevoEstado)) {
-                    alquiler.calcularMontosPago();
                     System.out.println(">>> Montos de pago calculados para alquiler " + alquilerId + 
                                      ": Parcial=$" + alquiler.getMontoPagoParcial() + 
                                      ", Final=$" + alquiler.getMontoSaldoPendiente());
                 }
-                
-                alquilerRepositorio.save(alquiler);
+                if (cambio.getDevolucion() != null) {
+                    response.put("inventarioDevuelto", cambio.getDevolucion().isDevuelto());
+                    response.put("itemsDevueltos", cambio.getDevolucion().getItems());
+                }
                 
                 // Registrar log de cambio de estado
-                String adminId = (String) session.getAttribute("usuarioId");
-                String adminNombre = (String) session.getAttribute("usuarioNombre");
-                String adminCorreo = (String) session.getAttribute("usuarioCorreo");
-                
                 if (adminId != null && adminNombre != null && adminCorreo != null) {
                     activityLogServicio.logStatusChange(
                         adminId,
@@ -668,22 +782,23 @@ public class AdminControlador {
                     );
                 }
                 
-                // Enviar notificación por correo al usuario
-                try {
-                    String detallesAlquiler = construirDetallesAlquiler(alquiler);
-                    emailServicio.enviarNotificacionCambioEstado(
-                        alquiler.getUsuarioCorreo(),
-                        alquiler.getUsuarioNombre(),
-                        alquilerId,
-                        estadoAnterior,
-                        nuevoEstado,
-                        detallesAlquiler
-                    );
-                    System.out.println("Notificación enviada a: " + alquiler.getUsuarioCorreo());
-                } catch (Exception e) {
-                    System.err.println("Error al enviar notificación por correo: " + e.getMessage());
-                    // No fallar la operación si el correo falla
-                }
+                // Registrar la notificación al usuario en el outbox de correos (la envía el relay)
+                String detallesAlquiler = construirDetallesAlquiler(alquiler);
+                emailServicio.encolarNotificacionCambioEstado(
+                    alquiler.getUsuarioCorreo(),
+                    alquiler.getUsuarioNombre(),
+                    alquilerId,
+                    estadoAnterior,
+                    nuevoEstado,
+                    detallesAlquiler
+                );
+                
+                // Actualizar en vivo las páginas abiertas del usuario (estado y pagos pendientes)
+                Map<String, Object> datosEvento = new HashMap<>();
+                datosEvento.put("alquilerId", alquilerId);
+                datosEvento.put("estado", nuevoEstado);
+                eventPublisher.publishEvent(EventoNotificacion.paraUsuario(alquiler.getUsuarioId(), EventoNotificacion.ALQUILER, datosEvento));
+                eventPublisher.publishEvent(EventoNotificacion.paraUsuario(alquiler.getUsuarioId(), EventoNotificacion.PAGOS, datosEvento));
                 
                 response.put("success", true);
                 response.put("message", "Estado actualizado correctamente");
@@ -700,6 +815,81 @@ public class AdminControlador {
         return response;
     }
     
+    // Métricas de la caché del catálogo
+    @GetMapping("/api/cache/catalogo")
+    @ResponseBody
+    public Map<String, Object> obtenerEstadisticasCacheCatalogo(HttpSession session) {
+        Map<String, Object> response = new HashMap<>();
+        
+        if (!esAdmin(session)) {
+            response.put("success", false);
+            response.put("message", "No tienes permisos de administrador");
+            return response;
+        }
+        
+        response.put("success", true);
+        response.put("estadisticas", catalogoCache.obtenerEstadisticas());
+        return response;
+    }
+    
+    // Estado de la cola de tareas posteriores y últimas tareas que agotaron sus reintentos
+    @GetMapping("/api/tareas")
+    @ResponseBody
+    public Map<String, Object> obtenerEstadoTareas(HttpSession session) {
+        Map<String, Object> response = new HashMap<>();
+        
+        if (!esAdmin(session)) {
+            response.put("success", false);
+            response.put("message", "No tienes permisos de administrador");
+            return response;
+        }
+        
+        response.put("success", true);
+        response.put("estadisticas", tareasPosterioresServicio.obtenerEstadisticas());
+        response.put("fallidas", tareaFallidaRepositorio.findTop50ByOrderByFechaFalloDesc());
+        response.put("transicionesProgramadas", transicionesProgramadasServicio.obtenerEstadisticas());
+        response.put("notificaciones", centroNotificacionesServicio.obtenerEstadisticas());
+        response.put("reconciliacionNotificaciones", resumenNotificacionesServicio.obtenerEstadisticas());
+        response.put("pagos", procesadorPagosServicio.obtenerEstadisticas());
+        response.put("libroPagos", libroPagosServicio.obtenerEstadisticas());
+        response.put("resumenCalificaciones", resumenCalificacionServicio.obtenerEstadisticas());
+        return response;
+    }
+    
+    // Conciliación del libro de pagos al momento (solo reporta; los saldos se corrigen en la conciliación programada)
+    @GetMapping("/api/pagos/conciliacion")
+    @ResponseBody
+    public Map<String, Object> obtenerConciliacionPagos(HttpSession session) {
+        Map<String, Object> response = new HashMap<>();
+        
+        if (!esAdmin(session)) {
+            response.put("success", false);
+            response.put("message", "No tienes permisos de administrador");
+            return response;
+        }
+        
+        response.put("success", true);
+        response.put("reporte", libroPagosServicio.generarReporte(false));
+        return response;
+    }
+    
+    // Estado del outbox de correos
+    @GetMapping("/api/outbox")
+    @ResponseBody
+    public Map<String, Object> obtenerEstadoOutbox(HttpSession session) {
+        Map<String, Object> response = new HashMap<>();
+        
+        if (!esAdmin(session)) {
+            response.put("success", false);
+            response.put("message", "No tienes permisos de administrador");
+            return response;
+        }
+        
+        response.put("success", true);
+        response.put("estadisticas", relayCorreosServicio.obtenerEstadisticas());
+        return response;
+    }
+    
     // Obtener estados permitidos para un alquiler
     @GetMapping("/alquiler/estados-permitidos")
     @ResponseBody
@@ -734,6 +924,34 @@ public class AdminControlador {
         return response;
     }
     
+    // Historial de estados de un alquiler (quién, cuándo, de qué estado a cuál)
+    @GetMapping("/alquiler/historial-estados")
+    @ResponseBody
+    public java.util.Map<String, Object> obtenerHistorialEstados(
+            @RequestParam String alquilerId,
+            HttpSession session) {
+        
+        java.util.Map<String, Object> response = new java.util.HashMap<>();
+        
+        if (!esAdmin(session)) {
+            response.put("success", false);
+            response.put("message", "No tienes permisos de administrador");
+            return response;
+        }
+        
+        java.util.Optional<Alquiler> alquilerOpt = alquilerRepositorio.findById(alquilerId);
+        if (alquilerOpt.isEmpty()) {
+            response.put("success", false);
+            response.put("message", "Alquiler no encontrado");
+            return response;
+        }
+        
+        response.put("success", true);
+        response.put("estadoActual", alquilerOpt.get().getEstado());
+        response.put("historial", alquilerOpt.get().getHistorialEstados());
+        return response;
+    }
+    
     // Eliminar alquiler
     @PostMapping("/alquiler/eliminar-pedido")
     @ResponseBody
@@ -762,22 +980,8 @@ public class AdminControlador {
             if (alquilerOpt.isPresent()) {
                 Alquiler alquiler = alquilerOpt.get();
                 
-                // Devolver stock antes de eliminar
-                if (!"CANCELADO".equals(alquiler.getEstado())) {
-                    for (ItemCarrito item : alquiler.getItems()) {
-                        String productoId = item.getProductoId();
-                        if (productoId != null) {
-                            Optional<Producto> productoOpt = productoRepositorio.findById(productoId);
-                            if (productoOpt.isPresent()) {
-                                Producto producto = productoOpt.get();
-                                producto.setStock(producto.getStock() + item.getCantidad());
-                                productoRepositorio.save(producto);
-                                System.out.println(">>> Stock devuelto al eliminar alquiler para " + producto.getNombreProducto() + 
-                                                 ": +" + item.getCantidad() + " (nuevo stock: " + producto.getStock() + ")");
-                            }
-                        }
-                    }
-                }
+                // Devolver sus unidades al inventario antes de borrarlo (no hace nada si ya se devolvieron)
+                ResultadoDevolucion devolucion = reservaStockServicio.devolverInventario(alquilerId);
                 
                 // Registrar log de eliminación antes de borrar
                 String usuarioId = (String) session.getAttribute("usuarioId");
@@ -797,8 +1001,16 @@ public class AdminControlador {
                 // Eliminar el alquiler
                 alquilerRepositorio.deleteById(alquilerId);
                 
+                Map<String, Object> datosEvento = new HashMap<>();
+                datosEvento.put("alquilerId", alquilerId);
+                datosEvento.put("eliminado", true);
+                eventPublisher.publishEvent(EventoNotificacion.paraUsuario(alquiler.getUsuarioId(), EventoNotificacion.ALQUILER, datosEvento));
+                eventPublisher.publishEvent(EventoNotificacion.paraUsuario(alquiler.getUsuarioId(), EventoNotificacion.PAGOS, datosEvento));
+                
                 response.put("success", true);
                 response.put("message", "Alquiler eliminado correctamente");
+                response.put("inventarioDevuelto", devolucion.isDevuelto());
+                response.put("itemsDevueltos", devolucion.getItems());
             } else {
                 response.put("success", false);
                 response.put("message", "Alquiler no encontrado");
@@ -1275,21 +1487,9 @@ public class AdminControlador {
             ingresosPorMes.add(mesData);
         }
         
-        // Nivel de satisfacción (calculado desde reseñas aprobadas)
-        List<Resena> resenasAprobadas = resenaRepositorio.findByEstado("APROBADA");
-        double nivelSatisfaccion = 0.0;
-        
-        if (!resenasAprobadas.isEmpty()) {
-            double sumaCalificaciones = resenasAprobadas.stream()
-                .mapToInt(Resena::getCalificacion)
-                .sum();
-            nivelSatisfaccion = sumaCalificaciones / resenasAprobadas.size();
-            // Redondear a 1 decimal
-            nivelSatisfaccion = Math.round(nivelSatisfaccion * 10.0) / 10.0;
-        } else {
-            // Si no hay reseñas, mostrar 0.0
-            nivelSatisfaccion = 0.0;
-        }
+        // Nivel de satisfacción (suma de los resúmenes de calificación de los productos)
+        ResumenCalificacion calificaciones = resumenCalificacionServicio.obtenerGeneral();
+        double nivelSatisfaccion = calificaciones.getPromedio();
         
         // Agregar datos al modelo
         model.addAttribute("totalAlquileres", totalAlquileres);
@@ -1300,7 +1500,7 @@ public class AdminControlador {
         model.addAttribute("topProductos", topProductosConNombres);
         model.addAttribute("ingresosPorMes", ingresosPorMes);
         model.addAttribute("nivelSatisfaccion", nivelSatisfaccion);
-        model.addAttribute("totalResenas", resenasAprobadas.size());
+        model.addAttribute("totalResenas", calificaciones.getTotalResenas());
         
         return "admin/reportes-analytics";
     }
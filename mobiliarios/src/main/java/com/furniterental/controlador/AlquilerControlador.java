@@ -1,13 +1,21 @@
 package com.furniterental.controlador;
 
+import com.furniterental.dto.EventoNotificacion;
 import com.furniterental.modelo.Alquiler;
 import com.furniterental.modelo.ItemCarrito;
-import com.furniterental.modelo.Producto;
+import org.bson.types.ObjectId;
 import com.furniterental.repositorio.AlquilerRepositorio;
-import com.furniterental.repositorio.ProductoRepositorio;
 import com.furniterental.servicio.ActivityLogServicio;
 import com.furniterental.servicio.EmailServicio;
+import com.furniterental.servicio.EstadoAlquilerServicio;
+import com.furniterental.servicio.EstadoAlquilerServicio.ResultadoCambio;
+import com.furniterental.servicio.IdempotenciaServicio;
+import com.furniterental.servicio.ImagenItemsServicio;
+import com.furniterental.servicio.ReservaStockServicio;
+import com.furniterental.servicio.ReservaStockServicio.ResultadoReserva;
+import com.furniterental.servicio.TareasPosterioresServicio;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.lang.NonNull;
 import org.springframework.stereotype.Controller;
@@ -19,7 +27,10 @@ import jakarta.servlet.http.HttpSession;
 import jakarta.servlet.http.HttpServletRequest;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 @Controller
@@ -29,14 +40,29 @@ public class AlquilerControlador {
     @Autowired
     private AlquilerRepositorio alquilerRepositorio;
     
-    @Autowired
-    private ProductoRepositorio productoRepositorio;
-    
     @Autowired
     private ActivityLogServicio activityLogServicio;
     
     @Autowired
     private EmailServicio emailServicio;
+    
+    @Autowired
+    private ReservaStockServicio reservaStockServicio;
+    
+    @Autowired
+    private EstadoAlquilerServicio estadoAlquilerServicio;
+    
+    @Autowired
+    private TareasPosterioresServicio tareasPosterioresServicio;
+    
+    @Autowired
+    private IdempotenciaServicio idempotenciaServicio;
+    
+    @Autowired
+    private ImagenItemsServicio imagenItemsServicio;
+    
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
 
     // Procesar alquiler (checkout)
     @PostMapping("/procesar")
@@ -47,6 +73,42 @@ public class AlquilerControlador {
             @RequestParam(required = false) String notasAdicionales,
             @RequestParam(required = false) String requiereTransporte,
             @RequestParam(required = false) String pagoContraEntrega,
+            @RequestHeader(value = IdempotenciaServicio.CABECERA, required = false) String claveIdempotencia,
+            HttpSession session,
+            HttpServletRequest request,
+            RedirectAttributes redirectAttributes) {
+        
+        // Un reintento con la misma clave recibe la redirección y los mensajes del primer intento
+        String usuarioId = (String) session.getAttribute("usuarioId");
+        Map<String, Object> resultado = idempotenciaServicio.ejecutar("checkout", usuarioId, claveIdempotencia, () -> {
+            String vista = ejecutarAlquiler(direccionEntrega, fechaInicio, fechaFin, notasAdicionales,
+                requiereTransporte, pagoContraEntrega, session, request, redirectAttributes);
+            Map<String, Object> respuesta = new HashMap<>(redirectAttributes.getFlashAttributes());
+            respuesta.put("vista", vista);
+            respuesta.put("success", !respuesta.containsKey("error"));
+            return respuesta;
+        });
+        
+        String vista = (String) resultado.get("vista");
+        if (vista == null) {
+            redirectAttributes.addFlashAttribute("error", resultado.get("message"));
+            return "redirect:/carrito";
+        }
+        resultado.forEach((nombre, valor) -> {
+            if (!"vista".equals(nombre) && !"success".equals(nombre)) {
+                redirectAttributes.addFlashAttribute(nombre, valor);
+            }
+        });
+        return vista;
+    }
+    
+    private String ejecutarAlquiler(
+            String direccionEntrega,
+            LocalDateTime fechaInicio,
+            LocalDateTime fechaFin,
+            String notasAdicionales,
+            String requiereTransporte,
+            String pagoContraEntrega,
             HttpSession session,
             HttpServletRequest request,
             RedirectAttributes redirectAttributes) {
@@ -98,43 +160,42 @@ public class AlquilerControlador {
                 item.setDiasAlquiler((int) diasAlquiler);
             }
             
-            // Validar y descontar stock de cada producto
+            // Validar los items del carrito
             for (ItemCarrito item : carrito) {
-                String productoId = item.getProductoId();
-                if (productoId == null) {
+                if (item.getProductoId() == null) {
                     redirectAttributes.addFlashAttribute("error", "ID de producto inválido en el carrito");
                     return "redirect:/carrito";
                 }
+            }
+            
+            // Reservar las unidades para las fechas elegidas (todo o nada). El id del alquiler
+            // se asigna antes de guardarlo porque identifica la reserva
+            String alquilerId = new ObjectId().toHexString();
+            ResultadoReserva reserva = reservaStockServicio.reservar(
+                alquilerId, carrito, fechaInicio.toLocalDate(), fechaFin.toLocalDate());
+            if (!reserva.isExitosa()) {
+                String nombreProducto = carrito.stream()
+                    .filter(item -> item.getProductoId().equals(reserva.getProductoId()))
+                    .map(ItemCarrito::getNombreProducto)
+                    .findFirst()
+                    .orElse(reserva.getProductoId());
                 
-                Optional<Producto> productoOpt = productoRepositorio.findById(productoId);
-                
-                if (!productoOpt.isPresent()) {
-                    redirectAttributes.addFlashAttribute("error", "Producto no encontrado: " + item.getNombreProducto());
-                    return "redirect:/carrito";
-                }
-                
-                Producto producto = productoOpt.get();
-                Integer stockActual = producto.getStock();
-                
-                // Validar stock disponible
-                if (stockActual == null || stockActual < item.getCantidad()) {
+                if (!reserva.isProductoExiste()) {
+                    redirectAttributes.addFlashAttribute("error", "Producto no encontrado: " + nombreProducto);
+                } else {
                     redirectAttributes.addFlashAttribute("error", 
-                        "Stock insuficiente para " + item.getNombreProducto() + 
-                        ". Disponible: " + (stockActual != null ? stockActual : 0) + 
-                        ", Solicitado: " + item.getCantidad());
-                    return "redirect:/carrito";
+                        "Stock insuficiente para " + nombreProducto + " en las fechas elegidas" +
+                        ". Disponible: " + reserva.getDisponible() + 
+                        ", Solicitado: " + reserva.getSolicitado());
                 }
-                
-                // Descontar stock
-                producto.setStock(stockActual - item.getCantidad());
-                productoRepositorio.save(producto);
-                
-                System.out.println(">>> Stock actualizado para " + producto.getNombreProducto() + 
-                                 ": " + stockActual + " -> " + producto.getStock());
+                return "redirect:/carrito";
             }
+            
+            System.out.println(">>> Stock reservado: " + reserva.getCantidades());
 
             // Crear alquiler
             Alquiler alquiler = new Alquiler();
+            alquiler.setId(alquilerId);
             alquiler.setUsuarioId(usuarioId);
             alquiler.setUsuarioNombre(usuarioNombre);
             alquiler.setUsuarioCorreo(usuarioCorreo);
@@ -144,6 +205,7 @@ public class AlquilerControlador {
             alquiler.setFechaFin(fechaFin);
             alquiler.setNotasAdicionales(notasAdicionales);
             alquiler.setEstado("PENDIENTE");
+            alquiler.registrarCreacion(usuarioId, usuarioNombre);
             
             // Configurar pago contra entrega
             alquiler.setPagoContraEntrega(pagoContraEntregaBoolean);
@@ -157,8 +219,13 @@ public class AlquilerControlador {
                 System.out.println(">>> Usuario NO solicitó transporte - Estado: null (no se mostrará opción de negociación)");
             }
 
-            // Guardar en MongoDB
-            alquilerRepositorio.save(alquiler);
+            // Guardar en MongoDB (si falla, se libera la reserva)
+            try {
+                alquilerRepositorio.save(alquiler);
+            } catch (RuntimeException e) {
+                reservaStockServicio.liberar(alquilerId);
+                throw e;
+            }
             
             // Calcular total y cantidad de productos para el log
             int cantidadProductos = carrito.stream()
@@ -168,31 +235,36 @@ public class AlquilerControlador {
                 .mapToDouble(ItemCarrito::getSubtotal)
                 .sum();
             
-            // Registrar log de alquiler
-            activityLogServicio.logRental(
-                usuarioId,
-                usuarioNombre,
-                usuarioCorreo,
-                cantidadProductos,
-                totalAlquiler,
-                request
+            // El alquiler ya está guardado: el log y el correo se envían en segundo plano
+            String ipCliente = activityLogServicio.getClientIP(request);
+            String alquilerGuardadoId = alquiler.getId();
+            tareasPosterioresServicio.encolar("log-alquiler", alquilerGuardadoId, () ->
+                activityLogServicio.logRental(
+                    usuarioId,
+                    usuarioNombre,
+                    usuarioCorreo,
+                    cantidadProductos,
+                    totalAlquiler,
+                    ipCliente
+                )
             );
             
-            // Enviar correo de confirmación al usuario
+            // El correo de confirmación se registra en el outbox: si la aplicación se reinicia
+            // antes de enviarlo, el relay lo envía igual
             try {
-                String detallesAlquiler = construirDetallesAlquiler(alquiler);
-                emailServicio.enviarConfirmacionAlquiler(
+                emailServicio.encolarConfirmacionAlquiler(
                     usuarioCorreo,
                     usuarioNombre,
-                    alquiler.getId(),
-                    detallesAlquiler
+                    alquilerGuardadoId,
+                    construirDetallesAlquiler(alquiler)
                 );
-                System.out.println("Correo de confirmación enviado a: " + usuarioCorreo);
             } catch (Exception e) {
-                System.err.println("Error al enviar correo de confirmación: " + e.getMessage());
-                // No fallar la operación si el correo falla
+                System.err.println("Error al registrar el correo de confirmación: " + e.getMessage());
             }
 
+            // Avisar al panel de administración y a las otras pestañas del usuario
+            publicarCambio(alquiler);
+
             // Limpiar carrito
             session.removeAttribute("carrito");
 
@@ -217,6 +289,15 @@ public class AlquilerControlador {
 
         List<Alquiler> alquileres = alquilerRepositorio.findByUsuarioIdOrderByFechaAlquilerDesc(usuarioId);
         model.addAttribute("alquileres", alquileres);
+        
+        // Miniaturas de los productos (las líneas solo guardan la referencia de la imagen)
+        List<ItemCarrito> items = new ArrayList<>();
+        for (Alquiler alquiler : alquileres) {
+            if (alquiler.getItems() != null) {
+                items.addAll(alquiler.getItems());
+            }
+        }
+        model.addAttribute("imagenesItems", imagenItemsServicio.miniaturas(items));
 
         return "pages/mis-alquileres";
     }
@@ -282,55 +363,65 @@ public class AlquilerControlador {
             return "redirect:/alquiler/mis-alquileres";
         }
 
-        // Devolver stock
-        for (ItemCarrito item : alquiler.getItems()) {
-            String productoId = item.getProductoId();
-            if (productoId != null) {
-                Optional<Producto> productoOpt = productoRepositorio.findById(productoId);
-                if (productoOpt.isPresent()) {
-                    Producto producto = productoOpt.get();
-                    producto.setStock(producto.getStock() + item.getCantidad());
-                    productoRepositorio.save(producto);
-                }
-            }
-        }
-
-        alquiler.setEstado("CANCELADO");
-        alquilerRepositorio.save(alquiler);
-        
-        // Registrar log de cancelación
         String usuarioNombre = (String) session.getAttribute("usuarioNombre");
         String usuarioCorreo = (String) session.getAttribute("usuarioCorreo");
         
+        // Solo cancela si sigue PENDIENTE (un administrador pudo confirmarlo entretanto) y
+        // devuelve sus unidades al inventario una sola vez
+        ResultadoCambio cambio = estadoAlquilerServicio.cambiarEstado(
+            id, "PENDIENTE", "CANCELADO", usuarioId, usuarioNombre, "USUARIO", "Cancelado por el usuario");
+        if (!cambio.isAplicado()) {
+            redirectAttributes.addFlashAttribute("error", "Solo se pueden cancelar alquileres pendientes");
+            return "redirect:/alquiler/mis-alquileres";
+        }
+        alquiler = cambio.getAlquiler();
+        if (cambio.getDevolucion() != null && cambio.getDevolucion().isDevuelto()) {
+            System.out.println(">>> Inventario devuelto del alquiler " + id + ": " + cambio.getDevolucion().getItems().size() + " producto(s)");
+        }
+        
+        // Registrar log de cancelación
         if (usuarioNombre != null && usuarioCorreo != null) {
-            activityLogServicio.logRentalCancellation(
-                usuarioId,
-                usuarioNombre,
-                usuarioCorreo,
-                alquiler.getId(),
-                request
+            String ipCliente = activityLogServicio.getClientIP(request);
+            tareasPosterioresServicio.encolar("log-cancelacion-alquiler", id, () ->
+                activityLogServicio.logRentalCancellation(
+                    usuarioId,
+                    usuarioNombre,
+                    usuarioCorreo,
+                    id,
+                    ipCliente
+                )
             );
         }
         
-        // Enviar correo de notificación de cancelación al usuario
+        // Registrar el correo de cancelación en el outbox (lo envía el relay)
         try {
-            String detallesAlquiler = construirDetallesAlquiler(alquiler);
-            emailServicio.enviarNotificacionCancelacion(
+            emailServicio.encolarNotificacionCancelacion(
                 alquiler.getUsuarioCorreo(),
                 alquiler.getUsuarioNombre(),
-                alquiler.getId(),
-                detallesAlquiler
+                id,
+                construirDetallesAlquiler(alquiler)
             );
-            System.out.println("Correo de cancelación enviado a: " + alquiler.getUsuarioCorreo());
         } catch (Exception e) {
-            System.err.println("Error al enviar correo de cancelación: " + e.getMessage());
-            // No fallar la operación si el correo falla
+            System.err.println("Error al registrar el correo de cancelación: " + e.getMessage());
         }
 
+        publicarCambio(alquiler);
+
         redirectAttributes.addFlashAttribute("mensaje", "Alquiler cancelado exitosamente");
         return "redirect:/alquiler/mis-alquileres";
     }
     
+    /**
+     * Notifica a los navegadores conectados que el alquiler se creó o cambió de estado
+     */
+    private void publicarCambio(Alquiler alquiler) {
+        Map<String, Object> datos = new HashMap<>();
+        datos.put("alquilerId", alquiler.getId());
+        datos.put("estado", alquiler.getEstado());
+        eventPublisher.publishEvent(EventoNotificacion.paraUsuario(alquiler.getUsuarioId(), EventoNotificacion.ALQUILER, datos));
+        eventPublisher.publishEvent(EventoNotificacion.paraAdmin(EventoNotificacion.PEDIDOS, datos));
+    }
+    
     /**
      * Construye los detalles del alquiler para el correo electrónico
      */
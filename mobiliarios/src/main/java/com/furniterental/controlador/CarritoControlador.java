@@ -3,6 +3,7 @@ package com.furniterental.controlador;
 import com.furniterental.modelo.ItemCarrito;
 import com.furniterental.modelo.Producto;
 import com.furniterental.repositorio.ProductoRepositorio;
+import com.furniterental.servicio.ImagenItemsServicio;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
@@ -23,6 +24,9 @@ public class CarritoControlador {
     @Autowired
     private ProductoRepositorio productoRepositorio;
 
+    @Autowired
+    private ImagenItemsServicio imagenItemsServicio;
+
     // Ver carrito
     @GetMapping
     public String verCarrito(HttpSession session, Model model) {
@@ -125,11 +129,13 @@ public class CarritoControlador {
 
             // Si no está, agregarlo
             if (!encontrado) {
+                // Copia compacta del producto: la imagen solo como referencia al almacén
                 ItemCarrito nuevoItem = new ItemCarrito(
                     producto.getId(),
                     producto.getNombreProducto(),
-                    producto.getImagenProducto(),
+                    imagenItemsServicio.referenciaParaCopia(producto),
                     producto.getPrecioProducto(),
+                    producto.getVersion(),
                     cantidad,
                     1  // Siempre 1 día por defecto, el precio final se calcula con las fechas
                 );
@@ -315,6 +321,7 @@ public class CarritoControlador {
             .sum();
         
         response.put("items", carrito);
+        response.put("imagenes", imagenItemsServicio.miniaturas(carrito));
         response.put("cantidadItems", carrito.size());
         response.put("total", total);
         
@@ -0,0 +1,108 @@
+package com.furniterental.controlador;
+
+import com.furniterental.modelo.ItemCarrito;
+import com.furniterental.servicio.ReservaStockServicio;
+import jakarta.servlet.http.HttpSession;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Disponibilidad de productos para un rango de fechas, calculada con el índice de
+ * reservas en memoria (no consulta la base de datos).
+ */
+@RestController
+@RequestMapping("/api/disponibilidad")
+public class DisponibilidadControlador {
+
+    @Autowired
+    private ReservaStockServicio reservaStockServicio;
+
+    // Unidades libres por producto: todo el catálogo, una categoría o una lista de productos
+    @GetMapping
+    public Map<String, Object> consultar(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate desde,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate hasta,
+            @RequestParam(required = false) String categoria,
+            @RequestParam(required = false) List<String> productos) {
+
+        Map<String, Object> response = new HashMap<>();
+        if (desde.isAfter(hasta)) {
+            response.put("success", false);
+            response.put("message", "La fecha de inicio debe ser anterior a la fecha de fin");
+            return response;
+        }
+
+        response.put("success", true);
+        response.put("desde", desde);
+        response.put("hasta", hasta);
+        response.put("productos", reservaStockServicio.disponibles(categoria, productos, desde, hasta));
+        return response;
+    }
+
+    // Comprueba todo el carrito de la sesión para el rango de fechas en una sola consulta
+    @GetMapping("/carrito")
+    public Map<String, Object> consultarCarrito(
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate desde,
+            @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate hasta,
+            HttpSession session) {
+
+        Map<String, Object> response = new HashMap<>();
+        if (desde.isAfter(hasta)) {
+            response.put("success", false);
+            response.put("message", "La fecha de inicio debe ser anterior a la fecha de fin");
+            return response;
+        }
+
+        @SuppressWarnings("unchecked")
+        List<ItemCarrito> carrito = (List<ItemCarrito>) session.getAttribute("carrito");
+        if (carrito == null) {
+            carrito = new ArrayList<>();
+        }
+
+        // Un producto puede estar en varias líneas: se compara la suma
+        Map<String, Integer> solicitados = new LinkedHashMap<>();
+        Map<String, String> nombres = new HashMap<>();
+        for (ItemCarrito item : carrito) {
+            if (item.getProductoId() != null && item.getCantidad() != null) {
+                solicitados.merge(item.getProductoId(), item.getCantidad(), Integer::sum);
+                nombres.put(item.getProductoId(), item.getNombreProducto());
+            }
+        }
+
+        Map<String, Integer> disponibles = reservaStockServicio.disponibles(null, solicitados.keySet(), desde, hasta);
+
+        List<Map<String, Object>> items = new ArrayList<>();
+        boolean todosDisponibles = true;
+        for (Map.Entry<String, Integer> entrada : solicitados.entrySet()) {
+            int disponible = disponibles.getOrDefault(entrada.getKey(), 0);
+            boolean suficiente = disponible >= entrada.getValue();
+            todosDisponibles &= suficiente;
+
+            Map<String, Object> item = new HashMap<>();
+            item.put("productoId", entrada.getKey());
+            item.put("nombreProducto", nombres.get(entrada.getKey()));
+            item.put("solicitado", entrada.getValue());
+            item.put("disponible", disponible);
+            item.put("suficiente", suficiente);
+            items.add(item);
+        }
+
+        response.put("success", true);
+        response.put("desde", desde);
+        response.put("hasta", hasta);
+        response.put("items", items);
+        response.put("todosDisponibles", todosDisponibles);
+        return response;
+    }
+}
@@ -4,6 +4,7 @@ import com.furniterental.modelo.Favorito;
 import com.furniterental.modelo.Producto;
 import com.furniterental.repositorio.FavoritoRepositorio;
 import com.furniterental.repositorio.ProductoRepositorio;
+import com.furniterental.servicio.ImagenItemsServicio;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
@@ -27,6 +28,9 @@ public class FavoritoControlador {
     @Autowired
     private ProductoRepositorio productoRepositorio;
 
+    @Autowired
+    private ImagenItemsServicio imagenItemsServicio;
+
     // Ver página de favoritos
     @GetMapping
     public String verFavoritos(HttpSession session, Model model, RedirectAttributes redirectAttributes) {
@@ -92,9 +96,9 @@ public class FavoritoControlador {
                 Producto producto = productoOpt.get();
                 Favorito nuevoFavorito = new Favorito(usuarioId, productoId);
                 
-                // Guardar datos del producto para consultas rápidas
+                // Guardar datos del producto para consultas rápidas (de la imagen, solo la referencia)
                 nuevoFavorito.setNombreProducto(producto.getNombreProducto());
-                nuevoFavorito.setImagenProducto(producto.getImagenProducto());
+                nuevoFavorito.setImagenProducto(imagenItemsServicio.referenciaParaCopia(producto));
                 nuevoFavorito.setPrecioProducto(producto.getPrecioProducto());
                 nuevoFavorito.setCategoriaProducto(producto.getCategoriaProducto());
                 
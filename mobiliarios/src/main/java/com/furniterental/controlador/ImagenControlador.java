@@ -0,0 +1,171 @@
+package com.furniterental.controlador;
+
+import com.furniterental.servicio.ImagenServicio;
+import com.furniterental.servicio.ImagenServicio.TamanoImagen;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.ServletWebRequest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sirve las imágenes del almacén direccionado por contenido.
+ * Como la URL contiene el hash del archivo, el contenido nunca cambia:
+ * se cachea indefinidamente, se responde 304 a If-None-Match y se admiten
+ * peticiones Range. Los bytes se envían directamente desde el FileChannel
+ * (sendfile del conector cuando Tomcat lo soporta).
+ */
+@RestController
+public class ImagenControlador {
+
+    // Atributos de Tomcat para delegar el envío del archivo al conector (sendfile)
+    private static final String SENDFILE_SOPORTADO = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_ARCHIVO = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_INICIO = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_FIN = "org.apache.tomcat.sendfile.end";
+
+    private static final CacheControl CACHE_PERMANENTE =
+            CacheControl.maxAge(365, TimeUnit.DAYS).cachePublic().immutable();
+
+    @Autowired
+    private ImagenServicio imagenServicio;
+
+    // Imagen original
+    @GetMapping(ImagenServicio.PREFIJO_REFERENCIA + "{hash}")
+    public void obtenerImagen(@PathVariable String hash,
+                              HttpServletRequest request,
+                              HttpServletResponse response) throws IOException {
+        if (!imagenServicio.esHashValido(hash)) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        servirArchivo(imagenServicio.obtenerRutaImagen(hash), "\"" + hash + "\"", request, response);
+    }
+
+    // Variante reducida: thumbnail, card o detail
+    @GetMapping(ImagenServicio.PREFIJO_REFERENCIA + "{hash}/{tamano}")
+    public void obtenerVariante(@PathVariable String hash,
+                                @PathVariable String tamano,
+                                HttpServletRequest request,
+                                HttpServletResponse response) throws IOException {
+        TamanoImagen tamanoImagen = TamanoImagen.desdeNombre(tamano);
+        if (!imagenServicio.esHashValido(hash) || tamanoImagen == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        Path ruta = imagenServicio.resolverVariante(hash, tamanoImagen);
+        servirArchivo(ruta, "\"" + hash + "-" + tamanoImagen.getNombre() + "\"", request, response);
+    }
+
+    private void servirArchivo(Path ruta, String etag,
+                               HttpServletRequest request,
+                               HttpServletResponse response) throws IOException {
+        if (ruta == null || !Files.isRegularFile(ruta)) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        response.setHeader(HttpHeaders.CACHE_CONTROL, CACHE_PERMANENTE.getHeaderValue());
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+
+        // Responde 304 si el navegador ya tiene esta versión (también escribe la cabecera ETag)
+        if (new ServletWebRequest(request, response).checkNotModified(etag)) {
+            return;
+        }
+
+        try (FileChannel canal = FileChannel.open(ruta, StandardOpenOption.READ)) {
+            long longitud = canal.size();
+            response.setContentType(detectarTipoContenido(canal));
+
+            long inicio = 0;
+            long fin = longitud - 1;
+
+            HttpRange rango = obtenerRango(request, etag);
+            if (rango != null) {
+                try {
+                    inicio = rango.getRangeStart(longitud);
+                    fin = rango.getRangeEnd(longitud);
+                } catch (IllegalArgumentException e) {
+                    response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + longitud);
+                    response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                    return;
+                }
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + inicio + "-" + fin + "/" + longitud);
+            }
+
+            long cantidad = fin - inicio + 1;
+            response.setContentLengthLong(cantidad);
+
+            if ("HEAD".equals(request.getMethod()) || cantidad <= 0) {
+                return;
+            }
+
+            if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SOPORTADO))) {
+                // El conector copia el archivo del disco al socket sin pasar por la JVM
+                request.setAttribute(SENDFILE_ARCHIVO, ruta.toAbsolutePath().toString());
+                request.setAttribute(SENDFILE_INICIO, inicio);
+                request.setAttribute(SENDFILE_FIN, fin + 1);
+                return;
+            }
+
+            WritableByteChannel salida = Channels.newChannel(response.getOutputStream());
+            long posicion = inicio;
+            while (posicion <= fin) {
+                posicion += canal.transferTo(posicion, fin + 1 - posicion, salida);
+            }
+        }
+    }
+
+    /**
+     * Obtiene el rango solicitado. Solo se atiende un rango único; si la petición
+     * trae varios, es inválida o If-Range no coincide, se envía el archivo completo.
+     */
+    private HttpRange obtenerRango(HttpServletRequest request, String etag) {
+        String cabeceraRango = request.getHeader(HttpHeaders.RANGE);
+        if (cabeceraRango == null) {
+            return null;
+        }
+
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange != null && !ifRange.equals(etag)) {
+            return null;
+        }
+
+        try {
+            List<HttpRange> rangos = HttpRange.parseRanges(cabeceraRango);
+            return rangos.size() == 1 ? rangos.get(0) : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private String detectarTipoContenido(FileChannel canal) throws IOException {
+        ByteBuffer cabecera = ByteBuffer.allocate(12);
+        canal.read(cabecera, 0);
+        byte[] bytes = new byte[cabecera.position()];
+        cabecera.flip().get(bytes);
+
+        String tipo = imagenServicio.detectarTipoContenido(bytes);
+        return tipo != null ? tipo : MediaType.APPLICATION_OCTET_STREAM_VALUE;
+    }
+}
@@ -0,0 +1,63 @@
+package com.furniterental.controlador;
+
+import com.furniterental.dto.EventoNotificacion;
+import com.furniterental.servicio.CentroNotificacionesServicio;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import jakarta.servlet.http.HttpSession;
+
+/**
+ * Conexiones Server-Sent Events del centro de notificaciones.
+ * Reemplazan el sondeo periódico de los contadores de pagos y reseñas.
+ */
+@Controller
+public class NotificacionControlador {
+
+    @Autowired
+    private CentroNotificacionesServicio centroNotificacionesServicio;
+
+    /**
+     * Eventos del usuario en sesión (pagos, estado de sus alquileres)
+     */
+    @GetMapping(value = "/notificaciones/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamUsuario(
+            @RequestHeader(value = "Last-Event-ID", required = false) String ultimoEventoId,
+            HttpSession session) {
+        String usuarioId = (String) session.getAttribute("usuarioId");
+        if (usuarioId == null) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+
+        SseEmitter emisor = centroNotificacionesServicio.suscribir(EventoNotificacion.canalUsuario(usuarioId), ultimoEventoId);
+        return respuesta(emisor);
+    }
+
+    /**
+     * Eventos del panel de administración (pedidos nuevos, reseñas pendientes)
+     */
+    @GetMapping(value = "/admin/notificaciones/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamAdmin(
+            @RequestHeader(value = "Last-Event-ID", required = false) String ultimoEventoId,
+            HttpSession session) {
+        if (!"ADMIN".equals(session.getAttribute("usuarioRol"))) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+
+        SseEmitter emisor = centroNotificacionesServicio.suscribir(EventoNotificacion.CANAL_ADMIN, ultimoEventoId);
+        return respuesta(emisor);
+    }
+
+    private ResponseEntity<SseEmitter> respuesta(SseEmitter emisor) {
+        // Evita que un proxy (nginx) acumule los eventos antes de enviarlos
+        return ResponseEntity.ok()
+                .header("X-Accel-Buffering", "no")
+                .body(emisor);
+    }
+}
@@ -1,34 +1,43 @@
 package com.furniterental.controlador;
 
+import com.furniterental.dto.EventoNotificacion;
+import com.furniterental.dto.ResultadoPasarela;
+import com.furniterental.dto.SolicitudCobro;
 import com.furniterental.modelo.Alquiler;
 import com.furniterental.modelo.Pago;
 import com.furniterental.modelo.Usuario;
 import com.furniterental.repositorio.AlquilerRepositorio;
-import com.furniterental.repositorio.PagoRepositorio;
 import com.furniterental.repositorio.UsuarioRepositorio;
 import com.furniterental.servicio.EmailService;
 import com.furniterental.servicio.ActivityLogServicio;
 import com.furniterental.servicio.TarjetaGuardadaServicio;
+import com.furniterental.servicio.IdempotenciaServicio;
+import com.furniterental.servicio.LibroPagosServicio;
+import com.furniterental.servicio.ProcesadorPagosServicio;
+import com.furniterental.servicio.ResumenNotificacionesServicio;
 import com.furniterental.modelo.TarjetaGuardada;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Page;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
 
 import jakarta.servlet.http.HttpSession;
 import jakarta.servlet.http.HttpServletRequest;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 @Controller
 @RequestMapping("/pagos")
 public class PagoControlador {
 
+    private static final String PAGO_PARCIAL = LibroPagosServicio.PAGO_PARCIAL;
+    private static final String PAGO_FINAL = LibroPagosServicio.PAGO_FINAL;
+
     @Autowired
     private AlquilerRepositorio alquilerRepositorio;
     
-    @Autowired
-    private PagoRepositorio pagoRepositorio;
-    
     @Autowired
     private UsuarioRepositorio usuarioRepositorio;
     
@@ -40,6 +49,21 @@ public class PagoControlador {
     
     @Autowired
     private TarjetaGuardadaServicio tarjetaServicio;
+    
+    @Autowired
+    private IdempotenciaServicio idempotenciaServicio;
+    
+    @Autowired
+    private ResumenNotificacionesServicio resumenNotificacionesServicio;
+    
+    @Autowired
+    private ProcesadorPagosServicio procesadorPagosServicio;
+    
+    @Autowired
+    private LibroPagosServicio libroPagosServicio;
+    
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
 
     /**
      * Obtiene el conteo de notificaciones de pagos pendientes para el usuario actual
@@ -58,28 +82,8 @@ public class PagoControlador {
                 return response;
             }
             
-            // Obtener alquileres del usuario
-            List<Alquiler> alquileres = alquilerRepositorio.findByUsuarioIdOrderByFechaAlquilerDesc(usuarioId);
-            
-            // Contar pagos pendientes (excluyendo pago contra entrega)
-            long pagosPendientes = alquileres.stream()
-                .filter(a -> {
-                    // Excluir pedidos con pago contra entrega
-                    if (Boolean.TRUE.equals(a.getPagoContraEntrega())) {
-                        return false;
-                    }
-                    
-                    // Pago parcial pendiente: estado CONFIRMADO y pago parcial pendiente
-                    boolean pagoParcialPendiente = "CONFIRMADO".equals(a.getEstado()) 
-                        && "PENDIENTE".equals(a.getEstadoPagoParcial());
-                    
-                    // Pago final pendiente: estado COMPLETADO y pago final pendiente
-                    boolean pagoFinalPendiente = "COMPLETADO".equals(a.getEstado()) 
-                        && "PENDIENTE".equals(a.getEstadoPagoFinal());
-                    
-                    return pagoParcialPendiente || pagoFinalPendiente;
-                })
-                .count();
+            // Contador mantenido al cambiar los alquileres (ver PagosPendientesListener)
+            int pagosPendientes = resumenNotificacionesServicio.contarPagosPendientes(usuarioId);
             
             response.put("success", true);
             response.put("count", pagosPendientes);
@@ -93,6 +97,45 @@ public class PagoControlador {
         return response;
     }
 
+    /**
+     * Estado de cuenta del usuario: sus pagos, del más reciente al más antiguo
+     */
+    @GetMapping("/estado-cuenta")
+    @ResponseBody
+    public Map<String, Object> obtenerEstadoCuenta(
+            @RequestParam(defaultValue = "1") int pagina,
+            @RequestParam(defaultValue = "20") int tamano,
+            HttpSession session) {
+        
+        String usuarioId = (String) session.getAttribute("usuarioId");
+        if (usuarioId == null) {
+            return respuestaError("Debes iniciar sesión");
+        }
+        
+        Page<Pago> pagos = libroPagosServicio.estadoCuenta(usuarioId, pagina, tamano);
+        List<Map<String, Object>> movimientos = new ArrayList<>();
+        for (Pago pago : pagos.getContent()) {
+            Map<String, Object> movimiento = new HashMap<>();
+            movimiento.put("alquilerId", pago.getAlquilerId());
+            movimiento.put("tipoPago", pago.getTipoPago());
+            movimiento.put("monto", pago.getMonto());
+            movimiento.put("metodoPago", pago.getMetodoPago());
+            movimiento.put("estado", pago.getEstado());
+            movimiento.put("fechaPago", pago.getFechaPago() != null ? pago.getFechaPago().toString() : null);
+            movimiento.put("numeroTransaccion", pago.getNumeroTransaccion());
+            movimiento.put("ultimos4Digitos", pago.getUltimos4Digitos());
+            movimientos.add(movimiento);
+        }
+        
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("movimientos", movimientos);
+        response.put("pagina", pagos.getNumber() + 1);
+        response.put("totalPaginas", pagos.getTotalPages());
+        response.put("totalMovimientos", pagos.getTotalElements());
+        return response;
+    }
+
     /**
      * Obtiene los detalles de los pagos pendientes para mostrar en notificaciones
      */
@@ -110,23 +153,10 @@ public class PagoControlador {
                 return response;
             }
             
-            // Obtener alquileres del usuario
-            List<Alquiler> alquileres = alquilerRepositorio.findByUsuarioIdOrderByFechaAlquilerDesc(usuarioId);
+            // Solo los alquileres con pago pendiente (excluye pago contra entrega), filtrados en la base de datos
+            List<Alquiler> alquileres = resumenNotificacionesServicio.listarPagosPendientes(usuarioId);
             
-            // Filtrar y mapear a notificaciones (excluyendo pago contra entrega)
             List<Map<String, Object>> notificaciones = alquileres.stream()
-                .filter(a -> {
-                    // Excluir pedidos con pago contra entrega
-                    if (Boolean.TRUE.equals(a.getPagoContraEntrega())) {
-                        return false;
-                    }
-                    
-                    boolean pagoParcialPendiente = "CONFIRMADO".equals(a.getEstado()) 
-                        && "PENDIENTE".equals(a.getEstadoPagoParcial());
-                    boolean pagoFinalPendiente = "COMPLETADO".equals(a.getEstado()) 
-                        && "PENDIENTE".equals(a.getEstadoPagoFinal());
-                    return pagoParcialPendiente || pagoFinalPendiente;
-                })
                 .map(a -> {
                     Map<String, Object> notif = new HashMap<>();
                     notif.put("alquilerId", a.getId());
@@ -178,132 +208,19 @@ public class PagoControlador {
      */
     @PostMapping("/procesar-pago-parcial")
     @ResponseBody
-    public Map<String, Object> procesarPagoParcial(
+    public CompletableFuture<Map<String, Object>> procesarPagoParcial(
             @RequestParam String alquilerId,
             @RequestParam String numeroTarjeta,
             @RequestParam String nombreTitular,
             @RequestParam String fechaExpiracion,
             @RequestParam String cvv,
+            @RequestHeader(value = IdempotenciaServicio.CABECERA, required = false) String claveIdempotencia,
             HttpSession session,
             HttpServletRequest request) {
-        
-        Map<String, Object> response = new HashMap<>();
-        
-        try {
-            String usuarioId = (String) session.getAttribute("usuarioId");
-            
-            if (usuarioId == null) {
-                response.put("success", false);
-                response.put("message", "Debes iniciar sesión");
-                return response;
-            }
-            
-            // Validar datos de tarjeta (simulado)
-            if (numeroTarjeta == null || numeroTarjeta.length() < 16) {
-                response.put("success", false);
-                response.put("message", "Número de tarjeta inválido");
-                return response;
-            }
-            
-            if (cvv == null || cvv.length() < 3) {
-                response.put("success", false);
-                response.put("message", "CVV inválido");
-                return response;
-            }
-            
-            // Validar que alquilerId no sea null
-            if (alquilerId == null || alquilerId.trim().isEmpty()) {
-                response.put("success", false);
-                response.put("message", "ID de alquiler inválido");
-                return response;
-            }
-            
-            // Buscar alquiler
-            Optional<Alquiler> alquilerOpt = alquilerRepositorio.findById(alquilerId);
-            if (alquilerOpt.isEmpty()) {
-                response.put("success", false);
-                response.put("message", "Alquiler no encontrado");
-                return response;
-            }
-            
-            Alquiler alquiler = alquilerOpt.get();
-            
-            // Verificar que pertenece al usuario
-            if (!usuarioId.equals(alquiler.getUsuarioId())) {
-                response.put("success", false);
-                response.put("message", "No tienes permiso para realizar este pago");
-                return response;
-            }
-            
-            // Verificar que el alquiler está en estado CONFIRMADO
-            if (!"CONFIRMADO".equals(alquiler.getEstado())) {
-                response.put("success", false);
-                response.put("message", "El alquiler debe estar en estado CONFIRMADO para realizar este pago");
-                return response;
-            }
-            
-            // Verificar que el pago parcial está pendiente
-            if (!"PENDIENTE".equals(alquiler.getEstadoPagoParcial())) {
-                response.put("success", false);
-                response.put("message", "El pago parcial ya fue realizado");
-                return response;
-            }
-            
-            // Crear registro de pago
-            Pago pago = new Pago(alquilerId, usuarioId, alquiler.getMontoPagoParcial(), "PARCIAL");
-            pago.setMetodoPago("TARJETA");
-            pago.setUltimos4Digitos(numeroTarjeta.substring(numeroTarjeta.length() - 4));
-            pago.setNumeroTransaccion("TXN-" + UUID.randomUUID().toString().substring(0, 8).toUpperCase());
-            pagoRepositorio.save(pago);
-            
-            // Marcar pago parcial como pagado
-            alquiler.marcarPagoParcialPagado();
-            alquilerRepositorio.save(alquiler);
-            
-            // Obtener información del usuario para logs y correo
-            Optional<Usuario> usuarioOpt = usuarioRepositorio.findById(usuarioId);
-            
-            // Enviar comprobante por correo
-            try {
-                if (usuarioOpt.isPresent()) {
-                    emailService.enviarComprobantePago(usuarioOpt.get(), pago, alquiler);
-                }
-            } catch (Exception e) {
-                System.err.println("Error al enviar correo: " + e.getMessage());
-                // No fallar el pago si el correo falla
-            }
-            
-            // Registrar en logs
-            try {
-                if (usuarioOpt.isPresent()) {
-                    Usuario usuario = usuarioOpt.get();
-                    activityLogServicio.logPayment(
-                        usuarioId, 
-                        usuario.getNombre(), 
-                        usuario.getCorreo(),
-                        "PARCIAL", 
-                        alquiler.getMontoPagoParcial(), 
-                        alquilerId,
-                        pago.getNumeroTransaccion(),
-                        request
-                    );
-                }
-            } catch (Exception e) {
-                System.err.println("Error al registrar log de pago: " + e.getMessage());
-                // No fallar el pago si el log falla
-            }
-            
-            response.put("success", true);
-            response.put("message", "Pago recibido exitosamente");
-            response.put("montoPagado", alquiler.getMontoPagoParcial());
-            response.put("fechaPago", alquiler.getFechaPagoParcial().toString());
-            
-        } catch (Exception e) {
-            response.put("success", false);
-            response.put("message", "Error al procesar pago: " + e.getMessage());
-        }
-        
-        return response;
+        String usuarioId = (String) session.getAttribute("usuarioId");
+        String ipCliente = activityLogServicio.getClientIP(request);
+        return idempotenciaServicio.ejecutarAsincrono("pago-parcial", usuarioId, claveIdempotencia, () ->
+            ejecutarPagoConTarjeta(PAGO_PARCIAL, alquilerId, numeroTarjeta, nombreTitular, cvv, usuarioId, ipCliente));
     }
 
     /**
@@ -311,132 +228,19 @@ public class PagoControlador {
      */
     @PostMapping("/procesar-pago-final")
     @ResponseBody
-    public Map<String, Object> procesarPagoFinal(
+    public CompletableFuture<Map<String, Object>> procesarPagoFinal(
             @RequestParam String alquilerId,
             @RequestParam String numeroTarjeta,
             @RequestParam String nombreTitular,
             @RequestParam String fechaExpiracion,
             @RequestParam String cvv,
+            @RequestHeader(value = IdempotenciaServicio.CABECERA, required = false) String claveIdempotencia,
             HttpSession session,
             HttpServletRequest request) {
-        
-        Map<String, Object> response = new HashMap<>();
-        
-        try {
-            String usuarioId = (String) session.getAttribute("usuarioId");
-            
-            if (usuarioId == null) {
-                response.put("success", false);
-                response.put("message", "Debes iniciar sesión");
-                return response;
-            }
-            
-            // Validar datos de tarjeta (simulado)
-            if (numeroTarjeta == null || numeroTarjeta.length() < 16) {
-                response.put("success", false);
-                response.put("message", "Número de tarjeta inválido");
-                return response;
-            }
-            
-            if (cvv == null || cvv.length() < 3) {
-                response.put("success", false);
-                response.put("message", "CVV inválido");
-                return response;
-            }
-            
-            // Validar que alquilerId no sea null
-            if (alquilerId == null || alquilerId.trim().isEmpty()) {
-                response.put("success", false);
-                response.put("message", "ID de alquiler inválido");
-                return response;
-            }
-            
-            // Buscar alquiler
-            Optional<Alquiler> alquilerOpt = alquilerRepositorio.findById(alquilerId);
-            if (alquilerOpt.isEmpty()) {
-                response.put("success", false);
-                response.put("message", "Alquiler no encontrado");
-                return response;
-            }
-            
-            Alquiler alquiler = alquilerOpt.get();
-            
-            // Verificar que pertenece al usuario
-            if (!usuarioId.equals(alquiler.getUsuarioId())) {
-                response.put("success", false);
-                response.put("message", "No tienes permiso para realizar este pago");
-                return response;
-            }
-            
-            // Verificar que el alquiler está en estado COMPLETADO
-            if (!"COMPLETADO".equals(alquiler.getEstado())) {
-                response.put("success", false);
-                response.put("message", "El alquiler debe estar en estado COMPLETADO para realizar este pago");
-                return response;
-            }
-            
-            // Verificar que el pago final está pendiente
-            if (!"PENDIENTE".equals(alquiler.getEstadoPagoFinal())) {
-                response.put("success", false);
-                response.put("message", "El pago final ya fue realizado");
-                return response;
-            }
-            
-            // Crear registro de pago
-            Pago pago = new Pago(alquilerId, usuarioId, alquiler.getMontoSaldoPendiente(), "FINAL");
-            pago.setMetodoPago("TARJETA");
-            pago.setUltimos4Digitos(numeroTarjeta.substring(numeroTarjeta.length() - 4));
-            pago.setNumeroTransaccion("TXN-" + UUID.randomUUID().toString().substring(0, 8).toUpperCase());
-            pagoRepositorio.save(pago);
-            
-            // Marcar pago final como pagado
-            alquiler.marcarPagoFinalPagado();
-            alquilerRepositorio.save(alquiler);
-            
-            // Obtener información del usuario para logs y correo
-            Optional<Usuario> usuarioOpt = usuarioRepositorio.findById(usuarioId);
-            
-            // Enviar comprobante por correo
-            try {
-                if (usuarioOpt.isPresent()) {
-                    emailService.enviarComprobantePago(usuarioOpt.get(), pago, alquiler);
-                }
-            } catch (Exception e) {
-                System.err.println("Error al enviar correo: " + e.getMessage());
-                // No fallar el pago si el correo falla
-            }
-            
-            // Registrar en logs
-            try {
-                if (usuarioOpt.isPresent()) {
-                    Usuario usuario = usuarioOpt.get();
-                    activityLogServicio.logPayment(
-                        usuarioId, 
-                        usuario.getNombre(), 
-                        usuario.getCorreo(),
-                        "FINAL", 
-                        alquiler.getMontoSaldoPendiente(), 
-                        alquilerId,
-                        pago.getNumeroTransaccion(),
-                        request
-                    );
-                }
-            } catch (Exception e) {
-                System.err.println("Error al registrar log de pago: " + e.getMessage());
-                // No fallar el pago si el log falla
-            }
-            
-            response.put("success", true);
-            response.put("message", "Pago recibido exitosamente");
-            response.put("montoPagado", alquiler.getMontoSaldoPendiente());
-            response.put("fechaPago", alquiler.getFechaPagoFinal().toString());
-            
-        } catch (Exception e) {
-            response.put("success", false);
-            response.put("message", "Error al procesar pago: " + e.getMessage());
-        }
-        
-        return response;
+        String usuarioId = (String) session.getAttribute("usuarioId");
+        String ipCliente = activityLogServicio.getClientIP(request);
+        return idempotenciaServicio.ejecutarAsincrono("pago-final", usuarioId, claveIdempotencia, () ->
+            ejecutarPagoConTarjeta(PAGO_FINAL, alquilerId, numeroTarjeta, nombreTitular, cvv, usuarioId, ipCliente));
     }
     
     /**
@@ -444,262 +248,278 @@ public class PagoControlador {
      */
     @PostMapping("/procesar-pago-parcial-tarjeta-guardada")
     @ResponseBody
-    public Map<String, Object> procesarPagoParcialConTarjetaGuardada(
+    public CompletableFuture<Map<String, Object>> procesarPagoParcialConTarjetaGuardada(
             @RequestParam String alquilerId,
             @RequestParam String tarjetaId,
+            @RequestHeader(value = IdempotenciaServicio.CABECERA, required = false) String claveIdempotencia,
             HttpSession session,
             HttpServletRequest request) {
+        String usuarioId = (String) session.getAttribute("usuarioId");
+        String ipCliente = activityLogServicio.getClientIP(request);
+        return idempotenciaServicio.ejecutarAsincrono("pago-parcial", usuarioId, claveIdempotencia, () ->
+            ejecutarPagoConTarjetaGuardada(PAGO_PARCIAL, alquilerId, tarjetaId, usuarioId, ipCliente));
+    }
+    
+    /**
+     * Procesa el pago final usando una tarjeta guardada
+     */
+    @PostMapping("/procesar-pago-final-tarjeta-guardada")
+    @ResponseBody
+    public CompletableFuture<Map<String, Object>> procesarPagoFinalConTarjetaGuardada(
+            @RequestParam String alquilerId,
+            @RequestParam String tarjetaId,
+            @RequestHeader(value = IdempotenciaServicio.CABECERA, required = false) String claveIdempotencia,
+            HttpSession session,
+            HttpServletRequest request) {
+        String usuarioId = (String) session.getAttribute("usuarioId");
+        String ipCliente = activityLogServicio.getClientIP(request);
+        return idempotenciaServicio.ejecutarAsincrono("pago-final", usuarioId, claveIdempotencia, () ->
+            ejecutarPagoConTarjetaGuardada(PAGO_FINAL, alquilerId, tarjetaId, usuarioId, ipCliente));
+    }
+    
+    private CompletableFuture<Map<String, Object>> ejecutarPagoConTarjeta(
+            String tipoPago,
+            String alquilerId,
+            String numeroTarjeta,
+            String nombreTitular,
+            String cvv,
+            String usuarioId,
+            String ipCliente) {
         
-        Map<String, Object> response = new HashMap<>();
+        if (usuarioId == null) {
+            return error("Debes iniciar sesión");
+        }
+        
+        // Validar datos de tarjeta
+        if (numeroTarjeta == null || numeroTarjeta.length() < 16) {
+            return error("Número de tarjeta inválido");
+        }
+        
+        if (cvv == null || cvv.length() < 3) {
+            return error("CVV inválido");
+        }
+        
+        String ultimos4Digitos = numeroTarjeta.substring(numeroTarjeta.length() - 4);
+        return cobrarAlquiler(tipoPago, alquilerId, usuarioId, "TARJETA", numeroTarjeta, ultimos4Digitos, nombreTitular, ipCliente);
+    }
+    
+    private CompletableFuture<Map<String, Object>> ejecutarPagoConTarjetaGuardada(
+            String tipoPago,
+            String alquilerId,
+            String tarjetaId,
+            String usuarioId,
+            String ipCliente) {
         
         try {
             // Validar parámetros requeridos
             if (alquilerId == null || alquilerId.trim().isEmpty()) {
-                response.put("success", false);
-                response.put("message", "ID de alquiler no proporcionado");
-                return response;
+                return error("ID de alquiler no proporcionado");
             }
             
             if (tarjetaId == null || tarjetaId.trim().isEmpty()) {
-                response.put("success", false);
-                response.put("message", "ID de tarjeta no proporcionado");
-                return response;
+                return error("ID de tarjeta no proporcionado");
             }
             
-            String usuarioId = (String) session.getAttribute("usuarioId");
-            
             if (usuarioId == null) {
-                response.put("success", false);
-                response.put("message", "Debes iniciar sesión");
-                return response;
+                return error("Debes iniciar sesión");
             }
             
             // Obtener tarjeta guardada
             Optional<TarjetaGuardada> tarjetaOpt = tarjetaServicio.obtenerTarjeta(tarjetaId, usuarioId);
             if (tarjetaOpt.isEmpty()) {
-                response.put("success", false);
-                response.put("message", "Tarjeta no encontrada o no pertenece al usuario");
-                return response;
+                return error("Tarjeta no encontrada o no pertenece al usuario");
             }
             
             TarjetaGuardada tarjeta = tarjetaOpt.get();
             
             // Verificar que no esté vencida
             if (tarjeta.estaVencida()) {
-                response.put("success", false);
-                response.put("message", "La tarjeta seleccionada ha expirado");
-                return response;
-            }
-            
-            // Buscar alquiler
-            Optional<Alquiler> alquilerOpt = alquilerRepositorio.findById(alquilerId);
-            if (alquilerOpt.isEmpty()) {
-                response.put("success", false);
-                response.put("message", "Alquiler no encontrado");
-                return response;
-            }
-            
-            Alquiler alquiler = alquilerOpt.get();
-            
-            // Verificar que pertenece al usuario
-            if (!usuarioId.equals(alquiler.getUsuarioId())) {
-                response.put("success", false);
-                response.put("message", "No tienes permiso para realizar este pago");
-                return response;
-            }
-            
-            // Verificar estado del alquiler
-            if (!"CONFIRMADO".equals(alquiler.getEstado())) {
-                response.put("success", false);
-                response.put("message", "El alquiler debe estar en estado CONFIRMADO");
-                return response;
-            }
-            
-            if (!"PENDIENTE".equals(alquiler.getEstadoPagoParcial())) {
-                response.put("success", false);
-                response.put("message", "El pago parcial ya fue realizado");
-                return response;
-            }
-            
-            // Crear registro de pago
-            Pago pago = new Pago(alquilerId, usuarioId, alquiler.getMontoPagoParcial(), "PARCIAL");
-            pago.setMetodoPago("TARJETA_GUARDADA");
-            pago.setUltimos4Digitos(tarjeta.getUltimos4Digitos());
-            pago.setNumeroTransaccion("TXN-" + UUID.randomUUID().toString().substring(0, 8).toUpperCase());
-            pagoRepositorio.save(pago);
-            
-            // Marcar pago como pagado
-            alquiler.marcarPagoParcialPagado();
-            alquilerRepositorio.save(alquiler);
-            
-            // Obtener usuario para logs y correo
-            Optional<Usuario> usuarioOpt = usuarioRepositorio.findById(usuarioId);
-            
-            // Enviar comprobante
-            try {
-                if (usuarioOpt.isPresent()) {
-                    emailService.enviarComprobantePago(usuarioOpt.get(), pago, alquiler);
-                }
-            } catch (Exception e) {
-                System.err.println("Error al enviar correo: " + e.getMessage());
-            }
-            
-            // Registrar en logs
-            try {
-                if (usuarioOpt.isPresent()) {
-                    Usuario usuario = usuarioOpt.get();
-                    activityLogServicio.logPayment(
-                        usuarioId, usuario.getNombre(), usuario.getCorreo(),
-                        "PARCIAL", alquiler.getMontoPagoParcial(), alquilerId,
-                        pago.getNumeroTransaccion(), request
-                    );
-                }
-            } catch (Exception e) {
-                System.err.println("Error al registrar log: " + e.getMessage());
+                return error("La tarjeta seleccionada ha expirado");
             }
             
-            response.put("success", true);
-            response.put("message", "Pago recibido exitosamente");
-            response.put("montoPagado", alquiler.getMontoPagoParcial());
-            response.put("fechaPago", alquiler.getFechaPagoParcial().toString());
+            // La pasarela recibe la referencia de la tarjeta, no sus datos
+            return cobrarAlquiler(tipoPago, alquilerId, usuarioId, "TARJETA_GUARDADA", "tarjeta:" + tarjeta.getId(),
+                tarjeta.getUltimos4Digitos(), tarjeta.getNombreTitular(), ipCliente);
             
         } catch (Exception e) {
-            response.put("success", false);
-            response.put("message", "Error al procesar pago: " + e.getMessage());
+            return error("Error al procesar pago: " + e.getMessage());
         }
-        
-        return response;
     }
     
     /**
-     * Procesa el pago final usando una tarjeta guardada
+     * Valida que el pago del alquiler esté pendiente y lo envía a la pasarela.
+     * El registro del pago se hace cuando la pasarela lo captura (registrarCobro).
      */
-    @PostMapping("/procesar-pago-final-tarjeta-guardada")
-    @ResponseBody
-    public Map<String, Object> procesarPagoFinalConTarjetaGuardada(
-            @RequestParam String alquilerId,
-            @RequestParam String tarjetaId,
-            HttpSession session,
-            HttpServletRequest request) {
-        
-        Map<String, Object> response = new HashMap<>();
+    private CompletableFuture<Map<String, Object>> cobrarAlquiler(
+            String tipoPago,
+            String alquilerId,
+            String usuarioId,
+            String metodoPago,
+            String medioPago,
+            String ultimos4Digitos,
+            String nombreTitular,
+            String ipCliente) {
         
         try {
-            // Validar parámetros requeridos
+            // Validar que alquilerId no sea null
             if (alquilerId == null || alquilerId.trim().isEmpty()) {
-                response.put("success", false);
-                response.put("message", "ID de alquiler no proporcionado");
-                return response;
-            }
-            
-            if (tarjetaId == null || tarjetaId.trim().isEmpty()) {
-                response.put("success", false);
-                response.put("message", "ID de tarjeta no proporcionado");
-                return response;
-            }
-            
-            String usuarioId = (String) session.getAttribute("usuarioId");
-            
-            if (usuarioId == null) {
-                response.put("success", false);
-                response.put("message", "Debes iniciar sesión");
-                return response;
-            }
-            
-            // Obtener tarjeta guardada
-            Optional<TarjetaGuardada> tarjetaOpt = tarjetaServicio.obtenerTarjeta(tarjetaId, usuarioId);
-            if (tarjetaOpt.isEmpty()) {
-                response.put("success", false);
-                response.put("message", "Tarjeta no encontrada o no pertenece al usuario");
-                return response;
-            }
-            
-            TarjetaGuardada tarjeta = tarjetaOpt.get();
-            
-            // Verificar que no esté vencida
-            if (tarjeta.estaVencida()) {
-                response.put("success", false);
-                response.put("message", "La tarjeta seleccionada ha expirado");
-                return response;
+                return error("ID de alquiler inválido");
             }
             
             // Buscar alquiler
             Optional<Alquiler> alquilerOpt = alquilerRepositorio.findById(alquilerId);
             if (alquilerOpt.isEmpty()) {
-                response.put("success", false);
-                response.put("message", "Alquiler no encontrado");
-                return response;
+                return error("Alquiler no encontrado");
             }
             
             Alquiler alquiler = alquilerOpt.get();
+            boolean parcial = PAGO_PARCIAL.equals(tipoPago);
             
             // Verificar que pertenece al usuario
             if (!usuarioId.equals(alquiler.getUsuarioId())) {
-                response.put("success", false);
-                response.put("message", "No tienes permiso para realizar este pago");
-                return response;
+                return error("No tienes permiso para realizar este pago");
             }
             
-            // Verificar estado del alquiler
-            if (!"COMPLETADO".equals(alquiler.getEstado())) {
-                response.put("success", false);
-                response.put("message", "El alquiler debe estar en estado COMPLETADO");
-                return response;
+            // El 50% inicial se paga con el alquiler CONFIRMADO y el final con el alquiler COMPLETADO
+            String estadoRequerido = parcial ? "CONFIRMADO" : "COMPLETADO";
+            if (!estadoRequerido.equals(alquiler.getEstado())) {
+                return error("El alquiler debe estar en estado " + estadoRequerido + " para realizar este pago");
             }
             
-            if (!"PENDIENTE".equals(alquiler.getEstadoPagoFinal())) {
-                response.put("success", false);
-                response.put("message", "El pago final ya fue realizado");
-                return response;
+            // Verificar que el pago está pendiente
+            String estadoPago = parcial ? alquiler.getEstadoPagoParcial() : alquiler.getEstadoPagoFinal();
+            if (!"PENDIENTE".equals(estadoPago)) {
+                return error(parcial ? "El pago parcial ya fue realizado" : "El pago final ya fue realizado");
             }
             
-            // Crear registro de pago
-            Pago pago = new Pago(alquilerId, usuarioId, alquiler.getMontoSaldoPendiente(), "FINAL");
-            pago.setMetodoPago("TARJETA_GUARDADA");
-            pago.setUltimos4Digitos(tarjeta.getUltimos4Digitos());
-            pago.setNumeroTransaccion("TXN-" + UUID.randomUUID().toString().substring(0, 8).toUpperCase());
-            pagoRepositorio.save(pago);
-            
-            // Marcar pago como pagado
-            alquiler.marcarPagoFinalPagado();
-            alquilerRepositorio.save(alquiler);
+            Double monto = parcial ? alquiler.getMontoPagoParcial() : alquiler.getMontoSaldoPendiente();
+            if (monto == null || monto <= 0) {
+                return error("El monto a pagar no está calculado");
+            }
             
-            // Obtener usuario para logs y correo
-            Optional<Usuario> usuarioOpt = usuarioRepositorio.findById(usuarioId);
+            SolicitudCobro solicitud = new SolicitudCobro(alquilerId + ":" + tipoPago, usuarioId, monto, medioPago, nombreTitular);
+            return procesadorPagosServicio.cobrar(solicitud.getReferencia(), solicitud, resultado ->
+                    registrarCobro(resultado, alquilerId, tipoPago, metodoPago, ultimos4Digitos, monto, usuarioId, ipCliente))
+                .exceptionally(e -> {
+                    Throwable causa = e.getCause() != null ? e.getCause() : e;
+                    System.err.println("Error al registrar el pago del alquiler " + alquilerId + ": " + causa.getMessage());
+                    // Si el cobro llegó a capturarse, el procesador ya lo está reembolsando
+                    return respuestaError("Error al procesar pago: " + causa.getMessage()
+                            + ". Si se realizó algún cargo será reembolsado");
+                });
             
-            // Enviar comprobante
-            try {
-                if (usuarioOpt.isPresent()) {
-                    emailService.enviarComprobantePago(usuarioOpt.get(), pago, alquiler);
-                }
-            } catch (Exception e) {
-                System.err.println("Error al enviar correo: " + e.getMessage());
+        } catch (Exception e) {
+            return error("Error al procesar pago: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Registra el pago capturado. Se ejecuta en un hilo del procesador de pagos,
+     * por eso recibe el usuario y la IP en vez de la sesión y la petición.
+     * Solo puede fallar antes de asentar el pago: el procesador reembolsa el cobro si falla.
+     * Si no se sabe si el pago quedó asentado, responde sin fallar y lo resuelve la conciliación.
+     */
+    private Map<String, Object> registrarCobro(
+            ResultadoPasarela resultado,
+            String alquilerId,
+            String tipoPago,
+            String metodoPago,
+            String ultimos4Digitos,
+            double monto,
+            String usuarioId,
+            String ipCliente) {
+        
+        if (!resultado.isAprobado()) {
+            Map<String, Object> response = respuestaError(resultado.getMotivo());
+            response.put("reintentar", resultado.isReintentable());
+            return response;
+        }
+        
+        // Asentar el pago en el libro y aplicarlo al saldo del alquiler (una escritura atómica)
+        Pago pago = new Pago(alquilerId, usuarioId, monto, tipoPago);
+        pago.setMetodoPago(metodoPago);
+        pago.setUltimos4Digitos(ultimos4Digitos);
+        pago.setNumeroTransaccion(resultado.getNumeroTransaccion());
+        Alquiler alquiler = libroPagosServicio.asentarPago(pago);
+        if (alquiler == null) {
+            // No se sabe si el pago se aplicó: no se reembolsa aquí, la conciliación lo confirma o lo devuelve
+            Map<String, Object> response = respuestaError(
+                    "Recibimos tu pago pero aún no pudimos confirmarlo. Si no se aplica a tu alquiler será reembolsado");
+            response.put("pendienteConfirmacion", true);
+            return response;
+        }
+        
+        // Desde aquí el pago ya está asentado: nada de lo que sigue puede hacer fallar el cobro
+        try {
+            publicarPago(alquiler, pago);
+        } catch (Exception e) {
+            System.err.println("Error al publicar el pago: " + e.getMessage());
+        }
+        
+        // Obtener información del usuario para logs y correo
+        Optional<Usuario> usuarioOpt = Optional.empty();
+        try {
+            usuarioOpt = usuarioRepositorio.findById(usuarioId);
+        } catch (Exception e) {
+            System.err.println("Error al obtener el usuario del pago: " + e.getMessage());
+        }
+        
+        // Registrar el comprobante en el outbox de correos
+        try {
+            if (usuarioOpt.isPresent()) {
+                emailService.encolarComprobantePago(usuarioOpt.get(), pago, alquiler);
             }
-            
-            // Registrar en logs
-            try {
-                if (usuarioOpt.isPresent()) {
-                    Usuario usuario = usuarioOpt.get();
-                    activityLogServicio.logPayment(
-                        usuarioId, usuario.getNombre(), usuario.getCorreo(),
-                        "FINAL", alquiler.getMontoSaldoPendiente(), alquilerId,
-                        pago.getNumeroTransaccion(), request
-                    );
-                }
-            } catch (Exception e) {
-                System.err.println("Error al registrar log: " + e.getMessage());
+        } catch (Exception e) {
+            System.err.println("Error al enviar correo: " + e.getMessage());
+            // No fallar el pago si el correo falla
+        }
+        
+        // Registrar en logs
+        try {
+            if (usuarioOpt.isPresent()) {
+                Usuario usuario = usuarioOpt.get();
+                activityLogServicio.logPayment(
+                    usuarioId, 
+                    usuario.getNombre(), 
+                    usuario.getCorreo(),
+                    tipoPago, 
+                    monto, 
+                    alquilerId,
+                    pago.getNumeroTransaccion(),
+                    ipCliente
+                );
             }
-            
-            response.put("success", true);
-            response.put("message", "Pago recibido exitosamente");
-            response.put("montoPagado", alquiler.getMontoSaldoPendiente());
-            response.put("fechaPago", alquiler.getFechaPagoFinal().toString());
-            
         } catch (Exception e) {
-            response.put("success", false);
-            response.put("message", "Error al procesar pago: " + e.getMessage());
+            System.err.println("Error al registrar log de pago: " + e.getMessage());
+            // No fallar el pago si el log falla
         }
         
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("message", "Pago recibido exitosamente");
+        response.put("montoPagado", monto);
+        response.put("fechaPago", pago.getFechaPago().toString());
         return response;
     }
+    
+    private CompletableFuture<Map<String, Object>> error(String mensaje) {
+        return CompletableFuture.completedFuture(respuestaError(mensaje));
+    }
+    
+    private Map<String, Object> respuestaError(String mensaje) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", false);
+        response.put("message", mensaje);
+        return response;
+    }
+
+    /**
+     * Actualiza en vivo la campana de pagos y las páginas abiertas del usuario
+     */
+    private void publicarPago(Alquiler alquiler, Pago pago) {
+        Map<String, Object> datos = new HashMap<>();
+        datos.put("alquilerId", alquiler.getId());
+        datos.put("tipoPago", pago.getTipoPago());
+        eventPublisher.publishEvent(EventoNotificacion.paraUsuario(alquiler.getUsuarioId(), EventoNotificacion.PAGOS, datos));
+    }
 }
@@ -4,6 +4,7 @@ import com.furniterental.modelo.Producto;
 import com.furniterental.modelo.Categoria;
 import com.furniterental.servicio.ProductoService;
 import com.furniterental.servicio.CategoriaServicio;
+import com.furniterental.servicio.ImagenServicio;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -14,10 +15,7 @@ import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.util.List;
-import java.util.UUID;
 
 @Controller
 @RequestMapping("/admin")
@@ -29,8 +27,8 @@ public class ProductoController {
     @Autowired
     private CategoriaServicio categoriaServicio;
     
-    // Directorio donde se guardarán las imágenes
-    private final String UPLOAD_DIR = "src/main/resources/static/img/productos/";
+    @Autowired
+    private ImagenServicio imagenServicio;
     
     @GetMapping("/products")
     public String showProductsPage(Model model) {
@@ -59,16 +57,13 @@ public class ProductoController {
             
             // Procesar la imagen si se proporciona
             if (imagenProducto != null && !imagenProducto.isEmpty()) {
-                String fileName = UUID.randomUUID().toString() + "_" + imagenProducto.getOriginalFilename();
-                Path path = Path.of(UPLOAD_DIR + fileName);
-                Files.createDirectories(path.getParent());
-                Files.write(path, imagenProducto.getBytes());
-                producto.setImagenProducto("/img/productos/" + fileName);
+                String hash = imagenServicio.guardarImagen(imagenProducto.getBytes());
+                producto.setImagenProducto(imagenServicio.construirReferencia(hash));
             }
             
             productoService.saveProducto(producto);
             return ResponseEntity.ok().body("{\"success\": true, \"message\": \"Producto guardado correctamente\"}");
-        } catch (IOException e) {
+        } catch (IOException | IllegalArgumentException e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body("{\"success\": false, \"message\": \"Error al guardar el producto: " + e.getMessage() + "\"}");
         }
@@ -1,6 +1,9 @@
 package com.furniterental.controlador;
 
+import com.furniterental.dto.ResultadoBusqueda;
 import com.furniterental.modelo.Producto;
+import com.furniterental.servicio.BusquedaServicio;
+import com.furniterental.servicio.ImagenServicio;
 import com.furniterental.servicio.ProductoService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
@@ -9,10 +12,7 @@ import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.util.List;
-import java.util.UUID;
 
 @RestController
 @RequestMapping("/api/productos")
@@ -21,13 +21,28 @@ public class ProductoRestController {
     @Autowired
     private ProductoService productoService;
 
-    private final Path rutaImagenes = Path.of("src/main/resources/static/img/productos");
+    @Autowired
+    private ImagenServicio imagenServicio;
+
+    @Autowired
+    private BusquedaServicio busquedaServicio;
 
     @GetMapping
     public List<Producto> obtenerTodos() {
         return productoService.getAllProductos();
     }
 
+    // Búsqueda por texto con facetas de categoría, rango de precio y disponibilidad
+    @GetMapping("/buscar")
+    public ResultadoBusqueda buscar(@RequestParam(required = false) String q,
+                                    @RequestParam(required = false) String categoria,
+                                    @RequestParam(required = false) String precio,
+                                    @RequestParam(required = false) String disponibilidad,
+                                    @RequestParam(defaultValue = "0") int pagina,
+                                    @RequestParam(defaultValue = "24") int tamano) {
+        return busquedaServicio.buscar(q, categoria, precio, disponibilidad, pagina, Math.min(tamano, 100));
+    }
+
     @GetMapping("/{id}")
     public ResponseEntity<Producto> obtenerPorId(@PathVariable @NonNull String id) {
         return productoService.getProductoById(id)
@@ -38,6 +53,7 @@ public class ProductoRestController {
     @PostMapping
     public ResponseEntity<Producto> guardar(@RequestBody @NonNull Producto producto) {
         try {
+            producto.setImagenProducto(imagenServicio.normalizarReferencia(producto.getImagenProducto()));
             Producto guardado = productoService.saveProducto(producto);
             return ResponseEntity.ok(guardado);
         } catch (Exception e) {
@@ -58,19 +74,11 @@ public class ProductoRestController {
     @PostMapping("/upload")
     public ResponseEntity<String> subirImagen(@RequestParam("file") MultipartFile archivo) {
         try {
-            // Crear directorio si no existe
-            if (!Files.exists(rutaImagenes)) {
-                Files.createDirectories(rutaImagenes);
-            }
-
-            // Generar nombre único para el archivo
-            String nombreArchivo = UUID.randomUUID().toString() + "_" + archivo.getOriginalFilename();
-            
-            // Guardar archivo
-            Files.copy(archivo.getInputStream(), rutaImagenes.resolve(nombreArchivo));
+            // Guardar en el almacén de imágenes (el nombre es el hash del contenido)
+            String hash = imagenServicio.guardarImagen(archivo.getInputStream());
 
-            return ResponseEntity.ok("/img/productos/" + nombreArchivo);
-        } catch (IOException e) {
+            return ResponseEntity.ok(imagenServicio.construirReferencia(hash));
+        } catch (IOException | IllegalArgumentException e) {
             return ResponseEntity.badRequest().body("Error al subir imagen: " + e.getMessage());
         }
     }
@@ -501,54 +501,34 @@ public class ResenaControlador {
     }
     
     /**
-     * Aprobar todas las reseñas pendientes (Admin)
+     * Aprobar todas las reseñas pendientes (Admin), o solo las de un producto o las indicadas
      */
     @PostMapping("/admin/aprobar-todas")
     @ResponseBody
-    public ResponseEntity<Map<String, Object>> aprobarTodasLasResenas(HttpSession session) {
-        Map<String, Object> response = new HashMap<>();
-        
-        try {
-            // Verificar que sea administrador
-            String rol = (String) session.getAttribute("usuarioRol");
-            if (!"ADMIN".equals(rol)) {
-                response.put("success", false);
-                response.put("message", "Acceso denegado");
-                return ResponseEntity.status(403).body(response);
-            }
-            
-            List<Resena> resenasPendientes = resenaServicio.obtenerResenasPendientes();
-            int aprobadas = 0;
-            
-            for (Resena resena : resenasPendientes) {
-                try {
-                    resenaServicio.aprobarResena(resena.getId());
-                    aprobadas++;
-                } catch (Exception e) {
-                    System.err.println("Error al aprobar reseña " + resena.getId() + ": " + e.getMessage());
-                }
-            }
-            
-            response.put("success", true);
-            response.put("message", "Se aprobaron " + aprobadas + " reseña" + (aprobadas != 1 ? "s" : ""));
-            response.put("aprobadas", aprobadas);
-            
-            return ResponseEntity.ok(response);
-            
-        } catch (Exception e) {
-            response.put("success", false);
-            response.put("message", "Error al aprobar reseñas: " + e.getMessage());
-            return ResponseEntity.status(500).body(response);
-        }
+    public ResponseEntity<Map<String, Object>> aprobarTodasLasResenas(
+            @RequestParam(required = false) String productoId,
+            @RequestParam(required = false) List<String> ids,
+            HttpSession session) {
+        return moderarPendientes("APROBADA", productoId, ids, session);
     }
     
     /**
-     * Rechazar todas las reseñas pendientes (Admin)
+     * Rechazar todas las reseñas pendientes (Admin), o solo las de un producto o las indicadas
      */
     @PostMapping("/admin/rechazar-todas")
     @ResponseBody
-    public ResponseEntity<Map<String, Object>> rechazarTodasLasResenas(HttpSession session) {
+    public ResponseEntity<Map<String, Object>> rechazarTodasLasResenas(
+            @RequestParam(required = false) String productoId,
+            @RequestParam(required = false) List<String> ids,
+            HttpSession session) {
+        return moderarPendientes("RECHAZADA", productoId, ids, session);
+    }
+    
+    private ResponseEntity<Map<String, Object>> moderarPendientes(
+            String nuevoEstado, String productoId, List<String> ids, HttpSession session) {
+        
         Map<String, Object> response = new HashMap<>();
+        boolean aprobar = "APROBADA".equals(nuevoEstado);
         
         try {
             // Verificar que sea administrador
@@ -559,27 +539,23 @@ public class ResenaControlador {
                 return ResponseEntity.status(403).body(response);
             }
             
-            List<Resena> resenasPendientes = resenaServicio.obtenerResenasPendientes();
-            int rechazadas = 0;
-            
-            for (Resena resena : resenasPendientes) {
-                try {
-                    resenaServicio.rechazarResena(resena.getId());
-                    rechazadas++;
-                } catch (Exception e) {
-                    System.err.println("Error al rechazar reseña " + resena.getId() + ": " + e.getMessage());
-                }
-            }
+            // Una sola escritura: el conteo es exactamente lo que cambió esta operación
+            long moderadas = resenaServicio.moderarPendientes(nuevoEstado, productoId, ids);
             
             response.put("success", true);
-            response.put("message", "Se rechazaron " + rechazadas + " reseña" + (rechazadas != 1 ? "s" : ""));
-            response.put("rechazadas", rechazadas);
+            response.put("message", "Se " + (aprobar ? "aprobaron " : "rechazaron ") + moderadas
+                    + " reseña" + (moderadas != 1 ? "s" : ""));
+            response.put(aprobar ? "aprobadas" : "rechazadas", moderadas);
+            if (ids != null) {
+                // Las indicadas que ya no estaban pendientes
+                response.put("omitidas", ids.stream().distinct().count() - moderadas);
+            }
             
             return ResponseEntity.ok(response);
             
         } catch (Exception e) {
             response.put("success", false);
-            response.put("message", "Error al rechazar reseñas: " + e.getMessage());
+            response.put("message", "Error al " + (aprobar ? "aprobar" : "rechazar") + " reseñas: " + e.getMessage());
             return ResponseEntity.status(500).body(response);
         }
     }
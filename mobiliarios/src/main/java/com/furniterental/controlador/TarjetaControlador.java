@@ -325,7 +325,7 @@ public class TarjetaControlador {
     }
     
     /**
-     * Limpia tarjetas duplicadas del usuario (mantiene solo una por cada últimos 4 dígitos)
+     * Limpia tarjetas duplicadas del usuario (misma tarjeta guardada más de una vez)
      */
     @PostMapping("/limpiar-duplicadas")
     @ResponseBody
@@ -7,25 +7,31 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.ui.Model;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
-import com.furniterental.repositorio.ProductoRepositorio;
-import com.furniterental.modelo.Producto;
+import com.furniterental.dto.ProductoResumen;
+import com.furniterental.dto.ResultadoBusqueda;
 import com.furniterental.modelo.Usuario;
 import com.furniterental.modelo.Categoria;
+import com.furniterental.servicio.BusquedaServicio;
+import com.furniterental.servicio.CatalogoServicio;
 import com.furniterental.servicio.CategoriaServicio;
 import com.furniterental.servicio.UsuarioServicio;
 import com.furniterental.servicio.ActivityLogServicio;
 import com.furniterental.servicio.EmailServicio;
 import jakarta.servlet.http.HttpSession;
 import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
 import java.util.List;
-import java.util.Comparator;
-import java.util.stream.Collectors;
 
 @Controller
 public class VistaControlador {
 
     @Autowired
-    private ProductoRepositorio productoRepositorio;
+    private CatalogoServicio catalogoServicio;
+    
+    @Autowired
+    private BusquedaServicio busquedaServicio;
     
     @Autowired
     private CategoriaServicio categoriaServicio;
@@ -41,18 +47,11 @@ public class VistaControlador {
 
     @GetMapping("/")
     public String index(Model model) {
-        List<Producto> productos = productoRepositorio.findAll();
-        
-        // Ordenar productos: primero los que tienen stock, luego los agotados
-        productos = productos.stream()
-            .sorted(Comparator.comparing((Producto p) -> {
-                Integer stock = p.getStock();
-                return (stock == null || stock <= 0) ? 1 : 0; // 0 = con stock (primero), 1 = sin stock (último)
-            }))
-            .collect(Collectors.toList());
+        // La portada solo muestra los primeros productos del catálogo
+        Page<ProductoResumen> productos = catalogoServicio.obtenerPagina(null, 0, 4);
         
         List<Categoria> categorias = categoriaServicio.obtenerTodasCategorias();
-        model.addAttribute("productos", productos);
+        model.addAttribute("productos", productos.getContent());
         model.addAttribute("categorias", categorias);
         return "index";  // Este archivo está en la raíz de templates
     }
@@ -63,19 +62,26 @@ public class VistaControlador {
     }
     
     @GetMapping("/store")
-    public String store(Model model) {
-        List<Producto> productos = productoRepositorio.findAll();
-        
-        // Ordenar productos: primero los que tienen stock, luego los agotados
-        productos = productos.stream()
-            .sorted(Comparator.comparing((Producto p) -> {
-                Integer stock = p.getStock();
-                return (stock == null || stock <= 0) ? 1 : 0; // 0 = con stock (primero), 1 = sin stock (último)
-            }))
-            .collect(Collectors.toList());
+    public String store(@RequestParam(required = false) String q,
+                        @RequestParam(required = false) String categoria,
+                        @RequestParam(defaultValue = "0") int pagina,
+                        Model model) {
+        Page<ProductoResumen> productos;
+        if (q != null && !q.isBlank()) {
+            // Búsqueda por texto sobre el índice en memoria
+            ResultadoBusqueda resultado = busquedaServicio.buscar(q, categoria, null, null, pagina, CatalogoServicio.TAMANO_PAGINA);
+            productos = new PageImpl<>(resultado.getResultados(),
+                PageRequest.of(resultado.getPagina(), resultado.getTamano()), resultado.getTotal());
+        } else {
+            // Paginación, filtro por categoría y orden (con stock primero) se resuelven en la base de datos
+            productos = catalogoServicio.obtenerPagina(categoria, pagina, CatalogoServicio.TAMANO_PAGINA);
+        }
         
         List<Categoria> categorias = categoriaServicio.obtenerTodasCategorias();
-        model.addAttribute("productos", productos);
+        model.addAttribute("productos", productos.getContent());
+        model.addAttribute("paginaProductos", productos);
+        model.addAttribute("busqueda", q);
+        model.addAttribute("categoriaSeleccionada", categoria);
         model.addAttribute("categorias", categorias);
         return "pages/store";  // Este archivo está en la subcarpeta pages
     }
@@ -0,0 +1,28 @@
+package com.furniterental.dto;
+
+import org.springframework.data.annotation.Id;
+
+/**
+ * Resultado de agrupar los productos por categoría
+ */
+public class ConteoCategoria {
+    @Id
+    private String categoria;
+    private long cantidad;
+    
+    public String getCategoria() {
+        return categoria;
+    }
+    
+    public void setCategoria(String categoria) {
+        this.categoria = categoria;
+    }
+    
+    public long getCantidad() {
+        return cantidad;
+    }
+    
+    public void setCantidad(long cantidad) {
+        this.cantidad = cantidad;
+    }
+}
@@ -0,0 +1,55 @@
+package com.furniterental.dto;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Evento de dominio que se envía a los navegadores conectados al centro de notificaciones.
+ * Se publica con ApplicationEventPublisher desde el código que cambia el dato (checkout,
+ * pagos, reseñas, cambios de estado) y el navegador decide qué recargar según el tipo.
+ */
+public class EventoNotificacion {
+    
+    public static final String CANAL_ADMIN = "admin";
+    private static final String PREFIJO_USUARIO = "usuario:";
+    
+    // Tipos de evento (nombre del evento SSE)
+    public static final String ALQUILER = "alquiler";
+    public static final String PAGOS = "pagos";
+    public static final String PEDIDOS = "pedidos";
+    public static final String RESENAS = "resenas";
+    
+    private final String canal;
+    private final String tipo;
+    private final Map<String, Object> datos;
+    
+    private EventoNotificacion(String canal, String tipo, Map<String, Object> datos) {
+        this.canal = canal;
+        this.tipo = tipo;
+        this.datos = datos != null ? datos : Collections.emptyMap();
+    }
+    
+    public static EventoNotificacion paraUsuario(String usuarioId, String tipo, Map<String, Object> datos) {
+        return new EventoNotificacion(canalUsuario(usuarioId), tipo, datos);
+    }
+    
+    public static EventoNotificacion paraAdmin(String tipo, Map<String, Object> datos) {
+        return new EventoNotificacion(CANAL_ADMIN, tipo, datos);
+    }
+    
+    public static String canalUsuario(String usuarioId) {
+        return PREFIJO_USUARIO + usuarioId;
+    }
+    
+    public String getCanal() {
+        return canal;
+    }
+    
+    public String getTipo() {
+        return tipo;
+    }
+    
+    public Map<String, Object> getDatos() {
+        return datos;
+    }
+}
@@ -0,0 +1,79 @@
+package com.furniterental.dto;
+
+import com.furniterental.modelo.Alquiler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pedidos de un usuario en el panel de administración: totales calculados en la base
+ * de datos y solo la porción de pedidos que se muestra (sin items).
+ */
+public class GrupoPedidos {
+    private String usuarioId;
+    private String usuarioNombre;
+    private String usuarioCorreo;
+    private long totalPedidos;
+    private double montoTotal;
+    private List<Alquiler> pedidos = new ArrayList<>();
+    private Map<String, Integer> cantidadItems = new HashMap<>();
+    
+    public String getUsuarioId() {
+        return usuarioId;
+    }
+    
+    public void setUsuarioId(String usuarioId) {
+        this.usuarioId = usuarioId;
+    }
+    
+    public String getUsuarioNombre() {
+        return usuarioNombre;
+    }
+    
+    public void setUsuarioNombre(String usuarioNombre) {
+        this.usuarioNombre = usuarioNombre;
+    }
+    
+    public String getUsuarioCorreo() {
+        return usuarioCorreo;
+    }
+    
+    public void setUsuarioCorreo(String usuarioCorreo) {
+        this.usuarioCorreo = usuarioCorreo;
+    }
+    
+    public long getTotalPedidos() {
+        return totalPedidos;
+    }
+    
+    public void setTotalPedidos(long totalPedidos) {
+        this.totalPedidos = totalPedidos;
+    }
+    
+    public double getMontoTotal() {
+        return montoTotal;
+    }
+    
+    public void setMontoTotal(double montoTotal) {
+        this.montoTotal = montoTotal;
+    }
+    
+    public List<Alquiler> getPedidos() {
+        return pedidos;
+    }
+    
+    public void setPedidos(List<Alquiler> pedidos) {
+        this.pedidos = pedidos;
+    }
+    
+    // Cantidad de items por id de pedido (los items se cargan al desplegar el pedido)
+    public Map<String, Integer> getCantidadItems() {
+        return cantidadItems;
+    }
+    
+    public void setCantidadItems(Map<String, Integer> cantidadItems) {
+        this.cantidadItems = cantidadItems;
+    }
+}
@@ -0,0 +1,55 @@
+package com.furniterental.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Página de pedidos agrupados por usuario para el panel de administración
+ */
+public class PaginaPedidos {
+    private List<GrupoPedidos> grupos = new ArrayList<>();
+    private long totalUsuarios;
+    private long totalPedidos;
+    private int pagina;
+    private int totalPaginas;
+    
+    public List<GrupoPedidos> getGrupos() {
+        return grupos;
+    }
+    
+    public void setGrupos(List<GrupoPedidos> grupos) {
+        this.grupos = grupos;
+    }
+    
+    public long getTotalUsuarios() {
+        return totalUsuarios;
+    }
+    
+    public void setTotalUsuarios(long totalUsuarios) {
+        this.totalUsuarios = totalUsuarios;
+    }
+    
+    public long getTotalPedidos() {
+        return totalPedidos;
+    }
+    
+    public void setTotalPedidos(long totalPedidos) {
+        this.totalPedidos = totalPedidos;
+    }
+    
+    public int getPagina() {
+        return pagina;
+    }
+    
+    public void setPagina(int pagina) {
+        this.pagina = pagina;
+    }
+    
+    public int getTotalPaginas() {
+        return totalPaginas;
+    }
+    
+    public void setTotalPaginas(int totalPaginas) {
+        this.totalPaginas = totalPaginas;
+    }
+}
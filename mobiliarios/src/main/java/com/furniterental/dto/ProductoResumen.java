@@ -0,0 +1,75 @@
+package com.furniterental.dto;
+
+/**
+ * Vista reducida de un producto para los listados del catálogo.
+ * Solo se leen de la base de datos los campos que muestran las tarjetas.
+ */
+public class ProductoResumen {
+    private String id;
+    private String nombreProducto;
+    private String descripcionProducto;
+    private Double precioProducto;
+    private String categoriaProducto;
+    private String imagenProducto;
+    private Integer stock;
+    
+    public String getId() {
+        return id;
+    }
+    
+    public void setId(String id) {
+        this.id = id;
+    }
+    
+    public String getNombreProducto() {
+        return nombreProducto;
+    }
+    
+    public void setNombreProducto(String nombreProducto) {
+        this.nombreProducto = nombreProducto;
+    }
+    
+    public String getDescripcionProducto() {
+        return descripcionProducto;
+    }
+    
+    public void setDescripcionProducto(String descripcionProducto) {
+        this.descripcionProducto = descripcionProducto;
+    }
+    
+    public Double getPrecioProducto() {
+        return precioProducto;
+    }
+    
+    public void setPrecioProducto(Double precioProducto) {
+        this.precioProducto = precioProducto;
+    }
+    
+    public String getCategoriaProducto() {
+        return categoriaProducto;
+    }
+    
+    public void setCategoriaProducto(String categoriaProducto) {
+        this.categoriaProducto = categoriaProducto;
+    }
+    
+    public String getImagenProducto() {
+        return imagenProducto;
+    }
+    
+    public void setImagenProducto(String imagenProducto) {
+        this.imagenProducto = imagenProducto;
+    }
+    
+    public Integer getStock() {
+        return stock;
+    }
+    
+    public void setStock(Integer stock) {
+        this.stock = stock;
+    }
+    
+    public boolean tieneStock() {
+        return stock != null && stock > 0;
+    }
+}
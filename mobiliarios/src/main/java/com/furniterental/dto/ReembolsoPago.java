@@ -0,0 +1,24 @@
+package com.furniterental.dto;
+
+/**
+ * Evento que publica el procesador de pagos cuando la pasarela aprueba un reembolso.
+ * El libro de pagos lo usa para no confirmar nunca el asiento de un cobro devuelto.
+ */
+public class ReembolsoPago {
+
+    private final String numeroTransaccion;
+    private final double monto;
+
+    public ReembolsoPago(String numeroTransaccion, double monto) {
+        this.numeroTransaccion = numeroTransaccion;
+        this.monto = monto;
+    }
+
+    public String getNumeroTransaccion() {
+        return numeroTransaccion;
+    }
+
+    public double getMonto() {
+        return monto;
+    }
+}
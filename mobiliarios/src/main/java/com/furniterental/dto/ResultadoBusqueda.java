@@ -0,0 +1,83 @@
+package com.furniterental.dto;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resultado de una búsqueda en el catálogo: la página de productos encontrados
+ * y el conteo por cada faceta (categoría, rango de precio y disponibilidad).
+ */
+public class ResultadoBusqueda {
+    private List<ProductoResumen> resultados;
+    private long total;
+    private int pagina;
+    private int tamano;
+    private Map<String, Long> categorias;
+    private Map<String, Long> rangosPrecio;
+    private Map<String, Long> disponibilidad;
+    private double tiempoMs;
+    
+    public List<ProductoResumen> getResultados() {
+        return resultados;
+    }
+    
+    public void setResultados(List<ProductoResumen> resultados) {
+        this.resultados = resultados;
+    }
+    
+    public long getTotal() {
+        return total;
+    }
+    
+    public void setTotal(long total) {
+        this.total = total;
+    }
+    
+    public int getPagina() {
+        return pagina;
+    }
+    
+    public void setPagina(int pagina) {
+        this.pagina = pagina;
+    }
+    
+    public int getTamano() {
+        return tamano;
+    }
+    
+    public void setTamano(int tamano) {
+        this.tamano = tamano;
+    }
+    
+    public Map<String, Long> getCategorias() {
+        return categorias;
+    }
+    
+    public void setCategorias(Map<String, Long> categorias) {
+        this.categorias = categorias;
+    }
+    
+    public Map<String, Long> getRangosPrecio() {
+        return rangosPrecio;
+    }
+    
+    public void setRangosPrecio(Map<String, Long> rangosPrecio) {
+        this.rangosPrecio = rangosPrecio;
+    }
+    
+    public Map<String, Long> getDisponibilidad() {
+        return disponibilidad;
+    }
+    
+    public void setDisponibilidad(Map<String, Long> disponibilidad) {
+        this.disponibilidad = disponibilidad;
+    }
+    
+    public double getTiempoMs() {
+        return tiempoMs;
+    }
+    
+    public void setTiempoMs(double tiempoMs) {
+        this.tiempoMs = tiempoMs;
+    }
+}
@@ -0,0 +1,66 @@
+package com.furniterental.dto;
+
+/**
+ * Respuesta de la pasarela a una autorización o captura
+ */
+public class ResultadoPasarela {
+
+    public static final String APROBADO = "APROBADO";
+    public static final String RECHAZADO = "RECHAZADO";
+    // El cobro no llegó a completarse del lado de la pasarela: el usuario puede reintentar
+    public static final String TIEMPO_AGOTADO = "TIEMPO_AGOTADO";
+    public static final String OCUPADO = "OCUPADO";
+    // La captura no respondió a tiempo: si termina cobrándose, el procesador la reembolsa
+    public static final String PENDIENTE_CONFIRMACION = "PENDIENTE_CONFIRMACION";
+
+    private final String estado;
+    private final String autorizacionId;
+    private final String numeroTransaccion;
+    private final String motivo;
+
+    private ResultadoPasarela(String estado, String autorizacionId, String numeroTransaccion, String motivo) {
+        this.estado = estado;
+        this.autorizacionId = autorizacionId;
+        this.numeroTransaccion = numeroTransaccion;
+        this.motivo = motivo;
+    }
+
+    public static ResultadoPasarela aprobado(String autorizacionId, String numeroTransaccion) {
+        return new ResultadoPasarela(APROBADO, autorizacionId, numeroTransaccion, null);
+    }
+
+    public static ResultadoPasarela rechazado(String motivo) {
+        return new ResultadoPasarela(RECHAZADO, null, null, motivo);
+    }
+
+    public static ResultadoPasarela noCompletado(String estado, String motivo) {
+        return new ResultadoPasarela(estado, null, null, motivo);
+    }
+
+    public boolean isAprobado() {
+        return APROBADO.equals(estado);
+    }
+
+    /**
+     * true si el cobro falló por carga o tiempo y no por los datos de la tarjeta
+     */
+    public boolean isReintentable() {
+        return TIEMPO_AGOTADO.equals(estado) || OCUPADO.equals(estado) || PENDIENTE_CONFIRMACION.equals(estado);
+    }
+
+    public String getEstado() {
+        return estado;
+    }
+
+    public String getAutorizacionId() {
+        return autorizacionId;
+    }
+
+    public String getNumeroTransaccion() {
+        return numeroTransaccion;
+    }
+
+    public String getMotivo() {
+        return motivo;
+    }
+}
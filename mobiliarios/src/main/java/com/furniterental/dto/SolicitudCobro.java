@@ -0,0 +1,42 @@
+package com.furniterental.dto;
+
+/**
+ * Datos que se envían a la pasarela para autorizar un cobro.
+ * medioPago es el número de tarjeta o, para tarjetas guardadas, la referencia de la tarjeta.
+ */
+public class SolicitudCobro {
+
+    private final String referencia;
+    private final String usuarioId;
+    private final double monto;
+    private final String medioPago;
+    private final String nombreTitular;
+
+    public SolicitudCobro(String referencia, String usuarioId, double monto, String medioPago, String nombreTitular) {
+        this.referencia = referencia;
+        this.usuarioId = usuarioId;
+        this.monto = monto;
+        this.medioPago = medioPago;
+        this.nombreTitular = nombreTitular;
+    }
+
+    public String getReferencia() {
+        return referencia;
+    }
+
+    public String getUsuarioId() {
+        return usuarioId;
+    }
+
+    public double getMonto() {
+        return monto;
+    }
+
+    public String getMedioPago() {
+        return medioPago;
+    }
+
+    public String getNombreTitular() {
+        return nombreTitular;
+    }
+}
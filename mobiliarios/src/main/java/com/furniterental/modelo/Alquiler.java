@@ -1,11 +1,23 @@
 package com.furniterental.modelo;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 @Document(collection = "alquileres")
+@CompoundIndexes({
+    // Recorridos de las transiciones programadas (TransicionesProgramadasServicio)
+    @CompoundIndex(name = "estado_fechaAlquiler", def = "{'estado': 1, 'fechaAlquiler': 1}"),
+    @CompoundIndex(name = "estado_fechaInicio", def = "{'estado': 1, 'fechaInicio': 1}"),
+    @CompoundIndex(name = "estado_fechaFin", def = "{'estado': 1, 'fechaFin': 1}"),
+    // Pedidos de un usuario, del más reciente al más antiguo
+    @CompoundIndex(name = "usuarioId_fechaAlquiler", def = "{'usuarioId': 1, 'fechaAlquiler': -1}")
+})
 public class Alquiler {
     @Id
     private String id;
@@ -37,6 +49,25 @@ public class Alquiler {
     private String estadoPagoParcial;           // PENDIENTE, PAGADO
     private String estadoPagoFinal;             // PENDIENTE, PAGADO
     private Boolean pagoContraEntrega;          // true si el usuario eligió pagar contra entrega
+    private Double montoPagado;                 // Suma de los pagos asentados en el libro (LibroPagosServicio)
+    
+    // Devolución de las unidades al inventario (una sola vez por alquiler)
+    private Boolean inventarioDevuelto;
+    private LocalDateTime fechaDevolucionInventario;
+    
+    // Unidades de un alquiler anterior a la reserva por fechas devueltas a Producto.stock (MigracionStockServicio)
+    private Boolean stockRestituido;
+    
+    // Alquiler EN_CURSO cuya fecha de fin ya pasó sin registrarse la devolución
+    private Boolean devolucionVencida;
+    private LocalDateTime fechaDevolucionVencida;
+    
+    // Alquiler CONFIRMADO cuya fecha de inicio llegó sin el pago del 50% inicial: no se inicia, lo revisa un administrador
+    private Boolean inicioSinPago;
+    private LocalDateTime fechaInicioSinPago;
+    
+    // Historial de cambios de estado (solo se agregan entradas)
+    private List<TransicionEstado> historialEstados = new ArrayList<>();
 
     public Alquiler() {
         this.fechaAlquiler = LocalDateTime.now();
@@ -304,6 +335,27 @@ public class Alquiler {
         this.fechaPagoFinal = LocalDateTime.now();
     }
     
+    /**
+     * Indica si el usuario tiene un pago por hacer en este alquiler: el 50% inicial
+     * cuando está CONFIRMADO o el 50% final cuando está COMPLETADO.
+     * Los alquileres con pago contra entrega nunca tienen pagos pendientes en línea.
+     */
+    public boolean tienePagoPendiente() {
+        if (Boolean.TRUE.equals(this.pagoContraEntrega)) {
+            return false;
+        }
+        return ("CONFIRMADO".equals(this.estado) && "PENDIENTE".equals(this.estadoPagoParcial))
+            || ("COMPLETADO".equals(this.estado) && "PENDIENTE".equals(this.estadoPagoFinal));
+    }
+    
+    public Double getMontoPagado() {
+        return montoPagado;
+    }
+    
+    public void setMontoPagado(Double montoPagado) {
+        this.montoPagado = montoPagado;
+    }
+    
     public Boolean getPagoContraEntrega() {
         return pagoContraEntrega;
     }
@@ -311,4 +363,88 @@ public class Alquiler {
     public void setPagoContraEntrega(Boolean pagoContraEntrega) {
         this.pagoContraEntrega = pagoContraEntrega;
     }
+    
+    public Boolean getInventarioDevuelto() {
+        return inventarioDevuelto;
+    }
+    
+    public void setInventarioDevuelto(Boolean inventarioDevuelto) {
+        this.inventarioDevuelto = inventarioDevuelto;
+    }
+    
+    public LocalDateTime getFechaDevolucionInventario() {
+        return fechaDevolucionInventario;
+    }
+    
+    public void setFechaDevolucionInventario(LocalDateTime fechaDevolucionInventario) {
+        this.fechaDevolucionInventario = fechaDevolucionInventario;
+    }
+    
+    public Boolean getStockRestituido() {
+        return stockRestituido;
+    }
+    
+    public void setStockRestituido(Boolean stockRestituido) {
+        this.stockRestituido = stockRestituido;
+    }
+    
+    public Boolean getDevolucionVencida() {
+        return devolucionVencida;
+    }
+    
+    public void setDevolucionVencida(Boolean devolucionVencida) {
+        this.devolucionVencida = devolucionVencida;
+    }
+    
+    public LocalDateTime getFechaDevolucionVencida() {
+        return fechaDevolucionVencida;
+    }
+    
+    public void setFechaDevolucionVencida(LocalDateTime fechaDevolucionVencida) {
+        this.fechaDevolucionVencida = fechaDevolucionVencida;
+    }
+    
+    public Boolean getInicioSinPago() {
+        return inicioSinPago;
+    }
+    
+    public void setInicioSinPago(Boolean inicioSinPago) {
+        this.inicioSinPago = inicioSinPago;
+    }
+    
+    public LocalDateTime getFechaInicioSinPago() {
+        return fechaInicioSinPago;
+    }
+    
+    public void setFechaInicioSinPago(LocalDateTime fechaInicioSinPago) {
+        this.fechaInicioSinPago = fechaInicioSinPago;
+    }
+    
+    public List<TransicionEstado> getHistorialEstados() {
+        return historialEstados != null ? Collections.unmodifiableList(historialEstados) : Collections.emptyList();
+    }
+    
+    /**
+     * Registra la creación del alquiler como primera entrada del historial
+     */
+    public void registrarCreacion(String usuarioId, String usuarioNombre) {
+        agregarTransicion(new TransicionEstado(null, this.estado, usuarioId, usuarioNombre, "USUARIO", "Alquiler creado"));
+    }
+    
+    /**
+     * Cambia el estado y agrega la transición al historial.
+     * La validez de la transición se comprueba antes con {@link EstadoAlquiler#puedePasarA}.
+     * @param origen USUARIO, ADMIN o SISTEMA
+     */
+    public void cambiarEstado(String nuevoEstado, String usuarioId, String usuarioNombre, String origen, String motivo) {
+        agregarTransicion(new TransicionEstado(this.estado, nuevoEstado, usuarioId, usuarioNombre, origen, motivo));
+        this.estado = nuevoEstado;
+    }
+    
+    private void agregarTransicion(TransicionEstado transicion) {
+        if (historialEstados == null) {
+            historialEstados = new ArrayList<>();
+        }
+        historialEstados.add(transicion);
+    }
 }
@@ -0,0 +1,53 @@
+package com.furniterental.modelo;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+import java.time.LocalDateTime;
+
+/**
+ * Arrendamiento (lease) de una tarea programada: solo la instancia propietaria la ejecuta
+ * hasta que vence el plazo. El id es el nombre de la tarea.
+ */
+@Document(collection = "bloqueos_tareas")
+public class BloqueoTarea {
+    
+    @Id
+    private String id;
+    
+    private String propietario;
+    private LocalDateTime bloqueadoHasta;
+    private LocalDateTime fechaAdquirido;
+    
+    // Getters y Setters
+    public String getId() {
+        return id;
+    }
+    
+    public void setId(String id) {
+        this.id = id;
+    }
+    
+    public String getPropietario() {
+        return propietario;
+    }
+    
+    public void setPropietario(String propietario) {
+        this.propietario = propietario;
+    }
+    
+    public LocalDateTime getBloqueadoHasta() {
+        return bloqueadoHasta;
+    }
+    
+    public void setBloqueadoHasta(LocalDateTime bloqueadoHasta) {
+        this.bloqueadoHasta = bloqueadoHasta;
+    }
+    
+    public LocalDateTime getFechaAdquirido() {
+        return fechaAdquirido;
+    }
+    
+    public void setFechaAdquirido(LocalDateTime fechaAdquirido) {
+        this.fechaAdquirido = fechaAdquirido;
+    }
+}
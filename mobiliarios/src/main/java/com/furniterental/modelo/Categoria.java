@@ -1,6 +1,7 @@
 package com.furniterental.modelo;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 import java.time.LocalDateTime;
 
@@ -10,6 +11,7 @@ public class Categoria {
     @Id
     private String id;
     
+    @Indexed
     private String nombre;
     private String descripcion;
     private String icono; // Bootstrap icon class (e.g., "bi-chair")
@@ -0,0 +1,187 @@
+package com.furniterental.modelo;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+import java.time.LocalDateTime;
+
+/**
+ * Correo pendiente de envío (outbox). Se guarda justo después del cambio que lo origina
+ * y lo envía en lotes {@link com.furniterental.servicio.RelayCorreosServicio}. Al quedar
+ * ENVIADO o FALLIDO se borra el contenido (puede llevar códigos de verificación) y el
+ * documento se elimina pasados los días de retención.
+ */
+@Document(collection = "outbox_correos")
+@CompoundIndex(name = "estado_proximoIntento", def = "{'estado': 1, 'proximoIntento': 1}")
+public class CorreoSaliente {
+    
+    public static final String PENDIENTE = "PENDIENTE";
+    public static final String ENVIANDO = "ENVIANDO";
+    public static final String ENVIADO = "ENVIADO";
+    public static final String FALLIDO = "FALLIDO";
+    
+    @Id
+    private String id;
+    
+    // Tipo de correo (cambio-estado-alquiler, comprobante-pago, ...) e id de la entidad que lo originó
+    private String tipo;
+    private String referencia;
+    
+    private String destinatario;
+    private String asunto;
+    private String contenidoHtml;
+    
+    private String estado;
+    private int intentos;
+    private LocalDateTime proximoIntento;
+    
+    // Reclamo del relay que lo está enviando; si vence, otro ciclo puede retomarlo
+    private String token;
+    private LocalDateTime bloqueadoHasta;
+    
+    private String ultimoError;
+    private LocalDateTime fechaCreacion;
+    private LocalDateTime fechaEnvio;
+    
+    // Al quedar ENVIADO o FALLIDO: el índice TTL borra el documento en esta fecha
+    @Indexed(name = "purgarEn_ttl", expireAfter = "0s")
+    private LocalDateTime purgarEn;
+    
+    // Constructores
+    public CorreoSaliente() {
+        this.estado = PENDIENTE;
+        this.fechaCreacion = LocalDateTime.now();
+        this.proximoIntento = this.fechaCreacion;
+    }
+    
+    public CorreoSaliente(String tipo, String referencia, String destinatario, String asunto, String contenidoHtml) {
+        this();
+        this.tipo = tipo;
+        this.referencia = referencia;
+        this.destinatario = destinatario;
+        this.asunto = asunto;
+        this.contenidoHtml = contenidoHtml;
+    }
+    
+    // Getters y Setters
+    public String getId() {
+        return id;
+    }
+    
+    public void setId(String id) {
+        this.id = id;
+    }
+    
+    public String getTipo() {
+        return tipo;
+    }
+    
+    public void setTipo(String tipo) {
+        this.tipo = tipo;
+    }
+    
+    public String getReferencia() {
+        return referencia;
+    }
+    
+    public void setReferencia(String referencia) {
+        this.referencia = referencia;
+    }
+    
+    public String getDestinatario() {
+        return destinatario;
+    }
+    
+    public void setDestinatario(String destinatario) {
+        this.destinatario = destinatario;
+    }
+    
+    public String getAsunto() {
+        return asunto;
+    }
+    
+    public void setAsunto(String asunto) {
+        this.asunto = asunto;
+    }
+    
+    public String getContenidoHtml() {
+        return contenidoHtml;
+    }
+    
+    public void setContenidoHtml(String contenidoHtml) {
+        this.contenidoHtml = contenidoHtml;
+    }
+    
+    public String getEstado() {
+        return estado;
+    }
+    
+    public void setEstado(String estado) {
+        this.estado = estado;
+    }
+    
+    public int getIntentos() {
+        return intentos;
+    }
+    
+    public void setIntentos(int intentos) {
+        this.intentos = intentos;
+    }
+    
+    public LocalDateTime getProximoIntento() {
+        return proximoIntento;
+    }
+    
+    public void setProximoIntento(LocalDateTime proximoIntento) {
+        this.proximoIntento = proximoIntento;
+    }
+    
+    public String getToken() {
+        return token;
+    }
+    
+    public void setToken(String token) {
+        this.token = token;
+    }
+    
+    public LocalDateTime getBloqueadoHasta() {
+        return bloqueadoHasta;
+    }
+    
+    public void setBloqueadoHasta(LocalDateTime bloqueadoHasta) {
+        this.bloqueadoHasta = bloqueadoHasta;
+    }
+    
+    public String getUltimoError() {
+        return ultimoError;
+    }
+    
+    public void setUltimoError(String ultimoError) {
+        this.ultimoError = ultimoError;
+    }
+    
+    public LocalDateTime getFechaCreacion() {
+        return fechaCreacion;
+    }
+    
+    public void setFechaCreacion(LocalDateTime fechaCreacion) {
+        this.fechaCreacion = fechaCreacion;
+    }
+    
+    public LocalDateTime getFechaEnvio() {
+        return fechaEnvio;
+    }
+    
+    public void setFechaEnvio(LocalDateTime fechaEnvio) {
+        this.fechaEnvio = fechaEnvio;
+    }
+    
+    public LocalDateTime getPurgarEn() {
+        return purgarEn;
+    }
+    
+    public void setPurgarEn(LocalDateTime purgarEn) {
+        this.purgarEn = purgarEn;
+    }
+}
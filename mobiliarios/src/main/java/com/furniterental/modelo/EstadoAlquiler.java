@@ -0,0 +1,72 @@
+package com.furniterental.modelo;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Estados de un alquiler y transiciones permitidas entre ellos.
+ * Flujo normal: PENDIENTE → CONFIRMADO → EN_CURSO → COMPLETADO.
+ * Un alquiler pendiente también puede cancelarse. COMPLETADO y CANCELADO son finales.
+ *
+ * Las tablas de transición se calculan una vez al cargar la clase (EnumSet por estado),
+ * así que validar una transición es una comprobación de bits.
+ */
+public enum EstadoAlquiler {
+    
+    PENDIENTE("Pendiente"),
+    CONFIRMADO("Confirmado"),
+    EN_CURSO("En Curso"),
+    COMPLETADO("Completado"),
+    CANCELADO("Cancelado");
+    
+    private static final Map<EstadoAlquiler, Set<EstadoAlquiler>> TRANSICIONES = new EnumMap<>(EstadoAlquiler.class);
+    
+    static {
+        TRANSICIONES.put(PENDIENTE, Collections.unmodifiableSet(EnumSet.of(CONFIRMADO, CANCELADO)));
+        TRANSICIONES.put(CONFIRMADO, Collections.unmodifiableSet(EnumSet.of(EN_CURSO)));
+        TRANSICIONES.put(EN_CURSO, Collections.unmodifiableSet(EnumSet.of(COMPLETADO)));
+        TRANSICIONES.put(COMPLETADO, Collections.unmodifiableSet(EnumSet.noneOf(EstadoAlquiler.class)));
+        TRANSICIONES.put(CANCELADO, Collections.unmodifiableSet(EnumSet.noneOf(EstadoAlquiler.class)));
+    }
+    
+    private final String nombreAmigable;
+    
+    EstadoAlquiler(String nombreAmigable) {
+        this.nombreAmigable = nombreAmigable;
+    }
+    
+    public String getNombreAmigable() {
+        return nombreAmigable;
+    }
+    
+    /** Estados a los que se puede pasar, en el orden del flujo (el primero es el siguiente natural) */
+    public Set<EstadoAlquiler> getTransiciones() {
+        return TRANSICIONES.get(this);
+    }
+    
+    public boolean puedePasarA(EstadoAlquiler nuevoEstado) {
+        return TRANSICIONES.get(this).contains(nuevoEstado);
+    }
+    
+    public boolean esFinal() {
+        return TRANSICIONES.get(this).isEmpty();
+    }
+    
+    /**
+     * Convierte el valor guardado en el documento
+     * @return null si el texto no corresponde a ningún estado
+     */
+    public static EstadoAlquiler desde(String estado) {
+        if (estado == null) {
+            return null;
+        }
+        try {
+            return valueOf(estado);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
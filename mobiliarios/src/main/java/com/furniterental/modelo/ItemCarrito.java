@@ -1,10 +1,17 @@
 package com.furniterental.modelo;
 
+/**
+ * Línea del carrito y de un alquiler. Los datos del producto son una copia fija del momento
+ * en que se agregó (id, nombre, precio, versión y referencia de la imagen en el almacén);
+ * nunca se copia la imagen en Base64. Si no hay referencia, la imagen se resuelve al mostrar
+ * la línea con ImagenItemsServicio.
+ */
 public class ItemCarrito {
     private String productoId;
     private String nombreProducto;
-    private String imagenProducto;
+    private String imagenProducto;      // Referencia /img/p/{hash} o null
     private Double precioProducto;
+    private Long versionProducto;
     private Integer cantidad;
     private Integer diasAlquiler;
     private Double subtotal;
@@ -13,11 +20,12 @@ public class ItemCarrito {
     }
 
     public ItemCarrito(String productoId, String nombreProducto, String imagenProducto, 
-                      Double precioProducto, Integer cantidad, Integer diasAlquiler) {
+                      Double precioProducto, Long versionProducto, Integer cantidad, Integer diasAlquiler) {
         this.productoId = productoId;
         this.nombreProducto = nombreProducto;
         this.imagenProducto = imagenProducto;
         this.precioProducto = precioProducto;
+        this.versionProducto = versionProducto;
         this.cantidad = cantidad;
         this.diasAlquiler = diasAlquiler;
         calcularSubtotal();
@@ -28,33 +36,20 @@ public class ItemCarrito {
         return productoId;
     }
 
-    public void setProductoId(String productoId) {
-        this.productoId = productoId;
-    }
-
     public String getNombreProducto() {
         return nombreProducto;
     }
 
-    public void setNombreProducto(String nombreProducto) {
-        this.nombreProducto = nombreProducto;
-    }
-
     public String getImagenProducto() {
         return imagenProducto;
     }
 
-    public void setImagenProducto(String imagenProducto) {
-        this.imagenProducto = imagenProducto;
-    }
-
     public Double getPrecioProducto() {
         return precioProducto;
     }
 
-    public void setPrecioProducto(Double precioProducto) {
-        this.precioProducto = precioProducto;
-        calcularSubtotal();
+    public Long getVersionProducto() {
+        return versionProducto;
     }
 
     public Integer getCantidad() {
@@ -0,0 +1,44 @@
+package com.furniterental.modelo;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+import java.time.LocalDateTime;
+
+/**
+ * Migración de datos que se ejecuta una sola vez. El id es el nombre de la migración;
+ * fechaInicio separa los datos anteriores (a migrar) de los creados después.
+ */
+@Document(collection = "migraciones")
+public class Migracion {
+    
+    @Id
+    private String id;
+    
+    private LocalDateTime fechaInicio;
+    private LocalDateTime fechaFin; // null mientras no termina
+    
+    // Getters y Setters
+    public String getId() {
+        return id;
+    }
+    
+    public void setId(String id) {
+        this.id = id;
+    }
+    
+    public LocalDateTime getFechaInicio() {
+        return fechaInicio;
+    }
+    
+    public void setFechaInicio(LocalDateTime fechaInicio) {
+        this.fechaInicio = fechaInicio;
+    }
+    
+    public LocalDateTime getFechaFin() {
+        return fechaFin;
+    }
+    
+    public void setFechaFin(LocalDateTime fechaFin) {
+        this.fechaFin = fechaFin;
+    }
+}
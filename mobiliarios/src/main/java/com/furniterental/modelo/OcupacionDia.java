@@ -0,0 +1,71 @@
+package com.furniterental.modelo;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.mapping.Document;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Unidades de un producto reservadas en un día, mantenidas con $inc condicionados al stock
+ * (OcupacionDiariaServicio). El id es productoId:fecha.
+ */
+@Document(collection = "ocupacion_diaria")
+@CompoundIndexes({
+    // Disponibilidad de un producto en un rango de fechas
+    @CompoundIndex(name = "productoId_fecha", def = "{'productoId': 1, 'fecha': 1}"),
+    // Días que ocupa un alquiler, para liberarlos
+    @CompoundIndex(name = "reservas_alquilerId", def = "{'reservas.alquilerId': 1}")
+})
+public class OcupacionDia {
+
+    @Id
+    private String id;
+
+    private String productoId;
+    private String fecha; // yyyy-MM-dd, se ordena como texto
+    private int reservado;
+    private List<ReservaDia> reservas = new ArrayList<>();
+
+    // Getters y Setters
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getProductoId() {
+        return productoId;
+    }
+
+    public void setProductoId(String productoId) {
+        this.productoId = productoId;
+    }
+
+    public String getFecha() {
+        return fecha;
+    }
+
+    public void setFecha(String fecha) {
+        this.fecha = fecha;
+    }
+
+    public int getReservado() {
+        return reservado;
+    }
+
+    public void setReservado(int reservado) {
+        this.reservado = reservado;
+    }
+
+    public List<ReservaDia> getReservas() {
+        return reservas;
+    }
+
+    public void setReservas(List<ReservaDia> reservas) {
+        this.reservas = reservas;
+    }
+}
@@ -1,11 +1,25 @@
 package com.furniterental.modelo;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.time.LocalDateTime;
 
+/**
+ * Movimiento del libro de pagos: se inserta una vez por cobro y no se modifica.
+ * El saldo materializado de cada alquiler (Alquiler.montoPagado) es la suma de sus movimientos
+ * COMPLETADO; LibroPagosServicio mantiene ambos y los concilia.
+ */
 @Document(collection = "pagos")
+@CompoundIndexes({
+    // Movimientos de un alquiler (también el $lookup de la conciliación)
+    @CompoundIndex(name = "alquilerId_fechaPago", def = "{'alquilerId': 1, 'fechaPago': 1}"),
+    // Estado de cuenta de un usuario, del más reciente al más antiguo
+    @CompoundIndex(name = "usuarioId_fechaPago", def = "{'usuarioId': 1, 'fechaPago': -1}")
+})
 public class Pago {
     
     @Id
@@ -15,10 +29,20 @@ public class Pago {
     private Double monto;
     private String tipoPago; // PARCIAL o FINAL
     private String metodoPago; // TARJETA, TRANSFERENCIA, etc.
-    private String estado; // PENDIENTE, COMPLETADO, FALLIDO
+    private String estado; // PENDIENTE, COMPLETADO, FALLIDO, REEMBOLSADO
     private LocalDateTime fechaPago;
+    
+    // Para marcar el asiento cuando el procesador reembolsa la captura
+    @Indexed(name = "numeroTransaccion", sparse = true)
     private String numeroTransaccion;
     
+    // Fecha en que la pasarela aprobó el reembolso de la captura, si se reembolsó
+    private LocalDateTime fechaReembolso;
+    
+    // alquilerId:tipoPago; único para que un mismo pago no se asiente dos veces (los anteriores al libro no la tienen)
+    @Indexed(name = "clave_unica", unique = true, partialFilter = "{'clave': {'$type': 'string'}}")
+    private String clave;
+    
     // Información de tarjeta (encriptada o tokenizada en producción)
     private String ultimos4Digitos;
     
@@ -109,6 +133,22 @@ public class Pago {
         this.numeroTransaccion = numeroTransaccion;
     }
     
+    public LocalDateTime getFechaReembolso() {
+        return fechaReembolso;
+    }
+    
+    public void setFechaReembolso(LocalDateTime fechaReembolso) {
+        this.fechaReembolso = fechaReembolso;
+    }
+    
+    public String getClave() {
+        return clave;
+    }
+    
+    public void setClave(String clave) {
+        this.clave = clave;
+    }
+    
     public String getUltimos4Digitos() {
         return ultimos4Digitos;
     }
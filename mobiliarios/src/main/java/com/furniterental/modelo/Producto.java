@@ -1,8 +1,11 @@
 package com.furniterental.modelo;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 @Document(collection = "productos")
+@CompoundIndex(name = "categoria_stock", def = "{'categoriaProducto': 1, 'stock': 1}")
 public class Producto {
     
     @Id
@@ -13,8 +16,10 @@ public class Producto {
     private Double precioProducto;
     private String categoriaProducto;
     private String imagenProducto;
+    @Indexed
     private Integer stock; // Cantidad disponible del producto
     private String estado; // ACTIVO, INACTIVO, AGOTADO
+    private Long version;  // Se incrementa en cada guardado; las líneas de los alquileres guardan la que copiaron
     
     // Constructores
     public Producto() {}
@@ -94,6 +99,14 @@ public class Producto {
         this.estado = estado;
     }
     
+    public Long getVersion() {
+        return version;
+    }
+    
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+    
     // Método auxiliar para verificar si hay stock disponible
     public boolean tieneStock() {
         return stock != null && stock > 0;
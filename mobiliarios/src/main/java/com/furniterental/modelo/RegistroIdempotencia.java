@@ -0,0 +1,73 @@
+package com.furniterental.modelo;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+import java.time.LocalDateTime;
+import java.util.Map;
+
+/**
+ * Respuesta guardada para una clave Idempotency-Key. El id combina la operación,
+ * el usuario y la clave enviada por el cliente. MongoDB elimina el registro a las 24 horas.
+ */
+@Document(collection = "idempotencia")
+public class RegistroIdempotencia {
+    
+    public static final String EN_CURSO = "EN_CURSO";
+    public static final String COMPLETADO = "COMPLETADO";
+    
+    @Id
+    private String id;
+    
+    private String estado;
+    
+    // Respuesta original que se repite a los reintentos con la misma clave
+    private Map<String, Object> respuesta;
+    
+    @Indexed(expireAfter = "24h")
+    private LocalDateTime fechaCreacion;
+    
+    // Constructores
+    public RegistroIdempotencia() {
+        this.fechaCreacion = LocalDateTime.now();
+    }
+    
+    public RegistroIdempotencia(String id) {
+        this();
+        this.id = id;
+        this.estado = EN_CURSO;
+    }
+    
+    // Getters y Setters
+    public String getId() {
+        return id;
+    }
+    
+    public void setId(String id) {
+        this.id = id;
+    }
+    
+    public String getEstado() {
+        return estado;
+    }
+    
+    public void setEstado(String estado) {
+        this.estado = estado;
+    }
+    
+    public Map<String, Object> getRespuesta() {
+        return respuesta;
+    }
+    
+    public void setRespuesta(Map<String, Object> respuesta) {
+        this.respuesta = respuesta;
+    }
+    
+    public LocalDateTime getFechaCreacion() {
+        return fechaCreacion;
+    }
+    
+    public void setFechaCreacion(LocalDateTime fechaCreacion) {
+        this.fechaCreacion = fechaCreacion;
+    }
+}
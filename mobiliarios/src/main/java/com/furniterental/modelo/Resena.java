@@ -1,10 +1,14 @@
 package com.furniterental.modelo;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 import java.time.LocalDateTime;
 
 @Document(collection = "resenas")
+// Reseñas aprobadas de un producto y agregaciones del resumen de calificaciones
+@CompoundIndex(name = "productoId_estado", def = "{'productoId': 1, 'estado': 1}")
 public class Resena {
     
     @Id
@@ -27,6 +31,10 @@ public class Resena {
     private String respuestaAdmin;
     private LocalDateTime fechaRespuesta;
     
+    // Moderación masiva que cambió el estado de la reseña (ResenaServicio.moderarPendientes)
+    @Indexed(sparse = true)
+    private String loteModeracion;
+    
     public Resena() {
         this.fechaCreacion = LocalDateTime.now();
         this.estado = "PENDIENTE";
@@ -128,4 +136,12 @@ public class Resena {
     public void setFechaRespuesta(LocalDateTime fechaRespuesta) {
         this.fechaRespuesta = fechaRespuesta;
     }
+    
+    public String getLoteModeracion() {
+        return loteModeracion;
+    }
+    
+    public void setLoteModeracion(String loteModeracion) {
+        this.loteModeracion = loteModeracion;
+    }
 }
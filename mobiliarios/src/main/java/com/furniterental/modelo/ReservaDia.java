@@ -0,0 +1,36 @@
+package com.furniterental.modelo;
+
+/**
+ * Unidades que un alquiler ocupa en un día (se guarda dentro de OcupacionDia).
+ */
+public class ReservaDia {
+
+    private String alquilerId;
+    private int cantidad;
+
+    // Constructores
+    public ReservaDia() {
+    }
+
+    public ReservaDia(String alquilerId, int cantidad) {
+        this.alquilerId = alquilerId;
+        this.cantidad = cantidad;
+    }
+
+    // Getters y Setters
+    public String getAlquilerId() {
+        return alquilerId;
+    }
+
+    public void setAlquilerId(String alquilerId) {
+        this.alquilerId = alquilerId;
+    }
+
+    public int getCantidad() {
+        return cantidad;
+    }
+
+    public void setCantidad(int cantidad) {
+        this.cantidad = cantidad;
+    }
+}
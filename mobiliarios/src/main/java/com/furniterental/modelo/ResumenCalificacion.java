@@ -0,0 +1,69 @@
+package com.furniterental.modelo;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+import java.time.LocalDateTime;
+
+/**
+ * Calificaciones aprobadas de un producto, mantenidas con $inc al moderar reseñas
+ * (ResumenCalificacionServicio). El id es el id del producto.
+ */
+@Document(collection = "resumen_calificaciones")
+public class ResumenCalificacion {
+
+    @Id
+    private String id;
+
+    private int totalResenas;
+    private long sumaCalificaciones;
+    private int[] distribucionEstrellas; // Índices 0-4 para estrellas 1-5
+    private LocalDateTime fechaActualizacion;
+
+    public double getPromedio() {
+        if (totalResenas <= 0) {
+            return 0.0;
+        }
+        return Math.round((double) sumaCalificaciones / totalResenas * 10.0) / 10.0;
+    }
+
+    // Getters y Setters
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public int getTotalResenas() {
+        return totalResenas;
+    }
+
+    public void setTotalResenas(int totalResenas) {
+        this.totalResenas = totalResenas;
+    }
+
+    public long getSumaCalificaciones() {
+        return sumaCalificaciones;
+    }
+
+    public void setSumaCalificaciones(long sumaCalificaciones) {
+        this.sumaCalificaciones = sumaCalificaciones;
+    }
+
+    public int[] getDistribucionEstrellas() {
+        return distribucionEstrellas;
+    }
+
+    public void setDistribucionEstrellas(int[] distribucionEstrellas) {
+        this.distribucionEstrellas = distribucionEstrellas;
+    }
+
+    public LocalDateTime getFechaActualizacion() {
+        return fechaActualizacion;
+    }
+
+    public void setFechaActualizacion(LocalDateTime fechaActualizacion) {
+        this.fechaActualizacion = fechaActualizacion;
+    }
+}
@@ -0,0 +1,44 @@
+package com.furniterental.modelo;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+import java.time.LocalDateTime;
+
+/**
+ * Contadores de notificaciones de un usuario, mantenidos con $inc al cambiar sus alquileres
+ * (PagosPendientesListener). El id es el id del usuario.
+ */
+@Document(collection = "resumen_notificaciones")
+public class ResumenNotificaciones {
+
+    @Id
+    private String id;
+
+    private int pagosPendientes;
+    private LocalDateTime fechaActualizacion;
+
+    // Getters y Setters
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public int getPagosPendientes() {
+        return pagosPendientes;
+    }
+
+    public void setPagosPendientes(int pagosPendientes) {
+        this.pagosPendientes = pagosPendientes;
+    }
+
+    public LocalDateTime getFechaActualizacion() {
+        return fechaActualizacion;
+    }
+
+    public void setFechaActualizacion(LocalDateTime fechaActualizacion) {
+        this.fechaActualizacion = fechaActualizacion;
+    }
+}
@@ -0,0 +1,99 @@
+package com.furniterental.modelo;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+import java.time.LocalDateTime;
+
+/**
+ * Tarea posterior a una operación (correo, log, notificación) que agotó sus reintentos.
+ * Queda registrada para revisión en lugar de perderse en la consola.
+ */
+@Document(collection = "tareas_fallidas")
+public class TareaFallida {
+    
+    @Id
+    private String id;
+    
+    @Indexed
+    private String tipo;
+    
+    // Id de la entidad que originó la tarea (por ejemplo, el alquiler)
+    private String referencia;
+    
+    private int intentos;
+    private String ultimoError;
+    private LocalDateTime fechaCreacion;
+    private LocalDateTime fechaFallo;
+    
+    // Constructores
+    public TareaFallida() {
+        this.fechaFallo = LocalDateTime.now();
+    }
+    
+    public TareaFallida(String tipo, String referencia, int intentos, String ultimoError, LocalDateTime fechaCreacion) {
+        this.tipo = tipo;
+        this.referencia = referencia;
+        this.intentos = intentos;
+        this.ultimoError = ultimoError;
+        this.fechaCreacion = fechaCreacion;
+        this.fechaFallo = LocalDateTime.now();
+    }
+    
+    // Getters y Setters
+    public String getId() {
+        return id;
+    }
+    
+    public void setId(String id) {
+        this.id = id;
+    }
+    
+    public String getTipo() {
+        return tipo;
+    }
+    
+    public void setTipo(String tipo) {
+        this.tipo = tipo;
+    }
+    
+    public String getReferencia() {
+        return referencia;
+    }
+    
+    public void setReferencia(String referencia) {
+        this.referencia = referencia;
+    }
+    
+    public int getIntentos() {
+        return intentos;
+    }
+    
+    public void setIntentos(int intentos) {
+        this.intentos = intentos;
+    }
+    
+    public String getUltimoError() {
+        return ultimoError;
+    }
+    
+    public void setUltimoError(String ultimoError) {
+        this.ultimoError = ultimoError;
+    }
+    
+    public LocalDateTime getFechaCreacion() {
+        return fechaCreacion;
+    }
+    
+    public void setFechaCreacion(LocalDateTime fechaCreacion) {
+        this.fechaCreacion = fechaCreacion;
+    }
+    
+    public LocalDateTime getFechaFallo() {
+        return fechaFallo;
+    }
+    
+    public void setFechaFallo(LocalDateTime fechaFallo) {
+        this.fechaFallo = fechaFallo;
+    }
+}
@@ -1,6 +1,8 @@
 package com.furniterental.modelo;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
 import java.time.LocalDateTime;
 
@@ -9,6 +11,13 @@ import java.time.LocalDateTime;
  * Los datos sensibles (número de tarjeta, CVV) se almacenan encriptados
  */
 @Document(collection = "tarjetas_guardadas")
+@CompoundIndexes({
+    // Una misma tarjeta no se guarda dos veces por usuario; las anteriores a la huella no entran al índice
+    @CompoundIndex(name = "usuarioId_huella", def = "{'usuarioId': 1, 'huella': 1}", unique = true,
+                   partialFilter = "{'huella': {'$type': 'string'}}"),
+    // Tarjetas de un usuario, de la más reciente a la más antigua
+    @CompoundIndex(name = "usuarioId_fechaCreacion", def = "{'usuarioId': 1, 'fechaCreacion': -1}")
+})
 public class TarjetaGuardada {
     
     @Id
@@ -19,6 +28,8 @@ public class TarjetaGuardada {
     // Datos encriptados
     private String numeroTarjetaEncriptado;  // Número completo encriptado
     private String cvvEncriptado;            // CVV encriptado
+    private String huella;                   // HMAC del número (EncriptacionServicio.calcularHuella)
+    private boolean duplicada;               // Repetida de otra tarjeta del usuario guardada antes de la huella
     
     // Datos no sensibles (pueden estar sin encriptar)
     private String nombreTitular;
@@ -87,6 +98,22 @@ public class TarjetaGuardada {
         this.cvvEncriptado = cvvEncriptado;
     }
     
+    public String getHuella() {
+        return huella;
+    }
+    
+    public void setHuella(String huella) {
+        this.huella = huella;
+    }
+    
+    public boolean isDuplicada() {
+        return duplicada;
+    }
+    
+    public void setDuplicada(boolean duplicada) {
+        this.duplicada = duplicada;
+    }
+    
     public String getNombreTitular() {
         return nombreTitular;
     }
@@ -0,0 +1,63 @@
+package com.furniterental.modelo;
+
+import java.time.LocalDateTime;
+
+/**
+ * Entrada del historial de estados de un alquiler (se guarda dentro del documento).
+ */
+public class TransicionEstado {
+    
+    private String estadoAnterior;   // null en la creación del alquiler
+    private String estadoNuevo;
+    private LocalDateTime fecha;
+    
+    // Quién hizo el cambio: usuario, administrador o SISTEMA para los procesos automáticos
+    private String usuarioId;
+    private String usuarioNombre;
+    private String origen;           // USUARIO, ADMIN, SISTEMA
+    private String motivo;
+    
+    // Constructores
+    public TransicionEstado() {
+    }
+    
+    public TransicionEstado(String estadoAnterior, String estadoNuevo, String usuarioId,
+                            String usuarioNombre, String origen, String motivo) {
+        this.estadoAnterior = estadoAnterior;
+        this.estadoNuevo = estadoNuevo;
+        this.fecha = LocalDateTime.now();
+        this.usuarioId = usuarioId;
+        this.usuarioNombre = usuarioNombre;
+        this.origen = origen;
+        this.motivo = motivo;
+    }
+    
+    // Getters
+    public String getEstadoAnterior() {
+        return estadoAnterior;
+    }
+    
+    public String getEstadoNuevo() {
+        return estadoNuevo;
+    }
+    
+    public LocalDateTime getFecha() {
+        return fecha;
+    }
+    
+    public String getUsuarioId() {
+        return usuarioId;
+    }
+    
+    public String getUsuarioNombre() {
+        return usuarioNombre;
+    }
+    
+    public String getOrigen() {
+        return origen;
+    }
+    
+    public String getMotivo() {
+        return motivo;
+    }
+}
@@ -0,0 +1,16 @@
+package com.furniterental.repositorio;
+
+import com.furniterental.modelo.CorreoSaliente;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface CorreoSalienteRepositorio extends MongoRepository<CorreoSaliente, String> {
+    
+    long countByEstado(String estado);
+    
+    // Últimos correos que agotaron sus intentos, para el panel de administración
+    List<CorreoSaliente> findTop50ByEstadoOrderByFechaCreacionDesc(String estado);
+}
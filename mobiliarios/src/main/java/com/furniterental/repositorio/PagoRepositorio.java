@@ -1,6 +1,8 @@
 package com.furniterental.repositorio;
 
 import com.furniterental.modelo.Pago;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.stereotype.Repository;
 
@@ -9,12 +11,15 @@ import java.util.List;
 @Repository
 public interface PagoRepositorio extends MongoRepository<Pago, String> {
     
-    // Buscar pagos por alquiler
+    // Buscar pagos por alquiler (índice alquilerId_fechaPago)
     List<Pago> findByAlquilerId(String alquilerId);
     
-    // Buscar pagos por usuario
+    // Buscar pagos por usuario (índice usuarioId_fechaPago)
     List<Pago> findByUsuarioId(String usuarioId);
     
+    // Estado de cuenta paginado de un usuario
+    Page<Pago> findByUsuarioIdOrderByFechaPagoDesc(String usuarioId, Pageable pageable);
+    
     // Buscar pagos por tipo
     List<Pago> findByTipoPago(String tipoPago);
     
@@ -1,9 +1,14 @@
 package com.furniterental.repositorio;
 
+import com.furniterental.dto.ConteoCategoria;
 import com.furniterental.modelo.Producto;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.mongodb.repository.Aggregation;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.List;
 
 @Repository
@@ -11,4 +16,15 @@ public interface ProductoRepositorio extends MongoRepository<Producto, String> {
     List<Producto> findByCategoriaProducto(String categoriaProducto);
     
     long countByCategoriaProducto(String categoriaProducto);
-}
\ No newline at end of file
+    
+    boolean existsByCategoriaProducto(String categoriaProducto);
+    
+    // Cantidad de productos de todas las categorías en una sola consulta
+    @Aggregation("{ $group: { _id: '$categoriaProducto', cantidad: { $sum: 1 } } }")
+    List<ConteoCategoria> contarProductosPorCategoria();
+    
+    // Productos cuya imagen aún no se ha migrado al almacén de imágenes
+    Slice<Producto> findByImagenProductoStartingWith(String prefijo, Pageable pageable);
+    
+    Slice<Producto> findByImagenProductoStartingWithAndIdNotIn(String prefijo, Collection<String> ids, Pageable pageable);
+}
@@ -20,6 +20,9 @@ public interface ResenaRepositorio extends MongoRepository<Resena, String> {
     // Buscar reseñas por estado
     List<Resena> findByEstado(String estado);
     
+    // Contar reseñas por estado
+    long countByEstado(String estado);
+    
     // Verificar si existe reseña para un alquiler
     boolean existsByAlquilerId(String alquilerId);
     
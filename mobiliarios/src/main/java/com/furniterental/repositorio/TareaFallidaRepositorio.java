@@ -0,0 +1,16 @@
+package com.furniterental.repositorio;
+
+import com.furniterental.modelo.TareaFallida;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface TareaFallidaRepositorio extends MongoRepository<TareaFallida, String> {
+    
+    // Últimas tareas fallidas, para el panel de administración
+    List<TareaFallida> findTop50ByOrderByFechaFalloDesc();
+    
+    long countByTipo(String tipo);
+}
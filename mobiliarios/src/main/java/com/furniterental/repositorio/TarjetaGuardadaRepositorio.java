@@ -31,7 +31,12 @@ public interface TarjetaGuardadaRepositorio extends MongoRepository<TarjetaGuard
     boolean existsByIdAndUsuarioId(String id, String usuarioId);
     
     /**
-     * Verifica si ya existe una tarjeta con los mismos últimos 4 dígitos para un usuario
+     * Verifica si el usuario ya guardó la misma tarjeta (índice usuarioId_huella)
      */
-    boolean existsByUsuarioIdAndUltimos4Digitos(String usuarioId, String ultimos4Digitos);
+    boolean existsByUsuarioIdAndHuella(String usuarioId, String huella);
+    
+    /**
+     * Elimina las tarjetas repetidas que marcó la asignación de huellas
+     */
+    long deleteByUsuarioIdAndDuplicadaTrue(String usuarioId);
 }
@@ -103,8 +103,13 @@ public class ActivityLogServicio {
     }
     
     public void logRental(String userId, String userName, String userEmail, int productCount, double total, HttpServletRequest request) {
+        logRental(userId, userName, userEmail, productCount, total, getClientIP(request));
+    }
+    
+    // Variante sin request, para registrar el log fuera del hilo de la petición
+    public void logRental(String userId, String userName, String userEmail, int productCount, double total, String ipAddress) {
         ActivityLog log = ActivityLog.rental(userId, userName, userEmail, productCount, total);
-        log.setIpAddress(getClientIP(request));
+        log.setIpAddress(ipAddress);
         save(log);
     }
     
@@ -135,6 +140,11 @@ public class ActivityLogServicio {
      */
     public void logRentalCancellation(String userId, String userName, String userEmail,
                                       String alquilerId, HttpServletRequest request) {
+        logRentalCancellation(userId, userName, userEmail, alquilerId, getClientIP(request));
+    }
+    
+    public void logRentalCancellation(String userId, String userName, String userEmail,
+                                      String alquilerId, String ipAddress) {
         ActivityLog log = new ActivityLog();
         log.setUserId(userId);
         log.setUserName(userName);
@@ -145,7 +155,7 @@ public class ActivityLogServicio {
         log.setEntityId(alquilerId);
         log.setDetails("Estado: PENDIENTE → CANCELADO | Acción realizada por el usuario");
         log.setTimestamp(LocalDateTime.now());
-        log.setIpAddress(getClientIP(request));
+        log.setIpAddress(ipAddress);
         save(log);
     }
     
@@ -155,16 +165,23 @@ public class ActivityLogServicio {
     public void logPayment(String userId, String userName, String userEmail,
                           String tipoPago, double monto, String alquilerId, 
                           String numeroTransaccion, HttpServletRequest request) {
+        logPayment(userId, userName, userEmail, tipoPago, monto, alquilerId, numeroTransaccion, getClientIP(request));
+    }
+    
+    // Variante sin request, para registrar el pago fuera del hilo de la petición
+    public void logPayment(String userId, String userName, String userEmail,
+                          String tipoPago, double monto, String alquilerId, 
+                          String numeroTransaccion, String ipAddress) {
         ActivityLog log = ActivityLog.payment(userId, userName, userEmail, tipoPago, monto, alquilerId);
         log.setEntityId(alquilerId);
         log.setDetails(String.format("Tipo: %s | Monto: $%.2f | Transacción: %s", 
                                      tipoPago, monto, numeroTransaccion));
-        log.setIpAddress(getClientIP(request));
+        log.setIpAddress(ipAddress);
         save(log);
     }
     
     // Obtener IP del cliente
-    private String getClientIP(HttpServletRequest request) {
+    public String getClientIP(HttpServletRequest request) {
         String xfHeader = request.getHeader("X-Forwarded-For");
         if (xfHeader == null) {
             return request.getRemoteAddr();
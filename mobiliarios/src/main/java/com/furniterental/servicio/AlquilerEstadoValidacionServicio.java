@@ -1,31 +1,16 @@
 package com.furniterental.servicio;
 
+import com.furniterental.modelo.EstadoAlquiler;
 import org.springframework.stereotype.Service;
 import java.util.*;
 
 /**
  * Servicio para validar las transiciones de estados de alquileres
- * Asegura que los estados sigan un flujo lógico sin saltar pasos
+ * Asegura que los estados sigan un flujo lógico sin saltar pasos.
+ * Las transiciones están definidas en {@link EstadoAlquiler}.
  */
 @Service
 public class AlquilerEstadoValidacionServicio {
-
-    // Mapa de transiciones válidas: estado actual -> lista de estados permitidos
-    private static final Map<String, List<String>> TRANSICIONES_VALIDAS = new HashMap<>();
-    
-    static {
-        // PENDIENTE puede pasar a CONFIRMADO solamente
-        TRANSICIONES_VALIDAS.put("PENDIENTE", Arrays.asList("CONFIRMADO"));
-        
-        // CONFIRMADO puede pasar a EN_CURSO solamente
-        TRANSICIONES_VALIDAS.put("CONFIRMADO", Arrays.asList("EN_CURSO"));
-        
-        // EN_CURSO puede pasar a COMPLETADO solamente
-        TRANSICIONES_VALIDAS.put("EN_CURSO", Arrays.asList("COMPLETADO"));
-        
-        // COMPLETADO es un estado final, no puede cambiar
-        TRANSICIONES_VALIDAS.put("COMPLETADO", Arrays.asList());
-    }
     
     /**
      * Valida si una transición de estado es válida
@@ -34,21 +19,16 @@ public class AlquilerEstadoValidacionServicio {
      * @return true si la transición es válida, false en caso contrario
      */
     public boolean esTransicionValida(String estadoActual, String nuevoEstado) {
-        // Si el estado no cambia, es válido (no hacer nada)
-        if (estadoActual.equals(nuevoEstado)) {
-            return true;
-        }
+        EstadoAlquiler actual = EstadoAlquiler.desde(estadoActual);
+        EstadoAlquiler nuevo = EstadoAlquiler.desde(nuevoEstado);
         
-        // Obtener las transiciones válidas para el estado actual
-        List<String> estadosPermitidos = TRANSICIONES_VALIDAS.get(estadoActual);
-        
-        // Si no hay transiciones definidas para este estado, no es válido
-        if (estadosPermitidos == null) {
+        // Estados desconocidos nunca son válidos
+        if (actual == null || nuevo == null) {
             return false;
         }
         
-        // Verificar si el nuevo estado está en la lista de estados permitidos
-        return estadosPermitidos.contains(nuevoEstado);
+        // Si el estado no cambia, es válido (no hacer nada)
+        return actual == nuevo || actual.puedePasarA(nuevo);
     }
     
     /**
@@ -57,14 +37,14 @@ public class AlquilerEstadoValidacionServicio {
      * @return El siguiente estado válido, o null si no hay siguiente estado
      */
     public String obtenerSiguienteEstado(String estadoActual) {
-        List<String> estadosPermitidos = TRANSICIONES_VALIDAS.get(estadoActual);
+        EstadoAlquiler actual = EstadoAlquiler.desde(estadoActual);
         
-        if (estadosPermitidos == null || estadosPermitidos.isEmpty()) {
+        if (actual == null || actual.esFinal()) {
             return null;
         }
         
-        // Retornar el primer (y generalmente único) estado permitido
-        return estadosPermitidos.get(0);
+        // El primer estado permitido es el siguiente del flujo normal
+        return actual.getTransiciones().iterator().next().name();
     }
     
     /**
@@ -73,13 +53,13 @@ public class AlquilerEstadoValidacionServicio {
      * @return Lista de estados permitidos
      */
     public List<String> obtenerEstadosPermitidos(String estadoActual) {
-        List<String> estadosPermitidos = TRANSICIONES_VALIDAS.get(estadoActual);
+        EstadoAlquiler actual = EstadoAlquiler.desde(estadoActual);
         
-        if (estadosPermitidos == null) {
+        if (actual == null) {
             return new ArrayList<>();
         }
         
-        return new ArrayList<>(estadosPermitidos);
+        return nombres(actual.getTransiciones());
     }
     
     /**
@@ -89,17 +69,25 @@ public class AlquilerEstadoValidacionServicio {
      * @return Mensaje de error descriptivo
      */
     public String obtenerMensajeError(String estadoActual, String nuevoEstado) {
-        if (estadoActual.equals(nuevoEstado)) {
+        if (Objects.equals(estadoActual, nuevoEstado)) {
             return "El alquiler ya está en el estado " + estadoActual;
         }
         
-        List<String> estadosPermitidos = TRANSICIONES_VALIDAS.get(estadoActual);
+        EstadoAlquiler actual = EstadoAlquiler.desde(estadoActual);
         
-        if (estadosPermitidos == null || estadosPermitidos.isEmpty()) {
+        if (actual == null) {
+            return "El estado " + estadoActual + " no es un estado de alquiler válido";
+        }
+        
+        if (EstadoAlquiler.desde(nuevoEstado) == null) {
+            return "El estado " + nuevoEstado + " no es un estado de alquiler válido";
+        }
+        
+        if (actual.esFinal()) {
             return "El estado " + estadoActual + " es un estado final y no puede ser modificado";
         }
         
-        String siguienteEstado = estadosPermitidos.get(0);
+        String siguienteEstado = obtenerSiguienteEstado(estadoActual);
         
         return String.format(
             "No se puede cambiar de %s a %s. El siguiente estado válido es: %s",
@@ -115,14 +103,8 @@ public class AlquilerEstadoValidacionServicio {
      * @return Nombre amigable del estado
      */
     private String obtenerNombreAmigable(String estado) {
-        return switch (estado) {
-            case "PENDIENTE" -> "Pendiente";
-            case "CONFIRMADO" -> "Confirmado";
-            case "EN_CURSO" -> "En Curso";
-            case "COMPLETADO" -> "Completado";
-            case "CANCELADO" -> "Cancelado";
-            default -> estado;
-        };
+        EstadoAlquiler valor = EstadoAlquiler.desde(estado);
+        return valor != null ? valor.getNombreAmigable() : estado;
     }
     
     /**
@@ -139,8 +121,8 @@ public class AlquilerEstadoValidacionServicio {
      * @return true si es un estado final, false en caso contrario
      */
     public boolean esEstadoFinal(String estado) {
-        List<String> estadosPermitidos = TRANSICIONES_VALIDAS.get(estado);
-        return estadosPermitidos != null && estadosPermitidos.isEmpty();
+        EstadoAlquiler valor = EstadoAlquiler.desde(estado);
+        return valor != null && valor.esFinal();
     }
     
     /**
@@ -148,10 +130,23 @@ public class AlquilerEstadoValidacionServicio {
      * @return Mapa con información del flujo
      */
     public Map<String, Object> obtenerInformacionFlujo() {
+        Map<String, List<String>> transiciones = new LinkedHashMap<>();
+        for (EstadoAlquiler estado : EstadoAlquiler.values()) {
+            transiciones.put(estado.name(), nombres(estado.getTransiciones()));
+        }
+        
         Map<String, Object> info = new HashMap<>();
         info.put("flujo", obtenerFlujoCompleto());
-        info.put("transiciones", TRANSICIONES_VALIDAS);
-        info.put("descripcion", "Flujo de estados: PENDIENTE → CONFIRMADO → EN_CURSO → COMPLETADO");
+        info.put("transiciones", transiciones);
+        info.put("descripcion", "Flujo de estados: PENDIENTE → CONFIRMADO → EN_CURSO → COMPLETADO (PENDIENTE también puede cancelarse)");
         return info;
     }
+    
+    private List<String> nombres(Set<EstadoAlquiler> estados) {
+        List<String> nombres = new ArrayList<>();
+        for (EstadoAlquiler estado : estados) {
+            nombres.add(estado.name());
+        }
+        return nombres;
+    }
 }
@@ -0,0 +1,80 @@
+package com.furniterental.servicio;
+
+import com.furniterental.modelo.BloqueoTarea;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.net.InetAddress;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * Bloqueo por arrendamiento para tareas programadas cuando hay varias instancias.
+ * Adquirirlo es un único findAndModify con upsert sobre bloqueos_tareas: gana la instancia
+ * que encuentra el bloqueo libre o vencido; las demás reciben un error de clave duplicada.
+ * Si la instancia propietaria se cae, el bloqueo queda libre al vencer el plazo.
+ */
+@Service
+public class BloqueoTareaServicio {
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    private final String instancia = nombreInstancia();
+    
+    /**
+     * @param tarea Nombre de la tarea
+     * @param plazo Tiempo máximo que puede durar una ejecución
+     * @return true si esta instancia tiene el bloqueo
+     */
+    public boolean adquirir(String tarea, Duration plazo) {
+        LocalDateTime ahora = LocalDateTime.now();
+        Query libre = Query.query(Criteria.where("_id").is(tarea).orOperator(
+                Criteria.where("bloqueadoHasta").lt(ahora),
+                Criteria.where("propietario").is(instancia)));
+        Update update = new Update()
+                .set("propietario", instancia)
+                .set("bloqueadoHasta", ahora.plus(plazo))
+                .set("fechaAdquirido", ahora);
+        
+        try {
+            BloqueoTarea bloqueo = mongoTemplate.findAndModify(libre, update,
+                    FindAndModifyOptions.options().upsert(true).returnNew(true), BloqueoTarea.class);
+            return bloqueo != null && instancia.equals(bloqueo.getPropietario());
+        } catch (DuplicateKeyException e) {
+            // Otra instancia tiene el bloqueo vigente
+            return false;
+        }
+    }
+    
+    /**
+     * Libera el bloqueo si sigue siendo de esta instancia
+     */
+    public void liberar(String tarea) {
+        mongoTemplate.updateFirst(
+                Query.query(Criteria.where("_id").is(tarea).and("propietario").is(instancia)),
+                new Update().set("bloqueadoHasta", LocalDateTime.now()),
+                BloqueoTarea.class);
+    }
+    
+    public String getInstancia() {
+        return instancia;
+    }
+    
+    private static String nombreInstancia() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            host = "instancia";
+        }
+        return host + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+}
@@ -0,0 +1,403 @@
+package com.furniterental.servicio;
+
+import com.furniterental.dto.ProductoResumen;
+import com.furniterental.dto.ResultadoBusqueda;
+import com.furniterental.modelo.Producto;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Búsqueda de productos por texto sobre un índice invertido en memoria.
+ *
+ * Los términos de nombre y descripción se normalizan (minúsculas, sin tildes) y se
+ * guardan en un mapa ordenado, así cada palabra de la consulta se resuelve como
+ * prefijo con un rango del mapa, sin recorrer la colección. Todas las palabras deben
+ * coincidir. Las coincidencias en el nombre pesan más que en la descripción.
+ *
+ * El índice se construye al arrancar y se actualiza producto a producto cuando se
+ * guardan o eliminan (BusquedaIndiceListener). Los cambios que llegan mientras se
+ * reconstruye se anotan y se vuelven a aplicar sobre el índice nuevo al reemplazarlo,
+ * porque la lectura de la colección puede no haberlos visto.
+ */
+@Service
+public class BusquedaServicio {
+    
+    private static final Pattern SEPARADORES = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final Pattern MARCAS = Pattern.compile("\\p{M}+");
+    
+    private static final Set<String> PALABRAS_VACIAS = Set.of(
+        "a", "al", "con", "de", "del", "el", "en", "la", "las", "lo", "los",
+        "o", "para", "por", "u", "un", "una", "unas", "unos", "y"
+    );
+    
+    private static final float PESO_NOMBRE = 3f;
+    private static final float PESO_DESCRIPCION = 1f;
+    // Bonificación cuando la palabra coincide completa y no solo como prefijo
+    private static final float BONO_EXACTO = 1.5f;
+    
+    public static final String CON_STOCK = "conStock";
+    public static final String AGOTADO = "agotado";
+    
+    private static final List<RangoPrecio> RANGOS_PRECIO = List.of(
+        new RangoPrecio("hasta-10000", 0, 10000),
+        new RangoPrecio("10000-50000", 10000, 50000),
+        new RangoPrecio("50000-100000", 50000, 100000),
+        new RangoPrecio("mas-de-100000", 100000, Double.MAX_VALUE)
+    );
+    
+    private final ReentrantReadWriteLock bloqueo = new ReentrantReadWriteLock();
+    
+    private Map<String, ProductoResumen> documentos = new HashMap<>();
+    
+    // término -> (productoId -> peso)
+    private NavigableMap<String, Map<String, Float>> indice = new TreeMap<>();
+    
+    // productoId -> términos indexados, para poder retirar un producto del índice
+    private Map<String, Set<String>> terminosPorProducto = new HashMap<>();
+    
+    // productoId -> documento indexado (null si se eliminó) durante una reconstrucción; null si no hay ninguna
+    private Map<String, ProductoResumen> cambiosDuranteReconstruccion;
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    /**
+     * Construye el índice completo leyendo solo los campos necesarios de cada producto.
+     * Las reconstrucciones no se solapan: comparten el registro de cambios.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public synchronized void reconstruirIndice() {
+        bloqueo.writeLock().lock();
+        try {
+            cambiosDuranteReconstruccion = new LinkedHashMap<>();
+        } finally {
+            bloqueo.writeLock().unlock();
+        }
+        
+        Map<String, ProductoResumen> nuevosDocumentos = new HashMap<>();
+        NavigableMap<String, Map<String, Float>> nuevoIndice = new TreeMap<>();
+        Map<String, Set<String>> nuevosTerminos = new HashMap<>();
+        
+        Query query = new Query();
+        query.fields()
+            .include("nombreProducto")
+            .include("descripcionProducto")
+            .include("precioProducto")
+            .include("categoriaProducto")
+            .include("imagenProducto")
+            .include("stock");
+        
+        int reaplicados;
+        try {
+            try (Stream<ProductoResumen> productos = mongoTemplate.stream(query, ProductoResumen.class,
+                    mongoTemplate.getCollectionName(Producto.class))) {
+                productos.forEach(producto -> agregar(producto, nuevosDocumentos, nuevoIndice, nuevosTerminos));
+            }
+            
+            bloqueo.writeLock().lock();
+            try {
+                documentos = nuevosDocumentos;
+                indice = nuevoIndice;
+                terminosPorProducto = nuevosTerminos;
+                
+                // Los cambios anotados son posteriores a lo que pudo leer la reconstrucción
+                reaplicados = cambiosDuranteReconstruccion.size();
+                for (Map.Entry<String, ProductoResumen> cambio : cambiosDuranteReconstruccion.entrySet()) {
+                    retirar(cambio.getKey());
+                    if (cambio.getValue() != null) {
+                        agregar(cambio.getValue(), documentos, indice, terminosPorProducto);
+                    }
+                }
+            } finally {
+                bloqueo.writeLock().unlock();
+            }
+        } finally {
+            bloqueo.writeLock().lock();
+            try {
+                cambiosDuranteReconstruccion = null;
+            } finally {
+                bloqueo.writeLock().unlock();
+            }
+        }
+        
+        if (reaplicados > 0) {
+            System.out.println("Índice de búsqueda: " + reaplicados + " cambio(s) recibidos durante la reconstrucción reaplicados.");
+        }
+        
+        System.out.println("Índice de búsqueda construido: " + nuevosDocumentos.size() + " productos, "
+            + nuevoIndice.size() + " términos.");
+    }
+    
+    public void indexar(Producto producto) {
+        if (producto == null || producto.getId() == null) {
+            return;
+        }
+        
+        ProductoResumen documento = new ProductoResumen();
+        documento.setId(producto.getId());
+        documento.setNombreProducto(producto.getNombreProducto());
+        documento.setDescripcionProducto(producto.getDescripcionProducto());
+        documento.setPrecioProducto(producto.getPrecioProducto());
+        documento.setCategoriaProducto(producto.getCategoriaProducto());
+        documento.setImagenProducto(producto.getImagenProducto());
+        documento.setStock(producto.getStock());
+        
+        bloqueo.writeLock().lock();
+        try {
+            retirar(producto.getId());
+            agregar(documento, documentos, indice, terminosPorProducto);
+            anotarCambio(producto.getId(), documento);
+        } finally {
+            bloqueo.writeLock().unlock();
+        }
+    }
+    
+    public void eliminar(String productoId) {
+        bloqueo.writeLock().lock();
+        try {
+            retirar(productoId);
+            anotarCambio(productoId, null);
+        } finally {
+            bloqueo.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Busca productos
+     * @param texto Palabras a buscar en nombre y descripción (vacío = todos)
+     * @param categoria Filtro por categoría (opcional)
+     * @param rangoPrecio Filtro por rango de precio, uno de los nombres de la faceta (opcional)
+     * @param disponibilidad Filtro por disponibilidad: conStock o agotado (opcional)
+     * @param pagina Número de página (desde 0)
+     * @param tamano Resultados por página
+     */
+    public ResultadoBusqueda buscar(String texto, String categoria, String rangoPrecio,
+                                    String disponibilidad, int pagina, int tamano) {
+        long inicio = System.nanoTime();
+        pagina = Math.max(pagina, 0);
+        tamano = Math.max(tamano, 1);
+        
+        RangoPrecio rango = RANGOS_PRECIO.stream()
+            .filter(r -> r.nombre.equals(rangoPrecio))
+            .findFirst()
+            .orElse(null);
+        
+        Map<String, Long> facetaCategorias = new TreeMap<>();
+        Map<String, Long> facetaPrecios = new LinkedHashMap<>();
+        RANGOS_PRECIO.forEach(r -> facetaPrecios.put(r.nombre, 0L));
+        Map<String, Long> facetaDisponibilidad = new LinkedHashMap<>();
+        facetaDisponibilidad.put(CON_STOCK, 0L);
+        facetaDisponibilidad.put(AGOTADO, 0L);
+        
+        List<ProductoResumen> coincidencias = new ArrayList<>();
+        Map<String, Float> puntajes;
+        
+        bloqueo.readLock().lock();
+        try {
+            puntajes = puntuar(tokenizar(texto));
+            
+            for (String id : puntajes.keySet()) {
+                ProductoResumen documento = documentos.get(id);
+                
+                boolean cumpleCategoria = vacio(categoria) || categoria.equals(documento.getCategoriaProducto());
+                boolean cumplePrecio = rango == null || rango.contiene(documento.getPrecioProducto());
+                String estadoStock = documento.tieneStock() ? CON_STOCK : AGOTADO;
+                boolean cumpleDisponibilidad = vacio(disponibilidad) || disponibilidad.equals(estadoStock);
+                
+                // Cada faceta cuenta con los demás filtros aplicados, pero no el suyo
+                if (cumplePrecio && cumpleDisponibilidad && documento.getCategoriaProducto() != null) {
+                    facetaCategorias.merge(documento.getCategoriaProducto(), 1L, Long::sum);
+                }
+                if (cumpleCategoria && cumpleDisponibilidad) {
+                    RangoPrecio rangoDocumento = rangoDe(documento.getPrecioProducto());
+                    if (rangoDocumento != null) {
+                        facetaPrecios.merge(rangoDocumento.nombre, 1L, Long::sum);
+                    }
+                }
+                if (cumpleCategoria && cumplePrecio) {
+                    facetaDisponibilidad.merge(estadoStock, 1L, Long::sum);
+                }
+                
+                if (cumpleCategoria && cumplePrecio && cumpleDisponibilidad) {
+                    coincidencias.add(documento);
+                }
+            }
+        } finally {
+            bloqueo.readLock().unlock();
+        }
+        
+        // Con stock primero, luego por relevancia y por nombre
+        coincidencias.sort(Comparator
+            .comparing((ProductoResumen p) -> p.tieneStock() ? 0 : 1)
+            .thenComparing(p -> -puntajes.get(p.getId()))
+            .thenComparing(p -> p.getNombreProducto() != null ? p.getNombreProducto() : ""));
+        
+        int desde = (int) Math.min((long) pagina * tamano, coincidencias.size());
+        int hasta = Math.min(desde + tamano, coincidencias.size());
+        
+        ResultadoBusqueda resultado = new ResultadoBusqueda();
+        resultado.setResultados(new ArrayList<>(coincidencias.subList(desde, hasta)));
+        resultado.setTotal(coincidencias.size());
+        resultado.setPagina(pagina);
+        resultado.setTamano(tamano);
+        resultado.setCategorias(facetaCategorias);
+        resultado.setRangosPrecio(facetaPrecios);
+        resultado.setDisponibilidad(facetaDisponibilidad);
+        resultado.setTiempoMs((System.nanoTime() - inicio) / 1_000_000.0);
+        return resultado;
+    }
+    
+    /**
+     * Normaliza un texto y lo divide en términos: minúsculas, sin tildes ni diéresis,
+     * sin signos de puntuación y sin palabras vacías.
+     */
+    static List<String> tokenizar(String texto) {
+        List<String> terminos = new ArrayList<>();
+        if (texto == null || texto.isBlank()) {
+            return terminos;
+        }
+        
+        String normalizado = MARCAS.matcher(Normalizer.normalize(texto, Normalizer.Form.NFD)).replaceAll("");
+        for (String termino : SEPARADORES.split(normalizado.toLowerCase(Locale.ROOT))) {
+            if (!termino.isEmpty() && !PALABRAS_VACIAS.contains(termino)) {
+                terminos.add(termino);
+            }
+        }
+        return terminos;
+    }
+    
+    // Debe llamarse con el bloqueo de lectura tomado
+    private Map<String, Float> puntuar(List<String> terminos) {
+        if (terminos.isEmpty()) {
+            Map<String, Float> todos = new HashMap<>();
+            documentos.keySet().forEach(id -> todos.put(id, 0f));
+            return todos;
+        }
+        
+        Map<String, Float> puntajes = null;
+        for (String termino : terminos) {
+            Map<String, Float> coincidencias = new HashMap<>();
+            
+            // Todos los términos del índice que empiezan por la palabra buscada
+            for (Map.Entry<String, Map<String, Float>> entrada
+                    : indice.subMap(termino, true, termino + Character.MAX_VALUE, false).entrySet()) {
+                boolean exacto = entrada.getKey().equals(termino);
+                for (Map.Entry<String, Float> posting : entrada.getValue().entrySet()) {
+                    float peso = exacto ? posting.getValue() * BONO_EXACTO : posting.getValue();
+                    coincidencias.merge(posting.getKey(), peso, Math::max);
+                }
+            }
+            
+            if (puntajes == null) {
+                puntajes = coincidencias;
+            } else {
+                // Todas las palabras deben coincidir
+                puntajes.keySet().retainAll(coincidencias.keySet());
+                for (Map.Entry<String, Float> entrada : puntajes.entrySet()) {
+                    entrada.setValue(entrada.getValue() + coincidencias.get(entrada.getKey()));
+                }
+            }
+            
+            if (puntajes.isEmpty()) {
+                break;
+            }
+        }
+        return puntajes;
+    }
+    
+    private static void agregar(ProductoResumen documento,
+                                Map<String, ProductoResumen> documentos,
+                                NavigableMap<String, Map<String, Float>> indice,
+                                Map<String, Set<String>> terminosPorProducto) {
+        Map<String, Float> pesos = new HashMap<>();
+        for (String termino : tokenizar(documento.getNombreProducto())) {
+            pesos.merge(termino, PESO_NOMBRE, Float::sum);
+        }
+        for (String termino : tokenizar(documento.getDescripcionProducto())) {
+            pesos.merge(termino, PESO_DESCRIPCION, Float::sum);
+        }
+        
+        for (Map.Entry<String, Float> entrada : pesos.entrySet()) {
+            indice.computeIfAbsent(entrada.getKey(), t -> new HashMap<>()).put(documento.getId(), entrada.getValue());
+        }
+        documentos.put(documento.getId(), documento);
+        terminosPorProducto.put(documento.getId(), new HashSet<>(pesos.keySet()));
+    }
+    
+    // Debe llamarse con el bloqueo de escritura tomado
+    private void anotarCambio(String productoId, ProductoResumen documento) {
+        if (cambiosDuranteReconstruccion != null) {
+            cambiosDuranteReconstruccion.put(productoId, documento);
+        }
+    }
+    
+    // Debe llamarse con el bloqueo de escritura tomado
+    private void retirar(String productoId) {
+        Set<String> terminos = terminosPorProducto.remove(productoId);
+        if (terminos != null) {
+            for (String termino : terminos) {
+                Map<String, Float> postings = indice.get(termino);
+                if (postings != null) {
+                    postings.remove(productoId);
+                    if (postings.isEmpty()) {
+                        indice.remove(termino);
+                    }
+                }
+            }
+        }
+        documentos.remove(productoId);
+    }
+    
+    private static RangoPrecio rangoDe(Double precio) {
+        if (precio == null) {
+            return null;
+        }
+        for (RangoPrecio rango : RANGOS_PRECIO) {
+            if (rango.contiene(precio)) {
+                return rango;
+            }
+        }
+        return null;
+    }
+    
+    private static boolean vacio(String valor) {
+        return valor == null || valor.isBlank();
+    }
+    
+    private static final class RangoPrecio {
+        private final String nombre;
+        private final double minimo;
+        private final double maximo;
+        
+        private RangoPrecio(String nombre, double minimo, double maximo) {
+            this.nombre = nombre;
+            this.minimo = minimo;
+            this.maximo = maximo;
+        }
+        
+        // Mínimo incluido, máximo excluido
+        private boolean contiene(Double precio) {
+            return precio != null && precio >= minimo && precio < maximo;
+        }
+    }
+}
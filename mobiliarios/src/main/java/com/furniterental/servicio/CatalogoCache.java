@@ -0,0 +1,174 @@
+package com.furniterental.servicio;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Caché en memoria del catálogo público (páginas de productos y lista de categorías).
+ *
+ * Cada entrada guarda la versión de su grupo en el momento en que se cargó. Invalidar
+ * un grupo solo incrementa su versión, así que una carga que se cruce con una escritura
+ * queda obsoleta en la siguiente lectura en vez de publicar datos viejos.
+ * El número de entradas está acotado (LRU).
+ *
+ * Las invalidaciones llegan desde {@link com.furniterental.config.CatalogoInvalidacionListener}
+ * cada vez que se guarda o elimina un producto o una categoría.
+ */
+@Service
+public class CatalogoCache {
+    
+    /** Grupo de las páginas del catálogo sin filtro de categoría */
+    public static final String GRUPO_TODOS = "*";
+    
+    /** Grupo de la lista de categorías (incluye la cantidad de productos de cada una) */
+    public static final String GRUPO_CATEGORIAS = "#categorias";
+    
+    private final int maxEntradas;
+    
+    private final Map<String, Entrada> entradas;
+    
+    private final Map<String, AtomicLong> versiones = new ConcurrentHashMap<>();
+    
+    // Categoría en la que se vio cada producto al cargar páginas, para invalidar
+    // también la categoría anterior cuando un producto cambia de categoría
+    private final Map<String, String> categoriaPorProducto = new ConcurrentHashMap<>();
+    
+    private final AtomicLong aciertos = new AtomicLong();
+    private final AtomicLong fallos = new AtomicLong();
+    private final AtomicLong evicciones = new AtomicLong();
+    private final AtomicLong invalidaciones = new AtomicLong();
+    
+    public CatalogoCache(@Value("${app.catalogo.cache.max-entradas:256}") int maxEntradas) {
+        this.maxEntradas = maxEntradas;
+        this.entradas = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entrada> eldest) {
+                if (size() > CatalogoCache.this.maxEntradas) {
+                    evicciones.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+    
+    /**
+     * Devuelve el valor guardado para la clave o lo carga si no existe o está obsoleto.
+     * @param grupo Grupo al que pertenece la entrada (nombre de categoría, GRUPO_TODOS o GRUPO_CATEGORIAS)
+     * @param clave Clave dentro del grupo
+     * @param cargador Consulta a la base de datos; se ejecuta fuera del bloqueo
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T obtener(String grupo, String clave, Supplier<T> cargador) {
+        String claveCompleta = grupo + "|" + clave;
+        long version = version(grupo).get();
+        
+        synchronized (entradas) {
+            Entrada entrada = entradas.get(claveCompleta);
+            if (entrada != null && entrada.version == version) {
+                aciertos.incrementAndGet();
+                return (T) entrada.valor;
+            }
+        }
+        
+        fallos.incrementAndGet();
+        T valor = cargador.get();
+        
+        synchronized (entradas) {
+            entradas.put(claveCompleta, new Entrada(valor, version));
+        }
+        return valor;
+    }
+    
+    public void recordarCategoria(String productoId, String categoria) {
+        if (productoId != null && categoria != null) {
+            categoriaPorProducto.put(productoId, categoria);
+        }
+    }
+    
+    /**
+     * Invalida lo que depende de un producto: su categoría actual, la categoría en la que
+     * estaba antes, el listado general y la lista de categorías. Si no se conoce la categoría
+     * anterior (producto nuevo o nunca listado) se invalida todo el catálogo.
+     */
+    public void invalidarProducto(String productoId, String categoriaNueva) {
+        String categoriaAnterior = productoId != null ? categoriaPorProducto.get(productoId) : null;
+        
+        if (categoriaAnterior == null) {
+            invalidarTodo();
+        } else {
+            version(categoriaAnterior).incrementAndGet();
+            if (categoriaNueva != null && !categoriaNueva.equals(categoriaAnterior)) {
+                version(categoriaNueva).incrementAndGet();
+            }
+            version(GRUPO_TODOS).incrementAndGet();
+            version(GRUPO_CATEGORIAS).incrementAndGet();
+            invalidaciones.incrementAndGet();
+        }
+        
+        if (productoId != null) {
+            if (categoriaNueva != null) {
+                categoriaPorProducto.put(productoId, categoriaNueva);
+            } else {
+                categoriaPorProducto.remove(productoId);
+            }
+        }
+    }
+    
+    public void invalidarCategorias() {
+        version(GRUPO_CATEGORIAS).incrementAndGet();
+        invalidaciones.incrementAndGet();
+    }
+    
+    public void invalidarTodo() {
+        versiones.values().forEach(AtomicLong::incrementAndGet);
+        synchronized (entradas) {
+            entradas.clear();
+        }
+        invalidaciones.incrementAndGet();
+    }
+    
+    /**
+     * Métricas de uso de la caché
+     */
+    public Map<String, Object> obtenerEstadisticas() {
+        long totalAciertos = aciertos.get();
+        long totalFallos = fallos.get();
+        long totalLecturas = totalAciertos + totalFallos;
+        
+        int tamano;
+        synchronized (entradas) {
+            tamano = entradas.size();
+        }
+        
+        Map<String, Object> estadisticas = new LinkedHashMap<>();
+        estadisticas.put("aciertos", totalAciertos);
+        estadisticas.put("fallos", totalFallos);
+        estadisticas.put("tasaAciertos", totalLecturas == 0 ? 0.0 : (double) totalAciertos / totalLecturas);
+        estadisticas.put("evicciones", evicciones.get());
+        estadisticas.put("invalidaciones", invalidaciones.get());
+        estadisticas.put("entradas", tamano);
+        estadisticas.put("maxEntradas", maxEntradas);
+        return estadisticas;
+    }
+    
+    private AtomicLong version(String grupo) {
+        return versiones.computeIfAbsent(grupo, g -> new AtomicLong());
+    }
+    
+    private static final class Entrada {
+        private final Object valor;
+        private final long version;
+        
+        private Entrada(Object valor, long version) {
+            this.valor = valor;
+            this.version = version;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.furniterental.servicio;
+
+import com.furniterental.dto.ProductoResumen;
+import com.furniterental.modelo.Producto;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Listados paginados del catálogo público.
+ * Los productos con stock van primero y los agotados al final. Como ese orden
+ * no se puede expresar con un índice, cada página se arma con dos consultas
+ * indexadas (con stock / sin stock) y solo se leen los campos de {@link ProductoResumen}.
+ * Las páginas se sirven desde {@link CatalogoCache} mientras el catálogo no cambie.
+ */
+@Service
+public class CatalogoServicio {
+    
+    public static final int TAMANO_PAGINA = 24;
+    
+    private static final Sort ORDEN = Sort.by(Sort.Direction.ASC, "_id");
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    @Autowired
+    private CatalogoCache catalogoCache;
+    
+    /**
+     * Obtiene una página del catálogo
+     * @param categoria Nombre exacto de la categoría, o null/vacío para todas
+     * @param pagina Número de página (desde 0)
+     * @param tamano Cantidad de productos por página
+     */
+    public Page<ProductoResumen> obtenerPagina(String categoria, int pagina, int tamano) {
+        int numeroPagina = Math.max(pagina, 0);
+        int tamanoPagina = Math.max(tamano, 1);
+        String grupo = categoria == null || categoria.isBlank() ? CatalogoCache.GRUPO_TODOS : categoria;
+        
+        return catalogoCache.obtener(grupo, numeroPagina + ":" + tamanoPagina,
+            () -> consultarPagina(categoria, numeroPagina, tamanoPagina));
+    }
+    
+    private Page<ProductoResumen> consultarPagina(String categoria, int pagina, int tamano) {
+        Criteria conStock = conCategoria(categoria, Criteria.where("stock").gt(0));
+        Criteria sinStock = conCategoria(categoria, new Criteria().orOperator(
+            Criteria.where("stock").lte(0),
+            Criteria.where("stock").is(null)
+        ));
+        
+        long totalConStock = mongoTemplate.count(new Query(conStock), Producto.class);
+        long totalSinStock = mongoTemplate.count(new Query(sinStock), Producto.class);
+        
+        long desplazamiento = (long) pagina * tamano;
+        List<ProductoResumen> contenido = new ArrayList<>(tamano);
+        
+        if (desplazamiento < totalConStock) {
+            contenido.addAll(buscar(conStock, desplazamiento, tamano));
+        }
+        
+        int faltantes = tamano - contenido.size();
+        if (faltantes > 0) {
+            long desplazamientoSinStock = Math.max(0, desplazamiento - totalConStock);
+            if (desplazamientoSinStock < totalSinStock) {
+                contenido.addAll(buscar(sinStock, desplazamientoSinStock, faltantes));
+            }
+        }
+        
+        for (ProductoResumen producto : contenido) {
+            catalogoCache.recordarCategoria(producto.getId(), producto.getCategoriaProducto());
+        }
+        
+        return new PageImpl<>(contenido, PageRequest.of(pagina, tamano), totalConStock + totalSinStock);
+    }
+    
+    private List<ProductoResumen> buscar(Criteria criterio, long desplazamiento, int limite) {
+        Query query = new Query(criterio).with(ORDEN).skip(desplazamiento).limit(limite);
+        query.fields()
+            .include("nombreProducto")
+            .include("descripcionProducto")
+            .include("precioProducto")
+            .include("categoriaProducto")
+            .include("imagenProducto")
+            .include("stock");
+        return mongoTemplate.find(query, ProductoResumen.class, mongoTemplate.getCollectionName(Producto.class));
+    }
+    
+    private Criteria conCategoria(String categoria, Criteria criterio) {
+        if (categoria == null || categoria.isBlank()) {
+            return criterio;
+        }
+        return new Criteria().andOperator(Criteria.where("categoriaProducto").is(categoria), criterio);
+    }
+}
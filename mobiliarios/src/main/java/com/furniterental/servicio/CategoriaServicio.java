@@ -1,14 +1,21 @@
 package com.furniterental.servicio;
 
+import com.furniterental.dto.ConteoCategoria;
 import com.furniterental.modelo.Categoria;
 import com.furniterental.repositorio.CategoriaRepositorio;
 import com.furniterental.repositorio.ProductoRepositorio;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.lang.NonNull;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 @Service
@@ -20,14 +27,16 @@ public class CategoriaServicio {
     @Autowired
     private ProductoRepositorio productoRepositorio;
     
+    @Autowired
+    private CatalogoCache catalogoCache;
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
     public List<Categoria> obtenerTodasCategorias() {
-        List<Categoria> categorias = categoriaRepositorio.findAllByOrderByNombreAsc();
-        // Actualizar la cantidad de productos por categoría
-        for (Categoria categoria : categorias) {
-            long cantidad = productoRepositorio.countByCategoriaProducto(categoria.getNombre());
-            categoria.setCantidadProductos((int) cantidad);
-        }
-        return categorias;
+        // cantidadProductos se mantiene al guardar/eliminar productos (CantidadProductosListener)
+        return catalogoCache.obtener(CatalogoCache.GRUPO_CATEGORIAS, "todas",
+            () -> List.copyOf(categoriaRepositorio.findAllByOrderByNombreAsc()));
     }
     
     public Optional<Categoria> obtenerCategoriaPorId(@NonNull String id) {
@@ -41,7 +50,7 @@ public class CategoriaServicio {
     public Categoria crearCategoria(Categoria categoria) {
         categoria.setFechaCreacion(LocalDateTime.now());
         categoria.setFechaActualizacion(LocalDateTime.now());
-        categoria.setCantidadProductos(0);
+        categoria.setCantidadProductos((int) productoRepositorio.countByCategoriaProducto(categoria.getNombre()));
         return categoriaRepositorio.save(categoria);
     }
     
@@ -49,6 +58,11 @@ public class CategoriaServicio {
         Optional<Categoria> categoriaOpt = categoriaRepositorio.findById(id);
         if (categoriaOpt.isPresent()) {
             Categoria categoria = categoriaOpt.get();
+            if (!categoria.getNombre().equals(categoriaActualizada.getNombre())) {
+                // Los productos se asocian por nombre: contar los que ya usan el nombre nuevo
+                long cantidad = productoRepositorio.countByCategoriaProducto(categoriaActualizada.getNombre());
+                categoria.setCantidadProductos((int) cantidad);
+            }
             categoria.setNombre(categoriaActualizada.getNombre());
             categoria.setDescripcion(categoriaActualizada.getDescripcion());
             categoria.setIcono(categoriaActualizada.getIcono());
@@ -62,8 +76,7 @@ public class CategoriaServicio {
         Optional<Categoria> categoria = categoriaRepositorio.findById(id);
         if (categoria.isPresent()) {
             // Verificar si hay productos en esta categoría
-            long cantidadProductos = productoRepositorio.countByCategoriaProducto(categoria.get().getNombre());
-            if (cantidadProductos > 0) {
+            if (productoRepositorio.existsByCategoriaProducto(categoria.get().getNombre())) {
                 return false; // No se puede eliminar si hay productos
             }
             categoriaRepositorio.deleteById(id);
@@ -79,4 +92,51 @@ public class CategoriaServicio {
     public long contarCategorias() {
         return categoriaRepositorio.count();
     }
+    
+    /**
+     * Suma (o resta) productos al contador de una categoría con un $inc atómico
+     */
+    public void ajustarCantidadProductos(String nombre, int delta) {
+        if (nombre == null || delta == 0) {
+            return;
+        }
+        mongoTemplate.updateFirst(
+            Query.query(Criteria.where("nombre").is(nombre)),
+            new Update().inc("cantidadProductos", delta),
+            Categoria.class
+        );
+        catalogoCache.invalidarCategorias();
+    }
+    
+    /**
+     * Recalcula el contador de todas las categorías con una sola agregación $group.
+     * Corrige las diferencias que pudieran dejar escrituras hechas fuera de los repositorios.
+     * @return Cantidad de categorías cuyo contador se corrigió
+     */
+    public int recalcularCantidadProductos() {
+        Map<String, Long> conteos = new HashMap<>();
+        for (ConteoCategoria conteo : productoRepositorio.contarProductosPorCategoria()) {
+            if (conteo.getCategoria() != null) {
+                conteos.put(conteo.getCategoria(), conteo.getCantidad());
+            }
+        }
+        
+        int corregidas = 0;
+        for (Categoria categoria : categoriaRepositorio.findAll()) {
+            int cantidad = conteos.getOrDefault(categoria.getNombre(), 0L).intValue();
+            if (categoria.getCantidadProductos() == null || categoria.getCantidadProductos() != cantidad) {
+                mongoTemplate.updateFirst(
+                    Query.query(Criteria.where("_id").is(categoria.getId())),
+                    new Update().set("cantidadProductos", cantidad),
+                    Categoria.class
+                );
+                corregidas++;
+            }
+        }
+        
+        if (corregidas > 0) {
+            catalogoCache.invalidarCategorias();
+        }
+        return corregidas;
+    }
 }
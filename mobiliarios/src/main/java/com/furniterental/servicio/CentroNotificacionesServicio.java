@@ -0,0 +1,376 @@
+package com.furniterental.servicio;
+
+import com.furniterental.dto.EventoNotificacion;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Centro de notificaciones por Server-Sent Events.
+ *
+ * Cada navegador abre una conexión a su canal (el de su usuario o el de administración) y
+ * recibe los eventos de dominio publicados con {@link EventoNotificacion}, en vez de consultar
+ * la base de datos cada pocos segundos. Cada canal guarda sus últimos eventos: al reconectar,
+ * EventSource envía Last-Event-ID y se reenvían los que faltan; si ya no están en memoria se
+ * envía "resincronizar" para que la página recargue sus datos; también cuando el id es anterior
+ * al primero que emitió esta instancia (se reinició o el navegador venía de otra instancia). Un
+ * latido periódico mantiene abiertas las conexiones a través de proxies y detecta las que se cerraron.
+ *
+ * Cada conexión tiene su propia cola de envíos, que vacía un hilo de un grupo acotado (una
+ * conexión a la vez, en orden). SseEmitter.send escribe en el socket y puede bloquearse: una
+ * conexión lenta solo ocupa el hilo que le está escribiendo, las demás siguen en los otros.
+ * Si su cola se llena o un envío tarda más del límite deja de recibir eventos y se cierra en
+ * cuanto termina esa escritura. Publicar nunca espera a un navegador.
+ *
+ * Los canales viven en memoria de cada instancia.
+ */
+@Service
+public class CentroNotificacionesServicio {
+
+    public static final String RESINCRONIZAR = "resincronizar";
+
+    @Value("${app.notificaciones.timeout-minutos:30}")
+    private long timeoutMinutos;
+
+    @Value("${app.notificaciones.eventos-por-canal:50}")
+    private int eventosPorCanal;
+
+    @Value("${app.notificaciones.conexiones-por-canal:10}")
+    private int conexionesPorCanal;
+
+    @Value("${app.notificaciones.reconexion-ms:5000}")
+    private long reconexionMs;
+
+    @Value("${app.notificaciones.hilos-envio:4}")
+    private int hilosEnvio;
+
+    @Value("${app.notificaciones.pendientes-por-conexion:100}")
+    private int pendientesPorConexion;
+
+    @Value("${app.notificaciones.timeout-envio-ms:10000}")
+    private long timeoutEnvioMs;
+
+    // Los ids crecen también entre reinicios, así un Last-Event-ID viejo nunca salta eventos nuevos
+    private final AtomicLong secuencia = new AtomicLong(System.currentTimeMillis());
+    // Primer id que emite esta instancia: un Last-Event-ID menor viene de antes de que existiera
+    private final long primerId = secuencia.get() + 1;
+    private final Map<String, Canal> canales = new ConcurrentHashMap<>();
+    private final AtomicLong eventosPublicados = new AtomicLong();
+    private final AtomicLong conexionesCerradas = new AtomicLong();
+    private final AtomicLong conexionesRezagadas = new AtomicLong();
+
+    private ExecutorService envios;
+
+    @PostConstruct
+    public void iniciar() {
+        AtomicInteger numero = new AtomicInteger();
+        envios = Executors.newFixedThreadPool(Math.max(1, hilosEnvio), r -> {
+            Thread hilo = new Thread(r, "notificaciones-envio-" + numero.incrementAndGet());
+            hilo.setDaemon(true);
+            return hilo;
+        });
+    }
+
+    @PreDestroy
+    public void detener() {
+        envios.shutdown();
+        for (Canal canal : canales.values()) {
+            canal.conexiones.forEach(conexion -> conexion.emisor.complete());
+        }
+    }
+
+    /**
+     * Abre una conexión al canal y reenvía los eventos posteriores a ultimoEventoId
+     */
+    public SseEmitter suscribir(String nombreCanal, String ultimoEventoId) {
+        Canal canal = canales.computeIfAbsent(nombreCanal, n -> new Canal());
+        canal.ultimaActividad = System.currentTimeMillis();
+        SseEmitter emisor = crearEmisor(TimeUnit.MINUTES.toMillis(timeoutMinutos));
+        Conexion conexion = new Conexion(canal, emisor);
+
+        // El emisor ya terminó: solo se quita del canal
+        Runnable quitar = () -> {
+            conexion.cerrada = true;
+            conexion.finalizada.set(true);
+            canal.conexiones.remove(conexion);
+        };
+        emisor.onCompletion(quitar);
+        emisor.onTimeout(quitar);
+        emisor.onError(error -> quitar.run());
+
+        Long ultimoId = parsearId(ultimoEventoId);
+        // Con el canal bloqueado: el reenvío queda en la cola antes de cualquier evento nuevo
+        synchronized (canal) {
+            // Límite de pestañas por canal: se cierra la conexión más antigua
+            while (canal.conexiones.size() >= conexionesPorCanal) {
+                retirar(canal.conexiones.get(0));
+            }
+            canal.conexiones.add(conexion);
+
+            List<EventoEnviado> pendientes = canal.eventosDesde(ultimoId, primerId);
+            if (pendientes == null) {
+                encolar(conexion, new EventoEnviado(secuencia.incrementAndGet(), RESINCRONIZAR, Map.of()));
+            } else {
+                pendientes.forEach(evento -> encolar(conexion, evento));
+            }
+        }
+        return emisor;
+    }
+
+    @EventListener
+    public void publicar(EventoNotificacion evento) {
+        Canal canal = canales.computeIfAbsent(evento.getCanal(), n -> new Canal());
+        EventoEnviado enviado = new EventoEnviado(secuencia.incrementAndGet(), evento.getTipo(), evento.getDatos());
+        synchronized (canal) {
+            canal.guardar(enviado, eventosPorCanal);
+            for (Conexion conexion : canal.conexiones) {
+                encolar(conexion, enviado);
+            }
+        }
+        eventosPublicados.incrementAndGet();
+    }
+
+    @Scheduled(fixedDelayString = "${app.notificaciones.latido-ms:25000}", initialDelayString = "${app.notificaciones.latido-ms:25000}")
+    public void latido() {
+        long ahora = System.currentTimeMillis();
+        long limite = ahora - TimeUnit.MINUTES.toMillis(timeoutMinutos);
+        for (Map.Entry<String, Canal> entrada : canales.entrySet()) {
+            Canal canal = entrada.getValue();
+            for (Conexion conexion : canal.conexiones) {
+                long inicioEnvio = conexion.inicioEnvio;
+                if (inicioEnvio != 0 && ahora - inicioEnvio > timeoutEnvioMs) {
+                    // El navegador no lee: deja de recibir eventos y se cierra al terminar la escritura en curso
+                    rezagada(conexion);
+                } else {
+                    encolar(conexion, LATIDO);
+                }
+            }
+            // Canales sin conexiones ni eventos recientes
+            if (canal.conexiones.isEmpty() && canal.ultimaActividad < limite) {
+                canales.remove(entrada.getKey(), canal);
+            }
+        }
+    }
+
+    // Las pruebas lo reemplazan por un emisor que registra o retiene los envíos
+    SseEmitter crearEmisor(long timeoutMs) {
+        return new SseEmitter(timeoutMs);
+    }
+
+    public Map<String, Object> obtenerEstadisticas() {
+        int conexiones = 0;
+        for (Canal canal : canales.values()) {
+            conexiones += canal.conexiones.size();
+        }
+        Map<String, Object> estadisticas = new HashMap<>();
+        estadisticas.put("canales", canales.size());
+        estadisticas.put("conexiones", conexiones);
+        estadisticas.put("eventosPublicados", eventosPublicados.get());
+        estadisticas.put("conexionesCerradas", conexionesCerradas.get());
+        estadisticas.put("conexionesRezagadas", conexionesRezagadas.get());
+        return estadisticas;
+    }
+
+    /**
+     * Agrega el evento a la cola de la conexión sin esperar; si la cola está llena la conexión se cierra
+     */
+    private void encolar(Conexion conexion, EventoEnviado evento) {
+        if (conexion.cerrada) {
+            return;
+        }
+        if (conexion.enCola.incrementAndGet() > pendientesPorConexion) {
+            rezagada(conexion);
+            return;
+        }
+        conexion.cola.add(evento);
+        programar(conexion);
+    }
+
+    private void programar(Conexion conexion) {
+        if (conexion.programada.compareAndSet(false, true)) {
+            try {
+                envios.execute(() -> vaciar(conexion));
+            } catch (RejectedExecutionException e) {
+                // Aplicación cerrándose
+                conexion.programada.set(false);
+            }
+        }
+    }
+
+    /**
+     * Envía en orden lo que tiene la cola de una conexión, o la termina si se cerró. Solo un hilo
+     * vacía una conexión a la vez, así que es el único que escribe en su emisor: terminarlo aquí no
+     * espera a un envío bloqueado.
+     */
+    private void vaciar(Conexion conexion) {
+        EventoEnviado evento;
+        while (!conexion.cerrada && (evento = conexion.cola.poll()) != null) {
+            conexion.enCola.decrementAndGet();
+            enviar(conexion, evento);
+        }
+        if (conexion.cerrada) {
+            conexion.cola.clear();
+            if (conexion.finalizada.compareAndSet(false, true)) {
+                conexion.emisor.completeWithError(new IOException("Conexión cerrada"));
+            }
+        }
+        conexion.programada.set(false);
+
+        // Algo pudo llegar (un evento o el cierre) entre la última comprobación y liberar la conexión
+        boolean pendiente = conexion.cerrada ? !conexion.finalizada.get() : !conexion.cola.isEmpty();
+        if (pendiente) {
+            programar(conexion);
+        }
+    }
+
+    private void enviar(Conexion conexion, EventoEnviado evento) {
+        conexion.inicioEnvio = System.currentTimeMillis();
+        try {
+            if (evento == LATIDO) {
+                conexion.emisor.send(SseEmitter.event().comment("latido"));
+            } else {
+                conexion.emisor.send(SseEmitter.event()
+                        .id(String.valueOf(evento.id))
+                        .name(evento.tipo)
+                        .data(evento.datos, MediaType.APPLICATION_JSON)
+                        .reconnectTime(reconexionMs));
+            }
+        } catch (IOException | IllegalStateException e) {
+            // El navegador se fue; EventSource volverá a conectar si la página sigue abierta
+            if (retirar(conexion)) {
+                conexionesCerradas.incrementAndGet();
+            }
+        } finally {
+            conexion.inicioEnvio = 0;
+        }
+    }
+
+    /**
+     * Cierra una conexión que no da abasto. Al reconectar, Last-Event-ID reenvía lo que se
+     * perdió o pide resincronizar.
+     */
+    private void rezagada(Conexion conexion) {
+        if (retirar(conexion)) {
+            conexionesRezagadas.incrementAndGet();
+            conexionesCerradas.incrementAndGet();
+        }
+    }
+
+    /**
+     * Quita la conexión del canal sin esperar; el hilo que la vacía termina el emisor
+     * @return false si ya estaba cerrada
+     */
+    private boolean retirar(Conexion conexion) {
+        conexion.cerrada = true;
+        boolean quitada = conexion.canal.conexiones.remove(conexion);
+        programar(conexion);
+        return quitada;
+    }
+
+    private static Long parsearId(String id) {
+        if (id == null || id.isBlank()) {
+            return null;
+        }
+        try {
+            return Long.parseLong(id.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // Comentario de latido: pasa por la misma cola para no escribir a la vez que un evento
+    private static final EventoEnviado LATIDO = new EventoEnviado(0, null, null);
+
+    private static class EventoEnviado {
+        private final long id;
+        private final String tipo;
+        private final Map<String, Object> datos;
+
+        EventoEnviado(long id, String tipo, Map<String, Object> datos) {
+            this.id = id;
+            this.tipo = tipo;
+            this.datos = datos;
+        }
+    }
+
+    private static class Conexion {
+        private final Canal canal;
+        private final SseEmitter emisor;
+        private final Queue<EventoEnviado> cola = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger enCola = new AtomicInteger();
+        // true mientras un hilo del grupo tiene la conexión programada o la está vaciando
+        private final AtomicBoolean programada = new AtomicBoolean();
+        // true cuando el emisor ya se terminó (por esta clase o por el contenedor)
+        private final AtomicBoolean finalizada = new AtomicBoolean();
+        // Momento en que empezó el envío en curso (0 si no está enviando)
+        private volatile long inicioEnvio;
+        private volatile boolean cerrada;
+
+        Conexion(Canal canal, SseEmitter emisor) {
+            this.canal = canal;
+            this.emisor = emisor;
+        }
+    }
+
+    private static class Canal {
+        private final List<Conexion> conexiones = new CopyOnWriteArrayList<>();
+        private final Deque<EventoEnviado> recientes = new ArrayDeque<>();
+        private volatile long ultimaActividad = System.currentTimeMillis();
+        // Id del último evento que salió del búfer (0 si no se descartó ninguno)
+        private long ultimoDescartado;
+
+        synchronized void guardar(EventoEnviado evento, int maximo) {
+            recientes.addLast(evento);
+            while (recientes.size() > maximo) {
+                ultimoDescartado = recientes.removeFirst().id;
+            }
+            ultimaActividad = System.currentTimeMillis();
+        }
+
+        /**
+         * Eventos posteriores al id dado. Sin id (conexión nueva) no hay nada que reenviar.
+         * @param primerId Primer id emitido por esta instancia
+         * @return null si el navegador pudo perder eventos: se descartaron del búfer o el id es de
+         *         antes de que esta instancia existiera
+         */
+        synchronized List<EventoEnviado> eventosDesde(Long ultimoId, long primerId) {
+            List<EventoEnviado> pendientes = new ArrayList<>();
+            if (ultimoId == null) {
+                return pendientes;
+            }
+            if (ultimoId < primerId || ultimoId < ultimoDescartado) {
+                return null;
+            }
+            for (EventoEnviado evento : recientes) {
+                if (evento.id > ultimoId) {
+                    pendientes.add(evento);
+                }
+            }
+            return pendientes;
+        }
+    }
+}
@@ -25,9 +25,14 @@ public class EmailService {
     @Autowired
     private TemplateEngine templateEngine;
 
+    @Autowired
+    private OutboxCorreoServicio outboxCorreoServicio;
+
     @Value("${spring.mail.username}")
     private String fromEmail;
 
+    private static final String ASUNTO_COMPROBANTE_PAGO = "✓ Comprobante de Pago - FURENT";
+
     /**
      * Envía un comprobante de pago por correo electrónico
      */
@@ -48,21 +53,10 @@ public class EmailService {
             if (usuario.getCorreo() != null) {
                 helper.setTo(usuario.getCorreo());
             }
-            helper.setSubject("✓ Comprobante de Pago - FURENT");
-
-            // Crear contexto para la plantilla
-            Context context = new Context();
-            context.setVariable("nombreUsuario", usuario.getNombre());
-            context.setVariable("pagoId", pago.getId());
-            context.setVariable("alquilerId", alquiler.getId());
-            context.setVariable("tipoPago", pago.getTipoPago());
-            context.setVariable("monto", pago.getMonto());
-            context.setVariable("fechaPago", formatearFecha(pago.getFechaPago()));
-            context.setVariable("metodoPago", pago.getMetodoPago());
-            context.setVariable("estadoPago", pago.getEstado());
+            helper.setSubject(ASUNTO_COMPROBANTE_PAGO);
 
             // Procesar plantilla HTML
-            String htmlContent = templateEngine.process("emails/comprobante-pago", context);
+            String htmlContent = construirComprobantePago(usuario, pago, alquiler);
             helper.setText(htmlContent, true);
 
             // Enviar correo
@@ -76,6 +70,39 @@ public class EmailService {
         }
     }
 
+    /**
+     * Registra el comprobante de pago en el outbox; lo envía el relay de correos
+     */
+    public void encolarComprobantePago(Usuario usuario, Pago pago, Alquiler alquiler) {
+        if (usuario == null || pago == null || alquiler == null) {
+            System.err.println("✗ Error: Parámetros nulos en encolarComprobantePago");
+            return;
+        }
+        
+        outboxCorreoServicio.encolar(
+            "comprobante-pago",
+            pago.getId(),
+            usuario.getCorreo(),
+            ASUNTO_COMPROBANTE_PAGO,
+            construirComprobantePago(usuario, pago, alquiler)
+        );
+    }
+
+    private String construirComprobantePago(Usuario usuario, Pago pago, Alquiler alquiler) {
+        // Crear contexto para la plantilla
+        Context context = new Context();
+        context.setVariable("nombreUsuario", usuario.getNombre());
+        context.setVariable("pagoId", pago.getId());
+        context.setVariable("alquilerId", alquiler.getId());
+        context.setVariable("tipoPago", pago.getTipoPago());
+        context.setVariable("monto", pago.getMonto());
+        context.setVariable("fechaPago", formatearFecha(pago.getFechaPago()));
+        context.setVariable("metodoPago", pago.getMetodoPago());
+        context.setVariable("estadoPago", pago.getEstado());
+
+        return templateEngine.process("emails/comprobante-pago", context);
+    }
+
     /**
      * Formatea una fecha para mostrarla en el correo
      */
@@ -1,12 +1,15 @@
 package com.furniterental.servicio;
 
 import com.furniterental.config.MailProperties;
+import jakarta.mail.MessagingException;
 import jakarta.mail.internet.MimeMessage;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.mail.javamail.MimeMessageHelper;
 import org.springframework.stereotype.Service;
 
+import java.io.UnsupportedEncodingException;
+
 @Service
 public class EmailServicio {
 
@@ -16,6 +19,9 @@ public class EmailServicio {
     @Autowired
     private MailProperties mailProperties;
 
+    @Autowired
+    private OutboxCorreoServicio outboxCorreoServicio;
+
     /**
      * Envía un correo de notificación de cambio de estado de alquiler
      */
@@ -251,58 +257,21 @@ public class EmailServicio {
     }
     
     /**
-     * Envía un correo de confirmación cuando se crea un nuevo alquiler
+     * Registra en el outbox el correo de confirmación cuando se crea un nuevo alquiler
      */
-    public void enviarConfirmacionAlquiler(
+    public void encolarConfirmacionAlquiler(
             String destinatario,
             String nombreUsuario,
             String numeroAlquiler,
             String detallesAlquiler) {
         
-        // Validar parámetros requeridos
-        if (destinatario == null || destinatario.isEmpty()) {
-            System.err.println("Error: destinatario es nulo o vacío");
-            return;
-        }
-        
-        try {
-            MimeMessage message = mailSender.createMimeMessage();
-            MimeMessageHelper helper = new MimeMessageHelper(message, true, "UTF-8");
-
-            // Asegurar valores no nulos para el remitente
-            String fromEmail = mailProperties.getFrom();
-            if (fromEmail == null || fromEmail.isEmpty()) {
-                fromEmail = "noreply@furent.com";
-            }
-            
-            String fromName = mailProperties.getFromName();
-            if (fromName == null || fromName.isEmpty()) {
-                fromName = "FURENT";
-            }
-            
-            helper.setFrom(fromEmail, fromName);
-            helper.setTo(destinatario);
-            helper.setSubject("¡Alquiler Recibido! #" + numeroAlquiler + " - FURENT");
-
-            String htmlContent = construirEmailConfirmacionAlquiler(
-                nombreUsuario, 
-                numeroAlquiler, 
-                detallesAlquiler
-            );
-
-            if (htmlContent != null && !htmlContent.isEmpty()) {
-                helper.setText(htmlContent, true);
-            } else {
-                throw new IllegalStateException("El contenido del correo no puede estar vacío");
-            }
-
-            mailSender.send(message);
-            System.out.println("Correo de confirmación enviado exitosamente a: " + destinatario);
-
-        } catch (Exception e) {
-            System.err.println("Error al enviar correo de confirmación: " + e.getMessage());
-            e.printStackTrace();
-        }
+        outboxCorreoServicio.encolar(
+            "confirmacion-alquiler",
+            numeroAlquiler,
+            destinatario,
+            "¡Alquiler Recibido! #" + numeroAlquiler + " - FURENT",
+            construirEmailConfirmacionAlquiler(nombreUsuario, numeroAlquiler, detallesAlquiler)
+        );
     }
     
     /**
@@ -430,58 +399,21 @@ public class EmailServicio {
     }
     
     /**
-     * Envía un correo de notificación cuando el usuario cancela su alquiler
+     * Registra en el outbox el correo de notificación cuando el usuario cancela su alquiler
      */
-    public void enviarNotificacionCancelacion(
+    public void encolarNotificacionCancelacion(
             String destinatario,
             String nombreUsuario,
             String numeroAlquiler,
             String detallesAlquiler) {
         
-        // Validar parámetros requeridos
-        if (destinatario == null || destinatario.isEmpty()) {
-            System.err.println("Error: destinatario es nulo o vacío");
-            return;
-        }
-        
-        try {
-            MimeMessage message = mailSender.createMimeMessage();
-            MimeMessageHelper helper = new MimeMessageHelper(message, true, "UTF-8");
-
-            // Asegurar valores no nulos para el remitente
-            String fromEmail = mailProperties.getFrom();
-            if (fromEmail == null || fromEmail.isEmpty()) {
-                fromEmail = "noreply@furent.com";
-            }
-            
-            String fromName = mailProperties.getFromName();
-            if (fromName == null || fromName.isEmpty()) {
-                fromName = "FURENT";
-            }
-            
-            helper.setFrom(fromEmail, fromName);
-            helper.setTo(destinatario);
-            helper.setSubject("Alquiler Cancelado #" + numeroAlquiler + " - FURENT");
-
-            String htmlContent = construirEmailCancelacion(
-                nombreUsuario, 
-                numeroAlquiler, 
-                detallesAlquiler
-            );
-
-            if (htmlContent != null && !htmlContent.isEmpty()) {
-                helper.setText(htmlContent, true);
-            } else {
-                throw new IllegalStateException("El contenido del correo no puede estar vacío");
-            }
-
-            mailSender.send(message);
-            System.out.println("Correo de cancelación enviado exitosamente a: " + destinatario);
-
-        } catch (Exception e) {
-            System.err.println("Error al enviar correo de cancelación: " + e.getMessage());
-            e.printStackTrace();
-        }
+        outboxCorreoServicio.encolar(
+            "cancelacion-alquiler",
+            numeroAlquiler,
+            destinatario,
+            "Alquiler Cancelado #" + numeroAlquiler + " - FURENT",
+            construirEmailCancelacion(nombreUsuario, numeroAlquiler, detallesAlquiler)
+        );
     }
     
     /**
@@ -916,52 +848,104 @@ public class EmailServicio {
      * Método genérico para enviar correos HTML
      */
     public void enviarCorreoHtml(String destinatario, String asunto, String contenidoHtml) {
+        // Validar que el destinatario no sea nulo o vacío
+        if (destinatario == null || destinatario.trim().isEmpty()) {
+            System.err.println("Error: El destinatario del correo no puede ser nulo o vacío");
+            return;
+        }
+        
+        // Validar que el asunto no sea nulo
+        if (asunto == null || asunto.trim().isEmpty()) {
+            System.err.println("Error: El asunto del correo no puede ser nulo o vacío");
+            return;
+        }
+        
+        // Validar que el contenido no sea nulo
+        if (contenidoHtml == null || contenidoHtml.trim().isEmpty()) {
+            System.err.println("Error: El contenido del correo no puede ser nulo o vacío");
+            return;
+        }
+        
         try {
-            // Validar que el destinatario no sea nulo o vacío
-            if (destinatario == null || destinatario.trim().isEmpty()) {
-                System.err.println("Error: El destinatario del correo no puede ser nulo o vacío");
-                return;
-            }
-            
-            // Validar que el asunto no sea nulo
-            if (asunto == null || asunto.trim().isEmpty()) {
-                System.err.println("Error: El asunto del correo no puede ser nulo o vacío");
-                return;
-            }
-            
-            // Validar que el contenido no sea nulo
-            if (contenidoHtml == null || contenidoHtml.trim().isEmpty()) {
-                System.err.println("Error: El contenido del correo no puede ser nulo o vacío");
-                return;
-            }
-            
-            MimeMessage message = mailSender.createMimeMessage();
-            MimeMessageHelper helper = new MimeMessageHelper(message, true, "UTF-8");
-            
-            String fromEmail = mailProperties.getFrom();
-            if (fromEmail == null || fromEmail.isEmpty()) {
-                fromEmail = "noreply@furent.com";
-            }
-            
-            String fromName = mailProperties.getFromName();
-            if (fromName == null || fromName.isEmpty()) {
-                fromName = "FURENT";
-            }
-            
-            helper.setFrom(fromEmail, fromName);
-            helper.setTo(destinatario);
-            helper.setSubject(asunto);
-            helper.setText(contenidoHtml, true);
-            
-            mailSender.send(message);
-            System.out.println("Correo enviado exitosamente a: " + destinatario);
-            
+            enviarHtml(destinatario, asunto, contenidoHtml);
         } catch (Exception e) {
             System.err.println("Error al enviar correo: " + e.getMessage());
             e.printStackTrace();
         }
     }
     
+    /**
+     * Envía un correo HTML ya construido. A diferencia de enviarCorreoHtml, propaga el
+     * error para que el relay del outbox pueda reintentarlo.
+     */
+    public void enviarHtml(String destinatario, String asunto, String contenidoHtml)
+            throws MessagingException, UnsupportedEncodingException {
+        MimeMessage message = mailSender.createMimeMessage();
+        MimeMessageHelper helper = new MimeMessageHelper(message, true, "UTF-8");
+        
+        String fromEmail = mailProperties.getFrom();
+        if (fromEmail == null || fromEmail.isEmpty()) {
+            fromEmail = "noreply@furent.com";
+        }
+        
+        String fromName = mailProperties.getFromName();
+        if (fromName == null || fromName.isEmpty()) {
+            fromName = "FURENT";
+        }
+        
+        helper.setFrom(fromEmail, fromName);
+        helper.setTo(destinatario);
+        helper.setSubject(asunto);
+        helper.setText(contenidoHtml, true);
+        
+        mailSender.send(message);
+        System.out.println("Correo enviado exitosamente a: " + destinatario);
+    }
+    
+    /**
+     * Registra en el outbox un correo HTML ya construido; lo envía el relay
+     */
+    public void encolarCorreoHtml(String tipo, String referencia, String destinatario, String asunto, String contenidoHtml) {
+        outboxCorreoServicio.encolar(tipo, referencia, destinatario, asunto, contenidoHtml);
+    }
+    
+    /**
+     * Registra en el outbox la notificación de cambio de estado de un alquiler
+     */
+    public void encolarNotificacionCambioEstado(
+            String destinatario,
+            String nombreUsuario,
+            String numeroAlquiler,
+            String estadoAnterior,
+            String estadoNuevo,
+            String detallesAlquiler) {
+        
+        outboxCorreoServicio.encolar(
+            "cambio-estado-alquiler",
+            numeroAlquiler,
+            destinatario,
+            "Actualización de tu alquiler #" + numeroAlquiler + " - FURENT",
+            construirEmailCambioEstado(nombreUsuario, numeroAlquiler, estadoAnterior, estadoNuevo, detallesAlquiler)
+        );
+    }
+    
+    /**
+     * Registra en el outbox el correo con el código de verificación para cambio de contraseña
+     */
+    public void encolarCodigoVerificacion(
+            String destinatario,
+            String nombreUsuario,
+            String codigoVerificacion) {
+        
+        outboxCorreoServicio.encolar(
+            "codigo-verificacion",
+            destinatario,
+            destinatario,
+            "Código de Verificación - Cambio de Contraseña - FURENT",
+            construirEmailCodigoVerificacion(nombreUsuario, codigoVerificacion)
+        );
+    }
+    
     /**
      * Envía notificación de solicitud de pago al usuario
      */
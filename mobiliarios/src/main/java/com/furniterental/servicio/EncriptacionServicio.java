@@ -1,17 +1,21 @@
 package com.furniterental.servicio;
 
+import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import javax.crypto.Cipher;
 import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
-import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.List;
 
 /**
  * Servicio de encriptación AES-256-GCM para datos sensibles
@@ -27,11 +31,57 @@ public class EncriptacionServicio {
     private static final int GCM_TAG_LENGTH = 128; // bits
     private static final int GCM_IV_LENGTH = 12; // bytes (96 bits recomendado para GCM)
     private static final int AES_KEY_SIZE = 256; // bits
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    // Separa la clave de las huellas de la de encriptación aunque ambas salgan del mismo secreto
+    private static final String CONTEXTO_HUELLA = "FURENT-huella-tarjeta";
     
     // Clave secreta para encriptación (debería estar en variables de entorno en producción)
     @Value("${app.encryption.secret:FURENT-SECRET-KEY-2024-CHANGE-IN-PRODUCTION-32CHARS}")
     private String secretKeyString;
     
+    // Se deriva una sola vez al iniciar; SecretKeySpec copia los bytes y no cambia después
+    private SecretKey secretKey;
+    
+    // Clave HMAC para huellas de tarjeta, derivada del mismo secreto
+    private SecretKey claveHuella;
+    
+    private final ThreadLocal<Mac> macs = ThreadLocal.withInitial(() -> {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(claveHuella);
+            return mac;
+        } catch (Exception e) {
+            throw new IllegalStateException("HmacSHA256 no está disponible en esta JVM", e);
+        }
+    });
+    
+    // SecureRandom es seguro entre hilos: no hace falta crear uno por llamada
+    private final SecureRandom random = new SecureRandom();
+    
+    // Cipher no es seguro entre hilos, pero sí reutilizable: cada hilo conserva el suyo y lo
+    // reinicializa con un IV nuevo en cada operación
+    private final ThreadLocal<Cipher> cifradores = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance(ALGORITHM);
+        } catch (Exception e) {
+            throw new IllegalStateException("AES/GCM no está disponible en esta JVM", e);
+        }
+    });
+    
+    @PostConstruct
+    public void iniciar() {
+        secretKey = getSecretKey();
+        try {
+            Mac derivacion = Mac.getInstance(HMAC_ALGORITHM);
+            derivacion.init(new SecretKeySpec(secretKeyString.getBytes(StandardCharsets.UTF_8), HMAC_ALGORITHM));
+            byte[] bytesHuella = derivacion.doFinal(CONTEXTO_HUELLA.getBytes(StandardCharsets.UTF_8));
+            claveHuella = new SecretKeySpec(bytesHuella, HMAC_ALGORITHM);
+            Arrays.fill(bytesHuella, (byte) 0);
+        } catch (Exception e) {
+            throw new IllegalStateException("No se pudo derivar la clave de huellas de tarjeta", e);
+        }
+    }
+    
     /**
      * Encripta un texto usando AES-256-GCM
      * @param plainText Texto a encriptar
@@ -44,27 +94,21 @@ public class EncriptacionServicio {
         
         // Generar IV aleatorio (Initialization Vector)
         byte[] iv = new byte[GCM_IV_LENGTH];
-        SecureRandom random = new SecureRandom();
         random.nextBytes(iv);
         
-        // Preparar la clave secreta
-        SecretKey secretKey = getSecretKey();
-        
-        // Configurar el cifrador
-        Cipher cipher = Cipher.getInstance(ALGORITHM);
+        // Configurar el cifrador del hilo (un IV nuevo por operación, nunca se repite con la misma clave)
+        Cipher cipher = cifradores.get();
         GCMParameterSpec parameterSpec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
         cipher.init(Cipher.ENCRYPT_MODE, secretKey, parameterSpec);
         
-        // Encriptar
-        byte[] encryptedData = cipher.doFinal(plainText.getBytes(StandardCharsets.UTF_8));
-        
-        // Combinar IV + datos encriptados
-        ByteBuffer byteBuffer = ByteBuffer.allocate(iv.length + encryptedData.length);
-        byteBuffer.put(iv);
-        byteBuffer.put(encryptedData);
+        // Encriptar directamente detrás del IV, sin copias intermedias
+        byte[] plainBytes = plainText.getBytes(StandardCharsets.UTF_8);
+        byte[] output = new byte[GCM_IV_LENGTH + cipher.getOutputSize(plainBytes.length)];
+        System.arraycopy(iv, 0, output, 0, GCM_IV_LENGTH);
+        cipher.doFinal(plainBytes, 0, plainBytes.length, output, GCM_IV_LENGTH);
         
         // Retornar en Base64
-        return Base64.getEncoder().encodeToString(byteBuffer.array());
+        return Base64.getEncoder().encodeToString(output);
     }
     
     /**
@@ -79,28 +123,59 @@ public class EncriptacionServicio {
         
         // Decodificar de Base64
         byte[] decodedData = Base64.getDecoder().decode(encryptedText);
+        if (decodedData.length <= GCM_IV_LENGTH) {
+            throw new IllegalArgumentException("El texto encriptado está incompleto");
+        }
         
-        // Extraer IV y datos encriptados
-        ByteBuffer byteBuffer = ByteBuffer.wrap(decodedData);
-        byte[] iv = new byte[GCM_IV_LENGTH];
-        byteBuffer.get(iv);
-        byte[] encryptedData = new byte[byteBuffer.remaining()];
-        byteBuffer.get(encryptedData);
-        
-        // Preparar la clave secreta
-        SecretKey secretKey = getSecretKey();
-        
-        // Configurar el cifrador
-        Cipher cipher = Cipher.getInstance(ALGORITHM);
-        GCMParameterSpec parameterSpec = new GCMParameterSpec(GCM_TAG_LENGTH, iv);
+        // El IV va al inicio; los datos encriptados se leen en su lugar, sin copiarlos
+        Cipher cipher = cifradores.get();
+        GCMParameterSpec parameterSpec = new GCMParameterSpec(GCM_TAG_LENGTH, decodedData, 0, GCM_IV_LENGTH);
         cipher.init(Cipher.DECRYPT_MODE, secretKey, parameterSpec);
         
         // Desencriptar
-        byte[] decryptedData = cipher.doFinal(encryptedData);
+        byte[] decryptedData = cipher.doFinal(decodedData, GCM_IV_LENGTH, decodedData.length - GCM_IV_LENGTH);
         
         return new String(decryptedData, StandardCharsets.UTF_8);
     }
     
+    /**
+     * Encripta varios campos de una vez (por ejemplo número y CVV de una tarjeta)
+     * @return Textos encriptados en el mismo orden recibido
+     */
+    public List<String> encriptarTodos(List<String> plainTexts) throws Exception {
+        List<String> resultado = new ArrayList<>(plainTexts.size());
+        for (String plainText : plainTexts) {
+            resultado.add(encriptar(plainText));
+        }
+        return resultado;
+    }
+    
+    /**
+     * Desencripta varios campos de una vez
+     * @return Textos desencriptados en el mismo orden recibido
+     */
+    public List<String> desencriptarTodos(List<String> encryptedTexts) throws Exception {
+        List<String> resultado = new ArrayList<>(encryptedTexts.size());
+        for (String encryptedText : encryptedTexts) {
+            resultado.add(desencriptar(encryptedText));
+        }
+        return resultado;
+    }
+    
+    /**
+     * Huella de un número de tarjeta: HMAC-SHA256 del número sin espacios ni guiones.
+     * Es determinista (la misma tarjeta da siempre la misma huella), así que permite detectar
+     * duplicados con una búsqueda indexada, y sin la clave no sirve para recuperar el número.
+     */
+    public String calcularHuella(String numeroTarjeta) {
+        if (numeroTarjeta == null || numeroTarjeta.isBlank()) {
+            throw new IllegalArgumentException("El número de tarjeta no puede estar vacío");
+        }
+        String numero = numeroTarjeta.replaceAll("[\\s-]", "");
+        byte[] huella = macs.get().doFinal(numero.getBytes(StandardCharsets.UTF_8));
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(huella);
+    }
+    
     /**
      * Obtiene la clave secreta desde la configuración
      * En producción, esta clave debería venir de variables de entorno o un gestor de secretos
@@ -113,7 +188,9 @@ public class EncriptacionServicio {
         // Copiar los bytes de la clave secreta (truncar o rellenar si es necesario)
         System.arraycopy(secretBytes, 0, keyBytes, 0, Math.min(secretBytes.length, 32));
         
-        return new SecretKeySpec(keyBytes, "AES");
+        SecretKey clave = new SecretKeySpec(keyBytes, "AES");
+        Arrays.fill(keyBytes, (byte) 0);
+        return clave;
     }
     
     /**
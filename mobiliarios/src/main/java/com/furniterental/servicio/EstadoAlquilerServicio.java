@@ -0,0 +1,123 @@
+package com.furniterental.servicio;
+
+import com.furniterental.modelo.Alquiler;
+import com.furniterental.modelo.EstadoAlquiler;
+import com.furniterental.modelo.TransicionEstado;
+import com.furniterental.servicio.ReservaStockServicio.ResultadoDevolucion;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+/**
+ * Cambios de estado manuales de un alquiler (usuario o administrador).
+ *
+ * El cambio es un findAndModify condicionado al estado que se leyó: solo hace $set del estado
+ * (y de los montos al confirmar) y $push de la transición al historial, sin reescribir el resto
+ * del documento. Así dos cambios simultáneos no se pisan y nunca se restaura un
+ * inventarioDevuelto leído antes de que otro proceso devolviera las unidades. Como la escritura
+ * no pasa por los listeners, el contador de pagos pendientes se ajusta aquí, y al salir de los
+ * estados activos se devuelve el inventario (una sola vez, ReservaStockServicio).
+ */
+@Service
+public class EstadoAlquilerServicio {
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private ReservaStockServicio reservaStockServicio;
+
+    @Autowired
+    private ResumenNotificacionesServicio resumenNotificacionesServicio;
+
+    /**
+     * Pasa el alquiler de estadoAnterior a nuevoEstado si sigue en estadoAnterior.
+     * La validez de la transición se comprueba antes con {@link EstadoAlquiler#puedePasarA}.
+     * @param origen USUARIO, ADMIN o SISTEMA
+     * @return el resultado; isAplicado() es false si el alquiler ya no estaba en estadoAnterior
+     */
+    public ResultadoCambio cambiarEstado(String alquilerId, String estadoAnterior, String nuevoEstado,
+                                         String usuarioId, String usuarioNombre, String origen, String motivo) {
+        Update update = new Update()
+                .set("estado", nuevoEstado)
+                .push("historialEstados", new TransicionEstado(estadoAnterior, nuevoEstado, usuarioId, usuarioNombre, origen, motivo));
+
+        if (EstadoAlquiler.CONFIRMADO.name().equals(nuevoEstado)) {
+            // Los montos dependen del total y del pago contra entrega: se leen con la misma condición
+            Alquiler actual = mongoTemplate.findOne(condicion(alquilerId, estadoAnterior), Alquiler.class);
+            if (actual == null) {
+                return ResultadoCambio.sinAplicar();
+            }
+            actual.calcularMontosPago();
+            update.set("montoPagoParcial", actual.getMontoPagoParcial())
+                    .set("montoSaldoPendiente", actual.getMontoSaldoPendiente())
+                    .set("estadoPagoParcial", actual.getEstadoPagoParcial())
+                    .set("estadoPagoFinal", actual.getEstadoPagoFinal());
+        }
+
+        // Devuelve el documento anterior; null si otro proceso ya cambió el estado
+        Alquiler anterior = mongoTemplate.findAndModify(condicion(alquilerId, estadoAnterior), update,
+                FindAndModifyOptions.options().returnNew(false), Alquiler.class);
+        if (anterior == null) {
+            return ResultadoCambio.sinAplicar();
+        }
+
+        boolean pendienteAntes = anterior.tienePagoPendiente();
+        Alquiler alquiler = anterior;
+        alquiler.cambiarEstado(nuevoEstado, usuarioId, usuarioNombre, origen, motivo);
+        if (EstadoAlquiler.CONFIRMADO.name().equals(nuevoEstado)) {
+            alquiler.calcularMontosPago();
+        }
+        boolean pendienteDespues = alquiler.tienePagoPendiente();
+        if (pendienteAntes != pendienteDespues) {
+            resumenNotificacionesServicio.ajustarPagosPendientes(alquiler.getUsuarioId(), pendienteDespues ? 1 : -1);
+        }
+
+        // Al cancelar o completar, devolver sus unidades al inventario (una sola vez por alquiler)
+        ResultadoDevolucion devolucion = null;
+        if (!ReservaStockServicio.ESTADOS_ACTIVOS.contains(nuevoEstado)) {
+            devolucion = reservaStockServicio.devolverInventario(alquilerId);
+        }
+        return new ResultadoCambio(alquiler, devolucion);
+    }
+
+    private static Query condicion(String alquilerId, String estadoAnterior) {
+        return Query.query(Criteria.where("_id").is(alquilerId).and("estado").is(estadoAnterior));
+    }
+
+    /**
+     * Resultado de un cambio de estado
+     */
+    public static final class ResultadoCambio {
+        private final Alquiler alquiler;
+        private final ResultadoDevolucion devolucion;
+
+        private ResultadoCambio(Alquiler alquiler, ResultadoDevolucion devolucion) {
+            this.alquiler = alquiler;
+            this.devolucion = devolucion;
+        }
+
+        static ResultadoCambio sinAplicar() {
+            return new ResultadoCambio(null, null);
+        }
+
+        /** false si el alquiler ya no estaba en el estado esperado (otro cambio llegó antes) */
+        public boolean isAplicado() {
+            return alquiler != null;
+        }
+
+        /** El alquiler con el estado nuevo */
+        public Alquiler getAlquiler() {
+            return alquiler;
+        }
+
+        /** Devolución del inventario; null si el estado nuevo sigue siendo activo */
+        public ResultadoDevolucion getDevolucion() {
+            return devolucion;
+        }
+    }
+}
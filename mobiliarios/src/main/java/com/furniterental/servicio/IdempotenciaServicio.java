@@ -0,0 +1,252 @@
+package com.furniterental.servicio;
+
+import com.furniterental.modelo.RegistroIdempotencia;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Soporte para la cabecera Idempotency-Key en checkout y pagos.
+ *
+ * - Peticiones repetidas con la misma clave en la misma instancia se unen a la ejecución
+ *   en curso y reciben su misma respuesta (no se ejecuta dos veces).
+ * - Cuando la operación termina con éxito, la respuesta se guarda en la colección
+ *   idempotencia (TTL de 24 h) y se repite a cualquier reintento posterior.
+ * - Entre instancias, el registro EN_CURSO (insert con _id único) impide la doble ejecución.
+ *
+ * Las respuestas sin éxito (validaciones, tarjeta inválida...) no se guardan, para que el
+ * usuario pueda corregir los datos y reintentar con la misma clave.
+ */
+@Service
+public class IdempotenciaServicio {
+    
+    public static final String CABECERA = "Idempotency-Key";
+    
+    private static final int LONGITUD_MAXIMA_CLAVE = 100;
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    @Value("${app.idempotencia.espera-segundos:30}")
+    private long esperaSegundos;
+    
+    // Un registro EN_CURSO más antiguo que esto se considera abandonado (instancia caída)
+    @Value("${app.idempotencia.plazo-en-curso-minutos:5}")
+    private long plazoEnCursoMinutos;
+    
+    private final Map<String, CompletableFuture<Map<String, Object>>> enCurso = new ConcurrentHashMap<>();
+    
+    private final AtomicLong ejecutadas = new AtomicLong();
+    private final AtomicLong repetidas = new AtomicLong();
+    private final AtomicLong unidas = new AtomicLong();
+    
+    /**
+     * Ejecuta la operación una sola vez por clave.
+     * @param operacion Nombre de la operación (checkout, pago-parcial, ...)
+     * @param usuarioId Usuario de la sesión; la clave solo es válida para él
+     * @param clave Valor de la cabecera Idempotency-Key (si falta, se ejecuta sin control)
+     * @param accion Operación; su respuesta debe incluir "success"
+     */
+    public Map<String, Object> ejecutar(String operacion, String usuarioId, String clave,
+                                        Supplier<Map<String, Object>> accion) {
+        if (clave == null || clave.isBlank() || usuarioId == null) {
+            return accion.get();
+        }
+        if (clave.length() > LONGITUD_MAXIMA_CLAVE) {
+            return respuestaError("La cabecera " + CABECERA + " es demasiado larga");
+        }
+        
+        String id = operacion + ":" + usuarioId + ":" + clave;
+        CompletableFuture<Map<String, Object>> propia = new CompletableFuture<>();
+        CompletableFuture<Map<String, Object>> existente = enCurso.putIfAbsent(id, propia);
+        if (existente != null) {
+            unidas.incrementAndGet();
+            return esperar(existente);
+        }
+        
+        try {
+            Map<String, Object> respuesta = ejecutarUnaVez(id, accion);
+            propia.complete(respuesta);
+            return respuesta;
+        } catch (RuntimeException e) {
+            propia.completeExceptionally(e);
+            throw e;
+        } finally {
+            enCurso.remove(id, propia);
+        }
+    }
+    
+    /**
+     * Variante para operaciones asíncronas (cobros): la respuesta se guarda cuando el futuro
+     * termina y los duplicados reciben el mismo futuro, sin bloquear el hilo de la petición.
+     */
+    public CompletableFuture<Map<String, Object>> ejecutarAsincrono(String operacion, String usuarioId, String clave,
+                                                                    Supplier<CompletableFuture<Map<String, Object>>> accion) {
+        if (clave == null || clave.isBlank() || usuarioId == null) {
+            return accion.get();
+        }
+        if (clave.length() > LONGITUD_MAXIMA_CLAVE) {
+            return CompletableFuture.completedFuture(respuestaError("La cabecera " + CABECERA + " es demasiado larga"));
+        }
+        
+        String id = operacion + ":" + usuarioId + ":" + clave;
+        CompletableFuture<Map<String, Object>> propia = new CompletableFuture<>();
+        CompletableFuture<Map<String, Object>> existente = enCurso.putIfAbsent(id, propia);
+        if (existente != null) {
+            unidas.incrementAndGet();
+            return existente.copy().completeOnTimeout(
+                    respuestaError("Esta solicitud ya se está procesando"), esperaSegundos, TimeUnit.SECONDS);
+        }
+        
+        Map<String, Object> previa;
+        try {
+            previa = reservar(id);
+        } catch (RuntimeException e) {
+            enCurso.remove(id, propia);
+            propia.completeExceptionally(e);
+            throw e;
+        }
+        if (previa != null) {
+            enCurso.remove(id, propia);
+            propia.complete(previa);
+            return propia;
+        }
+        
+        Query porId = Query.query(Criteria.where("_id").is(id));
+        CompletableFuture<Map<String, Object>> futuro;
+        try {
+            ejecutadas.incrementAndGet();
+            futuro = accion.get();
+        } catch (RuntimeException e) {
+            mongoTemplate.remove(porId, RegistroIdempotencia.class);
+            enCurso.remove(id, propia);
+            propia.completeExceptionally(e);
+            throw e;
+        }
+        
+        futuro.whenComplete((respuesta, error) -> {
+            try {
+                if (error != null) {
+                    mongoTemplate.remove(porId, RegistroIdempotencia.class);
+                } else {
+                    registrar(id, respuesta);
+                }
+            } finally {
+                enCurso.remove(id, propia);
+                if (error != null) {
+                    propia.completeExceptionally(error);
+                } else {
+                    propia.complete(respuesta);
+                }
+            }
+        });
+        return propia;
+    }
+    
+    public Map<String, Object> obtenerEstadisticas() {
+        Map<String, Object> estadisticas = new HashMap<>();
+        estadisticas.put("ejecutadas", ejecutadas.get());
+        estadisticas.put("repetidas", repetidas.get());
+        estadisticas.put("unidas", unidas.get());
+        estadisticas.put("enCurso", enCurso.size());
+        return estadisticas;
+    }
+    
+    private Map<String, Object> ejecutarUnaVez(String id, Supplier<Map<String, Object>> accion) {
+        Map<String, Object> previa = reservar(id);
+        if (previa != null) {
+            return previa;
+        }
+        
+        Map<String, Object> respuesta;
+        try {
+            ejecutadas.incrementAndGet();
+            respuesta = accion.get();
+        } catch (RuntimeException e) {
+            mongoTemplate.remove(Query.query(Criteria.where("_id").is(id)), RegistroIdempotencia.class);
+            throw e;
+        }
+        registrar(id, respuesta);
+        return respuesta;
+    }
+    
+    /**
+     * Crea el registro EN_CURSO de la clave.
+     * @return null si esta ejecución puede continuar; si no, la respuesta guardada o un error
+     */
+    private Map<String, Object> reservar(String id) {
+        RegistroIdempotencia registro = mongoTemplate.findById(id, RegistroIdempotencia.class);
+        if (registro != null && RegistroIdempotencia.COMPLETADO.equals(registro.getEstado())) {
+            repetidas.incrementAndGet();
+            return registro.getRespuesta();
+        }
+        if (registro != null && registro.getFechaCreacion().isAfter(LocalDateTime.now().minusMinutes(plazoEnCursoMinutos))) {
+            return respuestaError("Esta solicitud ya se está procesando");
+        }
+        if (registro != null) {
+            // Registro abandonado: se elimina solo si sigue siendo el mismo
+            mongoTemplate.remove(Query.query(Criteria.where("_id").is(id)
+                    .and("fechaCreacion").is(registro.getFechaCreacion())), RegistroIdempotencia.class);
+        }
+        
+        try {
+            mongoTemplate.insert(new RegistroIdempotencia(id));
+        } catch (DuplicateKeyException e) {
+            return respuestaError("Esta solicitud ya se está procesando");
+        }
+        return null;
+    }
+    
+    /**
+     * Guarda la respuesta si tuvo éxito; si no, borra el registro para permitir reintentos
+     */
+    private void registrar(String id, Map<String, Object> respuesta) {
+        Query porId = Query.query(Criteria.where("_id").is(id));
+        if (respuesta != null && Boolean.TRUE.equals(respuesta.get("success"))) {
+            mongoTemplate.updateFirst(porId, new Update()
+                    .set("estado", RegistroIdempotencia.COMPLETADO)
+                    .set("respuesta", respuesta), RegistroIdempotencia.class);
+        } else {
+            mongoTemplate.remove(porId, RegistroIdempotencia.class);
+        }
+    }
+    
+    private Map<String, Object> esperar(CompletableFuture<Map<String, Object>> futuro) {
+        try {
+            return futuro.get(esperaSegundos, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            return respuestaError("Esta solicitud ya se está procesando");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return respuestaError("Esta solicitud ya se está procesando");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException causa) {
+                throw causa;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+    
+    private Map<String, Object> respuestaError(String mensaje) {
+        Map<String, Object> respuesta = new HashMap<>();
+        respuesta.put("success", false);
+        respuesta.put("message", mensaje);
+        return respuesta;
+    }
+}
@@ -0,0 +1,131 @@
+package com.furniterental.servicio;
+
+import com.furniterental.modelo.Alquiler;
+import com.furniterental.modelo.Favorito;
+import com.furniterental.modelo.ItemCarrito;
+import com.furniterental.modelo.Producto;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resuelve la imagen de las líneas de carrito y de alquiler, y de los favoritos, al mostrarlos.
+ *
+ * Las líneas y los favoritos guardan solo la referencia de la imagen en el almacén. Los que no
+ * la tienen (copiados antes de migrar las imágenes del producto) usan la imagen actual del producto,
+ * que se guarda en una caché compartida por id. La caché se invalida al guardar o eliminar
+ * el producto (CatalogoInvalidacionListener).
+ */
+@Service
+public class ImagenItemsServicio {
+
+    public static final String IMAGEN_POR_DEFECTO = "/img/producto-default.jpg";
+    private static final String MINIATURA = "thumbnail";
+    private static final String TARJETA = "card";
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private ImagenServicio imagenServicio;
+
+    // productoId -> referencia de la imagen (vacío si el producto no existe o no tiene imagen en el almacén)
+    private final Map<String, Optional<String>> referencias = new ConcurrentHashMap<>();
+
+    /**
+     * Referencia de la imagen que debe copiarse en una línea nueva (nunca Base64)
+     */
+    public String referenciaParaCopia(Producto producto) {
+        String imagen = producto.getImagenProducto();
+        return imagenServicio.esReferencia(imagen) ? imagen : null;
+    }
+
+    /**
+     * URL de la miniatura de una línea
+     */
+    public String miniatura(ItemCarrito item) {
+        return variante(item.getImagenProducto(), item.getProductoId(), MINIATURA);
+    }
+
+    /**
+     * URL de la imagen de la tarjeta de un favorito
+     */
+    public String tarjeta(Favorito favorito) {
+        return variante(favorito.getImagenProducto(), favorito.getProductoId(), TARJETA);
+    }
+
+    /**
+     * Miniaturas por id de producto, para las vistas que arman las líneas en JavaScript
+     */
+    public Map<String, String> miniaturas(Collection<ItemCarrito> items) {
+        Map<String, String> miniaturas = new HashMap<>();
+        for (ItemCarrito item : items) {
+            if (item.getProductoId() != null) {
+                miniaturas.putIfAbsent(item.getProductoId(), miniatura(item));
+            }
+        }
+        return miniaturas;
+    }
+
+    public void invalidar(String productoId) {
+        if (productoId != null) {
+            referencias.remove(productoId);
+        }
+    }
+
+    public void invalidarTodo() {
+        referencias.clear();
+    }
+
+    /**
+     * Quita de los alquileres las imágenes Base64 copiadas en sus líneas (una sola actualización
+     * con filtro de arreglo). Es idempotente; esas líneas pasan a resolver la imagen del producto.
+     * @return cantidad de alquileres modificados
+     */
+    public long compactarAlquileres() {
+        Query conImagenBase64 = Query.query(Criteria.where("items.imagenProducto").regex("^data:"));
+        Update quitar = new Update()
+                .unset("items.$[item].imagenProducto")
+                .filterArray(Criteria.where("item.imagenProducto").regex("^data:"));
+        return mongoTemplate.updateMulti(conImagenBase64, quitar, Alquiler.class).getModifiedCount();
+    }
+
+    /**
+     * Quita de los favoritos las imágenes Base64 copiadas del producto. Es idempotente;
+     * esos favoritos pasan a resolver la imagen del producto.
+     * @return cantidad de favoritos modificados
+     */
+    public long compactarFavoritos() {
+        return mongoTemplate.updateMulti(
+                Query.query(Criteria.where("imagenProducto").regex("^data:")),
+                new Update().unset("imagenProducto"),
+                Favorito.class).getModifiedCount();
+    }
+
+    private String variante(String imagen, String productoId, String tamano) {
+        String referencia = imagenServicio.esReferencia(imagen) ? imagen : referenciaActual(productoId);
+        return referencia != null ? imagenServicio.urlVariante(referencia, tamano) : IMAGEN_POR_DEFECTO;
+    }
+
+    private String referenciaActual(String productoId) {
+        if (productoId == null) {
+            return null;
+        }
+        return referencias.computeIfAbsent(productoId, id -> {
+            Query query = Query.query(Criteria.where("_id").is(id));
+            query.fields().include("imagenProducto");
+            Producto producto = mongoTemplate.findOne(query, Producto.class);
+            String imagen = producto != null ? producto.getImagenProducto() : null;
+            return Optional.ofNullable(imagenServicio.esReferencia(imagen) ? imagen : null);
+        }).orElse(null);
+    }
+}
@@ -0,0 +1,398 @@
+package com.furniterental.servicio;
+
+import com.furniterental.modelo.Producto;
+import com.furniterental.repositorio.ProductoRepositorio;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Almacén de imágenes de productos direccionado por contenido.
+ * Cada imagen se guarda en disco con su hash SHA-256 como nombre, de modo que
+ * los productos solo guardan una referencia corta ("/img/p/{hash}") en lugar
+ * del Base64 completo, y dos subidas idénticas comparten el mismo archivo.
+ * Al subir una imagen se generan también sus variantes reducidas (miniatura,
+ * tarjeta y detalle) para que las páginas del catálogo no descarguen el original.
+ */
+@Service
+public class ImagenServicio {
+
+    public static final String PREFIJO_REFERENCIA = "/img/p/";
+    private static final String PREFIJO_DATA_URL = "data:";
+    private static final Pattern PATRON_HASH = Pattern.compile("^[0-9a-f]{64}$");
+    private static final int TAMANO_LOTE_MIGRACION = 20;
+
+    /**
+     * Variantes reducidas que se generan para cada imagen.
+     * El tamaño máximo se aplica al lado más largo, conservando la proporción.
+     */
+    public enum TamanoImagen {
+        THUMBNAIL("thumbnail", 160),
+        CARD("card", 480),
+        DETAIL("detail", 1200);
+
+        private final String nombre;
+        private final int ladoMaximo;
+
+        TamanoImagen(String nombre, int ladoMaximo) {
+            this.nombre = nombre;
+            this.ladoMaximo = ladoMaximo;
+        }
+
+        public String getNombre() {
+            return nombre;
+        }
+
+        public int getLadoMaximo() {
+            return ladoMaximo;
+        }
+
+        public static TamanoImagen desdeNombre(String nombre) {
+            for (TamanoImagen tamano : values()) {
+                if (tamano.nombre.equals(nombre)) {
+                    return tamano;
+                }
+            }
+            return null;
+        }
+    }
+
+    @Value("${app.imagenes.directorio:data/imagenes}")
+    private String directorioImagenes;
+
+    @Autowired
+    private ProductoRepositorio productoRepositorio;
+    
+    @Autowired
+    private ProductoService productoService;
+
+    /**
+     * Guarda los bytes de una imagen y retorna su hash SHA-256 en hexadecimal.
+     * Si la imagen ya existe no se vuelve a escribir.
+     */
+    public String guardarImagen(byte[] datos) throws IOException {
+        if (datos == null || datos.length == 0) {
+            throw new IllegalArgumentException("La imagen no puede estar vacía");
+        }
+        if (detectarTipoContenido(datos) == null) {
+            throw new IllegalArgumentException("Formato de imagen no soportado");
+        }
+
+        String hash = calcularHash(datos);
+        Path destino = obtenerRutaImagen(hash);
+
+        if (!Files.exists(destino)) {
+            escribirArchivo(destino, datos);
+        }
+
+        // Las variantes se generan una sola vez, al subir la imagen
+        try {
+            generarVariantes(hash, datos);
+        } catch (Exception e) {
+            System.err.println("No se pudieron generar las variantes de la imagen " + hash + ": " + e.getMessage());
+        }
+
+        return hash;
+    }
+
+    /**
+     * Guarda una imagen recibida como flujo (por ejemplo, un MultipartFile)
+     */
+    public String guardarImagen(InputStream entrada) throws IOException {
+        return guardarImagen(entrada.readAllBytes());
+    }
+
+    /**
+     * Decodifica un data URL en Base64 ("data:image/png;base64,....") y lo guarda
+     * @return Referencia corta a la imagen guardada
+     */
+    public String guardarDesdeDataUrl(String dataUrl) throws IOException {
+        if (!esDataUrl(dataUrl)) {
+            throw new IllegalArgumentException("El valor no es un data URL válido");
+        }
+
+        int separador = dataUrl.indexOf(',');
+        if (separador < 0 || !dataUrl.substring(0, separador).endsWith(";base64")) {
+            throw new IllegalArgumentException("Solo se admiten data URLs codificados en Base64");
+        }
+
+        byte[] datos = Base64.getMimeDecoder().decode(dataUrl.substring(separador + 1));
+        return construirReferencia(guardarImagen(datos));
+    }
+
+    /**
+     * Convierte el valor de imagen recibido desde un formulario en una referencia corta.
+     * Los data URLs se guardan en el almacén; referencias y rutas existentes se respetan.
+     */
+    public String normalizarReferencia(String valor) throws IOException {
+        if (esDataUrl(valor)) {
+            return guardarDesdeDataUrl(valor);
+        }
+        return valor;
+    }
+
+    public boolean esDataUrl(String valor) {
+        return valor != null && valor.startsWith(PREFIJO_DATA_URL);
+    }
+
+    public boolean esReferencia(String valor) {
+        return valor != null && valor.startsWith(PREFIJO_REFERENCIA);
+    }
+
+    public String construirReferencia(String hash) {
+        return PREFIJO_REFERENCIA + hash;
+    }
+
+    public boolean esHashValido(String hash) {
+        return hash != null && PATRON_HASH.matcher(hash).matches();
+    }
+
+    /**
+     * Ruta en disco de una imagen. Se reparte en subdirectorios por los dos primeros
+     * caracteres del hash para no acumular miles de archivos en una sola carpeta.
+     */
+    public Path obtenerRutaImagen(String hash) {
+        if (!esHashValido(hash)) {
+            throw new IllegalArgumentException("Hash de imagen inválido");
+        }
+        return Path.of(directorioImagenes, hash.substring(0, 2), hash);
+    }
+
+    public Path obtenerRutaVariante(String hash, TamanoImagen tamano) {
+        Path original = obtenerRutaImagen(hash);
+        return original.resolveSibling(hash + "_" + tamano.getNombre());
+    }
+
+    /**
+     * Marca (archivo vacío) de una imagen que ImageIO no pudo decodificar: sus variantes
+     * nunca se van a poder generar y se sirve el original
+     */
+    private Path obtenerRutaSinVariantes(String hash) {
+        return obtenerRutaImagen(hash).resolveSibling(hash + "_sinvariantes");
+    }
+
+    /**
+     * Construye la URL de una variante para usarla desde las plantillas.
+     * Las rutas antiguas (que no pertenecen al almacén) se devuelven sin cambios.
+     */
+    public String urlVariante(String referencia, String tamano) {
+        if (esReferencia(referencia) && TamanoImagen.desdeNombre(tamano) != null) {
+            return referencia + "/" + tamano;
+        }
+        return referencia;
+    }
+
+    /**
+     * Obtiene el archivo a servir para una variante. Si la imagen se subió antes de que
+     * existieran las variantes, se generan en ese momento; si no se pueden generar
+     * (formato no soportado por ImageIO) se usa el original, y desde entonces se sirve
+     * directamente sin volver a intentar decodificarlo.
+     * @return La ruta de la variante o del original, o null si la imagen no existe
+     */
+    public Path resolverVariante(String hash, TamanoImagen tamano) throws IOException {
+        Path variante = obtenerRutaVariante(hash, tamano);
+        if (Files.isRegularFile(variante)) {
+            return variante;
+        }
+
+        Path original = obtenerRutaImagen(hash);
+        if (!Files.isRegularFile(original)) {
+            return null;
+        }
+        if (Files.exists(obtenerRutaSinVariantes(hash))) {
+            return original;
+        }
+
+        generarVariantes(hash, Files.readAllBytes(original));
+        return Files.isRegularFile(variante) ? variante : original;
+    }
+
+    /**
+     * Genera las variantes que falten para una imagen
+     */
+    private void generarVariantes(String hash, byte[] datos) throws IOException {
+        boolean faltanVariantes = false;
+        for (TamanoImagen tamano : TamanoImagen.values()) {
+            if (!Files.exists(obtenerRutaVariante(hash, tamano))) {
+                faltanVariantes = true;
+                break;
+            }
+        }
+        if (!faltanVariantes || Files.exists(obtenerRutaSinVariantes(hash))) {
+            return;
+        }
+
+        BufferedImage original;
+        try {
+            original = ImageIO.read(new ByteArrayInputStream(datos));
+        } catch (IOException e) {
+            original = null;
+        }
+        if (original == null) {
+            // Formato que ImageIO no sabe decodificar (por ejemplo WebP): se recuerda para no reintentarlo
+            escribirArchivo(obtenerRutaSinVariantes(hash), new byte[0]);
+            return;
+        }
+
+        boolean tieneTransparencia = original.getColorModel().hasAlpha();
+
+        for (TamanoImagen tamano : TamanoImagen.values()) {
+            Path destino = obtenerRutaVariante(hash, tamano);
+            if (Files.exists(destino)) {
+                continue;
+            }
+
+            // Si la imagen ya es más pequeña que la variante, se reutiliza el original tal cual
+            if (Math.max(original.getWidth(), original.getHeight()) <= tamano.getLadoMaximo()) {
+                escribirArchivo(destino, datos);
+                continue;
+            }
+
+            BufferedImage reducida = escalar(original, tamano.getLadoMaximo(), tieneTransparencia);
+            ByteArrayOutputStream salida = new ByteArrayOutputStream();
+            ImageIO.write(reducida, tieneTransparencia ? "png" : "jpg", salida);
+            escribirArchivo(destino, salida.toByteArray());
+        }
+    }
+
+    /**
+     * Reduce la imagen a la mitad sucesivamente hasta acercarse al tamaño final,
+     * lo que da mejor calidad que un solo escalado bilineal grande
+     */
+    private BufferedImage escalar(BufferedImage original, int ladoMaximo, boolean tieneTransparencia) {
+        double factor = (double) ladoMaximo / Math.max(original.getWidth(), original.getHeight());
+        int anchoFinal = Math.max(1, (int) Math.round(original.getWidth() * factor));
+        int altoFinal = Math.max(1, (int) Math.round(original.getHeight() * factor));
+        int tipo = tieneTransparencia ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+
+        BufferedImage actual = original;
+        int ancho = original.getWidth();
+        int alto = original.getHeight();
+
+        do {
+            ancho = Math.max(anchoFinal, ancho / 2);
+            alto = Math.max(altoFinal, alto / 2);
+
+            BufferedImage paso = new BufferedImage(ancho, alto, tipo);
+            Graphics2D g = paso.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(actual, 0, 0, ancho, alto, null);
+            g.dispose();
+            actual = paso;
+        } while (ancho != anchoFinal || alto != altoFinal);
+
+        return actual;
+    }
+
+    /**
+     * Escribe en un temporal y lo mueve, para que nunca se sirva un archivo a medio escribir
+     */
+    private void escribirArchivo(Path destino, byte[] datos) throws IOException {
+        Files.createDirectories(destino.getParent());
+        Path temporal = Files.createTempFile(destino.getParent(), destino.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temporal, datos);
+            Files.move(temporal, destino, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporal);
+        }
+    }
+
+    /**
+     * Detecta el tipo MIME a partir de los primeros bytes del archivo
+     * @return El tipo de contenido, o null si no es un formato de imagen reconocido
+     */
+    public String detectarTipoContenido(byte[] cabecera) {
+        if (cabecera == null || cabecera.length < 4) {
+            return null;
+        }
+        if ((cabecera[0] & 0xFF) == 0xFF && (cabecera[1] & 0xFF) == 0xD8) {
+            return "image/jpeg";
+        }
+        if ((cabecera[0] & 0xFF) == 0x89 && cabecera[1] == 'P' && cabecera[2] == 'N' && cabecera[3] == 'G') {
+            return "image/png";
+        }
+        if (cabecera[0] == 'G' && cabecera[1] == 'I' && cabecera[2] == 'F') {
+            return "image/gif";
+        }
+        if (cabecera.length >= 12 && cabecera[0] == 'R' && cabecera[1] == 'I' && cabecera[2] == 'F'
+                && cabecera[3] == 'F' && cabecera[8] == 'W' && cabecera[9] == 'E'
+                && cabecera[10] == 'B' && cabecera[11] == 'P') {
+            return "image/webp";
+        }
+        return null;
+    }
+
+    /**
+     * Migra los productos que todavía guardan la imagen como Base64 al almacén de imágenes.
+     * Es idempotente: solo procesa valores que empiezan por "data:".
+     */
+    public Map<String, Object> migrarImagenesBase64() {
+        int migrados = 0;
+        List<String> fallidos = new ArrayList<>();
+
+        while (true) {
+            // Siempre se pide la primera página: los productos migrados dejan de coincidir con el filtro
+            Slice<Producto> lote = fallidos.isEmpty()
+                ? productoRepositorio.findByImagenProductoStartingWith(PREFIJO_DATA_URL,
+                        PageRequest.of(0, TAMANO_LOTE_MIGRACION, Sort.by("id")))
+                : productoRepositorio.findByImagenProductoStartingWithAndIdNotIn(PREFIJO_DATA_URL, fallidos,
+                        PageRequest.of(0, TAMANO_LOTE_MIGRACION, Sort.by("id")));
+
+            if (!lote.hasContent()) {
+                break;
+            }
+
+            for (Producto producto : lote) {
+                try {
+                    producto.setImagenProducto(guardarDesdeDataUrl(producto.getImagenProducto()));
+                    productoService.saveProducto(producto);
+                    migrados++;
+                } catch (Exception e) {
+                    System.err.println("Error al migrar imagen del producto " + producto.getId() + ": " + e.getMessage());
+                    fallidos.add(producto.getId());
+                }
+            }
+        }
+
+        Map<String, Object> resultado = new HashMap<>();
+        resultado.put("migrados", migrados);
+        resultado.put("fallidos", fallidos.size());
+        resultado.put("productosFallidos", fallidos);
+        return resultado;
+    }
+
+    private String calcularHash(byte[] datos) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(datos));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 no disponible", e);
+        }
+    }
+}
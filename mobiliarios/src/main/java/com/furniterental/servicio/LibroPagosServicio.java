@@ -0,0 +1,455 @@
+package com.furniterental.servicio;
+
+import com.furniterental.dto.ReembolsoPago;
+import com.furniterental.modelo.Alquiler;
+import com.furniterental.modelo.Pago;
+import com.furniterental.repositorio.PagoRepositorio;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOptions;
+import org.springframework.data.mongodb.core.aggregation.TypedAggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Libro de pagos: cada cobro se asienta como un Pago (inmutable) y el saldo del alquiler
+ * (montoPagado junto con estadoPagoParcial/estadoPagoFinal) se actualiza con una sola escritura
+ * atómica, así el estado del pago y el monto pagado no pueden quedar a medias entre sí.
+ *
+ * El asiento se confirma (COMPLETADO) después de actualizar el alquiler; uno que no se pudo
+ * aplicar queda FALLIDO y no cuenta, y uno cuya captura se reembolsó queda REEMBOLSADO. La
+ * conciliación periódica primero resuelve los asientos que quedaron PENDIENTE por una
+ * interrupción (reembolsando los que no llegaron a aplicarse) y luego recorre todos los alquileres
+ * en una agregación, ajusta montoPagado a la suma de sus movimientos completados y reporta los
+ * estados de pago que no coinciden con el libro.
+ */
+@Service
+public class LibroPagosServicio {
+
+    static final String TAREA = "conciliar-libro-pagos";
+
+    public static final String PAGO_PARCIAL = "PARCIAL";
+    public static final String PAGO_FINAL = "FINAL";
+
+    static final String ASIENTO_PENDIENTE = "PENDIENTE";
+    static final String ASIENTO_COMPLETADO = "COMPLETADO";
+    static final String ASIENTO_FALLIDO = "FALLIDO";
+    static final String ASIENTO_REEMBOLSADO = "REEMBOLSADO";
+
+    // Diferencia que se tolera al comparar montos en double
+    private static final double TOLERANCIA = 0.005;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private PagoRepositorio pagoRepositorio;
+
+    @Autowired
+    private BloqueoTareaServicio bloqueoTareaServicio;
+
+    @Autowired
+    private ResumenNotificacionesServicio resumenNotificacionesServicio;
+
+    @Autowired
+    private ProcesadorPagosServicio procesadorPagosServicio;
+
+    @Value("${app.libro-pagos.plazo-bloqueo-minutos:30}")
+    private long plazoBloqueoMinutos;
+
+    @Value("${app.libro-pagos.minutos-asiento-pendiente:10}")
+    private long minutosAsientoPendiente;
+
+    @Value("${app.libro-pagos.max-diferencias-reporte:100}")
+    private int maxDiferenciasReporte;
+
+    private volatile Map<String, Object> ultimaConciliacion = new HashMap<>();
+
+    /**
+     * Asienta el pago y lo aplica al saldo del alquiler.
+     *
+     * El asiento se inserta PENDIENTE (así reserva la clave del pago), luego se aplica al alquiler
+     * y recién entonces pasa a COMPLETADO. Si el alquiler ya no tenía ese pago pendiente, el
+     * asiento queda FALLIDO y libera la clave. Si la escritura falla sin saber si se aplicó, se
+     * vuelve a leer el alquiler; si tampoco se puede leer, el asiento queda pendiente para la
+     * conciliación. Una vez aplicado al alquiler ya no lanza: el procesador reembolsaría un pago
+     * que sí quedó hecho.
+     * @return El alquiler con el saldo actualizado, o null si no se pudo saber si el pago se
+     *         aplicó (pendiente de confirmación: la conciliación lo confirma o lo reembolsa)
+     * @throws IllegalStateException si ese pago ya estaba asentado o no se pudo aplicar al alquiler
+     */
+    public Alquiler asentarPago(Pago pago) {
+        String campoEstado = campoEstado(pago.getTipoPago());
+        String campoFecha = PAGO_PARCIAL.equals(pago.getTipoPago()) ? "fechaPagoParcial" : "fechaPagoFinal";
+
+        pago.setClave(pago.getAlquilerId() + ":" + pago.getTipoPago());
+        pago.setEstado(ASIENTO_PENDIENTE);
+        try {
+            pagoRepositorio.insert(pago);
+        } catch (DuplicateKeyException e) {
+            throw new IllegalStateException("El pago " + pago.getTipoPago() + " de este alquiler ya estaba registrado");
+        }
+
+        // Una sola escritura: estado del pago, fecha y saldo. Se devuelve el documento anterior
+        // para saber si el alquiler salía de la campana de pagos pendientes.
+        Alquiler anterior;
+        try {
+            anterior = mongoTemplate.findAndModify(
+                    Query.query(Criteria.where("_id").is(pago.getAlquilerId()).and(campoEstado).is("PENDIENTE")),
+                    new Update()
+                            .set(campoEstado, "PAGADO")
+                            .set(campoFecha, pago.getFechaPago())
+                            .inc("montoPagado", pago.getMonto()),
+                    FindAndModifyOptions.options().returnNew(false),
+                    Alquiler.class);
+        } catch (RuntimeException e) {
+            // No se sabe si el alquiler llegó a actualizarse: se vuelve a leer antes de decidir
+            System.err.println("⚠️ Pago " + pago.getClave() + " sin confirmar: " + e.getMessage());
+            Alquiler actual;
+            try {
+                actual = alquilerConPago(pago);
+            } catch (RuntimeException relectura) {
+                System.err.println("⚠️ Pago " + pago.getClave() + " pendiente de confirmación: " + relectura.getMessage());
+                return null;
+            }
+            if (actual == null) {
+                descartarAsiento(pago.getId());
+                pago.setEstado(ASIENTO_FALLIDO);
+                throw new IllegalStateException("No se pudo aplicar el pago " + pago.getTipoPago() + " al alquiler", e);
+            }
+            anterior = estadoAnterior(actual, pago, campoEstado);
+        }
+        if (anterior == null) {
+            descartarAsiento(pago.getId());
+            pago.setEstado(ASIENTO_FALLIDO);
+            throw new IllegalStateException("El pago " + pago.getTipoPago() + " de este alquiler ya figuraba como pagado");
+        }
+
+        // El alquiler ya está pagado: si confirmar falla, la conciliación confirma el asiento
+        try {
+            confirmarAsiento(pago.getId());
+            pago.setEstado(ASIENTO_COMPLETADO);
+        } catch (RuntimeException e) {
+            System.err.println("⚠️ Asiento del pago " + pago.getClave() + " sin confirmar: " + e.getMessage());
+        }
+
+        // La escritura no pasa por PagosPendientesListener: se ajusta el contador aquí
+        boolean pendienteAntes = anterior.tienePagoPendiente();
+        if (PAGO_PARCIAL.equals(pago.getTipoPago())) {
+            anterior.setEstadoPagoParcial("PAGADO");
+            anterior.setFechaPagoParcial(pago.getFechaPago());
+        } else {
+            anterior.setEstadoPagoFinal("PAGADO");
+            anterior.setFechaPagoFinal(pago.getFechaPago());
+        }
+        double montoPagado = anterior.getMontoPagado() != null ? anterior.getMontoPagado() : 0;
+        anterior.setMontoPagado(montoPagado + pago.getMonto());
+        if (pendienteAntes && !anterior.tienePagoPendiente()) {
+            try {
+                resumenNotificacionesServicio.ajustarPagosPendientes(anterior.getUsuarioId(), -1);
+            } catch (RuntimeException e) {
+                System.err.println("Error al ajustar los pagos pendientes de " + anterior.getUsuarioId() + ": " + e.getMessage());
+            }
+        }
+        return anterior;
+    }
+
+    /**
+     * Anota en los asientos de la captura que la pasarela la reembolsó, para que la conciliación
+     * no los confirme
+     */
+    @EventListener
+    public void registrarReembolso(ReembolsoPago reembolso) {
+        if (reembolso.getNumeroTransaccion() == null) {
+            return;
+        }
+        mongoTemplate.updateMulti(
+                Query.query(Criteria.where("numeroTransaccion").is(reembolso.getNumeroTransaccion())
+                        .and("fechaReembolso").exists(false)),
+                new Update().set("fechaReembolso", LocalDateTime.now()),
+                Pago.class);
+    }
+
+    /**
+     * Movimientos del usuario, del más reciente al más antiguo (índice usuarioId_fechaPago)
+     */
+    public Page<Pago> estadoCuenta(String usuarioId, int pagina, int tamano) {
+        return pagoRepositorio.findByUsuarioIdOrderByFechaPagoDesc(usuarioId,
+                PageRequest.of(Math.max(pagina, 1) - 1, Math.min(Math.max(tamano, 1), 100)));
+    }
+
+    @Scheduled(cron = "${app.libro-pagos.conciliacion-cron:0 30 3 * * *}")
+    public void conciliar() {
+        if (!bloqueoTareaServicio.adquirir(TAREA, Duration.ofMinutes(plazoBloqueoMinutos))) {
+            return;
+        }
+
+        try {
+            int[] asientos = resolverAsientosPendientes();
+            Map<String, Object> reporte = generarReporte(true);
+            reporte.put("asientosConfirmados", asientos[0]);
+            reporte.put("asientosDescartados", asientos[1]);
+            reporte.put("asientosReembolsados", asientos[2]);
+            ultimaConciliacion = reporte;
+
+            int diferencias = ((Number) reporte.get("diferencias")).intValue();
+            if (diferencias > 0) {
+                System.out.println("📒 Conciliación del libro de pagos: " + diferencias + " diferencia(s), "
+                        + reporte.get("saldosCorregidos") + " saldo(s) corregido(s)");
+            }
+        } catch (Exception e) {
+            System.err.println("Error en la conciliación del libro de pagos: " + e.getMessage());
+        } finally {
+            bloqueoTareaServicio.liberar(TAREA);
+        }
+    }
+
+    public Map<String, Object> obtenerEstadisticas() {
+        return ultimaConciliacion;
+    }
+
+    /**
+     * Compara cada alquiler con su libro en una agregación que se recorre como stream:
+     * $lookup de sus movimientos, suma de los COMPLETADO y filtro de los que no coinciden.
+     * @param corregirSaldos Ajusta montoPagado a la suma del libro (condicionado al valor leído)
+     */
+    public Map<String, Object> generarReporte(boolean corregirSaldos) {
+        long inicio = System.currentTimeMillis();
+
+        TypedAggregation<Alquiler> agregacion = Aggregation.newAggregation(Alquiler.class,
+                etapa(new Document("$project", new Document("usuarioId", 1)
+                        .append("estadoPagoParcial", 1)
+                        .append("estadoPagoFinal", 1)
+                        .append("montoPagado", 1)
+                        .append("alquilerId", new Document("$toString", "$_id")))),
+                etapa(new Document("$lookup", new Document("from", mongoTemplate.getCollectionName(Pago.class))
+                        .append("localField", "alquilerId")
+                        .append("foreignField", "alquilerId")
+                        .append("as", "movimientos"))),
+                etapa(new Document("$addFields", new Document("completados", new Document("$filter",
+                        new Document("input", "$movimientos")
+                                .append("cond", new Document("$eq", List.of("$$this.estado", "COMPLETADO"))))))),
+                etapa(new Document("$project", new Document("usuarioId", 1)
+                        .append("estadoPagoParcial", 1)
+                        .append("estadoPagoFinal", 1)
+                        .append("montoPagado", new Document("$ifNull", List.of("$montoPagado", 0)))
+                        .append("montoLibro", new Document("$sum", "$completados.monto"))
+                        .append("parciales", contarTipo(PAGO_PARCIAL))
+                        .append("finales", contarTipo(PAGO_FINAL))
+                        .append("pendientes", new Document("$size", new Document("$filter",
+                                new Document("input", "$movimientos")
+                                        .append("cond", new Document("$eq", List.of("$$this.estado", ASIENTO_PENDIENTE)))))))),
+                etapa(new Document("$match", new Document("$expr", new Document("$or", List.of(
+                        new Document("$gt", List.of(new Document("$abs",
+                                new Document("$subtract", List.of("$montoLibro", "$montoPagado"))), TOLERANCIA)),
+                        new Document("$ne", List.of(new Document("$eq", List.of("$estadoPagoParcial", "PAGADO")),
+                                new Document("$gt", List.of("$parciales", 0)))),
+                        new Document("$ne", List.of(new Document("$eq", List.of("$estadoPagoFinal", "PAGADO")),
+                                new Document("$gt", List.of("$finales", 0)))),
+                        new Document("$gt", List.of("$parciales", 1)),
+                        new Document("$gt", List.of("$finales", 1)),
+                        new Document("$gt", List.of("$pendientes", 0))))))))
+                .withOptions(AggregationOptions.builder().allowDiskUse(true).build());
+
+        int diferencias = 0;
+        int saldosCorregidos = 0;
+        int estadosSinCoincidir = 0;
+        List<Map<String, Object>> detalle = new ArrayList<>();
+        try (Stream<Document> resultados = mongoTemplate.aggregateStream(agregacion, Document.class)) {
+            for (Document fila : (Iterable<Document>) resultados::iterator) {
+                diferencias++;
+                double montoPagado = ((Number) fila.get("montoPagado")).doubleValue();
+                double montoLibro = ((Number) fila.get("montoLibro")).doubleValue();
+                int parciales = ((Number) fila.get("parciales")).intValue();
+                int finales = ((Number) fila.get("finales")).intValue();
+                int pendientes = ((Number) fila.get("pendientes")).intValue();
+                boolean parcialPagado = "PAGADO".equals(fila.getString("estadoPagoParcial"));
+                boolean finalPagado = "PAGADO".equals(fila.getString("estadoPagoFinal"));
+
+                List<String> problemas = new ArrayList<>();
+                // Con un asiento a medio aplicar, el libro todavía no es definitivo: no se corrige nada
+                if (pendientes > 0) {
+                    problemas.add("ASIENTO_PENDIENTE");
+                }
+                if (Math.abs(montoLibro - montoPagado) > TOLERANCIA) {
+                    problemas.add("SALDO");
+                    if (corregirSaldos && pendientes == 0
+                            && corregirSaldo(fila.get("_id"), fila.get("montoPagado"), montoLibro)) {
+                        saldosCorregidos++;
+                    }
+                }
+                // Los estados y los asientos repetidos no se corrigen solos: requieren revisión
+                if (pendientes == 0 && (parcialPagado != (parciales > 0) || finalPagado != (finales > 0))) {
+                    problemas.add("ESTADO_PAGO");
+                    estadosSinCoincidir++;
+                }
+                if (parciales > 1 || finales > 1) {
+                    problemas.add("PAGO_REPETIDO");
+                }
+
+                if (detalle.size() < maxDiferenciasReporte) {
+                    Map<String, Object> diferencia = new HashMap<>();
+                    diferencia.put("alquilerId", fila.get("_id").toString());
+                    diferencia.put("usuarioId", fila.getString("usuarioId"));
+                    diferencia.put("montoPagado", montoPagado);
+                    diferencia.put("montoLibro", montoLibro);
+                    diferencia.put("pagosParciales", parciales);
+                    diferencia.put("pagosFinales", finales);
+                    diferencia.put("problemas", problemas);
+                    detalle.add(diferencia);
+                }
+            }
+        }
+
+        Map<String, Object> reporte = new HashMap<>();
+        reporte.put("fecha", LocalDateTime.now());
+        reporte.put("instancia", bloqueoTareaServicio.getInstancia());
+        reporte.put("diferencias", diferencias);
+        reporte.put("saldosCorregidos", saldosCorregidos);
+        reporte.put("estadosSinCoincidir", estadosSinCoincidir);
+        reporte.put("detalle", detalle);
+        reporte.put("duracionMs", System.currentTimeMillis() - inicio);
+        return reporte;
+    }
+
+    /**
+     * Resuelve los asientos que quedaron PENDIENTE por una interrupción entre el asiento y la
+     * actualización del alquiler. Uno cuya captura ya se reembolsó nunca se confirma: queda
+     * REEMBOLSADO (si el alquiler figura pagado, el reporte lo marca para revisión). Si no, se
+     * confirma cuando el alquiler figura con ese pago hecho, y si no se descarta y se reembolsa
+     * la captura, que nadie más va a devolver. Los recientes se dejan, pueden estar en curso.
+     * @return {confirmados, descartados, reembolsados}
+     */
+    int[] resolverAsientosPendientes() {
+        Query antiguos = Query.query(Criteria.where("estado").is(ASIENTO_PENDIENTE)
+                .and("fechaPago").lt(LocalDateTime.now().minusMinutes(minutosAsientoPendiente)));
+        int confirmados = 0;
+        int descartados = 0;
+        int reembolsados = 0;
+        try (Stream<Pago> pendientes = mongoTemplate.stream(antiguos, Pago.class)) {
+            for (Pago pago : (Iterable<Pago>) pendientes::iterator) {
+                if (pago.getFechaReembolso() != null) {
+                    marcarReembolsado(pago.getId());
+                    reembolsados++;
+                } else if (alquilerConPago(pago) != null) {
+                    confirmarAsiento(pago.getId());
+                    confirmados++;
+                } else if (descartarAsiento(pago.getId())) {
+                    descartados++;
+                    if (pago.getNumeroTransaccion() != null && pago.getMonto() != null) {
+                        procesadorPagosServicio.reembolsar(pago.getNumeroTransaccion(), pago.getMonto(),
+                                "el pago del alquiler " + pago.getAlquilerId() + " no llegó a aplicarse");
+                    }
+                }
+            }
+        }
+        return new int[]{confirmados, descartados, reembolsados};
+    }
+
+    /**
+     * El alquiler con este pago aplicado (estado PAGADO y la fecha que puso el asiento), o null
+     */
+    private Alquiler alquilerConPago(Pago pago) {
+        String campoFecha = PAGO_PARCIAL.equals(pago.getTipoPago()) ? "fechaPagoParcial" : "fechaPagoFinal";
+        return mongoTemplate.findOne(
+                Query.query(Criteria.where("_id").is(pago.getAlquilerId())
+                        .and(campoEstado(pago.getTipoPago())).is("PAGADO")
+                        .and(campoFecha).is(pago.getFechaPago())),
+                Alquiler.class);
+    }
+
+    /**
+     * Reconstruye el alquiler como estaba antes de aplicar el pago, como lo habría devuelto
+     * findAndModify
+     */
+    private static Alquiler estadoAnterior(Alquiler actual, Pago pago, String campoEstado) {
+        if ("estadoPagoParcial".equals(campoEstado)) {
+            actual.setEstadoPagoParcial("PENDIENTE");
+            actual.setFechaPagoParcial(null);
+        } else {
+            actual.setEstadoPagoFinal("PENDIENTE");
+            actual.setFechaPagoFinal(null);
+        }
+        double montoPagado = actual.getMontoPagado() != null ? actual.getMontoPagado() : 0;
+        actual.setMontoPagado(montoPagado - pago.getMonto());
+        return actual;
+    }
+
+    private void confirmarAsiento(String pagoId) {
+        mongoTemplate.updateFirst(
+                Query.query(Criteria.where("_id").is(pagoId).and("estado").is(ASIENTO_PENDIENTE)),
+                new Update().set("estado", ASIENTO_COMPLETADO),
+                Pago.class);
+    }
+
+    /**
+     * Marca el asiento FALLIDO y quita su clave, para que el pago se pueda volver a registrar
+     * @return Si el asiento seguía pendiente
+     */
+    private boolean descartarAsiento(String pagoId) {
+        System.err.println("⚠️ Asiento de pago " + pagoId + " descartado: el alquiler no tenía ese pago pendiente");
+        return mongoTemplate.updateFirst(
+                Query.query(Criteria.where("_id").is(pagoId).and("estado").is(ASIENTO_PENDIENTE)),
+                new Update().set("estado", ASIENTO_FALLIDO).unset("clave"),
+                Pago.class).getModifiedCount() > 0;
+    }
+
+    /**
+     * Marca REEMBOLSADO el asiento de una captura devuelta y quita su clave
+     */
+    private void marcarReembolsado(String pagoId) {
+        System.err.println("↩️ Asiento de pago " + pagoId + " sin confirmar: la captura fue reembolsada");
+        mongoTemplate.updateFirst(
+                Query.query(Criteria.where("_id").is(pagoId).and("estado").is(ASIENTO_PENDIENTE)),
+                new Update().set("estado", ASIENTO_REEMBOLSADO).unset("clave"),
+                Pago.class);
+    }
+
+    private static String campoEstado(String tipoPago) {
+        return PAGO_PARCIAL.equals(tipoPago) ? "estadoPagoParcial" : "estadoPagoFinal";
+    }
+
+    /**
+     * Ajusta montoPagado al libro solo si nadie lo cambió desde que se leyó (si se asentó un
+     * pago entretanto, queda para la siguiente conciliación)
+     */
+    private boolean corregirSaldo(Object alquilerId, Object montoLeido, double montoLibro) {
+        Criteria criterio = Criteria.where("_id").is(alquilerId);
+        if (montoLeido instanceof Number numero && numero.doubleValue() != 0) {
+            criterio = criterio.and("montoPagado").is(montoLeido);
+        } else {
+            criterio = criterio.orOperator(Criteria.where("montoPagado").exists(false), Criteria.where("montoPagado").is(0));
+        }
+        return mongoTemplate.updateFirst(Query.query(criterio), new Update().set("montoPagado", montoLibro), Alquiler.class)
+                .getModifiedCount() > 0;
+    }
+
+    private static Document contarTipo(String tipoPago) {
+        return new Document("$size", new Document("$filter", new Document("input", "$completados")
+                .append("cond", new Document("$eq", List.of("$$this.tipoPago", tipoPago)))));
+    }
+
+    private static AggregationOperation etapa(Document etapa) {
+        return contexto -> etapa;
+    }
+}
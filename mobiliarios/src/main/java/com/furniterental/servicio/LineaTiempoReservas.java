@@ -0,0 +1,87 @@
+package com.furniterental.servicio;
+
+import java.time.LocalDate;
+
+/**
+ * Unidades reservadas de un producto por día.
+ *
+ * Árbol de segmentos disperso sobre los días del calendario (epoch day): sumar una
+ * reserva a un rango de días y consultar el máximo reservado en un rango cuestan
+ * O(log D). Los nodos se crean solo donde hay reservas.
+ */
+class LineaTiempoReservas {
+    
+    private static final int DIA_MINIMO = (int) LocalDate.of(2000, 1, 1).toEpochDay();
+    private static final int DIA_MAXIMO = (int) LocalDate.of(2199, 12, 31).toEpochDay();
+    
+    private final Nodo raiz = new Nodo();
+    
+    /**
+     * Suma (o resta, con cantidad negativa) unidades a todos los días del rango, ambos incluidos
+     */
+    void sumar(LocalDate desde, LocalDate hasta, int cantidad) {
+        sumar(raiz, DIA_MINIMO, DIA_MAXIMO, dia(desde), dia(hasta), cantidad);
+    }
+    
+    /**
+     * Máximo de unidades reservadas en un mismo día dentro del rango, ambos incluidos
+     */
+    int maximo(LocalDate desde, LocalDate hasta) {
+        return maximo(raiz, DIA_MINIMO, DIA_MAXIMO, dia(desde), dia(hasta));
+    }
+    
+    private void sumar(Nodo nodo, int inicio, int fin, int desde, int hasta, int cantidad) {
+        if (hasta < inicio || fin < desde) {
+            return;
+        }
+        if (desde <= inicio && fin <= hasta) {
+            nodo.maximo += cantidad;
+            nodo.pendiente += cantidad;
+            return;
+        }
+        
+        int medio = (inicio + fin) >>> 1;
+        if (nodo.izquierdo == null) {
+            nodo.izquierdo = new Nodo();
+            nodo.derecho = new Nodo();
+        }
+        sumar(nodo.izquierdo, inicio, medio, desde, hasta, cantidad);
+        sumar(nodo.derecho, medio + 1, fin, desde, hasta, cantidad);
+        nodo.maximo = nodo.pendiente + Math.max(nodo.izquierdo.maximo, nodo.derecho.maximo);
+    }
+    
+    // El rango [desde, hasta] siempre se cruza con [inicio, fin]
+    private int maximo(Nodo nodo, int inicio, int fin, int desde, int hasta) {
+        if ((desde <= inicio && fin <= hasta) || nodo.izquierdo == null) {
+            // Sin hijos, todo el segmento tiene el mismo valor
+            return nodo.maximo;
+        }
+        
+        // Solo se consultan los hijos que se cruzan con el rango
+        int medio = (inicio + fin) >>> 1;
+        if (hasta <= medio) {
+            return nodo.pendiente + maximo(nodo.izquierdo, inicio, medio, desde, hasta);
+        }
+        if (desde > medio) {
+            return nodo.pendiente + maximo(nodo.derecho, medio + 1, fin, desde, hasta);
+        }
+        return nodo.pendiente + Math.max(
+            maximo(nodo.izquierdo, inicio, medio, desde, hasta),
+            maximo(nodo.derecho, medio + 1, fin, desde, hasta)
+        );
+    }
+    
+    private static int dia(LocalDate fecha) {
+        long dia = fecha.toEpochDay();
+        return (int) Math.max(DIA_MINIMO, Math.min(DIA_MAXIMO, dia));
+    }
+    
+    private static final class Nodo {
+        // Máximo del segmento, incluyendo lo sumado a este nodo
+        private int maximo;
+        // Cantidad sumada a todo el segmento y aún no bajada a los hijos
+        private int pendiente;
+        private Nodo izquierdo;
+        private Nodo derecho;
+    }
+}
@@ -0,0 +1,125 @@
+package com.furniterental.servicio;
+
+import com.furniterental.modelo.Alquiler;
+import com.furniterental.modelo.EstadoAlquiler;
+import com.furniterental.modelo.ItemCarrito;
+import com.furniterental.modelo.Migracion;
+import com.furniterental.modelo.Producto;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.stream.Stream;
+
+/**
+ * Migración única de Producto.stock a "unidades que tiene la empresa".
+ *
+ * Antes de la reserva por fechas cada compra descontaba sus unidades de Producto.stock y solo
+ * las cancelaciones las devolvían: el stock guardado ya no cuenta las unidades de los alquileres
+ * activos ni las de los completados. Ahora los alquileres activos ocupan sus unidades en
+ * ocupacion_diaria, así que esas unidades se devuelven al stock una vez, antes de construir el
+ * índice de disponibilidad; si no, se contarían dos veces.
+ *
+ * Cada alquiler se marca (stockRestituido) antes de sumar sus unidades: si la migración se
+ * interrumpe, al reanudarla no se suma dos veces. La migración guarda la fecha en que empezó y
+ * solo toma los alquileres anteriores, que son los que descontaron stock.
+ */
+@Service
+public class MigracionStockServicio {
+    
+    static final String MIGRACION = "stock-unidades-propias";
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    @Autowired
+    private BloqueoTareaServicio bloqueoTareaServicio;
+    
+    @Autowired
+    private ProductoService productoService;
+    
+    @Value("${app.reservas.plazo-migracion-stock-minutos:30}")
+    private long plazoMigracionMinutos;
+    
+    /**
+     * Devuelve al stock las unidades de los alquileres no cancelados anteriores a la migración
+     * @return alquileres restituidos (0 si ya estaba hecha o la está haciendo otra instancia)
+     */
+    public int restituirStock() {
+        Migracion migracion = mongoTemplate.findById(MIGRACION, Migracion.class);
+        if (migracion != null && migracion.getFechaFin() != null) {
+            return 0;
+        }
+        if (!bloqueoTareaServicio.adquirir(MIGRACION, Duration.ofMinutes(plazoMigracionMinutos))) {
+            return 0;
+        }
+        
+        try {
+            // La fecha de corte se fija la primera vez; una ejecución interrumpida la reutiliza
+            mongoTemplate.upsert(
+                    Query.query(Criteria.where("_id").is(MIGRACION)),
+                    new Update().setOnInsert("fechaInicio", LocalDateTime.now()),
+                    Migracion.class);
+            migracion = mongoTemplate.findById(MIGRACION, Migracion.class);
+            if (migracion.getFechaFin() != null) {
+                return 0;
+            }
+            
+            Query anteriores = Query.query(new Criteria().andOperator(
+                    Criteria.where("estado").ne(EstadoAlquiler.CANCELADO.name()),
+                    Criteria.where("stockRestituido").ne(true),
+                    new Criteria().orOperator(
+                            Criteria.where("fechaAlquiler").lt(migracion.getFechaInicio()),
+                            Criteria.where("fechaAlquiler").exists(false))));
+            anteriores.fields().include("items");
+            
+            int restituidos = 0;
+            try (Stream<Alquiler> alquileres = mongoTemplate.stream(anteriores, Alquiler.class)) {
+                for (Alquiler alquiler : (Iterable<Alquiler>) alquileres::iterator) {
+                    if (restituir(alquiler)) {
+                        restituidos++;
+                    }
+                }
+            }
+            
+            mongoTemplate.updateFirst(
+                    Query.query(Criteria.where("_id").is(MIGRACION)),
+                    new Update().set("fechaFin", LocalDateTime.now()),
+                    Migracion.class);
+            System.out.println("Migración de stock completada: unidades de " + restituidos + " alquiler(es) devueltas al stock.");
+            return restituidos;
+        } finally {
+            bloqueoTareaServicio.liberar(MIGRACION);
+        }
+    }
+    
+    private boolean restituir(Alquiler alquiler) {
+        // Se marca antes de sumar: si otra ejecución ya lo tomó, no se suma de nuevo
+        long marcado = mongoTemplate.updateFirst(
+                Query.query(Criteria.where("_id").is(alquiler.getId()).and("stockRestituido").ne(true)),
+                new Update().set("stockRestituido", true),
+                Alquiler.class).getModifiedCount();
+        if (marcado == 0 || alquiler.getItems() == null) {
+            return marcado > 0;
+        }
+        
+        // Se guarda con el servicio para que los índices y la caché vean el stock nuevo
+        for (ItemCarrito item : alquiler.getItems()) {
+            if (item.getProductoId() == null || item.getCantidad() == null || item.getCantidad() <= 0) {
+                continue;
+            }
+            Producto producto = mongoTemplate.findById(item.getProductoId(), Producto.class);
+            if (producto != null) {
+                producto.setStock((producto.getStock() != null ? producto.getStock() : 0) + item.getCantidad());
+                productoService.saveProducto(producto);
+            }
+        }
+        return true;
+    }
+}
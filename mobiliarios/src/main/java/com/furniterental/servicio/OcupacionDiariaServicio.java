@@ -0,0 +1,200 @@
+package com.furniterental.servicio;
+
+import com.furniterental.modelo.OcupacionDia;
+import com.furniterental.modelo.Producto;
+import com.furniterental.modelo.ReservaDia;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reserva definitiva de unidades: un documento por producto y día (ocupacion_diaria).
+ *
+ * Cada día del rango se reserva con un $inc condicionado a que lo reservado quede dentro del
+ * stock, así dos instancias de la aplicación no pueden sobrevender aunque cada una tenga su
+ * propio índice en memoria (ReservaStockServicio). Cada día guarda qué alquileres lo ocupan: la
+ * reserva y la liberación son idempotentes y una reserva incompleta se deshace exactamente.
+ */
+@Service
+public class OcupacionDiariaServicio {
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Value("${app.reservas.minutos-reserva-huerfana:10}")
+    private long minutosReservaHuerfana;
+
+    /**
+     * Reserva las cantidades en todos los días del rango (ambos incluidos): todas o ninguna.
+     * @return null si se reservó; si no, el primer producto sin unidades suficientes
+     */
+    public String reservar(String alquilerId, Map<String, Integer> cantidades, LocalDate desde, LocalDate hasta) {
+        Map<String, Integer> stock = leerStock(cantidades.keySet());
+        crearDias(cantidades.keySet(), desde, hasta);
+
+        BulkOperations operaciones = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, OcupacionDia.class);
+        int dias = 0;
+        for (Map.Entry<String, Integer> entrada : cantidades.entrySet()) {
+            int limite = stock.getOrDefault(entrada.getKey(), 0) - entrada.getValue();
+            for (LocalDate dia = desde; !dia.isAfter(hasta); dia = dia.plusDays(1)) {
+                operaciones.updateOne(
+                        Query.query(Criteria.where("_id").is(idDia(entrada.getKey(), dia))
+                                .and("reservas.alquilerId").ne(alquilerId)
+                                .and("reservado").lte(limite)),
+                        new Update()
+                                .inc("reservado", entrada.getValue())
+                                .push("reservas", new ReservaDia(alquilerId, entrada.getValue())));
+                dias++;
+            }
+        }
+        if (operaciones.execute().getMatchedCount() == dias) {
+            return null;
+        }
+
+        // Algún día no tenía unidades: se deshace lo que sí se reservó
+        liberar(alquilerId);
+        for (Map.Entry<String, Integer> entrada : cantidades.entrySet()) {
+            if (disponible(entrada.getKey(), stock.getOrDefault(entrada.getKey(), 0), desde, hasta) < entrada.getValue()) {
+                return entrada.getKey();
+            }
+        }
+        return cantidades.keySet().iterator().next();
+    }
+
+    /**
+     * Registra un alquiler ya guardado sin comprobar el stock (migración de los alquileres activos)
+     */
+    public void registrar(String alquilerId, Map<String, Integer> cantidades, LocalDate desde, LocalDate hasta) {
+        crearDias(cantidades.keySet(), desde, hasta);
+
+        BulkOperations operaciones = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, OcupacionDia.class);
+        for (Map.Entry<String, Integer> entrada : cantidades.entrySet()) {
+            for (LocalDate dia = desde; !dia.isAfter(hasta); dia = dia.plusDays(1)) {
+                operaciones.updateOne(
+                        Query.query(Criteria.where("_id").is(idDia(entrada.getKey(), dia))
+                                .and("reservas.alquilerId").ne(alquilerId)),
+                        new Update()
+                                .inc("reservado", entrada.getValue())
+                                .push("reservas", new ReservaDia(alquilerId, entrada.getValue())));
+            }
+        }
+        operaciones.execute();
+    }
+
+    /**
+     * Quita el alquiler de todos los días que ocupa. Llamarlo más de una vez no tiene efecto.
+     * @return true si el alquiler ocupaba algún día
+     */
+    public boolean liberar(String alquilerId) {
+        Query ocupados = Query.query(Criteria.where("reservas.alquilerId").is(alquilerId));
+        ocupados.fields().include("_id").elemMatch("reservas", Criteria.where("alquilerId").is(alquilerId));
+        List<OcupacionDia> dias = mongoTemplate.find(ocupados, OcupacionDia.class);
+        if (dias.isEmpty()) {
+            return false;
+        }
+
+        // Cada día se descuenta solo si todavía tiene la reserva: dos liberaciones a la vez no restan dos veces
+        BulkOperations operaciones = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, OcupacionDia.class);
+        for (OcupacionDia dia : dias) {
+            int cantidad = dia.getReservas().isEmpty() ? 0 : dia.getReservas().get(0).getCantidad();
+            operaciones.updateOne(
+                    Query.query(Criteria.where("_id").is(dia.getId()).and("reservas.alquilerId").is(alquilerId)),
+                    new Update()
+                            .inc("reservado", -cantidad)
+                            .pull("reservas", new Document("alquilerId", alquilerId)));
+        }
+        operaciones.execute();
+        return true;
+    }
+
+    /**
+     * Unidades libres del producto en todos los días del rango según la base de datos
+     */
+    public int disponible(String productoId, LocalDate desde, LocalDate hasta) {
+        return disponible(productoId, leerStock(Set.of(productoId)).getOrDefault(productoId, 0), desde, hasta);
+    }
+
+    public boolean estaVacia() {
+        return mongoTemplate.estimatedCount(OcupacionDia.class) == 0;
+    }
+
+    /**
+     * Libera las reservas de alquileres que ya no están activos (por ejemplo, una compra que se
+     * interrumpió antes de guardar el alquiler). Una reserva reciente puede ser una compra en
+     * curso en otra instancia: se libera solo pasado el plazo, según la fecha de su ObjectId.
+     * @return reservas liberadas
+     */
+    public int liberarHuerfanas(Set<String> activos) {
+        Instant limite = Instant.now().minus(minutosReservaHuerfana, ChronoUnit.MINUTES);
+        int liberadas = 0;
+        for (String alquilerId : mongoTemplate.findDistinct(new Query(), "reservas.alquilerId", OcupacionDia.class, String.class)) {
+            if (activos.contains(alquilerId) || !ObjectId.isValid(alquilerId)
+                    || new ObjectId(alquilerId).getDate().toInstant().isAfter(limite)) {
+                continue;
+            }
+            if (liberar(alquilerId)) {
+                liberadas++;
+            }
+        }
+        return liberadas;
+    }
+
+    private int disponible(String productoId, int stock, LocalDate desde, LocalDate hasta) {
+        Query dias = Query.query(Criteria.where("productoId").is(productoId)
+                .and("fecha").gte(desde.toString()).lte(hasta.toString()))
+                .with(Sort.by(Sort.Direction.DESC, "reservado"))
+                .limit(1);
+        dias.fields().include("reservado");
+        OcupacionDia masOcupado = mongoTemplate.findOne(dias, OcupacionDia.class);
+        return Math.max(0, stock - (masOcupado != null ? masOcupado.getReservado() : 0));
+    }
+
+    /**
+     * Crea en cero los días que todavía no existen, para que las reservas sean simples $inc condicionados
+     */
+    private void crearDias(Set<String> productoIds, LocalDate desde, LocalDate hasta) {
+        BulkOperations operaciones = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, OcupacionDia.class);
+        for (String productoId : productoIds) {
+            for (LocalDate dia = desde; !dia.isAfter(hasta); dia = dia.plusDays(1)) {
+                operaciones.upsert(
+                        Query.query(Criteria.where("_id").is(idDia(productoId, dia))),
+                        new Update()
+                                .setOnInsert("productoId", productoId)
+                                .setOnInsert("fecha", dia.toString())
+                                .setOnInsert("reservado", 0)
+                                .setOnInsert("reservas", List.of()));
+            }
+        }
+        operaciones.execute();
+    }
+
+    private Map<String, Integer> leerStock(Set<String> productoIds) {
+        Query productos = Query.query(Criteria.where("_id").in(productoIds));
+        productos.fields().include("stock");
+        Map<String, Integer> stock = new HashMap<>();
+        for (Producto producto : mongoTemplate.find(productos, Producto.class)) {
+            stock.put(producto.getId(), producto.getStock() != null ? producto.getStock() : 0);
+        }
+        return stock;
+    }
+
+    private static String idDia(String productoId, LocalDate dia) {
+        return productoId + ":" + dia;
+    }
+}
@@ -0,0 +1,37 @@
+package com.furniterental.servicio;
+
+import com.furniterental.modelo.CorreoSaliente;
+import com.furniterental.repositorio.CorreoSalienteRepositorio;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+/**
+ * Registra correos en la colección outbox_correos. Debe llamarse justo después de guardar
+ * el cambio que origina el correo: la petición solo espera a la escritura en MongoDB y
+ * el envío por SMTP queda a cargo de {@link RelayCorreosServicio}.
+ */
+@Service
+public class OutboxCorreoServicio {
+    
+    @Autowired
+    private CorreoSalienteRepositorio correoSalienteRepositorio;
+    
+    /**
+     * @param tipo Tipo de correo, para estadísticas y diagnóstico
+     * @param referencia Id de la entidad que origina el correo (alquiler, pago, reseña...)
+     * @return false si faltan datos y el correo no se registró
+     */
+    public boolean encolar(String tipo, String referencia, String destinatario, String asunto, String contenidoHtml) {
+        if (destinatario == null || destinatario.isBlank()) {
+            System.err.println("Error: destinatario es nulo o vacío (" + tipo + ")");
+            return false;
+        }
+        if (asunto == null || asunto.isBlank() || contenidoHtml == null || contenidoHtml.isBlank()) {
+            System.err.println("Error: asunto o contenido vacío (" + tipo + ")");
+            return false;
+        }
+        
+        correoSalienteRepositorio.save(new CorreoSaliente(tipo, referencia, destinatario, asunto, contenidoHtml));
+        return true;
+    }
+}
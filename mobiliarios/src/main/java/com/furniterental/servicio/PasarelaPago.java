@@ -0,0 +1,26 @@
+package com.furniterental.servicio;
+
+import com.furniterental.dto.ResultadoPasarela;
+import com.furniterental.dto.SolicitudCobro;
+
+/**
+ * Pasarela de pagos con tarjeta en dos pasos: autorizar retiene el monto y capturar lo cobra.
+ * Las llamadas son bloqueantes (como un cliente HTTP); ProcesadorPagosServicio las ejecuta
+ * fuera del hilo de la petición, con tiempo límite y concurrencia acotada.
+ */
+public interface PasarelaPago {
+
+    ResultadoPasarela autorizar(SolicitudCobro solicitud);
+
+    ResultadoPasarela capturar(String autorizacionId, double monto);
+
+    /**
+     * Libera una autorización que no se va a capturar
+     */
+    void anular(String autorizacionId);
+
+    /**
+     * Devuelve un cobro ya capturado (por ejemplo, uno que no se pudo registrar)
+     */
+    ResultadoPasarela reembolsar(String numeroTransaccion, double monto);
+}
@@ -0,0 +1,110 @@
+package com.furniterental.servicio;
+
+import com.furniterental.dto.ResultadoPasarela;
+import com.furniterental.dto.SolicitudCobro;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Pasarela local que simula a un procesador real: cada llamada tarda una latencia configurable
+ * (con variación aleatoria) y las autorizaciones quedan retenidas hasta capturarlas o anularlas; lo capturado se puede reembolsar.
+ * Sirve para desarrollo y para pruebas de carga del flujo de pagos sin un proveedor externo.
+ *
+ * Tarjetas de prueba: las que terminan en 0002 se rechazan por fondos insuficientes y las que
+ * terminan en 0069 por tarjeta vencida; además se puede configurar una tasa de rechazo aleatoria.
+ */
+@Service
+public class PasarelaPagoSimulada implements PasarelaPago {
+
+    @Value("${app.pasarela.simulada.latencia-autorizacion-ms:300}")
+    private long latenciaAutorizacionMs;
+
+    @Value("${app.pasarela.simulada.latencia-captura-ms:150}")
+    private long latenciaCapturaMs;
+
+    @Value("${app.pasarela.simulada.variacion-ms:200}")
+    private long variacionMs;
+
+    @Value("${app.pasarela.simulada.tasa-rechazo:0.0}")
+    private double tasaRechazo;
+
+    // autorizacionId -> monto retenido
+    private final Map<String, Double> autorizaciones = new ConcurrentHashMap<>();
+
+    // numeroTransaccion -> monto cobrado
+    private final Map<String, Double> capturas = new ConcurrentHashMap<>();
+
+    @Override
+    public ResultadoPasarela autorizar(SolicitudCobro solicitud) {
+        esperar(latenciaAutorizacionMs);
+
+        String medio = solicitud.getMedioPago();
+        if (medio == null || medio.isBlank()) {
+            return ResultadoPasarela.rechazado("Medio de pago inválido");
+        }
+        if (medio.endsWith("0002")) {
+            return ResultadoPasarela.rechazado("Fondos insuficientes");
+        }
+        if (medio.endsWith("0069")) {
+            return ResultadoPasarela.rechazado("La tarjeta está vencida");
+        }
+        if (tasaRechazo > 0 && ThreadLocalRandom.current().nextDouble() < tasaRechazo) {
+            return ResultadoPasarela.rechazado("Pago rechazado por el banco emisor");
+        }
+
+        String autorizacionId = "AUT-" + UUID.randomUUID();
+        autorizaciones.put(autorizacionId, solicitud.getMonto());
+        return ResultadoPasarela.aprobado(autorizacionId, null);
+    }
+
+    @Override
+    public ResultadoPasarela capturar(String autorizacionId, double monto) {
+        esperar(latenciaCapturaMs);
+
+        Double retenido = autorizaciones.remove(autorizacionId);
+        if (retenido == null) {
+            return ResultadoPasarela.rechazado("La autorización no existe o ya fue utilizada");
+        }
+        if (monto > retenido + 0.005) {
+            return ResultadoPasarela.rechazado("El monto supera el autorizado");
+        }
+        String numeroTransaccion = "TXN-" + UUID.randomUUID().toString().substring(0, 8).toUpperCase();
+        capturas.put(numeroTransaccion, monto);
+        return ResultadoPasarela.aprobado(autorizacionId, numeroTransaccion);
+    }
+
+    @Override
+    public void anular(String autorizacionId) {
+        if (autorizacionId != null) {
+            autorizaciones.remove(autorizacionId);
+        }
+    }
+
+    @Override
+    public ResultadoPasarela reembolsar(String numeroTransaccion, double monto) {
+        esperar(latenciaCapturaMs);
+
+        Double cobrado = numeroTransaccion != null ? capturas.remove(numeroTransaccion) : null;
+        if (cobrado == null) {
+            return ResultadoPasarela.rechazado("La transacción no existe o ya fue reembolsada");
+        }
+        return ResultadoPasarela.aprobado(null, numeroTransaccion);
+    }
+
+    private void esperar(long latenciaMs) {
+        long espera = latenciaMs + (variacionMs > 0 ? ThreadLocalRandom.current().nextLong(variacionMs + 1) : 0);
+        if (espera <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(espera);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
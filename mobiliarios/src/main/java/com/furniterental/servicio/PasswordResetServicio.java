@@ -58,8 +58,8 @@ public class PasswordResetServicio {
             usuario.setCodigoExpiracion(LocalDateTime.now().plusMinutes(15));
             usuarioRepositorio.save(usuario);
 
-            // Enviar código por correo
-            emailServicio.enviarCodigoVerificacion(
+            // Registrar el correo con el código en el outbox (lo envía el relay)
+            emailServicio.encolarCodigoVerificacion(
                 usuario.getCorreo(),
                 usuario.getNombre(),
                 codigo
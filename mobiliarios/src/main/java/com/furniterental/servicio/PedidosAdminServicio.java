@@ -0,0 +1,306 @@
+package com.furniterental.servicio;
+
+import com.furniterental.dto.GrupoPedidos;
+import com.furniterental.dto.PaginaPedidos;
+import com.furniterental.modelo.Alquiler;
+import com.furniterental.modelo.ItemCarrito;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOptions;
+import org.springframework.data.mongodb.core.aggregation.ArrayOperators;
+import org.springframework.data.mongodb.core.aggregation.ConditionalOperators;
+import org.springframework.data.mongodb.core.aggregation.TypedAggregation;
+import org.springframework.data.mongodb.core.aggregation.UnsetOperation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.facet;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.group;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.limit;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.match;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.project;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.skip;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.sort;
+
+/**
+ * Consulta de pedidos del panel de administración.
+ *
+ * La agrupación por usuario, los totales y la paginación se resuelven en una sola agregación
+ * (filtro sobre los índices de alquileres, $group por usuarioId y $facet para el conteo y la página).
+ * Luego se cargan solo los pedidos visibles de la página, sin items ni historial; los items
+ * se piden por separado al desplegar un pedido.
+ */
+@Service
+public class PedidosAdminServicio {
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Value("${app.pedidos-admin.usuarios-por-pagina:20}")
+    private int usuariosPorPagina;
+
+    @Value("${app.pedidos-admin.pedidos-por-usuario:3}")
+    private int pedidosPorUsuario;
+
+    @Value("${app.pedidos-admin.pedidos-por-pagina:24}")
+    private int pedidosPorPagina;
+
+    /**
+     * Sin usuarioId en el filtro pagina los usuarios (con sus pedidos más recientes);
+     * con usuarioId pagina los pedidos de ese usuario.
+     */
+    public PaginaPedidos buscar(FiltroPedidos filtro, int pagina) {
+        int paginaActual = Math.max(pagina, 1);
+        boolean porUsuario = filtro.usuarioId != null;
+
+        Sort.Direction direccion = filtro.orden.endsWith("-asc") ? Sort.Direction.ASC : Sort.Direction.DESC;
+        String campoOrden = filtro.orden.startsWith("total") ? "total" : "fechaAlquiler";
+
+        int saltoUsuarios = porUsuario ? 0 : (paginaActual - 1) * usuariosPorPagina;
+        int limiteUsuarios = porUsuario ? 1 : usuariosPorPagina;
+        int saltoPedidos = porUsuario ? (paginaActual - 1) * pedidosPorPagina : 0;
+        int limitePedidos = porUsuario ? pedidosPorPagina : pedidosPorUsuario;
+
+        TypedAggregation<Alquiler> agregacion = Aggregation.newAggregation(Alquiler.class,
+                match(construirCriterio(filtro)),
+                sort(Sort.by(direccion, campoOrden).and(Sort.by(Sort.Direction.DESC, "_id"))),
+                group("usuarioId")
+                        .first("usuarioNombre").as("usuarioNombre")
+                        .first("usuarioCorreo").as("usuarioCorreo")
+                        .count().as("totalPedidos")
+                        .sum("total").as("montoTotal")
+                        .first(campoOrden).as("claveOrden")
+                        .push("_id").as("pedidoIds"),
+                facet(group().count().as("usuarios").sum("totalPedidos").as("pedidos")).as("conteo")
+                        .and(sort(Sort.by(direccion, "claveOrden").and(Sort.by(Sort.Direction.ASC, "_id"))),
+                                skip((long) saltoUsuarios),
+                                limit(limiteUsuarios),
+                                project("usuarioNombre", "usuarioCorreo", "totalPedidos", "montoTotal")
+                                        .and("pedidoIds").slice(limitePedidos, saltoPedidos))
+                        .as("grupos"))
+                .withOptions(AggregationOptions.builder().allowDiskUse(true).build());
+
+        Document resultado = mongoTemplate.aggregate(agregacion, Document.class).getUniqueMappedResult();
+
+        PaginaPedidos paginaPedidos = new PaginaPedidos();
+        paginaPedidos.setPagina(paginaActual);
+        if (resultado == null) {
+            return paginaPedidos;
+        }
+
+        List<Document> conteo = resultado.getList("conteo", Document.class, Collections.emptyList());
+        if (!conteo.isEmpty()) {
+            paginaPedidos.setTotalUsuarios(((Number) conteo.get(0).get("usuarios")).longValue());
+            paginaPedidos.setTotalPedidos(((Number) conteo.get(0).get("pedidos")).longValue());
+        }
+
+        List<GrupoPedidos> grupos = new ArrayList<>();
+        Map<GrupoPedidos, List<String>> idsPorGrupo = new HashMap<>();
+        List<Object> idsVisibles = new ArrayList<>();
+        for (Document documento : resultado.getList("grupos", Document.class, Collections.emptyList())) {
+            GrupoPedidos grupo = new GrupoPedidos();
+            Object usuarioId = documento.get("_id");
+            grupo.setUsuarioId(usuarioId != null ? usuarioId.toString() : null);
+            grupo.setUsuarioNombre(documento.getString("usuarioNombre"));
+            grupo.setUsuarioCorreo(documento.getString("usuarioCorreo"));
+            grupo.setTotalPedidos(((Number) documento.get("totalPedidos")).longValue());
+            Number monto = (Number) documento.get("montoTotal");
+            grupo.setMontoTotal(monto != null ? monto.doubleValue() : 0);
+
+            List<Object> pedidoIds = documento.getList("pedidoIds", Object.class, Collections.emptyList());
+            idsVisibles.addAll(pedidoIds);
+            idsPorGrupo.put(grupo, pedidoIds.stream().map(Object::toString).toList());
+            grupos.add(grupo);
+        }
+
+        cargarPedidos(idsPorGrupo, idsVisibles);
+        paginaPedidos.setGrupos(grupos);
+
+        long totalElementos = porUsuario ? paginaPedidos.getTotalPedidos() : paginaPedidos.getTotalUsuarios();
+        int tamano = porUsuario ? pedidosPorPagina : usuariosPorPagina;
+        paginaPedidos.setTotalPaginas((int) Math.max(1, (totalElementos + tamano - 1) / tamano));
+        return paginaPedidos;
+    }
+
+    /**
+     * Items de un pedido, sin la imagen de cada producto
+     */
+    public List<ItemCarrito> obtenerItems(String alquilerId) {
+        Query query = Query.query(Criteria.where("_id").is(alquilerId));
+        query.fields().include("items.productoId", "items.nombreProducto", "items.precioProducto",
+                "items.cantidad", "items.diasAlquiler", "items.subtotal");
+        Alquiler alquiler = mongoTemplate.findOne(query, Alquiler.class);
+        if (alquiler == null || alquiler.getItems() == null) {
+            return Collections.emptyList();
+        }
+        return alquiler.getItems();
+    }
+
+    /**
+     * Rellena cada grupo con sus pedidos, en el orden que devolvió la agregación
+     */
+    private void cargarPedidos(Map<GrupoPedidos, List<String>> idsPorGrupo, List<Object> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+
+        // Los pedidos visibles sin items ni historial; solo se conserva la cantidad de items
+        TypedAggregation<Alquiler> carga = Aggregation.newAggregation(Alquiler.class,
+                match(Criteria.where("_id").in(ids)),
+                Aggregation.addFields().addFieldWithValue("cantidadItems",
+                        ArrayOperators.Size.lengthOfArray(ConditionalOperators.ifNull("items").then(Collections.emptyList())))
+                        .build(),
+                UnsetOperation.unset("items", "historialEstados"));
+
+        Map<String, Alquiler> porId = new HashMap<>();
+        Map<String, Integer> cantidades = new HashMap<>();
+        for (Document documento : mongoTemplate.aggregate(carga, Document.class).getMappedResults()) {
+            Alquiler alquiler = mongoTemplate.getConverter().read(Alquiler.class, documento);
+            porId.put(alquiler.getId(), alquiler);
+            Number cantidad = (Number) documento.get("cantidadItems");
+            cantidades.put(alquiler.getId(), cantidad != null ? cantidad.intValue() : 0);
+        }
+
+        for (Map.Entry<GrupoPedidos, List<String>> entrada : idsPorGrupo.entrySet()) {
+            GrupoPedidos grupo = entrada.getKey();
+            for (String pedidoId : entrada.getValue()) {
+                Alquiler alquiler = porId.get(pedidoId);
+                if (alquiler != null) {
+                    grupo.getPedidos().add(alquiler);
+                    grupo.getCantidadItems().put(pedidoId, cantidades.get(pedidoId));
+                }
+            }
+        }
+    }
+
+    private Criteria construirCriterio(FiltroPedidos filtro) {
+        List<Criteria> condiciones = new ArrayList<>();
+
+        if (filtro.usuarioId != null) {
+            condiciones.add(Criteria.where("usuarioId").is(filtro.usuarioId));
+        }
+        if (filtro.estado != null) {
+            condiciones.add(Criteria.where("estado").is(filtro.estado));
+        }
+        if (filtro.desde != null) {
+            condiciones.add(Criteria.where("fechaAlquiler").gte(filtro.desde.atStartOfDay()));
+        }
+        if (filtro.hasta != null) {
+            condiciones.add(Criteria.where("fechaAlquiler").lt(filtro.hasta.plusDays(1).atStartOfDay()));
+        }
+        if (filtro.estadoTransporte != null) {
+            // Los pedidos anteriores a la negociación de transporte no tienen el campo
+            condiciones.add("PENDIENTE".equals(filtro.estadoTransporte)
+                    ? Criteria.where("estadoTransporte").in(null, "PENDIENTE")
+                    : Criteria.where("estadoTransporte").is(filtro.estadoTransporte));
+        }
+        if (filtro.busqueda != null) {
+            Pattern patron = Pattern.compile(Pattern.quote(filtro.busqueda), Pattern.CASE_INSENSITIVE);
+            List<Criteria> alternativas = new ArrayList<>();
+            if (ObjectId.isValid(filtro.busqueda)) {
+                alternativas.add(Criteria.where("_id").is(filtro.busqueda));
+            }
+            alternativas.add(Criteria.where("usuarioNombre").regex(patron));
+            alternativas.add(Criteria.where("usuarioCorreo").regex(patron));
+            alternativas.add(Criteria.where("items.nombreProducto").regex(patron));
+            condiciones.add(new Criteria().orOperator(alternativas));
+        }
+
+        return condiciones.isEmpty() ? new Criteria() : new Criteria().andOperator(condiciones);
+    }
+
+    /**
+     * Filtros del listado de pedidos. Los valores vacíos se ignoran.
+     */
+    public static class FiltroPedidos {
+        private final String estado;
+        private final LocalDate desde;
+        private final LocalDate hasta;
+        private final String estadoTransporte;
+        private final String busqueda;
+        private final String usuarioId;
+        private final String orden;
+
+        public FiltroPedidos(String estado, LocalDate desde, LocalDate hasta, String estadoTransporte,
+                             String busqueda, String usuarioId, String orden) {
+            this.estado = vacioANull(estado);
+            this.desde = desde;
+            this.hasta = hasta;
+            this.estadoTransporte = vacioANull(estadoTransporte);
+            this.busqueda = vacioANull(busqueda);
+            this.usuarioId = vacioANull(usuarioId);
+            // fecha-desc (más recientes), fecha-asc, total-desc, total-asc
+            String ordenValido = vacioANull(orden);
+            this.orden = ordenValido != null && ordenValido.matches("(fecha|total)-(asc|desc)") ? ordenValido : "fecha-desc";
+        }
+
+        /**
+         * Filtros activos como parámetros de consulta ("&estado=...&orden=..."), para los enlaces de la página
+         */
+        public String getParametros() {
+            UriComponentsBuilder builder = UriComponentsBuilder.newInstance();
+            agregarParametro(builder, "usuarioId", usuarioId);
+            agregarParametro(builder, "estado", estado);
+            agregarParametro(builder, "transporte", estadoTransporte);
+            agregarParametro(builder, "desde", desde);
+            agregarParametro(builder, "hasta", hasta);
+            agregarParametro(builder, "q", busqueda);
+            agregarParametro(builder, "orden", orden);
+            String consulta = builder.encode().build().getQuery();
+            return consulta != null ? "&" + consulta : "";
+        }
+
+        private static void agregarParametro(UriComponentsBuilder builder, String nombre, Object valor) {
+            if (valor != null) {
+                builder.queryParam(nombre, valor);
+            }
+        }
+
+        private static String vacioANull(String valor) {
+            return valor == null || valor.trim().isEmpty() ? null : valor.trim();
+        }
+
+        public String getEstado() {
+            return estado;
+        }
+
+        public LocalDate getDesde() {
+            return desde;
+        }
+
+        public LocalDate getHasta() {
+            return hasta;
+        }
+
+        public String getEstadoTransporte() {
+            return estadoTransporte;
+        }
+
+        public String getBusqueda() {
+            return busqueda;
+        }
+
+        public String getUsuarioId() {
+            return usuarioId;
+        }
+
+        public String getOrden() {
+            return orden;
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package com.furniterental.servicio;
+
+import com.furniterental.dto.ReembolsoPago;
+import com.furniterental.dto.ResultadoPasarela;
+import com.furniterental.dto.SolicitudCobro;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Cobros con tarjeta en segundo plano: autorizar -> capturar -> registrar.
+ *
+ * Las autorizaciones se ejecutan en un grupo fijo de hilos con una cola acotada, así la
+ * petición HTTP queda libre mientras la pasarela responde (el controlador devuelve un
+ * CompletableFuture). Si la cola está llena el cobro se rechaza en el acto como OCUPADO en vez
+ * de acumular esperas. Las capturas y anulaciones van a un grupo aparte: un cobro ya autorizado
+ * nunca compite con los nuevos por la cola, y su cantidad ya está acotada por la de autorizaciones.
+ *
+ * Cada paso tiene tiempo límite. Una autorización que responde tarde se anula en cuanto llega.
+ * Una captura vencida no se anula (puede haberse cobrado): el cobro queda PENDIENTE_CONFIRMACION
+ * y, cuando la pasarela por fin responde, lo capturado se reembolsa. También se reembolsa un
+ * cobro capturado que registrar no llega a asentar. Un alquiler no puede tener dos cobros del
+ * mismo tipo en curso en esta instancia, contando las capturas tardías que aún no respondieron.
+ * Cada reembolso aprobado se publica como ReembolsoPago para que el libro de pagos no confirme
+ * el asiento de ese cobro.
+ */
+@Service
+public class ProcesadorPagosServicio {
+
+    @Autowired
+    private PasarelaPago pasarelaPago;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Value("${app.pagos.hilos:8}")
+    private int hilos;
+
+    @Value("${app.pagos.capacidad-cola:100}")
+    private int capacidadCola;
+
+    @Value("${app.pagos.timeout-autorizacion-ms:5000}")
+    private long timeoutAutorizacionMs;
+
+    @Value("${app.pagos.timeout-captura-ms:5000}")
+    private long timeoutCapturaMs;
+
+    private ThreadPoolExecutor ejecutor;
+    private ExecutorService capturas;
+
+    // Cobros en curso (alquiler + tipo de pago)
+    private final Set<String> enCurso = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong aprobados = new AtomicLong();
+    private final AtomicLong rechazados = new AtomicLong();
+    private final AtomicLong tiemposAgotados = new AtomicLong();
+    private final AtomicLong rechazadosPorCarga = new AtomicLong();
+    private final AtomicLong anulaciones = new AtomicLong();
+    private final AtomicLong capturasTardias = new AtomicLong();
+    private final AtomicLong reembolsos = new AtomicLong();
+    private final AtomicLong reembolsosFallidos = new AtomicLong();
+
+    @PostConstruct
+    public void iniciar() {
+        AtomicInteger numero = new AtomicInteger();
+        ejecutor = new ThreadPoolExecutor(hilos, hilos, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(capacidadCola),
+                r -> {
+                    Thread hilo = new Thread(r, "pagos-pasarela-" + numero.incrementAndGet());
+                    hilo.setDaemon(true);
+                    return hilo;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+
+        AtomicInteger numeroCaptura = new AtomicInteger();
+        capturas = Executors.newFixedThreadPool(hilos, r -> {
+            Thread hilo = new Thread(r, "pagos-captura-" + numeroCaptura.incrementAndGet());
+            hilo.setDaemon(true);
+            return hilo;
+        });
+    }
+
+    /**
+     * Termina los cobros en curso antes de cerrar
+     */
+    @PreDestroy
+    public void detener() {
+        ejecutor.shutdown();
+        try {
+            if (!ejecutor.awaitTermination(timeoutAutorizacionMs, TimeUnit.MILLISECONDS)) {
+                System.err.println("⚠️ Autorizaciones sin terminar al cerrar: " + ejecutor.getQueue().size());
+            }
+            capturas.shutdown();
+            if (!capturas.awaitTermination(timeoutCapturaMs, TimeUnit.MILLISECONDS)) {
+                System.err.println("⚠️ Capturas sin terminar al cerrar");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Autoriza y captura el cobro y luego ejecuta registrar con el resultado (aprobado o no).
+     * registrar corre en un hilo del procesador: no debe usar la petición ni la sesión. Si lanza
+     * una excepción con el cobro aprobado, el cobro se reembolsa, así que solo debe lanzar cuando
+     * sabe que el pago no quedó asentado; si no lo sabe, debe terminar sin lanzar y dejar el
+     * asiento para la conciliación.
+     * @param clave Identifica el cobro (alquiler y tipo de pago) para no procesarlo dos veces a la vez
+     */
+    public <T> CompletableFuture<T> cobrar(String clave, SolicitudCobro solicitud,
+                                           Function<ResultadoPasarela, T> registrar) {
+        if (!enCurso.add(clave)) {
+            return CompletableFuture.completedFuture(registrar.apply(
+                    ResultadoPasarela.noCompletado(ResultadoPasarela.OCUPADO, "Ya hay un pago en proceso para este alquiler")));
+        }
+
+        Retencion retencion = new Retencion(clave);
+        CompletableFuture<T> resultado;
+        try {
+            resultado = autorizar(solicitud)
+                    .thenCompose(autorizacion -> autorizacion.isAprobado()
+                            ? capturar(autorizacion, solicitud.getMonto(), retencion)
+                            : CompletableFuture.completedFuture(autorizacion))
+                    .thenApply(cobro -> {
+                        contar(cobro);
+                        try {
+                            return registrar.apply(cobro);
+                        } catch (RuntimeException e) {
+                            if (cobro.isAprobado()) {
+                                reembolsar(cobro.getNumeroTransaccion(), solicitud.getMonto(), "no se pudo registrar el pago: " + e.getMessage());
+                            }
+                            throw e;
+                        }
+                    });
+        } catch (RuntimeException e) {
+            retencion.soltar();
+            throw e;
+        }
+        return resultado.whenComplete((valor, error) -> retencion.soltar());
+    }
+
+    public Map<String, Object> obtenerEstadisticas() {
+        Map<String, Object> estadisticas = new HashMap<>();
+        estadisticas.put("hilos", hilos);
+        estadisticas.put("activos", ejecutor.getActiveCount());
+        estadisticas.put("enCola", ejecutor.getQueue().size());
+        estadisticas.put("capacidadCola", capacidadCola);
+        estadisticas.put("enCurso", enCurso.size());
+        estadisticas.put("aprobados", aprobados.get());
+        estadisticas.put("rechazados", rechazados.get());
+        estadisticas.put("tiemposAgotados", tiemposAgotados.get());
+        estadisticas.put("rechazadosPorCarga", rechazadosPorCarga.get());
+        estadisticas.put("anulaciones", anulaciones.get());
+        estadisticas.put("capturasTardias", capturasTardias.get());
+        estadisticas.put("reembolsos", reembolsos.get());
+        estadisticas.put("reembolsosFallidos", reembolsosFallidos.get());
+        return estadisticas;
+    }
+
+    private CompletableFuture<ResultadoPasarela> autorizar(SolicitudCobro solicitud) {
+        CompletableFuture<ResultadoPasarela> llamada;
+        try {
+            llamada = CompletableFuture.supplyAsync(() -> pasarelaPago.autorizar(solicitud), ejecutor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.completedFuture(ocupado());
+        }
+
+        // Gana la respuesta o el límite de tiempo, lo que ocurra primero; una aprobación que llega
+        // después del límite se anula
+        CompletableFuture<ResultadoPasarela> conLimite = new CompletableFuture<>();
+        llamada.whenComplete((autorizacion, error) -> {
+            if (error != null) {
+                conLimite.completeExceptionally(error);
+            } else if (!conLimite.complete(autorizacion) && autorizacion.isAprobado()) {
+                anular(autorizacion.getAutorizacionId());
+            }
+        });
+        return conLimite.orTimeout(timeoutAutorizacionMs, TimeUnit.MILLISECONDS)
+                .exceptionally(error -> tiempoAgotado("La autorización del pago tardó demasiado"));
+    }
+
+    private CompletableFuture<ResultadoPasarela> capturar(ResultadoPasarela autorizacion, double monto,
+                                                         Retencion retencion) {
+        // La clave del cobro sigue ocupada hasta que la pasarela responda, aunque sea después del límite
+        retencion.retener();
+        CompletableFuture<ResultadoPasarela> llamada = CompletableFuture.supplyAsync(
+                () -> pasarelaPago.capturar(autorizacion.getAutorizacionId(), monto), capturas);
+
+        // Una captura que no responde a tiempo no se anula: puede haberse cobrado. Si la respuesta
+        // tardía es un cobro, se reembolsa porque el pago nunca se registró
+        CompletableFuture<ResultadoPasarela> conLimite = new CompletableFuture<>();
+        llamada.whenComplete((captura, error) -> {
+            try {
+                if (error != null) {
+                    if (conLimite.completeExceptionally(error)) {
+                        anular(autorizacion.getAutorizacionId());
+                    } else {
+                        System.err.println("⚠️ Captura tardía sin respuesta de la pasarela, autorización "
+                                + autorizacion.getAutorizacionId() + ": revisar en la pasarela");
+                    }
+                } else if (!conLimite.complete(captura) && captura.isAprobado()) {
+                    reembolsar(captura.getNumeroTransaccion(), monto, "la captura respondió después del tiempo límite");
+                }
+            } finally {
+                retencion.soltar();
+            }
+        });
+        return conLimite.orTimeout(timeoutCapturaMs, TimeUnit.MILLISECONDS)
+                .exceptionally(error -> {
+                    if (error instanceof TimeoutException || error.getCause() instanceof TimeoutException) {
+                        capturasTardias.incrementAndGet();
+                        return ResultadoPasarela.noCompletado(ResultadoPasarela.PENDIENTE_CONFIRMACION,
+                                "No pudimos confirmar el pago a tiempo. Si llegó a cobrarse se reembolsará automáticamente");
+                    }
+                    return tiempoAgotado("No se pudo confirmar el pago");
+                });
+    }
+
+    /**
+     * Reembolsa una captura en segundo plano (también lo usa la conciliación del libro de pagos
+     * para los cobros cuyo asiento se descarta)
+     */
+    public void reembolsar(String numeroTransaccion, double monto, String motivo) {
+        reembolsos.incrementAndGet();
+        System.err.println("↩️ Reembolsando " + numeroTransaccion + ": " + motivo);
+        Runnable reembolso = () -> {
+            try {
+                ResultadoPasarela resultado = pasarelaPago.reembolsar(numeroTransaccion, monto);
+                if (!resultado.isAprobado()) {
+                    reembolsosFallidos.incrementAndGet();
+                    System.err.println("❌ Reembolso rechazado para " + numeroTransaccion + ": " + resultado.getMotivo());
+                    return;
+                }
+            } catch (RuntimeException e) {
+                reembolsosFallidos.incrementAndGet();
+                System.err.println("❌ Error al reembolsar " + numeroTransaccion + ": " + e.getMessage());
+                return;
+            }
+            try {
+                eventPublisher.publishEvent(new ReembolsoPago(numeroTransaccion, monto));
+            } catch (RuntimeException e) {
+                System.err.println("⚠️ Reembolso de " + numeroTransaccion + " sin anotar en el libro: " + e.getMessage());
+            }
+        };
+        try {
+            capturas.execute(reembolso);
+        } catch (RejectedExecutionException e) {
+            // Aplicación cerrándose: el reembolso no puede perderse
+            reembolso.run();
+        }
+    }
+
+    private void anular(String autorizacionId) {
+        anulaciones.incrementAndGet();
+        try {
+            capturas.execute(() -> pasarelaPago.anular(autorizacionId));
+        } catch (RejectedExecutionException e) {
+            // Aplicación cerrándose: la anulación no puede perderse
+            pasarelaPago.anular(autorizacionId);
+        }
+    }
+
+    private void contar(ResultadoPasarela resultado) {
+        if (resultado.isAprobado()) {
+            aprobados.incrementAndGet();
+        } else if (!resultado.isReintentable()) {
+            rechazados.incrementAndGet();
+        }
+    }
+
+    private ResultadoPasarela ocupado() {
+        rechazadosPorCarga.incrementAndGet();
+        return ResultadoPasarela.noCompletado(ResultadoPasarela.OCUPADO,
+                "El sistema de pagos está ocupado. Intenta de nuevo en unos segundos");
+    }
+
+    private ResultadoPasarela tiempoAgotado(String mensaje) {
+        tiemposAgotados.incrementAndGet();
+        return ResultadoPasarela.noCompletado(ResultadoPasarela.TIEMPO_AGOTADO, mensaje);
+    }
+
+    /**
+     * Mantiene ocupada la clave del cobro mientras quede algo pendiente: la respuesta al usuario
+     * y, si la hubo, la captura que respondió tarde
+     */
+    private class Retencion {
+
+        private final String clave;
+        private final AtomicInteger pendientes = new AtomicInteger(1);
+
+        Retencion(String clave) {
+            this.clave = clave;
+        }
+
+        void retener() {
+            pendientes.incrementAndGet();
+        }
+
+        void soltar() {
+            if (pendientes.decrementAndGet() == 0) {
+                enCurso.remove(clave);
+            }
+        }
+    }
+}
@@ -23,7 +23,13 @@ public class ProductoService {
         return productoRepository.findById(id);
     }
     
+    /**
+     * Guarda el producto incrementando su versión: las líneas de los alquileres guardan la
+     * versión que copiaron, así se sabe si el producto cambió después
+     */
     public Producto saveProducto(@NonNull Producto producto) {
+        Long version = producto.getVersion();
+        producto.setVersion(version != null ? version + 1 : 1L);
         return productoRepository.save(producto);
     }
     
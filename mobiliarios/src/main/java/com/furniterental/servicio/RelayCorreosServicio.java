@@ -0,0 +1,180 @@
+package com.furniterental.servicio;
+
+import com.furniterental.modelo.CorreoSaliente;
+import com.furniterental.repositorio.CorreoSalienteRepositorio;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Envía los correos de la colección outbox_correos en lotes.
+ *
+ * Cada correo se reclama con un findAndModify atómico (estado ENVIANDO + token + plazo),
+ * así que dos ciclos o dos instancias nunca toman el mismo documento. El paso a ENVIADO
+ * solo se aplica si el token sigue siendo el del reclamo. Si el envío falla, el correo
+ * vuelve a PENDIENTE con espera exponencial; al agotar los intentos queda FALLIDO.
+ * Un reclamo vencido (relay caído a mitad de lote) se retoma en un ciclo posterior.
+ * En ENVIADO y FALLIDO se borra el contenido y un índice TTL elimina el documento pasados
+ * app.outbox.dias-retencion días.
+ */
+@Service
+public class RelayCorreosServicio {
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    @Autowired
+    private CorreoSalienteRepositorio correoSalienteRepositorio;
+    
+    @Autowired
+    private EmailServicio emailServicio;
+    
+    @Value("${app.outbox.tamano-lote:20}")
+    private int tamanoLote;
+    
+    @Value("${app.outbox.max-intentos:8}")
+    private int maxIntentos;
+    
+    @Value("${app.outbox.espera-inicial-segundos:30}")
+    private long esperaInicialSegundos;
+    
+    @Value("${app.outbox.espera-maxima-minutos:60}")
+    private long esperaMaximaMinutos;
+    
+    @Value("${app.outbox.plazo-reclamo-minutos:5}")
+    private long plazoReclamoMinutos;
+    
+    @Value("${app.outbox.dias-retencion:30}")
+    private long diasRetencion;
+    
+    /**
+     * Correos que quedaron ENVIADO o FALLIDO antes de existir la purga: se les quita el
+     * contenido y se programa su borrado
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void programarPurgaAnteriores() {
+        long actualizados = mongoTemplate.updateMulti(
+                Query.query(Criteria.where("estado").in(CorreoSaliente.ENVIADO, CorreoSaliente.FALLIDO)
+                        .and("purgarEn").exists(false)),
+                new Update()
+                        .unset("contenidoHtml")
+                        .set("purgarEn", LocalDateTime.now().plusDays(diasRetencion)),
+                CorreoSaliente.class).getModifiedCount();
+        if (actualizados > 0) {
+            System.out.println("📧 Outbox: purga programada para " + actualizados + " correo(s) anteriores");
+        }
+    }
+    
+    @Scheduled(fixedDelayString = "${app.outbox.intervalo-ms:3000}", initialDelayString = "${app.outbox.intervalo-ms:3000}")
+    public void despachar() {
+        try {
+            List<CorreoSaliente> lote = reclamarLote();
+            for (CorreoSaliente correo : lote) {
+                enviar(correo);
+            }
+            if (!lote.isEmpty()) {
+                System.out.println("📧 Outbox: lote de " + lote.size() + " correo(s) procesado");
+            }
+        } catch (Exception e) {
+            System.err.println("Error en el relay de correos: " + e.getMessage());
+        }
+    }
+    
+    public Map<String, Object> obtenerEstadisticas() {
+        Map<String, Object> estadisticas = new HashMap<>();
+        estadisticas.put("pendientes", correoSalienteRepositorio.countByEstado(CorreoSaliente.PENDIENTE));
+        estadisticas.put("enviando", correoSalienteRepositorio.countByEstado(CorreoSaliente.ENVIANDO));
+        estadisticas.put("enviados", correoSalienteRepositorio.countByEstado(CorreoSaliente.ENVIADO));
+        estadisticas.put("fallidos", correoSalienteRepositorio.countByEstado(CorreoSaliente.FALLIDO));
+        return estadisticas;
+    }
+    
+    private List<CorreoSaliente> reclamarLote() {
+        LocalDateTime ahora = LocalDateTime.now();
+        String token = UUID.randomUUID().toString();
+        
+        Query disponibles = new Query(new Criteria().orOperator(
+                Criteria.where("estado").is(CorreoSaliente.PENDIENTE).and("proximoIntento").lte(ahora),
+                Criteria.where("estado").is(CorreoSaliente.ENVIANDO).and("bloqueadoHasta").lt(ahora)))
+                .with(Sort.by("proximoIntento"));
+        Update reclamo = new Update()
+                .set("estado", CorreoSaliente.ENVIANDO)
+                .set("token", token)
+                .set("bloqueadoHasta", ahora.plusMinutes(plazoReclamoMinutos));
+        FindAndModifyOptions opciones = FindAndModifyOptions.options().returnNew(true);
+        
+        List<CorreoSaliente> lote = new ArrayList<>();
+        while (lote.size() < tamanoLote) {
+            CorreoSaliente correo = mongoTemplate.findAndModify(disponibles, reclamo, opciones, CorreoSaliente.class);
+            if (correo == null) {
+                break;
+            }
+            lote.add(correo);
+        }
+        return lote;
+    }
+    
+    private void enviar(CorreoSaliente correo) {
+        Query reclamado = Query.query(Criteria.where("_id").is(correo.getId()).and("token").is(correo.getToken()));
+        int intentos = correo.getIntentos() + 1;
+        
+        try {
+            emailServicio.enviarHtml(correo.getDestinatario(), correo.getAsunto(), correo.getContenidoHtml());
+            
+            mongoTemplate.updateFirst(reclamado, new Update()
+                    .set("estado", CorreoSaliente.ENVIADO)
+                    .set("intentos", intentos)
+                    .set("fechaEnvio", LocalDateTime.now())
+                    .unset("token")
+                    .unset("bloqueadoHasta")
+                    .unset("contenidoHtml")
+                    .set("purgarEn", LocalDateTime.now().plusDays(diasRetencion)), CorreoSaliente.class);
+        } catch (Exception e) {
+            String error = e.getClass().getSimpleName() + ": " + e.getMessage();
+            Update update = new Update()
+                    .set("intentos", intentos)
+                    .set("ultimoError", error)
+                    .unset("token")
+                    .unset("bloqueadoHasta");
+            
+            if (intentos >= maxIntentos) {
+                // El contenido puede llevar un código de verificación: no se conserva
+                update.set("estado", CorreoSaliente.FALLIDO)
+                      .unset("contenidoHtml")
+                      .set("purgarEn", LocalDateTime.now().plusDays(diasRetencion));
+                System.err.println("❌ Correo " + correo.getTipo() + " a " + correo.getDestinatario()
+                        + " descartado tras " + intentos + " intentos: " + error);
+            } else {
+                Duration espera = calcularEspera(intentos);
+                update.set("estado", CorreoSaliente.PENDIENTE)
+                      .set("proximoIntento", LocalDateTime.now().plus(espera));
+                System.err.println("⚠️ Correo " + correo.getTipo() + " a " + correo.getDestinatario()
+                        + " falló, reintento en " + espera.getSeconds() + " s: " + error);
+            }
+            mongoTemplate.updateFirst(reclamado, update, CorreoSaliente.class);
+        }
+    }
+    
+    // 30 s, 1 min, 2 min, 4 min... con tope
+    private Duration calcularEspera(int intentos) {
+        long segundos = esperaInicialSegundos << Math.min(intentos - 1, 20);
+        return Duration.ofSeconds(Math.min(segundos, esperaMaximaMinutos * 60));
+    }
+}
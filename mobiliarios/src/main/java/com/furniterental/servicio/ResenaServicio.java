@@ -1,18 +1,26 @@
 package com.furniterental.servicio;
 
+import com.furniterental.dto.EventoNotificacion;
 import com.furniterental.modelo.Resena;
+import com.furniterental.modelo.ResumenCalificacion;
 import com.furniterental.modelo.Producto;
 import com.furniterental.modelo.Usuario;
 import com.furniterental.repositorio.ResenaRepositorio;
 import com.furniterental.repositorio.ProductoRepositorio;
 import com.furniterental.repositorio.UsuarioRepositorio;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.UUID;
 
 @Service
 public class ResenaServicio {
@@ -29,6 +37,15 @@ public class ResenaServicio {
     @Autowired
     private EmailServicio emailServicio;
     
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    @Autowired
+    private ResumenCalificacionServicio resumenCalificacionServicio;
+    
     /**
      * Crear una nueva reseña
      */
@@ -87,6 +104,7 @@ public class ResenaServicio {
         
         // Enviar notificación por correo a la empresa
         enviarNotificacionResenaAEmpresa(resenaSaved);
+        publicarPendientes();
         
         return resenaSaved;
     }
@@ -123,34 +141,94 @@ public class ResenaServicio {
      * Aprobar una reseña
      */
     public Resena aprobarResena(String resenaId) {
+        return moderar(resenaId, "APROBADA");
+    }
+    
+    /**
+     * Rechazar una reseña
+     */
+    public Resena rechazarResena(String resenaId) {
+        return moderar(resenaId, "RECHAZADA");
+    }
+    
+    /**
+     * Cambia el estado de la reseña con una escritura condicional y aplica la diferencia al
+     * resumen de calificaciones del producto solo si la reseña entra o sale de APROBADA.
+     * Dos moderaciones simultáneas de la misma reseña no cuentan la calificación dos veces.
+     */
+    private Resena moderar(String resenaId, String nuevoEstado) {
         if (resenaId == null || resenaId.trim().isEmpty()) {
             throw new IllegalArgumentException("El ID de la reseña no puede ser nulo o vacío");
         }
-        Optional<Resena> resenaOpt = resenaRepositorio.findById(resenaId);
-        if (!resenaOpt.isPresent()) {
-            throw new IllegalArgumentException("Reseña no encontrada");
+        
+        // Devuelve la reseña como estaba antes del cambio
+        Resena anterior = mongoTemplate.findAndModify(
+            Query.query(Criteria.where("_id").is(resenaId).and("estado").ne(nuevoEstado)),
+            Update.update("estado", nuevoEstado),
+            Resena.class);
+        if (anterior == null) {
+            // No existe o ya tenía ese estado
+            return resenaRepositorio.findById(resenaId)
+                .orElseThrow(() -> new IllegalArgumentException("Reseña no encontrada"));
         }
         
-        Resena resena = resenaOpt.get();
-        resena.setEstado("APROBADA");
-        return resenaRepositorio.save(resena);
+        if ("APROBADA".equals(nuevoEstado)) {
+            resumenCalificacionServicio.ajustar(anterior.getProductoId(), anterior.getCalificacion(), 1);
+        } else if ("APROBADA".equals(anterior.getEstado())) {
+            resumenCalificacionServicio.ajustar(anterior.getProductoId(), anterior.getCalificacion(), -1);
+        }
+        
+        anterior.setEstado(nuevoEstado);
+        publicarPendientes();
+        return anterior;
     }
     
     /**
-     * Rechazar una reseña
+     * Aprueba o rechaza de una vez las reseñas PENDIENTE del alcance indicado con un solo updateMulti.
+     * Las reseñas cambiadas quedan marcadas con el lote para sumar sus calificaciones a los
+     * resúmenes en bloque; como solo se modera lo pendiente, rechazar no cambia ningún resumen.
+     * @param productoId Solo las de ese producto (opcional)
+     * @param ids Solo esas reseñas (opcional)
+     * @return Cantidad de reseñas moderadas por esta operación
      */
-    public Resena rechazarResena(String resenaId) {
-        if (resenaId == null || resenaId.trim().isEmpty()) {
-            throw new IllegalArgumentException("El ID de la reseña no puede ser nulo o vacío");
+    public long moderarPendientes(String nuevoEstado, String productoId, List<String> ids) {
+        if (!"APROBADA".equals(nuevoEstado) && !"RECHAZADA".equals(nuevoEstado)) {
+            throw new IllegalArgumentException("Estado de moderación inválido: " + nuevoEstado);
         }
-        Optional<Resena> resenaOpt = resenaRepositorio.findById(resenaId);
-        if (!resenaOpt.isPresent()) {
-            throw new IllegalArgumentException("Reseña no encontrada");
+        
+        Criteria criterio = Criteria.where("estado").is("PENDIENTE");
+        if (productoId != null && !productoId.isBlank()) {
+            criterio = criterio.and("productoId").is(productoId);
+        }
+        if (ids != null) {
+            if (ids.isEmpty()) {
+                return 0;
+            }
+            criterio = criterio.and("_id").in(ids);
         }
         
-        Resena resena = resenaOpt.get();
-        resena.setEstado("RECHAZADA");
-        return resenaRepositorio.save(resena);
+        String lote = UUID.randomUUID().toString();
+        long moderadas = mongoTemplate.updateMulti(
+            Query.query(criterio),
+            Update.update("estado", nuevoEstado).set("loteModeracion", lote),
+            Resena.class).getModifiedCount();
+        
+        if (moderadas > 0) {
+            if ("APROBADA".equals(nuevoEstado)) {
+                resumenCalificacionServicio.sumarLote(lote);
+            }
+            publicarPendientes();
+        }
+        return moderadas;
+    }
+    
+    /**
+     * Envía al panel de administración el nuevo número de reseñas pendientes
+     */
+    private void publicarPendientes() {
+        Map<String, Object> datos = new HashMap<>();
+        datos.put("pendientes", resenaRepositorio.countByEstado("PENDIENTE"));
+        eventPublisher.publishEvent(EventoNotificacion.paraAdmin(EventoNotificacion.RESENAS, datos));
     }
     
     /**
@@ -172,35 +250,15 @@ public class ResenaServicio {
     }
     
     /**
-     * Calcular promedio de calificaciones de un producto
+     * Promedio y distribución de calificaciones de un producto (lectura del resumen materializado)
      */
     public Map<String, Object> obtenerEstadisticasProducto(String productoId) {
-        List<Resena> resenas = obtenerResenasAprobadasPorProducto(productoId);
+        ResumenCalificacion resumen = resumenCalificacionServicio.obtener(productoId);
         
         Map<String, Object> estadisticas = new HashMap<>();
-        
-        if (resenas.isEmpty()) {
-            estadisticas.put("promedioCalificacion", 0.0);
-            estadisticas.put("totalResenas", 0);
-            estadisticas.put("distribucionEstrellas", new int[]{0, 0, 0, 0, 0});
-            return estadisticas;
-        }
-        
-        // Calcular promedio
-        double suma = 0;
-        int[] distribucion = new int[5]; // Índices 0-4 para estrellas 1-5
-        
-        for (Resena resena : resenas) {
-            suma += resena.getCalificacion();
-            distribucion[resena.getCalificacion() - 1]++;
-        }
-        
-        double promedio = suma / resenas.size();
-        
-        estadisticas.put("promedioCalificacion", Math.round(promedio * 10.0) / 10.0);
-        estadisticas.put("totalResenas", resenas.size());
-        estadisticas.put("distribucionEstrellas", distribucion);
-        
+        estadisticas.put("promedioCalificacion", resumen.getPromedio());
+        estadisticas.put("totalResenas", resumen.getTotalResenas());
+        estadisticas.put("distribucionEstrellas", resumen.getDistribucionEstrellas());
         return estadisticas;
     }
     
@@ -225,9 +283,9 @@ public class ResenaServicio {
             
             String htmlContent = construirEmailNotificacionResena(resena);
             
-            emailServicio.enviarCorreoHtml(destinatario, asunto, htmlContent);
+            emailServicio.encolarCorreoHtml("notificacion-resena", resena.getId(), destinatario, asunto, htmlContent);
             
-            System.out.println("Notificación de reseña enviada a la empresa");
+            System.out.println("Notificación de reseña registrada en el outbox");
         } catch (Exception e) {
             System.err.println("Error al enviar notificación de reseña: " + e.getMessage());
             e.printStackTrace();
@@ -447,6 +505,7 @@ public class ResenaServicio {
         // Enviar notificación por correo a la empresa (solo una vez por todas las reseñas)
         if (!resenasCreadas.isEmpty()) {
             enviarNotificacionResenaMultipleAEmpresa(resenasCreadas);
+            publicarPendientes();
         }
         
         return resenasCreadas;
@@ -518,8 +577,8 @@ public class ResenaServicio {
                 </html>
             """, resenas.size(), primeraResena.getUsuarioNombre(), resenasHtml.toString(), primeraResena.getComentario());
             
-            emailServicio.enviarCorreoHtml(adminEmail, subject, htmlMessage);
-            System.out.println("Notificación de reseñas múltiples enviada a: " + adminEmail);
+            emailServicio.encolarCorreoHtml("notificacion-resenas-multiples", primeraResena.getAlquilerId(), adminEmail, subject, htmlMessage);
+            System.out.println("Notificación de reseñas múltiples registrada en el outbox para: " + adminEmail);
             
         } catch (Exception e) {
             System.err.println("Error al enviar notificación de reseñas múltiples: " + e.getMessage());
@@ -0,0 +1,551 @@
+package com.furniterental.servicio;
+
+import com.furniterental.modelo.Alquiler;
+import com.furniterental.modelo.ItemCarrito;
+import com.furniterental.modelo.Producto;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * Reserva de unidades por rango de fechas.
+ *
+ * El stock de un producto es la cantidad de unidades que tiene la empresa. Cada alquiler
+ * activo (PENDIENTE, CONFIRMADO, EN_CURSO) ocupa sus unidades solo entre fechaInicio y
+ * fechaFin, así que dos alquileres que no se cruzan pueden usar las mismas unidades.
+ * Por cada producto se mantiene una {@link LineaTiempoReservas} con lo reservado por día:
+ * comprobar y reservar un carrito cuesta O(log n) por producto.
+ *
+ * El índice se construye al arrancar a partir de los alquileres activos y se mantiene al
+ * crear, cancelar, completar o eliminar alquileres (DisponibilidadListener). Solo ve lo que pasa
+ * en esta instancia, así que al reservar sirve de comprobación previa: la reserva definitiva es
+ * un $inc condicionado por producto y día en la base de datos (OcupacionDiariaServicio), que es
+ * todo o nada y no sobrevende aunque haya varias instancias comprando a la vez.
+ */
+@Service
+public class ReservaStockServicio {
+    
+    public static final Set<String> ESTADOS_ACTIVOS = Set.of("PENDIENTE", "CONFIRMADO", "EN_CURSO");
+    
+    private final ReentrantReadWriteLock bloqueo = new ReentrantReadWriteLock();
+    
+    // productoId -> unidades reservadas por día
+    private final Map<String, LineaTiempoReservas> lineas = new HashMap<>();
+    
+    // productoId -> unidades totales (Producto.stock)
+    private final Map<String, Integer> capacidades = new HashMap<>();
+    
+    // productoId -> categoría, para consultar la disponibilidad de una categoría completa
+    private final Map<String, String> categorias = new HashMap<>();
+    
+    // alquilerId -> reserva registrada, para poder liberarla una sola vez
+    private final Map<String, Reserva> reservas = new HashMap<>();
+    
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
+    @Autowired
+    private OcupacionDiariaServicio ocupacionDiariaServicio;
+    
+    @Autowired
+    private MigracionStockServicio migracionStockServicio;
+    
+    /**
+     * Construye el índice con el stock de los productos y los alquileres activos. La primera vez
+     * devuelve antes al stock las unidades que descontaron los alquileres anteriores a la reserva
+     * por fechas (MigracionStockServicio), para no contarlas dos veces.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void reconstruirIndice() {
+        migracionStockServicio.restituirStock();
+        
+        Query productos = new Query();
+        productos.fields().include("stock").include("categoriaProducto");
+        
+        Query alquileres = Query.query(Criteria.where("estado").in(ESTADOS_ACTIVOS).and("inventarioDevuelto").ne(true));
+        alquileres.fields().include("estado").include("fechaInicio").include("fechaFin").include("items");
+        
+        Map<String, Reserva> activos;
+        bloqueo.writeLock().lock();
+        try {
+            lineas.clear();
+            capacidades.clear();
+            categorias.clear();
+            reservas.clear();
+            
+            try (Stream<Producto> stream = mongoTemplate.stream(productos, Producto.class)) {
+                stream.forEach(this::registrarProducto);
+            }
+            try (Stream<Alquiler> stream = mongoTemplate.stream(alquileres, Alquiler.class)) {
+                stream.forEach(this::registrar);
+            }
+            
+            System.out.println("Índice de disponibilidad construido: " + capacidades.size() + " productos, "
+                + reservas.size() + " alquileres activos.");
+            activos = new HashMap<>(reservas);
+        } finally {
+            bloqueo.writeLock().unlock();
+        }
+        
+        // La ocupación en la base de datos se sincroniza fuera del bloqueo
+        if (ocupacionDiariaServicio.estaVacia()) {
+            activos.forEach((alquilerId, reserva) ->
+                ocupacionDiariaServicio.registrar(alquilerId, reserva.cantidades, reserva.desde, reserva.hasta));
+            System.out.println("Ocupación diaria migrada: " + activos.size() + " alquileres activos.");
+        }
+        int huerfanas = ocupacionDiariaServicio.liberarHuerfanas(activos.keySet());
+        if (huerfanas > 0) {
+            System.out.println("Reservas huérfanas liberadas: " + huerfanas);
+        }
+    }
+    
+    /**
+     * Unidades libres de un producto en todos los días del rango (ambos incluidos)
+     */
+    public int disponible(String productoId, LocalDate desde, LocalDate hasta) {
+        bloqueo.readLock().lock();
+        try {
+            return disponibleSinBloqueo(productoId, desde, hasta);
+        } finally {
+            bloqueo.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Unidades libres en el rango para varios productos, leídas de una sola vez
+     * @param categoria Limita la consulta a una categoría (opcional)
+     * @param productoIds Limita la consulta a estos productos (opcional; vacío = todos)
+     * @return productoId -> unidades libres
+     */
+    public Map<String, Integer> disponibles(String categoria, Collection<String> productoIds,
+                                            LocalDate desde, LocalDate hasta) {
+        bloqueo.readLock().lock();
+        try {
+            Collection<String> ids = productoIds != null && !productoIds.isEmpty() ? productoIds : capacidades.keySet();
+            Map<String, Integer> resultado = new LinkedHashMap<>();
+            for (String productoId : ids) {
+                if (categoria != null && !categoria.isBlank() && !categoria.equals(categorias.get(productoId))) {
+                    continue;
+                }
+                resultado.put(productoId, disponibleSinBloqueo(productoId, desde, hasta));
+            }
+            return resultado;
+        } finally {
+            bloqueo.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Reserva las unidades del carrito para el rango de fechas: todas o ninguna.
+     * @param alquilerId Id que tendrá el alquiler; identifica la reserva para liberarla
+     */
+    public ResultadoReserva reservar(String alquilerId, List<ItemCarrito> items, LocalDate desde, LocalDate hasta) {
+        if (desde.isAfter(hasta)) {
+            throw new IllegalArgumentException("La fecha de inicio debe ser anterior a la fecha de fin");
+        }
+        Map<String, Integer> cantidades = agrupar(items);
+        
+        // Comprobación previa con el índice en memoria. Si dice que no alcanza se confirma con la
+        // base de datos: otra instancia pudo haber liberado unidades que este índice no vio
+        bloqueo.readLock().lock();
+        try {
+            if (reservas.containsKey(alquilerId)) {
+                return ResultadoReserva.exitosa(reservas.get(alquilerId).cantidades);
+            }
+            for (Map.Entry<String, Integer> entrada : cantidades.entrySet()) {
+                String productoId = entrada.getKey();
+                if (!capacidades.containsKey(productoId)) {
+                    return ResultadoReserva.fallida(productoId, false, 0, entrada.getValue());
+                }
+            }
+        } finally {
+            bloqueo.readLock().unlock();
+        }
+        for (Map.Entry<String, Integer> entrada : cantidades.entrySet()) {
+            if (disponible(entrada.getKey(), desde, hasta) < entrada.getValue()) {
+                int disponible = ocupacionDiariaServicio.disponible(entrada.getKey(), desde, hasta);
+                if (disponible < entrada.getValue()) {
+                    return ResultadoReserva.fallida(entrada.getKey(), true, disponible, entrada.getValue());
+                }
+            }
+        }
+        
+        // Reserva definitiva: $inc condicionados al stock en la base de datos
+        String agotado = ocupacionDiariaServicio.reservar(alquilerId, cantidades, desde, hasta);
+        if (agotado != null) {
+            return ResultadoReserva.fallida(agotado, true,
+                    ocupacionDiariaServicio.disponible(agotado, desde, hasta), cantidades.get(agotado));
+        }
+        
+        bloqueo.writeLock().lock();
+        try {
+            if (!reservas.containsKey(alquilerId)) {
+                aplicar(alquilerId, new Reserva(desde, hasta, cantidades));
+            }
+        } finally {
+            bloqueo.writeLock().unlock();
+        }
+        return ResultadoReserva.exitosa(cantidades);
+    }
+    
+    /**
+     * Libera las unidades de un alquiler, en el índice y en la base de datos. Llamarlo más de
+     * una vez no tiene efecto.
+     * @return true si el alquiler tenía una reserva registrada
+     */
+    public boolean liberar(String alquilerId) {
+        boolean enIndice = liberarEnIndice(alquilerId);
+        boolean enBase = ocupacionDiariaServicio.liberar(alquilerId);
+        return enIndice || enBase;
+    }
+    
+    private boolean liberarEnIndice(String alquilerId) {
+        bloqueo.writeLock().lock();
+        try {
+            Reserva reserva = reservas.remove(alquilerId);
+            if (reserva == null) {
+                return false;
+            }
+            for (Map.Entry<String, Integer> entrada : reserva.cantidades.entrySet()) {
+                LineaTiempoReservas linea = lineas.get(entrada.getKey());
+                if (linea != null) {
+                    linea.sumar(reserva.desde, reserva.hasta, -entrada.getValue());
+                }
+            }
+            return true;
+        } finally {
+            bloqueo.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Devuelve al inventario las unidades de un alquiler cancelado, terminado o eliminado.
+     * La marca inventarioDevuelto se pone con un único findAndModify condicional, así que
+     * una doble cancelación (o dos administradores a la vez) solo devuelve una vez; la marca
+     * queda guardada y el índice no vuelve a contar el alquiler al reconstruirse.
+     * Debe llamarse antes de eliminar el documento.
+     * @return detalle por producto; isDevuelto() es false si ya se había devuelto o no existe
+     */
+    public ResultadoDevolucion devolverInventario(String alquilerId) {
+        Query pendiente = Query.query(Criteria.where("_id").is(alquilerId).and("inventarioDevuelto").ne(true));
+        Update marca = new Update()
+                .set("inventarioDevuelto", true)
+                .set("fechaDevolucionInventario", LocalDateTime.now());
+        
+        // Devuelve el documento anterior; null si otro proceso ya lo marcó
+        Alquiler alquiler = mongoTemplate.findAndModify(pendiente, marca, Alquiler.class);
+        if (alquiler == null) {
+            return new ResultadoDevolucion(false, Collections.emptyList());
+        }
+        
+        liberar(alquilerId);
+        
+        Reserva reserva = reservaDe(alquiler);
+        if (reserva == null) {
+            return new ResultadoDevolucion(true, Collections.emptyList());
+        }
+        
+        Map<String, String> nombres = new HashMap<>();
+        for (ItemCarrito item : alquiler.getItems()) {
+            nombres.putIfAbsent(item.getProductoId(), item.getNombreProducto());
+        }
+        
+        List<ItemDevuelto> items = new ArrayList<>();
+        bloqueo.readLock().lock();
+        try {
+            for (Map.Entry<String, Integer> entrada : reserva.cantidades.entrySet()) {
+                String productoId = entrada.getKey();
+                items.add(new ItemDevuelto(productoId, nombres.get(productoId), entrada.getValue(),
+                        capacidades.containsKey(productoId),
+                        disponibleSinBloqueo(productoId, reserva.desde, reserva.hasta)));
+            }
+        } finally {
+            bloqueo.readLock().unlock();
+        }
+        return new ResultadoDevolucion(true, Collections.unmodifiableList(items));
+    }
+    
+    /**
+     * Sincroniza el índice con el estado guardado de un alquiler: lo registra si está activo
+     * (sin comprobar capacidad, ya está confirmado en la base de datos) o lo libera si no.
+     */
+    public void sincronizar(Alquiler alquiler) {
+        if (alquiler.getId() == null) {
+            return;
+        }
+        if (!ESTADOS_ACTIVOS.contains(alquiler.getEstado()) || Boolean.TRUE.equals(alquiler.getInventarioDevuelto())) {
+            liberar(alquiler.getId());
+            return;
+        }
+        
+        bloqueo.writeLock().lock();
+        try {
+            Reserva actual = reservas.get(alquiler.getId());
+            Reserva nueva = reservaDe(alquiler);
+            if (actual != null && actual.equals(nueva)) {
+                return;
+            }
+            if (actual != null) {
+                liberarEnIndice(alquiler.getId());
+            }
+            if (nueva != null) {
+                aplicar(alquiler.getId(), nueva);
+            }
+        } finally {
+            bloqueo.writeLock().unlock();
+        }
+    }
+    
+    public void actualizarProducto(Producto producto) {
+        bloqueo.writeLock().lock();
+        try {
+            registrarProducto(producto);
+        } finally {
+            bloqueo.writeLock().unlock();
+        }
+    }
+    
+    public void eliminarProducto(String productoId) {
+        bloqueo.writeLock().lock();
+        try {
+            capacidades.remove(productoId);
+            categorias.remove(productoId);
+        } finally {
+            bloqueo.writeLock().unlock();
+        }
+    }
+    
+    private int disponibleSinBloqueo(String productoId, LocalDate desde, LocalDate hasta) {
+        Integer capacidad = capacidades.get(productoId);
+        if (capacidad == null) {
+            return 0;
+        }
+        LineaTiempoReservas linea = lineas.get(productoId);
+        int reservado = linea != null ? linea.maximo(desde, hasta) : 0;
+        return Math.max(0, capacidad - reservado);
+    }
+    
+    // Debe llamarse con el bloqueo de escritura tomado
+    private void registrarProducto(Producto producto) {
+        capacidades.put(producto.getId(), stockDe(producto));
+        if (producto.getCategoriaProducto() != null) {
+            categorias.put(producto.getId(), producto.getCategoriaProducto());
+        } else {
+            categorias.remove(producto.getId());
+        }
+    }
+    
+    // Debe llamarse con el bloqueo de escritura tomado
+    private void registrar(Alquiler alquiler) {
+        Reserva reserva = reservaDe(alquiler);
+        if (reserva != null && alquiler.getId() != null) {
+            aplicar(alquiler.getId(), reserva);
+        }
+    }
+    
+    private void aplicar(String alquilerId, Reserva reserva) {
+        for (Map.Entry<String, Integer> entrada : reserva.cantidades.entrySet()) {
+            lineas.computeIfAbsent(entrada.getKey(), id -> new LineaTiempoReservas())
+                .sumar(reserva.desde, reserva.hasta, entrada.getValue());
+        }
+        reservas.put(alquilerId, reserva);
+    }
+    
+    private static Reserva reservaDe(Alquiler alquiler) {
+        if (alquiler.getFechaInicio() == null || alquiler.getFechaFin() == null || alquiler.getItems() == null) {
+            return null;
+        }
+        LocalDate desde = alquiler.getFechaInicio().toLocalDate();
+        LocalDate hasta = alquiler.getFechaFin().toLocalDate();
+        if (desde.isAfter(hasta)) {
+            hasta = desde;
+        }
+        
+        Map<String, Integer> cantidades = new LinkedHashMap<>();
+        for (ItemCarrito item : alquiler.getItems()) {
+            if (item.getProductoId() != null && item.getCantidad() != null && item.getCantidad() > 0) {
+                cantidades.merge(item.getProductoId(), item.getCantidad(), Integer::sum);
+            }
+        }
+        return cantidades.isEmpty() ? null : new Reserva(desde, hasta, cantidades);
+    }
+    
+    private static Map<String, Integer> agrupar(List<ItemCarrito> items) {
+        // Un mismo producto puede aparecer en varias líneas del carrito
+        Map<String, Integer> cantidades = new LinkedHashMap<>();
+        for (ItemCarrito item : items) {
+            if (item.getProductoId() == null || item.getCantidad() == null || item.getCantidad() <= 0) {
+                throw new IllegalArgumentException("Item de carrito inválido: " + item.getNombreProducto());
+            }
+            cantidades.merge(item.getProductoId(), item.getCantidad(), Integer::sum);
+        }
+        return cantidades;
+    }
+    
+    private static int stockDe(Producto producto) {
+        return producto.getStock() != null ? producto.getStock() : 0;
+    }
+    
+    private static final class Reserva {
+        private final LocalDate desde;
+        private final LocalDate hasta;
+        private final Map<String, Integer> cantidades;
+        
+        private Reserva(LocalDate desde, LocalDate hasta, Map<String, Integer> cantidades) {
+            this.desde = desde;
+            this.hasta = hasta;
+            this.cantidades = Collections.unmodifiableMap(cantidades);
+        }
+        
+        @Override
+        public boolean equals(Object otro) {
+            if (!(otro instanceof Reserva reserva)) {
+                return false;
+            }
+            return desde.equals(reserva.desde) && hasta.equals(reserva.hasta) && cantidades.equals(reserva.cantidades);
+        }
+        
+        @Override
+        public int hashCode() {
+            return desde.hashCode() * 31 + hasta.hashCode();
+        }
+    }
+    
+    /**
+     * Resultado de la devolución de un alquiler al inventario
+     */
+    public static final class ResultadoDevolucion {
+        private final boolean devuelto;
+        private final List<ItemDevuelto> items;
+        
+        private ResultadoDevolucion(boolean devuelto, List<ItemDevuelto> items) {
+            this.devuelto = devuelto;
+            this.items = items;
+        }
+        
+        /** false si el alquiler ya se había devuelto antes (o no existe) */
+        public boolean isDevuelto() {
+            return devuelto;
+        }
+        
+        public List<ItemDevuelto> getItems() {
+            return items;
+        }
+    }
+    
+    /**
+     * Unidades devueltas de un producto
+     */
+    public static final class ItemDevuelto {
+        private final String productoId;
+        private final String nombreProducto;
+        private final int cantidad;
+        private final boolean productoExiste;
+        private final int disponible;
+        
+        private ItemDevuelto(String productoId, String nombreProducto, int cantidad,
+                             boolean productoExiste, int disponible) {
+            this.productoId = productoId;
+            this.nombreProducto = nombreProducto;
+            this.cantidad = cantidad;
+            this.productoExiste = productoExiste;
+            this.disponible = disponible;
+        }
+        
+        public String getProductoId() {
+            return productoId;
+        }
+        
+        public String getNombreProducto() {
+            return nombreProducto;
+        }
+        
+        public int getCantidad() {
+            return cantidad;
+        }
+        
+        /** false si el producto ya no existe en el catálogo */
+        public boolean isProductoExiste() {
+            return productoExiste;
+        }
+        
+        /** Unidades libres del producto en las fechas del alquiler, después de devolverlo */
+        public int getDisponible() {
+            return disponible;
+        }
+    }
+    
+    /**
+     * Resultado de una reserva de stock
+     */
+    public static final class ResultadoReserva {
+        private final boolean exitosa;
+        private final Map<String, Integer> cantidades;
+        private final String productoId;
+        private final boolean productoExiste;
+        private final int disponible;
+        private final int solicitado;
+        
+        private ResultadoReserva(boolean exitosa, Map<String, Integer> cantidades, String productoId,
+                                 boolean productoExiste, int disponible, int solicitado) {
+            this.exitosa = exitosa;
+            this.cantidades = cantidades;
+            this.productoId = productoId;
+            this.productoExiste = productoExiste;
+            this.disponible = disponible;
+            this.solicitado = solicitado;
+        }
+        
+        static ResultadoReserva exitosa(Map<String, Integer> cantidades) {
+            return new ResultadoReserva(true, Collections.unmodifiableMap(new LinkedHashMap<>(cantidades)), null, true, 0, 0);
+        }
+        
+        static ResultadoReserva fallida(String productoId, boolean productoExiste, int disponible, int solicitado) {
+            return new ResultadoReserva(false, Collections.emptyMap(), productoId, productoExiste, disponible, solicitado);
+        }
+        
+        public boolean isExitosa() {
+            return exitosa;
+        }
+        
+        /** Cantidades reservadas por producto (vacío si la reserva falló) */
+        public Map<String, Integer> getCantidades() {
+            return cantidades;
+        }
+        
+        /** Producto sin unidades suficientes en las fechas pedidas (solo si la reserva falló) */
+        public String getProductoId() {
+            return productoId;
+        }
+        
+        public boolean isProductoExiste() {
+            return productoExiste;
+        }
+        
+        public int getDisponible() {
+            return disponible;
+        }
+        
+        public int getSolicitado() {
+            return solicitado;
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package com.furniterental.servicio;
+
+import com.furniterental.modelo.Resena;
+import com.furniterental.modelo.ResumenCalificacion;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.ConditionalOperators;
+import org.springframework.data.mongodb.core.aggregation.GroupOperation;
+import org.springframework.data.mongodb.core.aggregation.TypedAggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.group;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.match;
+
+/**
+ * Resumen de calificaciones por producto (promedio y distribución de estrellas).
+ *
+ * Al aprobar una reseña, o rechazar una que estaba aprobada, ResenaServicio aplica la diferencia
+ * con un solo $inc sobre el resumen, así leer las estadísticas de un producto es una búsqueda por
+ * _id. Igual que ResumenNotificaciones, el resumen se crea la primera vez que se lee (o en la
+ * reconstrucción) y los $inc no lo crean. La reconstrucción periódica recalcula todos los
+ * resúmenes con una agregación y corrige los que se desviaron.
+ */
+@Service
+public class ResumenCalificacionServicio {
+
+    static final String TAREA = "reconstruir-resumen-calificaciones";
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private BloqueoTareaServicio bloqueoTareaServicio;
+
+    @Value("${app.resumen-calificaciones.plazo-bloqueo-minutos:10}")
+    private long plazoBloqueoMinutos;
+
+    private volatile Map<String, Object> ultimaReconstruccion = new HashMap<>();
+
+    /**
+     * Resumen del producto
+     */
+    public ResumenCalificacion obtener(String productoId) {
+        ResumenCalificacion resumen = mongoTemplate.findById(productoId, ResumenCalificacion.class);
+        if (resumen != null) {
+            return resumen;
+        }
+
+        // Primera lectura: calcular desde sus reseñas y crear el resumen (si otro hilo lo creó antes, se respeta)
+        ResumenCalificacion calculado = calcular(Criteria.where("productoId").is(productoId))
+                .getOrDefault(productoId, vacio(productoId));
+        crearSiNoExiste(calculado);
+        return calculado;
+    }
+
+    /**
+     * Suma (signo 1) o resta (signo -1) una calificación aprobada al resumen del producto, si ya existe
+     */
+    public void ajustar(String productoId, int calificacion, int signo) {
+        if (productoId == null || calificacion < 1 || calificacion > 5 || signo == 0) {
+            return;
+        }
+        mongoTemplate.updateFirst(
+                Query.query(Criteria.where("_id").is(productoId)),
+                new Update()
+                        .inc("totalResenas", signo)
+                        .inc("sumaCalificaciones", (long) signo * calificacion)
+                        .inc("distribucionEstrellas." + (calificacion - 1), signo)
+                        .set("fechaActualizacion", LocalDateTime.now()),
+                ResumenCalificacion.class);
+    }
+
+    /**
+     * Suma a los resúmenes las reseñas aprobadas en una moderación masiva (las marcadas con el lote),
+     * con una agregación y una sola escritura en bloque. No se filtra por estado: si alguna se
+     * rechazó entretanto, ese rechazo ya restó su calificación y aquí se suma, quedando en cero.
+     * @return productos cuyo resumen se actualizó
+     */
+    public int sumarLote(String loteModeracion) {
+        Map<String, ResumenCalificacion> porProducto = agrupar(Criteria.where("loteModeracion").is(loteModeracion));
+        if (porProducto.isEmpty()) {
+            return 0;
+        }
+
+        BulkOperations operaciones = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ResumenCalificacion.class);
+        LocalDateTime ahora = LocalDateTime.now();
+        for (ResumenCalificacion lote : porProducto.values()) {
+            Update update = new Update()
+                    .inc("totalResenas", lote.getTotalResenas())
+                    .inc("sumaCalificaciones", lote.getSumaCalificaciones())
+                    .set("fechaActualizacion", ahora);
+            int[] distribucion = lote.getDistribucionEstrellas();
+            for (int i = 0; i < distribucion.length; i++) {
+                if (distribucion[i] != 0) {
+                    update.inc("distribucionEstrellas." + i, distribucion[i]);
+                }
+            }
+            operaciones.updateOne(Query.query(Criteria.where("_id").is(lote.getId())), update);
+        }
+        return operaciones.execute().getModifiedCount();
+    }
+
+    /**
+     * Total de reseñas aprobadas y promedio de todos los productos, sumando los resúmenes
+     */
+    public ResumenCalificacion obtenerGeneral() {
+        TypedAggregation<ResumenCalificacion> agregacion = Aggregation.newAggregation(ResumenCalificacion.class,
+                group().sum("totalResenas").as("total").sum("sumaCalificaciones").as("suma"));
+        Document resultado = mongoTemplate.aggregate(agregacion, Document.class).getUniqueMappedResult();
+
+        ResumenCalificacion general = vacio(null);
+        if (resultado != null) {
+            general.setTotalResenas(((Number) resultado.get("total")).intValue());
+            general.setSumaCalificaciones(((Number) resultado.get("suma")).longValue());
+        }
+        return general;
+    }
+
+    @Scheduled(fixedDelayString = "${app.resumen-calificaciones.reconstruccion-ms:21600000}",
+               initialDelayString = "${app.resumen-calificaciones.retraso-inicial-ms:60000}")
+    public void reconstruir() {
+        if (!bloqueoTareaServicio.adquirir(TAREA, Duration.ofMinutes(plazoBloqueoMinutos))) {
+            return;
+        }
+
+        long inicio = System.currentTimeMillis();
+        try {
+            int[] cambios = reconstruirResumenes();
+
+            Map<String, Object> resumen = new HashMap<>();
+            resumen.put("fecha", LocalDateTime.now());
+            resumen.put("instancia", bloqueoTareaServicio.getInstancia());
+            resumen.put("resumenesCorregidos", cambios[0]);
+            resumen.put("resumenesCreados", cambios[1]);
+            resumen.put("duracionMs", System.currentTimeMillis() - inicio);
+            ultimaReconstruccion = resumen;
+
+            if (cambios[0] > 0) {
+                System.out.println("⭐ Reconstrucción de calificaciones: " + cambios[0] + " resumen(es) corregido(s)");
+            }
+        } catch (Exception e) {
+            System.err.println("Error en la reconstrucción de resúmenes de calificación: " + e.getMessage());
+        } finally {
+            bloqueoTareaServicio.liberar(TAREA);
+        }
+    }
+
+    public Map<String, Object> obtenerEstadisticas() {
+        return ultimaReconstruccion;
+    }
+
+    /**
+     * Recalcula los resúmenes de todos los productos con una agregación $group, corrige los
+     * distintos y crea los que faltan. Cada corrección se condiciona a los valores leídos: si un
+     * $inc llegó entretanto, ese resumen se deja para la siguiente ejecución.
+     * @return {corregidos, creados}
+     */
+    int[] reconstruirResumenes() {
+        Map<String, ResumenCalificacion> esperados = calcular(null);
+
+        int corregidos = 0;
+        try (Stream<ResumenCalificacion> existentes = mongoTemplate.stream(new Query(), ResumenCalificacion.class)) {
+            for (ResumenCalificacion resumen : (Iterable<ResumenCalificacion>) existentes::iterator) {
+                ResumenCalificacion esperado = esperados.remove(resumen.getId());
+                if (esperado == null) {
+                    esperado = vacio(resumen.getId());
+                }
+                if (resumen.getTotalResenas() != esperado.getTotalResenas()
+                        || resumen.getSumaCalificaciones() != esperado.getSumaCalificaciones()
+                        || !Arrays.equals(resumen.getDistribucionEstrellas(), esperado.getDistribucionEstrellas())) {
+                    corregidos += mongoTemplate.updateFirst(
+                            Query.query(Criteria.where("_id").is(resumen.getId())
+                                    .and("totalResenas").is(resumen.getTotalResenas())
+                                    .and("sumaCalificaciones").is(resumen.getSumaCalificaciones())
+                                    .and("fechaActualizacion").is(resumen.getFechaActualizacion())),
+                            new Update()
+                                    .set("totalResenas", esperado.getTotalResenas())
+                                    .set("sumaCalificaciones", esperado.getSumaCalificaciones())
+                                    .set("distribucionEstrellas", comoLista(esperado.getDistribucionEstrellas()))
+                                    .set("fechaActualizacion", LocalDateTime.now()),
+                            ResumenCalificacion.class).getModifiedCount();
+                }
+            }
+        }
+
+        // Productos con reseñas aprobadas que todavía no tienen resumen
+        for (ResumenCalificacion faltante : esperados.values()) {
+            crearSiNoExiste(faltante);
+        }
+        return new int[]{corregidos, esperados.size()};
+    }
+
+    /**
+     * Cuenta, suma y distribución de las reseñas aprobadas, agrupadas por producto
+     * @param filtro Criterio adicional (un producto) o null para todos
+     */
+    private Map<String, ResumenCalificacion> calcular(Criteria filtro) {
+        Criteria criterio = Criteria.where("estado").is("APROBADA");
+        if (filtro != null) {
+            criterio = new Criteria().andOperator(criterio, filtro);
+        }
+        return agrupar(criterio);
+    }
+
+    /**
+     * Cuenta, suma y distribución de las reseñas que cumplen el criterio, agrupadas por producto
+     */
+    private Map<String, ResumenCalificacion> agrupar(Criteria criterio) {
+        GroupOperation grupo = group("productoId").count().as("total").sum("calificacion").as("suma");
+        for (int estrellas = 1; estrellas <= 5; estrellas++) {
+            grupo = grupo.sum(ConditionalOperators.when(Criteria.where("calificacion").is(estrellas)).then(1).otherwise(0))
+                    .as("estrellas" + estrellas);
+        }
+
+        Map<String, ResumenCalificacion> resultado = new HashMap<>();
+        TypedAggregation<Resena> agregacion = Aggregation.newAggregation(Resena.class, match(criterio), grupo);
+        for (Document fila : mongoTemplate.aggregate(agregacion, Document.class)) {
+            Object productoId = fila.get("_id");
+            if (productoId == null) {
+                continue;
+            }
+            ResumenCalificacion resumen = vacio(productoId.toString());
+            resumen.setTotalResenas(((Number) fila.get("total")).intValue());
+            resumen.setSumaCalificaciones(((Number) fila.get("suma")).longValue());
+            for (int estrellas = 1; estrellas <= 5; estrellas++) {
+                resumen.getDistribucionEstrellas()[estrellas - 1] = ((Number) fila.get("estrellas" + estrellas)).intValue();
+            }
+            resultado.put(resumen.getId(), resumen);
+        }
+        return resultado;
+    }
+
+    private void crearSiNoExiste(ResumenCalificacion resumen) {
+        mongoTemplate.upsert(
+                Query.query(Criteria.where("_id").is(resumen.getId())),
+                new Update()
+                        .setOnInsert("totalResenas", resumen.getTotalResenas())
+                        .setOnInsert("sumaCalificaciones", resumen.getSumaCalificaciones())
+                        .setOnInsert("distribucionEstrellas", comoLista(resumen.getDistribucionEstrellas()))
+                        .setOnInsert("fechaActualizacion", LocalDateTime.now()),
+                ResumenCalificacion.class);
+    }
+
+    private static List<Integer> comoLista(int[] distribucion) {
+        return Arrays.stream(distribucion).boxed().toList();
+    }
+
+    private static ResumenCalificacion vacio(String productoId) {
+        ResumenCalificacion resumen = new ResumenCalificacion();
+        resumen.setId(productoId);
+        resumen.setDistribucionEstrellas(new int[5]);
+        return resumen;
+    }
+}
@@ -0,0 +1,181 @@
+package com.furniterental.servicio;
+
+import com.furniterental.modelo.Alquiler;
+import com.furniterental.modelo.ResumenNotificaciones;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.TypedAggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.group;
+import static org.springframework.data.mongodb.core.aggregation.Aggregation.match;
+
+/**
+ * Contador de pagos pendientes por usuario (la campana de pagos).
+ *
+ * PagosPendientesListener aplica un $inc de +1/-1 cuando un alquiler entra o sale de la
+ * condición de pago pendiente, así leer el contador es una búsqueda por _id. El contador de un
+ * usuario se crea la primera vez que se lee, contando sus alquileres; hasta entonces los $inc
+ * no crean el documento (empezaría en el delta y no en el total). Una reconciliación periódica
+ * recalcula todos los contadores con una agregación y corrige los que se desviaron.
+ */
+@Service
+public class ResumenNotificacionesServicio {
+
+    static final String TAREA = "reconciliar-resumen-notificaciones";
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private BloqueoTareaServicio bloqueoTareaServicio;
+
+    @Value("${app.resumen-notificaciones.plazo-bloqueo-minutos:10}")
+    private long plazoBloqueoMinutos;
+
+    private volatile Map<String, Object> ultimaReconciliacion = new HashMap<>();
+
+    /**
+     * Alquileres con un pago en línea pendiente (misma regla que Alquiler.tienePagoPendiente)
+     */
+    public static Criteria criterioPagoPendiente() {
+        return new Criteria().andOperator(
+                Criteria.where("pagoContraEntrega").ne(true),
+                new Criteria().orOperator(
+                        Criteria.where("estado").is("CONFIRMADO").and("estadoPagoParcial").is("PENDIENTE"),
+                        Criteria.where("estado").is("COMPLETADO").and("estadoPagoFinal").is("PENDIENTE")));
+    }
+
+    /**
+     * Pagos pendientes del usuario
+     */
+    public int contarPagosPendientes(String usuarioId) {
+        ResumenNotificaciones resumen = mongoTemplate.findById(usuarioId, ResumenNotificaciones.class);
+        if (resumen != null) {
+            return resumen.getPagosPendientes();
+        }
+
+        // Primera lectura: contar sus alquileres y crear el contador (si otro hilo lo creó antes, se respeta)
+        int pendientes = (int) mongoTemplate.count(
+                new Query(new Criteria().andOperator(Criteria.where("usuarioId").is(usuarioId), criterioPagoPendiente())),
+                Alquiler.class);
+        mongoTemplate.upsert(
+                Query.query(Criteria.where("_id").is(usuarioId)),
+                new Update().setOnInsert("pagosPendientes", pendientes).setOnInsert("fechaActualizacion", LocalDateTime.now()),
+                ResumenNotificaciones.class);
+        return pendientes;
+    }
+
+    /**
+     * Alquileres del usuario con pago pendiente, del más reciente al más antiguo, con solo los
+     * campos que muestra la campana (índice usuarioId + fechaAlquiler)
+     */
+    public List<Alquiler> listarPagosPendientes(String usuarioId) {
+        Query query = new Query(new Criteria().andOperator(Criteria.where("usuarioId").is(usuarioId), criterioPagoPendiente()))
+                .with(Sort.by(Sort.Direction.DESC, "fechaAlquiler"));
+        query.fields().include("estado", "estadoPagoParcial", "estadoPagoFinal", "montoPagoParcial", "montoSaldoPendiente",
+                "pagoContraEntrega", "total", "fechaInicio", "fechaFin", "items.nombreProducto", "items.cantidad");
+        return mongoTemplate.find(query, Alquiler.class);
+    }
+
+    /**
+     * Suma delta al contador del usuario, si ya existe
+     */
+    public void ajustarPagosPendientes(String usuarioId, int delta) {
+        if (usuarioId == null || delta == 0) {
+            return;
+        }
+        mongoTemplate.updateFirst(
+                Query.query(Criteria.where("_id").is(usuarioId)),
+                new Update().inc("pagosPendientes", delta).set("fechaActualizacion", LocalDateTime.now()),
+                ResumenNotificaciones.class);
+    }
+
+    /**
+     * Olvida los contadores (se recalculan al leerlos). Para borrados masivos de alquileres.
+     */
+    public void invalidarTodo() {
+        mongoTemplate.remove(new Query(), ResumenNotificaciones.class);
+    }
+
+    @Scheduled(fixedDelayString = "${app.resumen-notificaciones.reconciliacion-ms:900000}",
+               initialDelayString = "${app.resumen-notificaciones.reconciliacion-ms:900000}")
+    public void reconciliar() {
+        if (!bloqueoTareaServicio.adquirir(TAREA, Duration.ofMinutes(plazoBloqueoMinutos))) {
+            return;
+        }
+
+        long inicio = System.currentTimeMillis();
+        try {
+            int corregidos = reconciliarContadores();
+
+            Map<String, Object> resumen = new HashMap<>();
+            resumen.put("fecha", LocalDateTime.now());
+            resumen.put("instancia", bloqueoTareaServicio.getInstancia());
+            resumen.put("contadoresCorregidos", corregidos);
+            resumen.put("duracionMs", System.currentTimeMillis() - inicio);
+            ultimaReconciliacion = resumen;
+
+            if (corregidos > 0) {
+                System.out.println("🔔 Reconciliación de notificaciones: " + corregidos + " contador(es) corregido(s)");
+            }
+        } catch (Exception e) {
+            System.err.println("Error en la reconciliación de contadores de notificaciones: " + e.getMessage());
+        } finally {
+            bloqueoTareaServicio.liberar(TAREA);
+        }
+    }
+
+    public Map<String, Object> obtenerEstadisticas() {
+        return ultimaReconciliacion;
+    }
+
+    /**
+     * Recalcula los pagos pendientes de todos los usuarios con una agregación $group y corrige
+     * los contadores distintos. Cada corrección se condiciona al valor leído: si un $inc llegó
+     * entretanto, ese contador se deja para la siguiente ejecución.
+     * @return cantidad de contadores corregidos
+     */
+    int reconciliarContadores() {
+        TypedAggregation<Alquiler> agregacion = Aggregation.newAggregation(Alquiler.class,
+                match(criterioPagoPendiente()),
+                group("usuarioId").count().as("pendientes"));
+        Map<String, Integer> esperados = new HashMap<>();
+        for (Document conteo : mongoTemplate.aggregate(agregacion, Document.class)) {
+            Object usuarioId = conteo.get("_id");
+            if (usuarioId != null) {
+                esperados.put(usuarioId.toString(), ((Number) conteo.get("pendientes")).intValue());
+            }
+        }
+
+        int corregidos = 0;
+        try (Stream<ResumenNotificaciones> existentes = mongoTemplate.stream(new Query(), ResumenNotificaciones.class)) {
+            for (ResumenNotificaciones resumen : (Iterable<ResumenNotificaciones>) existentes::iterator) {
+                int esperado = esperados.getOrDefault(resumen.getId(), 0);
+                if (resumen.getPagosPendientes() != esperado) {
+                    corregidos += mongoTemplate.updateFirst(
+                            Query.query(Criteria.where("_id").is(resumen.getId())
+                                    .and("pagosPendientes").is(resumen.getPagosPendientes())),
+                            new Update().set("pagosPendientes", esperado).set("fechaActualizacion", LocalDateTime.now()),
+                            ResumenNotificaciones.class).getModifiedCount();
+                }
+            }
+        }
+        return corregidos;
+    }
+}
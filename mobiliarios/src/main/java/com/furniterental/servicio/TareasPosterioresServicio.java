@@ -0,0 +1,209 @@
+package com.furniterental.servicio;
+
+import com.furniterental.modelo.TareaFallida;
+import com.furniterental.repositorio.TareaFallidaRepositorio;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ejecuta en segundo plano los efectos secundarios que siguen a una operación ya guardada
+ * (logs de actividad, notificaciones), para que la petición responda en cuanto el documento
+ * es durable. La cola vive en memoria: los correos que no pueden perderse van al outbox
+ * (OutboxCorreoServicio), que sobrevive a un reinicio.
+ *
+ * Las tareas esperan en una cola acotada y las atiende un número fijo de hilos. Una tarea
+ * que lanza una excepción se reintenta con espera exponencial; al agotar los intentos se
+ * guarda en la colección tareas_fallidas. Si la cola está llena, la tarea se ejecuta en el
+ * hilo que la encola, de modo que nunca se descarta.
+ */
+@Service
+public class TareasPosterioresServicio {
+    
+    @Autowired
+    private TareaFallidaRepositorio tareaFallidaRepositorio;
+    
+    @Value("${app.tareas.capacidad:1000}")
+    private int capacidad;
+    
+    @Value("${app.tareas.hilos:2}")
+    private int hilos;
+    
+    @Value("${app.tareas.max-intentos:4}")
+    private int maxIntentos;
+    
+    @Value("${app.tareas.espera-inicial-ms:2000}")
+    private long esperaInicialMs;
+    
+    private BlockingQueue<Tarea> cola;
+    private ExecutorService trabajadores;
+    private ScheduledExecutorService reintentos;
+    private volatile boolean activo;
+    
+    private final AtomicLong encoladas = new AtomicLong();
+    private final AtomicLong completadas = new AtomicLong();
+    private final AtomicLong reintentadas = new AtomicLong();
+    private final AtomicLong fallidas = new AtomicLong();
+    private final AtomicLong ejecutadasEnLinea = new AtomicLong();
+    
+    @PostConstruct
+    public void iniciar() {
+        cola = new ArrayBlockingQueue<>(capacidad);
+        activo = true;
+        
+        AtomicInteger numero = new AtomicInteger();
+        trabajadores = Executors.newFixedThreadPool(hilos, r -> {
+            Thread hilo = new Thread(r, "tareas-posteriores-" + numero.incrementAndGet());
+            hilo.setDaemon(true);
+            return hilo;
+        });
+        for (int i = 0; i < hilos; i++) {
+            trabajadores.submit(this::atender);
+        }
+        
+        reintentos = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread hilo = new Thread(r, "tareas-posteriores-reintentos");
+            hilo.setDaemon(true);
+            return hilo;
+        });
+    }
+    
+    /**
+     * Vacía la cola antes de cerrar para no perder tareas pendientes.
+     * Los reintentos programados que no alcancen a ejecutarse se guardan como fallidos.
+     */
+    @PreDestroy
+    public void detener() {
+        activo = false;
+        for (Runnable pendiente : reintentos.shutdownNow()) {
+            pendiente.run();
+        }
+        trabajadores.shutdown();
+        try {
+            if (!trabajadores.awaitTermination(15, TimeUnit.SECONDS)) {
+                System.err.println("⚠️ Tareas posteriores sin terminar al cerrar: " + cola.size());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * Encola una tarea para ejecutarla después de responder.
+     * @param tipo Nombre corto de la tarea (por ejemplo "log-alquiler")
+     * @param referencia Id de la entidad relacionada, para identificarla si falla
+     * @param accion Trabajo a realizar; no debe usar objetos de la petición (request, sesión)
+     */
+    public void encolar(String tipo, String referencia, Runnable accion) {
+        Tarea tarea = new Tarea(tipo, referencia, accion);
+        encoladas.incrementAndGet();
+        
+        if (!activo || !cola.offer(tarea)) {
+            // Cola llena o aplicación cerrándose: se ejecuta aquí mismo
+            ejecutadasEnLinea.incrementAndGet();
+            ejecutar(tarea);
+        }
+    }
+    
+    public Map<String, Object> obtenerEstadisticas() {
+        Map<String, Object> estadisticas = new HashMap<>();
+        estadisticas.put("pendientes", cola.size());
+        estadisticas.put("capacidad", capacidad);
+        estadisticas.put("hilos", hilos);
+        estadisticas.put("encoladas", encoladas.get());
+        estadisticas.put("completadas", completadas.get());
+        estadisticas.put("reintentos", reintentadas.get());
+        estadisticas.put("fallidas", fallidas.get());
+        estadisticas.put("ejecutadasEnLinea", ejecutadasEnLinea.get());
+        return estadisticas;
+    }
+    
+    private void atender() {
+        while (activo || !cola.isEmpty()) {
+            try {
+                Tarea tarea = cola.poll(1, TimeUnit.SECONDS);
+                if (tarea != null) {
+                    ejecutar(tarea);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+    
+    private void ejecutar(Tarea tarea) {
+        tarea.intentos++;
+        try {
+            tarea.accion.run();
+            completadas.incrementAndGet();
+        } catch (Exception e) {
+            tarea.ultimoError = e.getClass().getSimpleName() + ": " + e.getMessage();
+            if (tarea.intentos < maxIntentos && activo) {
+                reintentadas.incrementAndGet();
+                long espera = esperaInicialMs << (tarea.intentos - 1);
+                System.err.println("⚠️ Tarea " + tarea.tipo + " (" + tarea.referencia + ") falló, reintento en "
+                        + espera + " ms: " + tarea.ultimoError);
+                programarReintento(tarea, espera);
+            } else {
+                registrarFallida(tarea);
+            }
+        }
+    }
+    
+    private void programarReintento(Tarea tarea, long espera) {
+        try {
+            reintentos.schedule(() -> {
+                if (!activo) {
+                    registrarFallida(tarea);
+                } else if (!cola.offer(tarea)) {
+                    // Cola llena: se vuelve a intentar más tarde sin consumir un intento
+                    programarReintento(tarea, espera);
+                }
+            }, espera, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            registrarFallida(tarea);
+        }
+    }
+    
+    private void registrarFallida(Tarea tarea) {
+        fallidas.incrementAndGet();
+        System.err.println("❌ Tarea " + tarea.tipo + " (" + tarea.referencia + ") descartada tras "
+                + tarea.intentos + " intentos: " + tarea.ultimoError);
+        try {
+            tareaFallidaRepositorio.save(new TareaFallida(
+                    tarea.tipo, tarea.referencia, tarea.intentos, tarea.ultimoError, tarea.fechaCreacion));
+        } catch (Exception e) {
+            System.err.println("Error al registrar tarea fallida: " + e.getMessage());
+        }
+    }
+    
+    private static class Tarea {
+        private final String tipo;
+        private final String referencia;
+        private final Runnable accion;
+        private final LocalDateTime fechaCreacion = LocalDateTime.now();
+        private int intentos;
+        private String ultimoError;
+        
+        private Tarea(String tipo, String referencia, Runnable accion) {
+            this.tipo = tipo;
+            this.referencia = referencia;
+            this.accion = accion;
+        }
+    }
+}
@@ -3,10 +3,19 @@ package com.furniterental.servicio;
 import com.furniterental.modelo.TarjetaGuardada;
 import com.furniterental.repositorio.TarjetaGuardadaRepositorio;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.stream.Stream;
 
 /**
  * Servicio para gestionar tarjetas guardadas de los usuarios
@@ -20,9 +29,14 @@ public class TarjetaGuardadaServicio {
     @Autowired
     private EncriptacionServicio encriptacionServicio;
     
+    @Autowired
+    private MongoTemplate mongoTemplate;
+    
     // Límite máximo de tarjetas por usuario
     private static final int MAX_TARJETAS_POR_USUARIO = 5;
     
+    private static final String TARJETA_REPETIDA = "Ya tienes esta tarjeta guardada";
+    
     /**
      * Guarda una nueva tarjeta para un usuario
      * Encripta automáticamente los datos sensibles
@@ -46,17 +60,19 @@ public class TarjetaGuardadaServicio {
             throw new IllegalArgumentException("Has alcanzado el límite máximo de " + MAX_TARJETAS_POR_USUARIO + " tarjetas guardadas");
         }
         
-        // Extraer últimos 4 dígitos para validar duplicados
+        // Extraer últimos 4 dígitos para mostrar
         String ultimos4 = encriptacionServicio.extraerUltimos4Digitos(numeroTarjeta);
         
-        // Validar si ya existe una tarjeta con los mismos últimos 4 dígitos
-        if (tarjetaRepositorio.existsByUsuarioIdAndUltimos4Digitos(usuarioId, ultimos4)) {
-            throw new IllegalArgumentException("Ya tienes una tarjeta guardada con estos últimos 4 dígitos");
+        // Validar duplicados por la huella del número completo (sin desencriptar nada)
+        String huella = encriptacionServicio.calcularHuella(numeroTarjeta);
+        if (tarjetaRepositorio.existsByUsuarioIdAndHuella(usuarioId, huella)) {
+            throw new IllegalArgumentException(TARJETA_REPETIDA);
         }
         
         // Encriptar datos sensibles
-        String numeroEncriptado = encriptacionServicio.encriptar(numeroTarjeta);
-        String cvvEncriptado = encriptacionServicio.encriptar(cvv);
+        List<String> encriptados = encriptacionServicio.encriptarTodos(List.of(numeroTarjeta, cvv));
+        String numeroEncriptado = encriptados.get(0);
+        String cvvEncriptado = encriptados.get(1);
         
         // Detectar tipo de tarjeta
         String tipoTarjeta = encriptacionServicio.detectarTipoTarjeta(numeroTarjeta);
@@ -69,13 +85,19 @@ public class TarjetaGuardadaServicio {
         );
         
         tarjeta.setAlias(alias);
+        tarjeta.setHuella(huella);
         
         // Si es la primera tarjeta, marcarla como predeterminada
         if (cantidadTarjetas == 0) {
             tarjeta.setEsPredeterminada(true);
         }
         
-        return tarjetaRepositorio.save(tarjeta);
+        try {
+            return tarjetaRepositorio.save(tarjeta);
+        } catch (DuplicateKeyException e) {
+            // Dos guardados simultáneos de la misma tarjeta: el índice único deja pasar solo uno
+            throw new IllegalArgumentException(TARJETA_REPETIDA);
+        }
     }
     
     /**
@@ -212,40 +234,66 @@ public class TarjetaGuardadaServicio {
     }
     
     /**
-     * Limpia tarjetas duplicadas de un usuario (mantiene solo una por cada últimos 4 dígitos)
+     * Limpia tarjetas duplicadas de un usuario (las marcadas al asignar huellas; las nuevas ya no
+     * pueden repetirse). Es una sola eliminación por el índice del usuario, sin desencriptar.
      */
     public int limpiarTarjetasDuplicadas(String usuarioId) {
-        List<TarjetaGuardada> tarjetas = tarjetaRepositorio.findByUsuarioIdOrderByFechaCreacionDesc(usuarioId);
+        long eliminadas = tarjetaRepositorio.deleteByUsuarioIdAndDuplicadaTrue(usuarioId);
         
-        // Agrupar por últimos 4 dígitos
-        Map<String, List<TarjetaGuardada>> tarjetasPorUltimos4 = new HashMap<>();
-        for (TarjetaGuardada tarjeta : tarjetas) {
-            String ultimos4 = tarjeta.getUltimos4Digitos();
-            tarjetasPorUltimos4.computeIfAbsent(ultimos4, k -> new ArrayList<>()).add(tarjeta);
+        // Si se eliminó la predeterminada, pasa a serlo la más reciente
+        if (eliminadas > 0 && tarjetaRepositorio.findByUsuarioIdAndEsPredeterminadaTrue(usuarioId).isEmpty()) {
+            List<TarjetaGuardada> restantes = tarjetaRepositorio.findByUsuarioIdOrderByFechaCreacionDesc(usuarioId);
+            if (!restantes.isEmpty()) {
+                TarjetaGuardada tarjeta = restantes.get(0);
+                tarjeta.setEsPredeterminada(true);
+                tarjeta.setFechaActualizacion(LocalDateTime.now());
+                tarjetaRepositorio.save(tarjeta);
+            }
         }
         
-        int eliminadas = 0;
+        return (int) eliminadas;
+    }
+    
+    /**
+     * Asigna la huella a las tarjetas guardadas antes de que existiera (una vez por tarjeta).
+     * Se recorren de la más reciente a la más antigua por usuario: si una huella ya está tomada,
+     * la tarjeta es una copia más antigua y queda marcada como duplicada para limpiarTarjetasDuplicadas.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void asignarHuellasPendientes() {
+        Query query = new Query(Criteria.where("huella").exists(false).and("duplicada").ne(true))
+                .with(Sort.by(Sort.Order.asc("usuarioId"), Sort.Order.desc("fechaCreacion")));
+        query.fields().include("usuarioId").include("numeroTarjetaEncriptado");
         
-        // Para cada grupo de tarjetas con los mismos últimos 4 dígitos
-        for (Map.Entry<String, List<TarjetaGuardada>> entry : tarjetasPorUltimos4.entrySet()) {
-            List<TarjetaGuardada> grupo = entry.getValue();
-            
-            // Si hay duplicados (más de 1 tarjeta con los mismos últimos 4 dígitos)
-            if (grupo.size() > 1) {
-                // Ordenar por fecha de creación (más reciente primero)
-                grupo.sort((t1, t2) -> t2.getFechaCreacion().compareTo(t1.getFechaCreacion()));
+        int asignadas = 0;
+        int duplicadas = 0;
+        int errores = 0;
+        try (Stream<TarjetaGuardada> tarjetas = mongoTemplate.stream(query, TarjetaGuardada.class)) {
+            for (TarjetaGuardada tarjeta : (Iterable<TarjetaGuardada>) tarjetas::iterator) {
+                String huella;
+                try {
+                    huella = encriptacionServicio.calcularHuella(
+                            encriptacionServicio.desencriptar(tarjeta.getNumeroTarjetaEncriptado()));
+                } catch (Exception e) {
+                    errores++;
+                    System.err.println("⚠️ No se pudo calcular la huella de la tarjeta " + tarjeta.getId() + ": " + e.getMessage());
+                    continue;
+                }
                 
-                // Mantener la primera (más reciente) y eliminar el resto
-                for (int i = 1; i < grupo.size(); i++) {
-                    String id = grupo.get(i).getId();
-                    if (id != null) {
-                        tarjetaRepositorio.deleteById(id);
-                        eliminadas++;
-                    }
+                Query porId = new Query(Criteria.where("_id").is(tarjeta.getId()).and("huella").exists(false));
+                try {
+                    mongoTemplate.updateFirst(porId, new Update().set("huella", huella), TarjetaGuardada.class);
+                    asignadas++;
+                } catch (DuplicateKeyException e) {
+                    mongoTemplate.updateFirst(porId, new Update().set("duplicada", true), TarjetaGuardada.class);
+                    duplicadas++;
                 }
             }
         }
         
-        return eliminadas;
+        if (asignadas + duplicadas + errores > 0) {
+            System.out.println("🔑 Huellas de tarjetas: " + asignadas + " asignadas, " + duplicadas
+                    + " duplicadas, " + errores + " con error");
+        }
     }
 }
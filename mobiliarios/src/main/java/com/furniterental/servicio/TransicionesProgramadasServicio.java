@@ -0,0 +1,294 @@
+package com.furniterental.servicio;
+
+import com.furniterental.dto.EventoNotificacion;
+import com.furniterental.modelo.Alquiler;
+import com.furniterental.modelo.EstadoAlquiler;
+import com.furniterental.modelo.TransicionEstado;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Aplica las transiciones de alquiler que dependen solo del tiempo:
+ * - PENDIENTE sin confirmar durante demasiado tiempo (o cuya fecha de inicio ya pasó) pasa a CANCELADO
+ *   y devuelve sus unidades al inventario.
+ * - CONFIRMADO cuya fecha de inicio llegó pasa a EN_CURSO si el 50% inicial está pagado o se paga contra
+ *   entrega. Si no, sigue CONFIRMADO (el pago inicial solo se acepta en ese estado) y se marca con
+ *   inicioSinPago para que lo revise un administrador; se inicia en cuanto se pague.
+ * - EN_CURSO cuya fecha de fin pasó se marca con devolucionVencida.
+ *
+ * Cada paso recorre los alquileres por páginas de _id sobre los índices estado+fecha y aplica un
+ * updateMulti por página, condicionado al estado anterior para no pisar un cambio manual hecho
+ * entre la lectura y la escritura. Las escrituras masivas no pasan por los listeners de Mongo, así
+ * que las reservas se liberan explícitamente; ninguna transición cambia el contador de pagos
+ * pendientes. Con varias instancias solo ejecuta la que tiene el bloqueo de la tarea.
+ */
+@Service
+public class TransicionesProgramadasServicio {
+
+    static final String TAREA = "transiciones-alquiler";
+    private static final String ORIGEN_SISTEMA = "SISTEMA";
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private BloqueoTareaServicio bloqueoTareaServicio;
+
+    @Autowired
+    private ReservaStockServicio reservaStockServicio;
+
+    @Autowired
+    private EmailServicio emailServicio;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
+    @Value("${app.transiciones.horas-expiracion-pendiente:48}")
+    private long horasExpiracionPendiente;
+
+    @Value("${app.transiciones.tamano-pagina:200}")
+    private int tamanoPagina;
+
+    @Value("${app.transiciones.plazo-bloqueo-minutos:10}")
+    private long plazoBloqueoMinutos;
+
+    private volatile Map<String, Object> ultimaEjecucion = new HashMap<>();
+
+    @Scheduled(fixedDelayString = "${app.transiciones.intervalo-ms:60000}", initialDelayString = "${app.transiciones.intervalo-ms:60000}")
+    public void ejecutar() {
+        if (!bloqueoTareaServicio.adquirir(TAREA, Duration.ofMinutes(plazoBloqueoMinutos))) {
+            return;
+        }
+
+        long inicio = System.currentTimeMillis();
+        try {
+            // Milisegundos: la fecha se guarda así en Mongo y sirve para reconocer lo que cambió esta ejecución
+            LocalDateTime ahora = LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS);
+            int expirados = expirarPendientes(ahora);
+            int iniciados = iniciarConfirmados(ahora);
+            int sinPago = marcarIniciosSinPago(ahora);
+            int vencidos = marcarDevolucionesVencidas(ahora);
+
+            Map<String, Object> resumen = new HashMap<>();
+            resumen.put("fecha", ahora);
+            resumen.put("instancia", bloqueoTareaServicio.getInstancia());
+            resumen.put("pendientesExpirados", expirados);
+            resumen.put("alquileresIniciados", iniciados);
+            resumen.put("iniciosSinPagoMarcados", sinPago);
+            resumen.put("alquileresEsperandoPagoInicial", mongoTemplate.count(
+                    Query.query(Criteria.where("estado").is(EstadoAlquiler.CONFIRMADO.name()).and("inicioSinPago").is(true)),
+                    Alquiler.class));
+            resumen.put("devolucionesVencidas", vencidos);
+            resumen.put("duracionMs", System.currentTimeMillis() - inicio);
+            ultimaEjecucion = resumen;
+
+            if (expirados + iniciados + sinPago + vencidos > 0) {
+                System.out.println("⏰ Transiciones programadas: " + expirados + " expirado(s), "
+                        + iniciados + " iniciado(s), " + sinPago + " sin pago inicial, "
+                        + vencidos + " devolución(es) vencida(s)");
+            }
+        } catch (Exception e) {
+            System.err.println("Error en las transiciones programadas de alquileres: " + e.getMessage());
+        } finally {
+            bloqueoTareaServicio.liberar(TAREA);
+        }
+    }
+
+    public Map<String, Object> obtenerEstadisticas() {
+        return ultimaEjecucion;
+    }
+
+    private int expirarPendientes(LocalDateTime ahora) {
+        String anterior = EstadoAlquiler.PENDIENTE.name();
+        String nuevo = EstadoAlquiler.CANCELADO.name();
+        String motivo = "Expirado automáticamente: no se confirmó a tiempo";
+
+        Supplier<Criteria> candidatos = () -> Criteria.where("estado").is(anterior).orOperator(
+                Criteria.where("fechaAlquiler").lt(ahora.minusHours(horasExpiracionPendiente)),
+                Criteria.where("fechaInicio").lt(ahora));
+        Update update = new Update()
+                .set("estado", nuevo)
+                .set("inventarioDevuelto", true)
+                .set("fechaDevolucionInventario", ahora)
+                .push("historialEstados", new TransicionEstado(anterior, nuevo, ORIGEN_SISTEMA, "Sistema", ORIGEN_SISTEMA, motivo));
+
+        return procesarPorPaginas(candidatos, Criteria.where("estado").is(anterior), update,
+                Criteria.where("estado").is(nuevo).and("fechaDevolucionInventario").is(ahora),
+                alquiler -> {
+                    reservaStockServicio.liberar(alquiler.getId());
+                    notificar(alquiler, anterior, nuevo,
+                            "Tu solicitud de alquiler no fue confirmada a tiempo y se canceló automáticamente. "
+                            + "Los productos quedaron disponibles nuevamente.");
+                });
+    }
+
+    private int iniciarConfirmados(LocalDateTime ahora) {
+        String anterior = EstadoAlquiler.CONFIRMADO.name();
+        String nuevo = EstadoAlquiler.EN_CURSO.name();
+
+        // Solo los que ya no tienen pago pendiente: no cambia el contador de pagos pendientes
+        Supplier<Criteria> candidatos = () -> new Criteria().andOperator(
+                Criteria.where("estado").is(anterior).and("fechaInicio").lte(ahora), pagoInicialCubierto());
+        Update update = new Update()
+                .set("estado", nuevo)
+                .unset("inicioSinPago")
+                .unset("fechaInicioSinPago")
+                .push("historialEstados", new TransicionEstado(anterior, nuevo, ORIGEN_SISTEMA, "Sistema", ORIGEN_SISTEMA,
+                        "Inicio automático en la fecha de inicio del alquiler"));
+
+        // Las unidades siguen reservadas: EN_CURSO es un estado activo
+        return procesarPorPaginas(candidatos,
+                new Criteria().andOperator(Criteria.where("estado").is(anterior), pagoInicialCubierto()), update,
+                Criteria.where("estado").is(nuevo),
+                alquiler -> notificar(alquiler, anterior, nuevo, "Tu alquiler comenzó hoy. ¡Disfruta tu mobiliario!"));
+    }
+
+    private int marcarIniciosSinPago(LocalDateTime ahora) {
+        String estado = EstadoAlquiler.CONFIRMADO.name();
+
+        Supplier<Criteria> candidatos = () -> Criteria.where("estado").is(estado)
+                .and("fechaInicio").lte(ahora)
+                .and("pagoContraEntrega").ne(true)
+                .and("estadoPagoParcial").ne("PAGADO")
+                .and("inicioSinPago").ne(true);
+        Update update = new Update()
+                .set("inicioSinPago", true)
+                .set("fechaInicioSinPago", ahora);
+
+        return procesarPorPaginas(candidatos,
+                Criteria.where("estado").is(estado).and("estadoPagoParcial").ne("PAGADO").and("inicioSinPago").ne(true), update,
+                Criteria.where("fechaInicioSinPago").is(ahora),
+                alquiler -> {
+                    System.out.println("⚠️ Alquiler " + alquiler.getId() + " llegó a su fecha de inicio sin el pago inicial; requiere revisión");
+                    notificar(alquiler, estado, estado,
+                            "La fecha de inicio de tu alquiler llegó, pero el pago del 50% inicial sigue pendiente. "
+                            + "Realiza el pago para que podamos entregar el mobiliario.");
+                });
+    }
+
+    private int marcarDevolucionesVencidas(LocalDateTime ahora) {
+        String estado = EstadoAlquiler.EN_CURSO.name();
+
+        Supplier<Criteria> candidatos = () -> Criteria.where("estado").is(estado)
+                .and("fechaFin").lt(ahora)
+                .and("devolucionVencida").ne(true);
+        Update update = new Update()
+                .set("devolucionVencida", true)
+                .set("fechaDevolucionVencida", ahora);
+
+        return procesarPorPaginas(candidatos,
+                Criteria.where("estado").is(estado).and("devolucionVencida").ne(true), update,
+                Criteria.where("fechaDevolucionVencida").is(ahora),
+                alquiler -> notificar(alquiler, estado, estado,
+                        "La fecha de fin de tu alquiler ya pasó. Por favor coordina la devolución del mobiliario."));
+    }
+
+    private static Criteria pagoInicialCubierto() {
+        return new Criteria().orOperator(
+                Criteria.where("pagoContraEntrega").is(true),
+                Criteria.where("estadoPagoParcial").is("PAGADO"));
+    }
+
+    /**
+     * Recorre los candidatos en páginas ordenadas por _id y aplica la actualización a cada página.
+     * @param candidatos Filtro de búsqueda (se construye por página para añadir el cursor)
+     * @param condicion Condición que debe seguir cumpliéndose al escribir
+     * @param marca Identifica los documentos que este lote cambió realmente
+     * @param despues Acción por cada alquiler cambiado (reservas, notificaciones)
+     * @return cantidad de alquileres cambiados
+     */
+    private int procesarPorPaginas(Supplier<Criteria> candidatos, Criteria condicion, Update update,
+                                   Criteria marca, Consumer<Alquiler> despues) {
+        int total = 0;
+        String ultimoId = null;
+
+        while (true) {
+            Criteria filtro = candidatos.get();
+            if (ultimoId != null) {
+                filtro = new Criteria().andOperator(filtro, Criteria.where("_id").gt(ultimoId));
+            }
+            Query pagina = new Query(filtro).with(Sort.by("_id")).limit(tamanoPagina);
+            pagina.fields().include("_id");
+
+            List<String> ids = new ArrayList<>();
+            for (Alquiler alquiler : mongoTemplate.find(pagina, Alquiler.class)) {
+                ids.add(alquiler.getId());
+            }
+            if (ids.isEmpty()) {
+                break;
+            }
+            ultimoId = ids.get(ids.size() - 1);
+
+            mongoTemplate.updateMulti(
+                    new Query(new Criteria().andOperator(Criteria.where("_id").in(ids), condicion)),
+                    update, Alquiler.class);
+
+            // Releer solo los que cambió esta escritura (un administrador pudo adelantarse)
+            Query cambiados = new Query(new Criteria().andOperator(Criteria.where("_id").in(ids), marca));
+            cambiados.fields().include("_id", "usuarioId", "usuarioNombre", "usuarioCorreo", "fechaInicio", "fechaFin", "total");
+            for (Alquiler alquiler : mongoTemplate.find(cambiados, Alquiler.class)) {
+                try {
+                    despues.accept(alquiler);
+                } catch (Exception e) {
+                    System.err.println("Error al procesar el alquiler " + alquiler.getId() + ": " + e.getMessage());
+                }
+                total++;
+            }
+
+            if (ids.size() < tamanoPagina) {
+                break;
+            }
+        }
+        return total;
+    }
+
+    private void notificar(Alquiler alquiler, String anterior, String nuevo, String mensaje) {
+        if (alquiler.getUsuarioId() != null) {
+            Map<String, Object> datos = new HashMap<>();
+            datos.put("alquilerId", alquiler.getId());
+            datos.put("estado", nuevo);
+            eventPublisher.publishEvent(EventoNotificacion.paraUsuario(alquiler.getUsuarioId(), EventoNotificacion.ALQUILER, datos));
+        }
+
+        if (alquiler.getUsuarioCorreo() == null) {
+            return;
+        }
+
+        StringBuilder detalles = new StringBuilder(mensaje);
+        if (alquiler.getFechaInicio() != null) {
+            detalles.append("<br><br><strong>Fecha de inicio:</strong> ").append(alquiler.getFechaInicio().toLocalDate());
+        }
+        if (alquiler.getFechaFin() != null) {
+            detalles.append("<br><strong>Fecha de fin:</strong> ").append(alquiler.getFechaFin().toLocalDate());
+        }
+        if (alquiler.getTotal() != null) {
+            detalles.append("<br><strong>Total:</strong> $").append(String.format("%.2f", alquiler.getTotal()));
+        }
+
+        emailServicio.encolarNotificacionCambioEstado(
+                alquiler.getUsuarioCorreo(),
+                alquiler.getUsuarioNombre(),
+                alquiler.getId(),
+                anterior,
+                nuevo,
+                detalles.toString());
+    }
+}
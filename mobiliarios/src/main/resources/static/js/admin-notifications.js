@@ -6,6 +6,7 @@ class AdminNotificationManager {
         this.notificationBadge = null;
         this.notificationPanel = null;
         this.updateInterval = null;
+        this.eventSource = null;
     }
 
     /**
@@ -26,10 +27,15 @@ class AdminNotificationManager {
         // Cargar notificaciones iniciales
         this.loadNotifications();
 
-        // Actualizar cada 30 segundos
-        this.updateInterval = setInterval(() => {
-            this.loadNotifications();
-        }, 30000);
+        // El servidor avisa cuando cambian las reseñas pendientes; sin soporte de
+        // EventSource se vuelve a consultar cada 30 segundos
+        if (window.EventSource) {
+            this.connectEvents();
+        } else {
+            this.updateInterval = setInterval(() => {
+                this.loadNotifications();
+            }, 30000);
+        }
 
         // Event listener para abrir/cerrar panel
         this.notificationBtn.addEventListener('click', (e) => {
@@ -107,6 +113,27 @@ class AdminNotificationManager {
         });
     }
 
+    /**
+     * Abrir la conexión de eventos del panel. EventSource reconecta solo y envía el
+     * último id recibido, así el servidor reenvía lo que se perdió durante el corte.
+     */
+    connectEvents() {
+        this.eventSource = new EventSource('/admin/notificaciones/stream');
+
+        this.eventSource.addEventListener('resenas', (e) => {
+            const data = JSON.parse(e.data);
+            this.updateCounts(data.pendientes || 0);
+
+            // Refrescar la lista si el panel está abierto
+            if (this.notificationPanel && this.notificationPanel.classList.contains('active')) {
+                this.loadTabContent('resenas');
+            }
+        });
+
+        // El servidor ya no tiene los eventos perdidos: recargar el conteo completo
+        this.eventSource.addEventListener('resincronizar', () => this.loadNotifications());
+    }
+
     /**
      * Cargar notificaciones
      */
@@ -118,21 +145,27 @@ class AdminNotificationManager {
             const data = await response.json();
 
             if (data.success) {
-                const count = data.count || 0;
-                this.updateBadge(count);
-                
-                // Actualizar badge de la tab
-                const resenasBadge = document.getElementById('resenasBadge');
-                if (resenasBadge) {
-                    resenasBadge.textContent = count;
-                    resenasBadge.style.display = count > 0 ? 'inline-block' : 'none';
-                }
+                this.updateCounts(data.count || 0);
             }
         } catch (error) {
             console.error('Error al cargar notificaciones:', error);
         }
     }
 
+    /**
+     * Actualizar el badge del botón y el de la tab de reseñas
+     */
+    updateCounts(count) {
+        this.updateBadge(count);
+        
+        // Actualizar badge de la tab
+        const resenasBadge = document.getElementById('resenasBadge');
+        if (resenasBadge) {
+            resenasBadge.textContent = count;
+            resenasBadge.style.display = count > 0 ? 'inline-block' : 'none';
+        }
+    }
+
     /**
      * Actualizar badge de notificaciones
      */
@@ -1010,6 +1043,9 @@ class AdminNotificationManager {
         if (this.updateInterval) {
             clearInterval(this.updateInterval);
         }
+        if (this.eventSource) {
+            this.eventSource.close();
+        }
     }
 }
 
@@ -47,7 +47,7 @@ function cargarCarritoPreview() {
                     itemsHTML += `
                         <div class="cart-preview-item">
                             <div class="cart-preview-item-image">
-                                <img src="${item.imagenProducto}" alt="${item.nombreProducto}">
+                                <img src="${(data.imagenes && data.imagenes[item.productoId]) || item.imagenProducto}" alt="${item.nombreProducto}">
                             </div>
                             <div class="cart-preview-item-details">
                                 <p class="cart-preview-item-name">${item.nombreProducto}</p>
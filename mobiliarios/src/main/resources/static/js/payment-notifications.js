@@ -6,24 +6,50 @@
 // Variable global para almacenar notificaciones
 let paymentNotifications = [];
 
+// Último conteo de pagos pendientes (lo actualiza el servidor al cambiar)
+let ultimoConteoPagos = 0;
+
 /**
  * Inicializa el sistema de notificaciones de pagos
  */
 function initPaymentNotifications() {
+    const bellBtn = document.getElementById('paymentBellBtn');
+    if (!bellBtn) {
+        return;
+    }
+    
     // Cargar conteo inicial de notificaciones
     updateNotificationBadge();
     
-    // Actualizar cada 30 segundos
-    setInterval(updateNotificationBadge, 30000);
+    // El servidor avisa cuando cambian los pagos o el estado de un alquiler; sin soporte de
+    // EventSource se vuelve a consultar cada 30 segundos
+    if (window.EventSource) {
+        conectarNotificacionesPagos();
+    } else {
+        setInterval(updateNotificationBadge, 30000);
+    }
     
     // Mostrar tooltip recordatorio cada 30 segundos si hay pagos pendientes
     setInterval(showPaymentReminder, 30000);
     
     // Cargar notificaciones completas al hacer clic en la campanita
-    const bellBtn = document.getElementById('paymentBellBtn');
-    if (bellBtn) {
-        bellBtn.addEventListener('click', showPaymentNotifications);
-    }
+    bellBtn.addEventListener('click', showPaymentNotifications);
+}
+
+/**
+ * Abre la conexión de eventos del usuario. EventSource reconecta solo y envía el
+ * último id recibido, así el servidor reenvía lo que se perdió durante el corte.
+ */
+function conectarNotificacionesPagos() {
+    const eventos = new EventSource('/notificaciones/stream');
+    
+    eventos.addEventListener('pagos', updateNotificationBadge);
+    eventos.addEventListener('alquiler', updateNotificationBadge);
+    
+    // El servidor ya no tiene los eventos perdidos: recargar el conteo completo
+    eventos.addEventListener('resincronizar', updateNotificationBadge);
+    
+    window.addEventListener('beforeunload', () => eventos.close());
 }
 
 /**
@@ -34,6 +60,8 @@ async function updateNotificationBadge() {
         const response = await fetch('/pagos/notificaciones-count');
         const data = await response.json();
         
+        ultimoConteoPagos = data.success ? data.count : 0;
+        
         const badge = document.getElementById('paymentNotificationBadge');
         if (badge) {
             if (data.success && data.count > 0) {
@@ -58,44 +86,37 @@ async function updateNotificationBadge() {
 /**
  * Muestra tooltip recordatorio de pagos pendientes
  */
-async function showPaymentReminder() {
-    try {
-        const response = await fetch('/pagos/notificaciones-count');
-        const data = await response.json();
-        
-        // Solo mostrar tooltip si hay pagos pendientes
-        if (data.success && data.count > 0) {
-            const bellBtn = document.getElementById('paymentBellBtn');
-            if (bellBtn) {
-                // Crear tooltip si no existe
-                let tooltip = document.getElementById('paymentTooltipReminder');
-                if (!tooltip) {
-                    tooltip = document.createElement('div');
-                    tooltip.id = 'paymentTooltipReminder';
-                    tooltip.className = 'payment-tooltip-reminder';
-                    tooltip.innerHTML = `
-                        <i class="bi bi-exclamation-circle-fill"></i>
-                        <span>¡Tienes pagos pendientes!</span>
-                    `;
-                    // Agregar al botón de notificaciones para posicionamiento relativo
-                    bellBtn.appendChild(tooltip);
-                }
-                
-                // Agregar animación de vibración al botón
-                bellBtn.classList.add('payment-shake-reminder');
-                
-                // Mostrar tooltip
-                tooltip.classList.add('show');
-                
-                // Ocultar después de 5 segundos
-                setTimeout(() => {
-                    tooltip.classList.remove('show');
-                    bellBtn.classList.remove('payment-shake-reminder');
-                }, 5000);
+function showPaymentReminder() {
+    // Solo mostrar tooltip si hay pagos pendientes
+    if (ultimoConteoPagos > 0) {
+        const bellBtn = document.getElementById('paymentBellBtn');
+        if (bellBtn) {
+            // Crear tooltip si no existe
+            let tooltip = document.getElementById('paymentTooltipReminder');
+            if (!tooltip) {
+                tooltip = document.createElement('div');
+                tooltip.id = 'paymentTooltipReminder';
+                tooltip.className = 'payment-tooltip-reminder';
+                tooltip.innerHTML = `
+                    <i class="bi bi-exclamation-circle-fill"></i>
+                    <span>¡Tienes pagos pendientes!</span>
+                `;
+                // Agregar al botón de notificaciones para posicionamiento relativo
+                bellBtn.appendChild(tooltip);
             }
+            
+            // Agregar animación de vibración al botón
+            bellBtn.classList.add('payment-shake-reminder');
+            
+            // Mostrar tooltip
+            tooltip.classList.add('show');
+            
+            // Ocultar después de 5 segundos
+            setTimeout(() => {
+                tooltip.classList.remove('show');
+                bellBtn.classList.remove('payment-shake-reminder');
+            }, 5000);
         }
-    } catch (error) {
-        console.error('Error al mostrar recordatorio de pagos:', error);
     }
 }
 
@@ -1114,6 +1135,20 @@ async function showPaymentForm(notif) {
     });
 }
 
+// Clave Idempotency-Key por pago pendiente: un reintento del mismo pago reutiliza la clave
+// y el servidor responde con el resultado del primer intento en lugar de cobrar dos veces
+const clavesIdempotenciaPago = {};
+
+function obtenerClaveIdempotenciaPago(alquilerId, tipoPago) {
+    const clave = alquilerId + ':' + tipoPago;
+    if (!clavesIdempotenciaPago[clave]) {
+        clavesIdempotenciaPago[clave] = (window.crypto && crypto.randomUUID)
+            ? crypto.randomUUID()
+            : Date.now().toString(36) + '-' + Math.random().toString(36).substring(2);
+    }
+    return clavesIdempotenciaPago[clave];
+}
+
 /**
  * Procesa el pago (envía al servidor)
  */
@@ -1159,6 +1194,7 @@ async function processPayment(alquilerId, tipoPago, cardData) {
             method: 'POST',
             headers: {
                 'Content-Type': 'application/x-www-form-urlencoded',
+                'Idempotency-Key': obtenerClaveIdempotenciaPago(alquilerId, tipoPago)
             },
             body: formData
         });
@@ -1166,6 +1202,8 @@ async function processPayment(alquilerId, tipoPago, cardData) {
         const data = await response.json();
         
         if (data.success) {
+            delete clavesIdempotenciaPago[alquilerId + ':' + tipoPago];
+
             const isDarkMode = document.body.classList.contains('dark-mode');
             
             // Mostrar éxito con diseño mejorado
@@ -0,0 +1,168 @@
+package com.furniterental.servicio;
+
+import com.furniterental.dto.EventoNotificacion;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Envíos por conexión del centro de notificaciones, con emisores que registran lo enviado o se
+ * quedan bloqueados como un navegador que no lee (no necesita servidor web).
+ */
+class CentroNotificacionesServicioTest {
+
+	private final List<EmisorPrueba> emisores = new CopyOnWriteArrayList<>();
+	private final CountDownLatch desbloquear = new CountDownLatch(1);
+	private volatile boolean bloquearSiguiente;
+	private CentroNotificacionesServicio centro;
+
+	@BeforeEach
+	void iniciar() {
+		centro = new CentroNotificacionesServicio() {
+			@Override
+			SseEmitter crearEmisor(long timeoutMs) {
+				EmisorPrueba emisor = new EmisorPrueba(bloquearSiguiente ? desbloquear : null);
+				bloquearSiguiente = false;
+				emisores.add(emisor);
+				return emisor;
+			}
+		};
+		ReflectionTestUtils.setField(centro, "timeoutMinutos", 30L);
+		ReflectionTestUtils.setField(centro, "eventosPorCanal", 50);
+		ReflectionTestUtils.setField(centro, "conexionesPorCanal", 10);
+		ReflectionTestUtils.setField(centro, "reconexionMs", 5000L);
+		ReflectionTestUtils.setField(centro, "hilosEnvio", 2);
+		ReflectionTestUtils.setField(centro, "pendientesPorConexion", 5);
+		ReflectionTestUtils.setField(centro, "timeoutEnvioMs", 10000L);
+		centro.iniciar();
+	}
+
+	@AfterEach
+	void detener() {
+		desbloquear.countDown();
+		centro.detener();
+	}
+
+	@Test
+	void unNavegadorBloqueadoNoRetrasaAOtrosCanales() throws Exception {
+		bloquearSiguiente = true;
+		centro.suscribir(EventoNotificacion.canalUsuario("lento"), null);
+		centro.suscribir(EventoNotificacion.canalUsuario("rapido"), null);
+		EmisorPrueba lento = emisores.get(0);
+		EmisorPrueba rapido = emisores.get(1);
+
+		centro.publicar(EventoNotificacion.paraUsuario("lento", EventoNotificacion.PAGOS, Map.of()));
+		assertTrue(lento.enEnvio.await(5, TimeUnit.SECONDS));
+
+		centro.publicar(EventoNotificacion.paraUsuario("rapido", EventoNotificacion.PAGOS, Map.of()));
+		assertTrue(rapido.recibido.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	void conexionQueNoDaAbastoSeCierraSinBloquearAlPublicador() throws Exception {
+		bloquearSiguiente = true;
+		centro.suscribir(EventoNotificacion.canalUsuario("lento"), null);
+		EmisorPrueba lento = emisores.get(0);
+
+		centro.publicar(EventoNotificacion.paraUsuario("lento", EventoNotificacion.PAGOS, Map.of()));
+		assertTrue(lento.enEnvio.await(5, TimeUnit.SECONDS));
+
+		// La cola se llena mientras el primer envío sigue bloqueado; publicar no espera
+		long inicio = System.nanoTime();
+		for (int i = 0; i < 10; i++) {
+			centro.publicar(EventoNotificacion.paraUsuario("lento", EventoNotificacion.PAGOS, Map.of()));
+		}
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inicio) < 1000);
+		assertEquals(1L, centro.obtenerEstadisticas().get("conexionesRezagadas"));
+		assertEquals(0, centro.obtenerEstadisticas().get("conexiones"));
+
+		// Al terminar la escritura bloqueada, el hilo de envío cierra el emisor
+		desbloquear.countDown();
+		assertTrue(lento.terminado.await(5, TimeUnit.SECONDS));
+		assertEquals(1, lento.enviados.size());
+	}
+
+	@Test
+	void idAnteriorAlReinicioPideResincronizar() throws Exception {
+		centro.suscribir(EventoNotificacion.canalUsuario("u1"), "1");
+		EmisorPrueba emisor = emisores.get(0);
+
+		assertTrue(emisor.recibido.await(5, TimeUnit.SECONDS));
+		assertTrue(emisor.enviados.get(0).contains("event:" + CentroNotificacionesServicio.RESINCRONIZAR));
+	}
+
+	@Test
+	void idDeEstaInstanciaReenviaLoQueFalta() throws Exception {
+		centro.publicar(EventoNotificacion.paraUsuario("u1", EventoNotificacion.PAGOS, Map.of()));
+		centro.suscribir(EventoNotificacion.canalUsuario("u1"), null);
+		EmisorPrueba primero = emisores.get(0);
+		centro.publicar(EventoNotificacion.paraUsuario("u1", EventoNotificacion.ALQUILER, Map.of()));
+		assertTrue(primero.recibido.await(5, TimeUnit.SECONDS));
+		String ultimoId = primero.enviados.get(0).split("\n")[0].substring("id:".length());
+
+		centro.publicar(EventoNotificacion.paraUsuario("u1", EventoNotificacion.PEDIDOS, Map.of()));
+		centro.suscribir(EventoNotificacion.canalUsuario("u1"), ultimoId);
+		EmisorPrueba segundo = emisores.get(1);
+
+		assertTrue(segundo.recibido.await(5, TimeUnit.SECONDS));
+		assertTrue(segundo.enviados.get(0).contains("event:" + EventoNotificacion.PEDIDOS));
+	}
+
+	/**
+	 * Emisor que guarda el texto de cada evento; si tiene un cerrojo, el envío espera a que se abra
+	 */
+	private static class EmisorPrueba extends SseEmitter {
+		private final CountDownLatch bloqueo;
+		private final List<String> enviados = new CopyOnWriteArrayList<>();
+		private final CountDownLatch enEnvio = new CountDownLatch(1);
+		private final CountDownLatch recibido = new CountDownLatch(1);
+		private final CountDownLatch terminado = new CountDownLatch(1);
+
+		EmisorPrueba(CountDownLatch bloqueo) {
+			this.bloqueo = bloqueo;
+		}
+
+		@Override
+		public void send(SseEventBuilder evento) throws IOException {
+			enEnvio.countDown();
+			if (bloqueo != null) {
+				try {
+					bloqueo.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			StringBuilder texto = new StringBuilder();
+			for (ResponseBodyEmitter.DataWithMediaType parte : evento.build()) {
+				if (parte.getData() instanceof String cadena) {
+					texto.append(cadena);
+				}
+			}
+			enviados.add(texto.toString());
+			recibido.countDown();
+		}
+
+		@Override
+		public void completeWithError(Throwable error) {
+			terminado.countDown();
+		}
+
+		@Override
+		public void complete() {
+			terminado.countDown();
+		}
+	}
+}
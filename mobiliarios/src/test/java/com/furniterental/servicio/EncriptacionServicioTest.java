@@ -0,0 +1,109 @@
+package com.furniterental.servicio;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+/**
+ * Clave derivada una vez y cifradores por hilo: el formato (IV + datos en Base64) no cambia, así
+ * que las tarjetas ya guardadas se siguen desencriptando.
+ */
+class EncriptacionServicioTest {
+
+	private static final String SECRETO = "FURENT-SECRET-KEY-2024-CHANGE-IN-PRODUCTION-32CHARS";
+
+	private EncriptacionServicio servicio;
+
+	@BeforeEach
+	void iniciar() {
+		servicio = new EncriptacionServicio();
+		ReflectionTestUtils.setField(servicio, "secretKeyString", SECRETO);
+		servicio.iniciar();
+	}
+
+	@Test
+	void desencriptaTextosGuardadosConElFormatoAnterior() throws Exception {
+		// Mismo procedimiento que la versión anterior: Cipher nuevo y ByteBuffer IV + datos
+		byte[] claveBytes = new byte[32];
+		byte[] secreto = SECRETO.getBytes(StandardCharsets.UTF_8);
+		System.arraycopy(secreto, 0, claveBytes, 0, Math.min(secreto.length, 32));
+		byte[] iv = new byte[12];
+		iv[0] = 7;
+		Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+		cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(claveBytes, "AES"), new GCMParameterSpec(128, iv));
+		byte[] datos = cipher.doFinal("4111111111111111".getBytes(StandardCharsets.UTF_8));
+		String anterior = Base64.getEncoder().encodeToString(
+				ByteBuffer.allocate(iv.length + datos.length).put(iv).put(datos).array());
+
+		assertEquals("4111111111111111", servicio.desencriptar(anterior));
+	}
+
+	@Test
+	void cadaEncriptacionUsaUnIvDistinto() throws Exception {
+		String a = servicio.encriptar("123");
+		String b = servicio.encriptar("123");
+
+		assertNotEquals(a, b);
+		assertEquals("123", servicio.desencriptar(a));
+		assertEquals("123", servicio.desencriptar(b));
+	}
+
+	@Test
+	void loteConservaElOrden() throws Exception {
+		List<String> encriptados = servicio.encriptarTodos(List.of("4111111111111111", "123", "Titular"));
+
+		assertEquals(List.of("4111111111111111", "123", "Titular"), servicio.desencriptarTodos(encriptados));
+	}
+
+	@Test
+	void unTextoManipuladoNoDejaElCifradorDelHiloInservible() throws Exception {
+		byte[] datos = Base64.getDecoder().decode(servicio.encriptar("4111111111111111"));
+		datos[datos.length - 1] ^= 1;
+
+		assertFalse(servicio.validarIntegridad(Base64.getEncoder().encodeToString(datos)));
+		assertEquals("123", servicio.desencriptar(servicio.encriptar("123")));
+	}
+
+	@Test
+	void laHuellaIdentificaLaTarjetaSinImportarElFormato() {
+		String huella = servicio.calcularHuella("4111111111111111");
+
+		assertEquals(huella, servicio.calcularHuella("4111 1111 1111 1111"));
+		assertEquals(huella, servicio.calcularHuella("4111-1111-1111-1111"));
+		// Mismos últimos 4 dígitos, otra tarjeta
+		assertNotEquals(huella, servicio.calcularHuella("5500000000001111"));
+	}
+
+	@Test
+	void variosHilosEncriptanALaVez() throws Exception {
+		ExecutorService hilos = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<String>> resultados = new ArrayList<>();
+			for (int i = 0; i < 400; i++) {
+				String texto = "tarjeta-" + i;
+				resultados.add(hilos.submit(() -> servicio.desencriptar(servicio.encriptar(texto))));
+			}
+			for (int i = 0; i < resultados.size(); i++) {
+				assertEquals("tarjeta-" + i, resultados.get(i).get());
+			}
+		} finally {
+			hilos.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,98 @@
+package com.furniterental.servicio;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Árbol de segmentos de reservas por día: sumas por rango, máximos y los bordes de los segmentos.
+ */
+class LineaTiempoReservasTest {
+
+	private static final LocalDate DIA_MINIMO = LocalDate.of(2000, 1, 1);
+	private static final LocalDate DIA_MAXIMO = LocalDate.of(2199, 12, 31);
+
+	private final LineaTiempoReservas linea = new LineaTiempoReservas();
+
+	@Test
+	void rangosQueSeCruzanSumanSoloEnLosDiasComunes() {
+		linea.sumar(dia(1), dia(10), 2);
+		linea.sumar(dia(5), dia(15), 3);
+
+		assertEquals(2, linea.maximo(dia(1), dia(4)));
+		assertEquals(5, linea.maximo(dia(5), dia(10)));
+		assertEquals(3, linea.maximo(dia(11), dia(15)));
+		assertEquals(0, linea.maximo(dia(16), dia(20)));
+		assertEquals(5, linea.maximo(dia(1), dia(20)));
+		assertEquals(5, linea.maximo(dia(10), dia(10)));
+	}
+
+	@Test
+	void liberarRestaConCantidadNegativa() {
+		linea.sumar(dia(1), dia(10), 2);
+		linea.sumar(dia(5), dia(15), 3);
+
+		linea.sumar(dia(5), dia(15), -3);
+		assertEquals(2, linea.maximo(dia(1), dia(20)));
+		assertEquals(0, linea.maximo(dia(11), dia(15)));
+
+		linea.sumar(dia(1), dia(10), -2);
+		assertEquals(0, linea.maximo(dia(1), dia(20)));
+	}
+
+	@Test
+	void unaReservaDentroDeOtraYaLiberadaNoDejaRestos() {
+		linea.sumar(dia(1), dia(30), 1);
+		linea.sumar(dia(10), dia(12), 4);
+		linea.sumar(dia(1), dia(30), -1);
+
+		assertEquals(0, linea.maximo(dia(1), dia(9)));
+		assertEquals(4, linea.maximo(dia(1), dia(30)));
+		assertEquals(0, linea.maximo(dia(13), dia(30)));
+	}
+
+	@Test
+	void bordesEntreLasMitadesDelArbol() {
+		// Día en que la raíz se divide: [mínimo, medio] y [medio + 1, máximo]
+		long medio = (DIA_MINIMO.toEpochDay() + DIA_MAXIMO.toEpochDay()) >>> 1;
+		LocalDate izquierdo = LocalDate.ofEpochDay(medio);
+		LocalDate derecho = izquierdo.plusDays(1);
+
+		linea.sumar(izquierdo, izquierdo, 1);
+		assertEquals(1, linea.maximo(izquierdo, izquierdo));
+		assertEquals(0, linea.maximo(derecho, derecho));
+		assertEquals(1, linea.maximo(izquierdo, derecho));
+
+		linea.sumar(derecho, derecho, 2);
+		assertEquals(1, linea.maximo(izquierdo, izquierdo));
+		assertEquals(2, linea.maximo(derecho, derecho));
+		assertEquals(2, linea.maximo(izquierdo.minusDays(3), derecho.plusDays(3)));
+
+		// Un rango que cruza el medio se reparte entre las dos mitades
+		linea.sumar(izquierdo.minusDays(1), derecho.plusDays(1), 5);
+		assertEquals(6, linea.maximo(izquierdo, izquierdo));
+		assertEquals(7, linea.maximo(derecho, derecho));
+		assertEquals(5, linea.maximo(derecho.plusDays(1), derecho.plusDays(1)));
+		assertEquals(0, linea.maximo(derecho.plusDays(2), derecho.plusDays(10)));
+	}
+
+	@Test
+	void lasFechasFueraDelCalendarioSeAjustanASusExtremos() {
+		linea.sumar(LocalDate.of(1990, 6, 1), DIA_MINIMO.plusDays(2), 1);
+		linea.sumar(DIA_MAXIMO.minusDays(1), LocalDate.of(2300, 1, 1), 3);
+
+		// Antes del mínimo cuenta como el primer día, después del máximo como el último
+		assertEquals(1, linea.maximo(LocalDate.of(1995, 1, 1), LocalDate.of(1995, 1, 1)));
+		assertEquals(1, linea.maximo(DIA_MINIMO, DIA_MINIMO));
+		assertEquals(0, linea.maximo(DIA_MINIMO.plusDays(3), DIA_MINIMO.plusDays(3)));
+		assertEquals(3, linea.maximo(LocalDate.of(2250, 1, 1), LocalDate.of(2250, 1, 1)));
+		assertEquals(3, linea.maximo(DIA_MAXIMO, DIA_MAXIMO));
+		assertEquals(0, linea.maximo(DIA_MAXIMO.minusDays(2), DIA_MAXIMO.minusDays(2)));
+	}
+
+	private static LocalDate dia(int dia) {
+		return LocalDate.of(2030, 3, 1).plusDays(dia - 1);
+	}
+}
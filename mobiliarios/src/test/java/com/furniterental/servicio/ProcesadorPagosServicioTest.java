@@ -0,0 +1,217 @@
+package com.furniterental.servicio;
+
+import com.furniterental.dto.ReembolsoPago;
+import com.furniterental.dto.ResultadoPasarela;
+import com.furniterental.dto.SolicitudCobro;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Flujo autorizar -> capturar del procesador de pagos con una pasarela controlada por la prueba
+ * (no necesita base de datos).
+ */
+class ProcesadorPagosServicioTest {
+
+	private final PasarelaControlada pasarela = new PasarelaControlada();
+	private final List<Object> eventos = new CopyOnWriteArrayList<>();
+	private ProcesadorPagosServicio procesador;
+
+	@AfterEach
+	void detener() {
+		pasarela.liberar.countDown();
+		pasarela.liberarCaptura.countDown();
+		procesador.detener();
+	}
+
+	@Test
+	void cobroAprobadoSeAutorizaCapturaYRegistra() throws Exception {
+		iniciar(2, 10, 2000);
+
+		ResultadoPasarela resultado = cobrar("alquiler-1:PARCIAL").get(5, TimeUnit.SECONDS);
+
+		assertTrue(resultado.isAprobado());
+		assertTrue(resultado.getNumeroTransaccion().startsWith("TXN-"));
+		assertEquals(List.of("autorizar", "capturar"), pasarela.llamadas);
+	}
+
+	@Test
+	void autorizacionLentaAgotaElTiempoYSeAnulaAlLlegar() throws Exception {
+		iniciar(2, 10, 100);
+		pasarela.bloquear = true;
+
+		ResultadoPasarela resultado = cobrar("alquiler-1:PARCIAL").get(5, TimeUnit.SECONDS);
+		assertEquals(ResultadoPasarela.TIEMPO_AGOTADO, resultado.getEstado());
+
+		// La pasarela responde después del límite: la autorización no debe quedar retenida
+		pasarela.liberar.countDown();
+		assertTrue(pasarela.anulada.await(5, TimeUnit.SECONDS));
+		assertTrue(!pasarela.llamadas.contains("capturar"));
+	}
+
+	@Test
+	void colaLlenaRespondeOcupadoSinEsperar() throws Exception {
+		iniciar(1, 1, 5000);
+		pasarela.bloquear = true;
+
+		// Uno ocupa el hilo y otro la cola; el tercero se rechaza en el acto
+		CompletableFuture<ResultadoPasarela> primero = cobrar("alquiler-1:PARCIAL");
+		assertTrue(pasarela.enAutorizacion.await(5, TimeUnit.SECONDS));
+		CompletableFuture<ResultadoPasarela> segundo = cobrar("alquiler-2:PARCIAL");
+		ResultadoPasarela tercero = cobrar("alquiler-3:PARCIAL").get(1, TimeUnit.SECONDS);
+
+		assertEquals(ResultadoPasarela.OCUPADO, tercero.getEstado());
+		assertTrue(tercero.isReintentable());
+
+		pasarela.liberar.countDown();
+		assertTrue(primero.get(5, TimeUnit.SECONDS).isAprobado());
+		assertTrue(segundo.get(5, TimeUnit.SECONDS).isAprobado());
+	}
+
+	@Test
+	void unAlquilerNoTieneDosCobrosDelMismoTipoALaVez() throws Exception {
+		iniciar(2, 10, 5000);
+		pasarela.bloquear = true;
+
+		CompletableFuture<ResultadoPasarela> primero = cobrar("alquiler-1:FINAL");
+		ResultadoPasarela repetido = cobrar("alquiler-1:FINAL").get(1, TimeUnit.SECONDS);
+		assertEquals(ResultadoPasarela.OCUPADO, repetido.getEstado());
+
+		pasarela.liberar.countDown();
+		assertTrue(primero.get(5, TimeUnit.SECONDS).isAprobado());
+	}
+
+	@Test
+	void capturaQueLlegaDespuesDelLimiteSeReembolsa() throws Exception {
+		iniciar(2, 10, 100);
+		pasarela.bloquearCaptura = true;
+
+		ResultadoPasarela resultado = cobrar("alquiler-1:PARCIAL").get(5, TimeUnit.SECONDS);
+		assertEquals(ResultadoPasarela.PENDIENTE_CONFIRMACION, resultado.getEstado());
+
+		// Mientras la captura no responda, el mismo cobro no puede volver a intentarse
+		assertEquals(ResultadoPasarela.OCUPADO, cobrar("alquiler-1:PARCIAL").get(1, TimeUnit.SECONDS).getEstado());
+
+		// La captura termina cobrándose: se reembolsa en vez de anular la autorización
+		pasarela.liberarCaptura.countDown();
+		assertTrue(pasarela.reembolsada.await(5, TimeUnit.SECONDS));
+		assertFalse(pasarela.llamadas.contains("anular"));
+
+		// Resuelta la captura tardía, el usuario puede reintentar
+		pasarela.bloquearCaptura = false;
+		assertTrue(esperarAprobado("alquiler-1:PARCIAL"));
+	}
+
+	@Test
+	void cobroCapturadoQueNoSePuedeRegistrarSeReembolsa() throws Exception {
+		iniciar(2, 10, 2000);
+
+		SolicitudCobro solicitud = new SolicitudCobro("alquiler-1:FINAL", "usuario-1", 50.0, "4111111111111111", "Titular Prueba");
+		CompletableFuture<ResultadoPasarela> resultado = procesador.cobrar("alquiler-1:FINAL", solicitud, cobro -> {
+			throw new IllegalStateException("El alquiler ya no admite este pago");
+		});
+
+		ExecutionException error = assertThrows(ExecutionException.class, () -> resultado.get(5, TimeUnit.SECONDS));
+		assertTrue(error.getCause() instanceof IllegalStateException);
+		assertTrue(pasarela.reembolsada.await(5, TimeUnit.SECONDS));
+		assertEquals(List.of("autorizar", "capturar", "reembolsar"), pasarela.llamadas);
+
+		// El reembolso aprobado se publica para que el libro de pagos no confirme el asiento
+		for (int intento = 0; intento < 50 && eventos.isEmpty(); intento++) {
+			Thread.sleep(20);
+		}
+		assertEquals(1, eventos.size());
+		assertEquals("TXN-AUT-alquiler-1:FINAL", ((ReembolsoPago) eventos.get(0)).getNumeroTransaccion());
+	}
+
+	private boolean esperarAprobado(String clave) throws Exception {
+		for (int intento = 0; intento < 50; intento++) {
+			if (cobrar(clave).get(5, TimeUnit.SECONDS).isAprobado()) {
+				return true;
+			}
+			Thread.sleep(20);
+		}
+		return false;
+	}
+
+	private void iniciar(int hilos, int capacidadCola, long timeoutMs) {
+		procesador = new ProcesadorPagosServicio();
+		ReflectionTestUtils.setField(procesador, "pasarelaPago", pasarela);
+		ReflectionTestUtils.setField(procesador, "eventPublisher", (ApplicationEventPublisher) eventos::add);
+		ReflectionTestUtils.setField(procesador, "hilos", hilos);
+		ReflectionTestUtils.setField(procesador, "capacidadCola", capacidadCola);
+		ReflectionTestUtils.setField(procesador, "timeoutAutorizacionMs", timeoutMs);
+		ReflectionTestUtils.setField(procesador, "timeoutCapturaMs", timeoutMs);
+		procesador.iniciar();
+	}
+
+	private CompletableFuture<ResultadoPasarela> cobrar(String clave) {
+		SolicitudCobro solicitud = new SolicitudCobro(clave, "usuario-1", 50.0, "4111111111111111", "Titular Prueba");
+		return procesador.cobrar(clave, solicitud, Function.identity());
+	}
+
+	private static class PasarelaControlada implements PasarelaPago {
+		private final List<String> llamadas = new CopyOnWriteArrayList<>();
+		private final CountDownLatch liberar = new CountDownLatch(1);
+		private final CountDownLatch enAutorizacion = new CountDownLatch(1);
+		private final CountDownLatch anulada = new CountDownLatch(1);
+		private final CountDownLatch liberarCaptura = new CountDownLatch(1);
+		private final CountDownLatch reembolsada = new CountDownLatch(1);
+		private volatile boolean bloquear;
+		private volatile boolean bloquearCaptura;
+
+		@Override
+		public ResultadoPasarela autorizar(SolicitudCobro solicitud) {
+			llamadas.add("autorizar");
+			enAutorizacion.countDown();
+			if (bloquear) {
+				try {
+					liberar.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			return ResultadoPasarela.aprobado("AUT-" + solicitud.getReferencia(), null);
+		}
+
+		@Override
+		public ResultadoPasarela capturar(String autorizacionId, double monto) {
+			llamadas.add("capturar");
+			if (bloquearCaptura) {
+				try {
+					liberarCaptura.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			return ResultadoPasarela.aprobado(autorizacionId, "TXN-" + autorizacionId);
+		}
+
+		@Override
+		public void anular(String autorizacionId) {
+			llamadas.add("anular");
+			anulada.countDown();
+		}
+
+		@Override
+		public ResultadoPasarela reembolsar(String numeroTransaccion, double monto) {
+			llamadas.add("reembolsar");
+			reembolsada.countDown();
+			return ResultadoPasarela.aprobado(null, numeroTransaccion);
+		}
+	}
+}
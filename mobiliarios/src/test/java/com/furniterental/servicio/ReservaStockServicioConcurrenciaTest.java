@@ -0,0 +1,268 @@
+package com.furniterental.servicio;
+
+import com.furniterental.modelo.ItemCarrito;
+import com.furniterental.modelo.Producto;
+import com.furniterental.servicio.ReservaStockServicio.ResultadoReserva;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Reservas y liberaciones concurrentes del índice en memoria. La ocupación en la base de datos
+ * se reemplaza por una en memoria que escribe igual que ella: cada producto y día por separado,
+ * con un incremento condicionado al stock, y deshaciendo lo reservado si alguno no alcanza. Así
+ * se ejercita la reserva atómica con compensación sin necesitar base de datos.
+ */
+class ReservaStockServicioConcurrenciaTest {
+
+	private static final LocalDate DESDE = LocalDate.of(2030, 3, 10);
+	private static final LocalDate HASTA = LocalDate.of(2030, 3, 12);
+
+	private final OcupacionEnMemoria ocupacion = new OcupacionEnMemoria();
+	private ReservaStockServicio servicio;
+	private ExecutorService hilos;
+
+	@BeforeEach
+	void iniciar() {
+		servicio = new ReservaStockServicio();
+		ReflectionTestUtils.setField(servicio, "ocupacionDiariaServicio", ocupacion);
+		hilos = Executors.newFixedThreadPool(32);
+	}
+
+	@AfterEach
+	void detener() {
+		hilos.shutdownNow();
+	}
+
+	@Test
+	void comprasSimultaneasNoPasanDelStock() throws Exception {
+		producto("silla", 50);
+
+		List<Future<Boolean>> resultados = new ArrayList<>();
+		CountDownLatch salida = new CountDownLatch(1);
+		for (int i = 0; i < 300; i++) {
+			String alquilerId = "alquiler-" + i;
+			resultados.add(hilos.submit(() -> {
+				salida.await();
+				return servicio.reservar(alquilerId, List.of(item("silla", 1)), DESDE, HASTA).isExitosa();
+			}));
+		}
+		salida.countDown();
+
+		int exitosas = 0;
+		for (Future<Boolean> resultado : resultados) {
+			if (resultado.get(10, TimeUnit.SECONDS)) {
+				exitosas++;
+			}
+		}
+		assertEquals(50, exitosas);
+		assertEquals(0, servicio.disponible("silla", DESDE, HASTA));
+		assertEquals(50, ocupacion.maximo("silla"));
+	}
+
+	@Test
+	void unaCompraFallidaDevuelveLoReservadoDeLosOtrosProductos() throws Exception {
+		// Cada compra lleva las dos cosas; la mesa se agota primero y las sillas no deben perderse
+		producto("mesa", 50);
+		producto("silla", 1000);
+
+		List<Future<Boolean>> resultados = new ArrayList<>();
+		CountDownLatch salida = new CountDownLatch(1);
+		for (int i = 0; i < 400; i++) {
+			String alquilerId = "alquiler-" + i;
+			resultados.add(hilos.submit(() -> {
+				salida.await();
+				return servicio.reservar(alquilerId, List.of(item("silla", 4), item("mesa", 1)), DESDE, HASTA).isExitosa();
+			}));
+		}
+		salida.countDown();
+
+		int exitosas = 0;
+		for (Future<Boolean> resultado : resultados) {
+			if (resultado.get(10, TimeUnit.SECONDS)) {
+				exitosas++;
+			}
+		}
+		assertEquals(50, exitosas);
+		assertEquals(0, servicio.disponible("mesa", DESDE, HASTA));
+		assertEquals(1000 - 50 * 4, servicio.disponible("silla", DESDE, HASTA));
+		assertEquals(50, ocupacion.maximo("mesa"));
+		assertEquals(50 * 4, ocupacion.maximo("silla"));
+	}
+
+	@Test
+	void reservarYLiberarALaVezDejaElStockCompleto() throws Exception {
+		producto("mesa", 10);
+
+		List<Future<?>> tareas = new ArrayList<>();
+		for (int i = 0; i < 400; i++) {
+			String alquilerId = "alquiler-" + i;
+			tareas.add(hilos.submit(() -> {
+				ResultadoReserva reserva = servicio.reservar(alquilerId, List.of(item("mesa", 2)), DESDE, HASTA);
+				if (reserva.isExitosa()) {
+					assertTrue(servicio.liberar(alquilerId));
+					// Liberar dos veces no devuelve unidades de más
+					assertFalse(servicio.liberar(alquilerId));
+				}
+				return null;
+			}));
+		}
+		for (Future<?> tarea : tareas) {
+			tarea.get(10, TimeUnit.SECONDS);
+		}
+
+		assertEquals(10, servicio.disponible("mesa", DESDE, HASTA));
+		assertEquals(0, ocupacion.maximo("mesa"));
+	}
+
+	@Test
+	void laBaseDeDatosRechazaLoQueOtraInstanciaYaReservo() {
+		producto("sofa", 5);
+		// Otra instancia reservó 4 unidades que este índice no conoce
+		ocupacion.reservar("otra-instancia", Map.of("sofa", 4), DESDE, HASTA);
+
+		ResultadoReserva reserva = servicio.reservar("alquiler-1", List.of(item("sofa", 2)), DESDE, HASTA);
+
+		assertFalse(reserva.isExitosa());
+		assertEquals(1, reserva.getDisponible());
+		// El índice no registró nada: la liberación no tiene efecto
+		assertEquals(5, servicio.disponible("sofa", DESDE, HASTA));
+		assertFalse(servicio.liberar("alquiler-1"));
+	}
+
+	@Test
+	void unaReservaFallidaNoOcupaLosDemasProductos() {
+		producto("silla", 10);
+		producto("mesa", 1);
+
+		assertTrue(servicio.reservar("alquiler-1", List.of(item("mesa", 1)), DESDE, HASTA).isExitosa());
+		ResultadoReserva reserva = servicio.reservar("alquiler-2", List.of(item("silla", 4), item("mesa", 1)), DESDE, HASTA);
+
+		assertFalse(reserva.isExitosa());
+		assertEquals("mesa", reserva.getProductoId());
+		assertEquals(10, servicio.disponible("silla", DESDE, HASTA));
+		assertEquals(0, ocupacion.maximo("silla"));
+	}
+
+	private void producto(String id, int stock) {
+		Producto producto = new Producto();
+		producto.setId(id);
+		producto.setStock(stock);
+		servicio.actualizarProducto(producto);
+		ocupacion.stock.put(id, stock);
+	}
+
+	private static ItemCarrito item(String productoId, int cantidad) {
+		return new ItemCarrito(productoId, productoId, null, 10.0, 0L, cantidad, 1);
+	}
+
+	/**
+	 * Escribe como la ocupación por día en la base de datos: un documento por producto y día,
+	 * cada uno con su incremento condicionado, y si alguno no alcanza se libera lo reservado
+	 */
+	private static class OcupacionEnMemoria extends OcupacionDiariaServicio {
+		private final Map<String, Integer> stock = new ConcurrentHashMap<>();
+		private final Map<String, Dia> dias = new ConcurrentHashMap<>();
+
+		@Override
+		public String reservar(String alquilerId, Map<String, Integer> cantidades, LocalDate desde, LocalDate hasta) {
+			boolean completa = true;
+			for (Map.Entry<String, Integer> entrada : cantidades.entrySet()) {
+				int limite = stock.getOrDefault(entrada.getKey(), 0) - entrada.getValue();
+				for (LocalDate dia = desde; !dia.isAfter(hasta); dia = dia.plusDays(1)) {
+					if (!dia(entrada.getKey(), dia).sumar(alquilerId, entrada.getValue(), limite)) {
+						completa = false;
+					}
+				}
+			}
+			if (completa) {
+				return null;
+			}
+
+			liberar(alquilerId);
+			for (Map.Entry<String, Integer> entrada : cantidades.entrySet()) {
+				if (disponible(entrada.getKey(), desde, hasta) < entrada.getValue()) {
+					return entrada.getKey();
+				}
+			}
+			return cantidades.keySet().iterator().next();
+		}
+
+		@Override
+		public boolean liberar(String alquilerId) {
+			boolean liberado = false;
+			for (Dia dia : dias.values()) {
+				liberado |= dia.quitar(alquilerId);
+			}
+			return liberado;
+		}
+
+		@Override
+		public int disponible(String productoId, LocalDate desde, LocalDate hasta) {
+			return stock.getOrDefault(productoId, 0) - maximo(productoId, desde, hasta);
+		}
+
+		int maximo(String productoId) {
+			return maximo(productoId, DESDE, HASTA);
+		}
+
+		private int maximo(String productoId, LocalDate desde, LocalDate hasta) {
+			int maximo = 0;
+			for (LocalDate dia = desde; !dia.isAfter(hasta); dia = dia.plusDays(1)) {
+				maximo = Math.max(maximo, dia(productoId, dia).reservado());
+			}
+			return maximo;
+		}
+
+		private Dia dia(String productoId, LocalDate dia) {
+			return dias.computeIfAbsent(productoId + "_" + dia, id -> new Dia());
+		}
+	}
+
+	/**
+	 * Un documento de ocupación: cada actualización es atómica, como un updateOne
+	 */
+	private static class Dia {
+		private final Map<String, Integer> reservas = new HashMap<>();
+		private int reservado;
+
+		synchronized boolean sumar(String alquilerId, int cantidad, int limite) {
+			if (reservas.containsKey(alquilerId) || reservado > limite) {
+				return false;
+			}
+			reservado += cantidad;
+			reservas.put(alquilerId, cantidad);
+			return true;
+		}
+
+		synchronized boolean quitar(String alquilerId) {
+			Integer cantidad = reservas.remove(alquilerId);
+			if (cantidad == null) {
+				return false;
+			}
+			reservado -= cantidad;
+			return true;
+		}
+
+		synchronized int reservado() {
+			return reservado;
+		}
+	}
+}
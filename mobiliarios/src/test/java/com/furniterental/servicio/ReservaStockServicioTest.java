@@ -0,0 +1,188 @@
+package com.furniterental.servicio;
+
+import com.furniterental.modelo.Alquiler;
+import com.furniterental.modelo.ItemCarrito;
+import com.furniterental.modelo.Producto;
+import com.furniterental.repositorio.AlquilerRepositorio;
+import com.furniterental.repositorio.ProductoRepositorio;
+import com.furniterental.servicio.ReservaStockServicio.ResultadoReserva;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Reservas concurrentes y por fechas. Necesita una base de datos real (el stock de los productos
+ * de prueba llega al índice al guardarlos): se ejecuta solo si MONGODB_URI está definida.
+ */
+@SpringBootTest
+@EnabledIfEnvironmentVariable(named = "MONGODB_URI", matches = ".+")
+class ReservaStockServicioTest {
+
+	private static final int COMPRAS = 400;
+	private static final int HILOS = 64;
+
+	@Autowired
+	private ReservaStockServicio reservaStockServicio;
+
+	@Autowired
+	private ProductoRepositorio productoRepositorio;
+
+	@Autowired
+	private AlquilerRepositorio alquilerRepositorio;
+
+	private static final LocalDate DESDE = LocalDate.of(2030, 3, 10);
+	private static final LocalDate HASTA = LocalDate.of(2030, 3, 12);
+
+	private final List<String> productosCreados = new ArrayList<>();
+	private final List<String> reservasCreadas = new ArrayList<>();
+	private final List<String> alquileresCreados = new ArrayList<>();
+
+	@AfterEach
+	void limpiar() {
+		reservasCreadas.forEach(reservaStockServicio::liberar);
+		reservasCreadas.clear();
+		alquilerRepositorio.deleteAllById(alquileresCreados);
+		alquileresCreados.clear();
+		productoRepositorio.deleteAllById(productosCreados);
+		productosCreados.clear();
+	}
+
+	@Test
+	void noSeVendeMasStockDelDisponible() throws Exception {
+		Producto producto = crearProducto("Silla prueba concurrencia", 100);
+
+		int exitosas = ejecutarEnParalelo(() -> reservar(DESDE, HASTA, item(producto, 1)));
+
+		assertEquals(100, exitosas);
+		assertEquals(0, reservaStockServicio.disponible(producto.getId(), DESDE, HASTA));
+	}
+
+	@Test
+	void unaReservaFallidaDevuelveLoDescontadoAOtrosProductos() throws Exception {
+		// Cada compra lleva las dos cosas; la mesa se agota primero y las sillas no deben perderse
+		Producto mesa = crearProducto("Mesa prueba concurrencia", 50);
+		Producto silla = crearProducto("Silla prueba compensación", 1000);
+
+		int exitosas = ejecutarEnParalelo(() -> reservar(DESDE, HASTA, item(silla, 4), item(mesa, 1)));
+
+		assertEquals(50, exitosas);
+		assertEquals(0, reservaStockServicio.disponible(mesa.getId(), DESDE, HASTA));
+		assertEquals(1000 - 50 * 4, reservaStockServicio.disponible(silla.getId(), DESDE, HASTA));
+	}
+
+	@Test
+	void alquileresQueNoSeCruzanCompartenUnidades() {
+		Producto producto = crearProducto("Sillón prueba fechas", 5);
+
+		assertTrue(reservar(DESDE, HASTA, item(producto, 5)).isExitosa());
+		// Empieza el día siguiente a la devolución
+		assertTrue(reservar(HASTA.plusDays(1), HASTA.plusDays(3), item(producto, 5)).isExitosa());
+		// Se cruza con la primera en el último día
+		assertFalse(reservar(HASTA, HASTA.plusDays(1), item(producto, 1)).isExitosa());
+
+		assertEquals(5, reservaStockServicio.disponible(producto.getId(), DESDE.minusDays(5), DESDE.minusDays(1)));
+		assertEquals(0, reservaStockServicio.disponible(producto.getId(), DESDE.minusDays(5), DESDE));
+	}
+
+	@Test
+	void elInventarioDeUnAlquilerSeDevuelveUnaSolaVez() throws Exception {
+		Producto producto = crearProducto("Mesa prueba devolución", 3);
+		Alquiler alquiler = new Alquiler();
+		alquiler.setItems(List.of(item(producto, 3)));
+		alquiler.setFechaInicio(DESDE.atStartOfDay());
+		alquiler.setFechaFin(HASTA.atTime(18, 0));
+		alquiler = alquilerRepositorio.save(alquiler);
+		alquileresCreados.add(alquiler.getId());
+		assertEquals(0, reservaStockServicio.disponible(producto.getId(), DESDE, HASTA));
+
+		alquiler.setEstado("CANCELADO");
+		alquilerRepositorio.save(alquiler);
+
+		// Dos cancelaciones simultáneas: solo una devuelve
+		String alquilerId = alquiler.getId();
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Boolean>> resultados = new ArrayList<>();
+			for (int i = 0; i < 8; i++) {
+				resultados.add(executor.submit(() -> reservaStockServicio.devolverInventario(alquilerId).isDevuelto()));
+			}
+			int devueltos = 0;
+			for (Future<Boolean> resultado : resultados) {
+				if (resultado.get(60, TimeUnit.SECONDS)) {
+					devueltos++;
+				}
+			}
+			assertEquals(1, devueltos);
+		} finally {
+			executor.shutdown();
+		}
+
+		assertEquals(3, reservaStockServicio.disponible(producto.getId(), DESDE, HASTA));
+		assertTrue(alquilerRepositorio.findById(alquilerId).orElseThrow().getInventarioDevuelto());
+	}
+
+	private int ejecutarEnParalelo(Callable<ResultadoReserva> compra) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(HILOS);
+		CountDownLatch salida = new CountDownLatch(1);
+		try {
+			List<Future<ResultadoReserva>> resultados = new ArrayList<>();
+			for (int i = 0; i < COMPRAS; i++) {
+				resultados.add(executor.submit(() -> {
+					salida.await();
+					return compra.call();
+				}));
+			}
+			salida.countDown();
+
+			int exitosas = 0;
+			for (Future<ResultadoReserva> resultado : resultados) {
+				if (resultado.get(60, TimeUnit.SECONDS).isExitosa()) {
+					exitosas++;
+				}
+			}
+			return exitosas;
+		} finally {
+			executor.shutdown();
+			assertTrue(executor.awaitTermination(60, TimeUnit.SECONDS));
+		}
+	}
+
+	private Producto crearProducto(String nombre, int stock) {
+		Producto producto = productoRepositorio.save(new Producto(nombre, "Producto de prueba", 1000.0, null, null, stock));
+		productosCreados.add(producto.getId());
+		return producto;
+	}
+
+	private ResultadoReserva reservar(LocalDate desde, LocalDate hasta, ItemCarrito... items) {
+		String alquilerId = UUID.randomUUID().toString();
+		ResultadoReserva resultado = reservaStockServicio.reservar(alquilerId, List.of(items), desde, hasta);
+		if (resultado.isExitosa()) {
+			synchronized (reservasCreadas) {
+				reservasCreadas.add(alquilerId);
+			}
+		}
+		return resultado;
+	}
+
+	private ItemCarrito item(Producto producto, int cantidad) {
+		return new ItemCarrito(producto.getId(), producto.getNombreProducto(), null,
+				producto.getPrecioProducto(), producto.getVersion(), cantidad, 1);
+	}
+}